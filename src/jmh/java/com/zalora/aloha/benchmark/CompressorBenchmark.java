@@ -0,0 +1,107 @@
+package com.zalora.aloha.benchmark;
+
+import com.zalora.aloha.compressor.*;
+import com.zalora.aloha.memcached.MemcachedItem;
+import java.nio.ByteBuffer;
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.*;
+
+/**
+ * Throughput of the compressors used on the read-through path, for the item and the direct buffer API
+ * Run with -prof gc to get the allocation rate, the compression ratio is printed after each trial
+ *
+ * @author Wolfram Huesken <wolfram.huesken@zalora.com>
+ */
+@Fork(1)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@State(Scope.Thread)
+public class CompressorBenchmark {
+
+    private static final String KEY = "catalog:product:list:women:dresses";
+
+    @Param({"com.zalora.aloha.compressor.Lz4", "com.zalora.aloha.compressor.NoCompressor"})
+    private String compressorClass;
+
+    @Param({"STRING", "PHP_SERIALIZED", "JSON", "BINARY"})
+    private Payload payload;
+
+    @Param({"100", "2048", "16384", "262144", "4194304"})
+    private int size;
+
+    private Compressor compressor;
+
+    private MemcachedItem original;
+    private MemcachedItem compressed;
+
+    private ByteBuffer originalBuffer;
+    private ByteBuffer compressedBuffer;
+    private ByteBuffer targetBuffer;
+
+    @Setup(Level.Trial)
+    public void setUp() throws Exception {
+        compressor = (Compressor) Class.forName(compressorClass).newInstance();
+        original = payload.item(KEY, size);
+
+        compressed = copy(original);
+        compressor.beforePut(compressed);
+
+        originalBuffer = direct(original.getData());
+        compressedBuffer = direct(compressed.getData());
+        targetBuffer = ByteBuffer.allocateDirect(Math.max(compressor.maxCompressedLength(size), size));
+    }
+
+    @TearDown(Level.Trial)
+    public void printRatio() {
+        System.out.printf(
+            "%n%s %s %d bytes: compressed to %d bytes (ratio %.3f)%n",
+            compressor.getClass().getSimpleName(), payload, size,
+            compressed.getData().length, (double) compressed.getData().length / size
+        );
+    }
+
+    @Benchmark
+    public MemcachedItem beforePut() {
+        MemcachedItem item = copy(original);
+        compressor.beforePut(item);
+        return item;
+    }
+
+    @Benchmark
+    public MemcachedItem afterGet() {
+        MemcachedItem item = copy(compressed);
+        compressor.afterGet(item);
+        return item;
+    }
+
+    @Benchmark
+    public long beforePutBuffer() {
+        originalBuffer.clear();
+        targetBuffer.clear();
+        return compressor.beforePut(KEY, original.getFlags(), originalBuffer, targetBuffer);
+    }
+
+    @Benchmark
+    public long afterGetBuffer() {
+        compressedBuffer.clear();
+        targetBuffer.clear();
+        return compressor.afterGet(compressed.getFlags(), compressedBuffer, targetBuffer);
+    }
+
+    private static ByteBuffer direct(byte[] data) {
+        ByteBuffer buffer = ByteBuffer.allocateDirect(data.length);
+        buffer.put(data).flip();
+        return buffer;
+    }
+
+    /**
+     * The compressors swap the data array of the item, so every invocation gets a fresh item
+     * The array itself is shared, creating the item is not part of what we measure
+     */
+    private static MemcachedItem copy(MemcachedItem item) {
+        return new MemcachedItem(item.getKey(), item.getData(), item.getFlags(), item.getExpire());
+    }
+
+}
@@ -0,0 +1,90 @@
+package com.zalora.aloha.benchmark;
+
+import java.util.concurrent.TimeUnit;
+import net.jpountz.lz4.*;
+import org.openjdk.jmh.annotations.*;
+
+/**
+ * Compares the LZ4 implementations behind LZ4Factory, Lz4 uses whatever fastestInstance() picks
+ * The native instance fails in setup if the JNI library can't be loaded on the machine
+ *
+ * @author Wolfram Huesken <wolfram.huesken@zalora.com>
+ */
+@Fork(1)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@State(Scope.Thread)
+public class Lz4FactoryBenchmark {
+
+    @Param({"fastest", "native", "unsafe", "safe"})
+    private String factory;
+
+    @Param({"PHP_SERIALIZED", "JSON"})
+    private Payload payload;
+
+    @Param({"2048", "16384", "262144", "4194304"})
+    private int size;
+
+    private LZ4Compressor compressor;
+    private LZ4Compressor highCompressor;
+    private LZ4FastDecompressor decompressor;
+
+    private byte[] data;
+    private byte[] compressed;
+    private byte[] compressedHigh;
+    private byte[] target;
+
+    @Setup(Level.Trial)
+    public void setUp() {
+        LZ4Factory lz4Factory = factory(factory);
+        compressor = lz4Factory.fastCompressor();
+        highCompressor = lz4Factory.highCompressor();
+        decompressor = lz4Factory.fastDecompressor();
+
+        data = payload.generate(size);
+        compressed = compressor.compress(data);
+        compressedHigh = highCompressor.compress(data);
+        target = new byte[compressor.maxCompressedLength(size)];
+    }
+
+    @TearDown(Level.Trial)
+    public void printRatio() {
+        System.out.printf(
+            "%n%s %s %d bytes: fast ratio %.3f, high ratio %.3f%n",
+            factory, payload, size, (double) compressed.length / size, (double) compressedHigh.length / size
+        );
+    }
+
+    @Benchmark
+    public int compressFast() {
+        return compressor.compress(data, 0, size, target, 0, target.length);
+    }
+
+    @Benchmark
+    public int compressHigh() {
+        return highCompressor.compress(data, 0, size, target, 0, target.length);
+    }
+
+    @Benchmark
+    public int decompress() {
+        return decompressor.decompress(compressed, 0, target, 0, size);
+    }
+
+    private static LZ4Factory factory(String name) {
+        switch (name) {
+            case "fastest":
+                return LZ4Factory.fastestInstance();
+            case "native":
+                return LZ4Factory.nativeInstance();
+            case "unsafe":
+                return LZ4Factory.unsafeInstance();
+            case "safe":
+                return LZ4Factory.safeInstance();
+            default:
+                throw new IllegalArgumentException(String.format("Unknown LZ4 factory: %s", name));
+        }
+    }
+
+}
@@ -0,0 +1,81 @@
+package com.zalora.aloha.benchmark;
+
+import com.zalora.aloha.memcached.*;
+import java.util.concurrent.TimeUnit;
+import org.infinispan.commons.marshall.StreamingMarshaller;
+import org.infinispan.configuration.cache.ConfigurationBuilder;
+import org.infinispan.configuration.global.GlobalConfigurationBuilder;
+import org.infinispan.manager.DefaultCacheManager;
+import org.openjdk.jmh.annotations.*;
+
+/**
+ * MemcachedItems through Infinispan's marshaller, as on replication, state transfer and the snapshot,
+ * with Java serialization compared to MemcachedItemExternalizer
+ * Run with -prof gc to get the allocation rate, the marshalled size is printed after each trial
+ *
+ * @author Wolfram Huesken <wolfram.huesken@zalora.com>
+ */
+@Fork(1)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@State(Scope.Thread)
+public class MarshallingBenchmark {
+
+    private static final String CACHE_NAME = "benchmark";
+    private static final String KEY = "catalog:product:list:women:dresses";
+
+    @Param({"serializable", "externalizer"})
+    private String marshalling;
+
+    @Param({"PHP_SERIALIZED"})
+    private Payload payload;
+
+    @Param({"16", "100", "2048", "65536"})
+    private int size;
+
+    private DefaultCacheManager cacheManager;
+    private StreamingMarshaller marshaller;
+
+    private MemcachedItem item;
+    private byte[] marshalled;
+
+    @Setup(Level.Trial)
+    public void setUp() throws Exception {
+        GlobalConfigurationBuilder global = new GlobalConfigurationBuilder().defaultCacheName(CACHE_NAME);
+        if (marshalling.equals("externalizer")) {
+            global.serialization().addAdvancedExternalizer(new MemcachedItemExternalizer());
+        }
+
+        cacheManager = new DefaultCacheManager(global.build(), new ConfigurationBuilder().build());
+        marshaller = cacheManager.getCache(CACHE_NAME).getAdvancedCache().getComponentRegistry().getCacheMarshaller();
+
+        // An expire as the PHP client sets it, a lifespan of a day
+        item = payload.item(KEY, size);
+        item.setExpire(86400);
+
+        marshalled = marshaller.objectToByteBuffer(item);
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() {
+        System.out.printf(
+            "%n%s %s %d bytes: marshalled to %d bytes (%+d)%n",
+            marshalling, payload, size, marshalled.length, marshalled.length - size - KEY.length()
+        );
+
+        cacheManager.stop();
+    }
+
+    @Benchmark
+    public byte[] marshall() throws Exception {
+        return marshaller.objectToByteBuffer(item);
+    }
+
+    @Benchmark
+    public Object unmarshall() throws Exception {
+        return marshaller.objectFromByteBuffer(marshalled);
+    }
+
+}
@@ -0,0 +1,113 @@
+package com.zalora.aloha.benchmark;
+
+import com.zalora.aloha.memcached.MemcachedItem;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.Random;
+
+/**
+ * Generates values shaped like the ones our PHP shops put into memcached
+ * Data is generated with a fixed seed, so every run (and every fork) works on the same bytes
+ *
+ * @author Wolfram Huesken <wolfram.huesken@zalora.com>
+ */
+public enum Payload {
+
+    STRING(0) {
+        @Override
+        void append(StringBuilder sb, Random random) {
+            sb.append("<div class=\"product\">").append(word(random)).append(' ').append(word(random))
+                .append(" <span>").append(random.nextInt(10000)).append("</span></div>\n");
+        }
+    },
+
+    PHP_SERIALIZED(4) {
+        @Override
+        void append(StringBuilder sb, Random random) {
+            String sku = sku(random);
+            String name = word(random) + " " + word(random);
+            String image = "/p/" + sku.toLowerCase() + "-" + random.nextInt(10) + ".jpg";
+
+            sb.append("i:").append(random.nextInt(100000)).append(";a:5:{")
+                .append("s:3:\"sku\";s:").append(sku.length()).append(":\"").append(sku).append("\";")
+                .append("s:4:\"name\";s:").append(name.length()).append(":\"").append(name).append("\";")
+                .append("s:5:\"price\";d:").append(random.nextInt(50000) / 100.0).append(';')
+                .append("s:5:\"stock\";i:").append(random.nextInt(500)).append(';')
+                .append("s:5:\"image\";s:").append(image.length()).append(":\"").append(image).append("\";}");
+        }
+    },
+
+    JSON(6) {
+        @Override
+        void append(StringBuilder sb, Random random) {
+            String sku = sku(random);
+            sb.append("{\"sku\":\"").append(sku).append("\",\"name\":\"").append(word(random)).append(' ')
+                .append(word(random)).append("\",\"price\":").append(random.nextInt(50000) / 100.0)
+                .append(",\"stock\":").append(random.nextInt(500)).append(",\"image\":\"/p/")
+                .append(sku.toLowerCase()).append(".jpg\"},");
+        }
+    },
+
+    /**
+     * Already compressed data (images, gzipped html) stored as a plain string
+     */
+    BINARY(0) {
+        @Override
+        void append(StringBuilder sb, Random random) {
+            throw new UnsupportedOperationException("Binary payloads are not text");
+        }
+
+        @Override
+        public byte[] generate(int size) {
+            byte[] data = new byte[size];
+            new Random(SEED).nextBytes(data);
+            return data;
+        }
+    };
+
+    private static final long SEED = 0x41_6c_6f_68_61L;
+
+    private static final String[] WORDS = {
+        "dress", "sneaker", "leather", "cotton", "slim", "fit", "shirt", "bag", "watch", "black", "white",
+        "floral", "maxi", "denim", "jacket", "sandals", "linen", "classic", "premium", "basic", "sport"
+    };
+
+    private final long flags;
+
+    Payload(long flags) {
+        this.flags = flags;
+    }
+
+    /**
+     * @return the flag php-memcached sets for this data type
+     */
+    public long getFlags() {
+        return flags;
+    }
+
+    public byte[] generate(int size) {
+        Random random = new Random(SEED);
+        StringBuilder sb = new StringBuilder(size + 256);
+
+        while (sb.length() < size) {
+            append(sb, random);
+        }
+
+        return Arrays.copyOf(sb.toString().getBytes(StandardCharsets.UTF_8), size);
+    }
+
+    public MemcachedItem item(String key, int size) {
+        return new MemcachedItem(key, generate(size), flags, 0);
+    }
+
+    abstract void append(StringBuilder sb, Random random);
+
+    private static String word(Random random) {
+        return WORDS[random.nextInt(WORDS.length)];
+    }
+
+    private static String sku(Random random) {
+        return String.format("ZA%03dAA%02dXYZ", random.nextInt(1000), random.nextInt(100));
+    }
+
+}
@@ -0,0 +1,145 @@
+package com.zalora.aloha.benchmark;
+
+import com.zalora.aloha.memcached.MemcachedItem;
+import com.zalora.aloha.persistence.MemcachedItemStoreConfigurationBuilder;
+import java.sql.*;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.LongAdder;
+import org.infinispan.configuration.cache.ConfigurationBuilder;
+import org.infinispan.configuration.global.GlobalConfigurationBuilder;
+import org.infinispan.manager.DefaultCacheManager;
+import org.infinispan.marshall.core.MarshalledEntry;
+import org.infinispan.persistence.jpa.configuration.JpaStoreConfigurationBuilder;
+import org.infinispan.persistence.manager.PersistenceManager;
+import org.infinispan.persistence.spi.AdvancedCacheLoader;
+import org.openjdk.jmh.annotations.*;
+
+/**
+ * Read-through store on plain JDBC compared to Infinispan's JPA store with metadata, both on an in-memory H2
+ * Loads go to the store directly, the cache in front would only measure hits
+ *
+ * @author Wolfram Huesken <wolfram.huesken@zalora.com>
+ */
+@Fork(1)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@State(Scope.Benchmark)
+public class StoreBenchmark {
+
+    private static final String URL = "jdbc:h2:mem:benchmark;DB_CLOSE_DELAY=-1";
+    private static final String CACHE_NAME = "benchmark";
+
+    @Param({"jdbc", "jpa"})
+    private String store;
+
+    @Param({"10000"})
+    private int rows;
+
+    @Param({"2048"})
+    private int size;
+
+    private DefaultCacheManager cacheManager;
+    private AdvancedCacheLoader<Object, Object> loader;
+    private ExecutorService executor;
+
+    @Setup(Level.Trial)
+    @SuppressWarnings("unchecked")
+    public void setUp() throws SQLException {
+        fillTable();
+
+        ConfigurationBuilder builder = new ConfigurationBuilder();
+        builder.compatibility().enable();
+
+        if (store.equals("jdbc")) {
+            builder.persistence()
+                .addStore(MemcachedItemStoreConfigurationBuilder.class)
+                    .connectionUrl(URL)
+                    .batching(false)
+                    .ignoreModifications(true);
+        } else {
+            builder.persistence()
+                .addStore(JpaStoreConfigurationBuilder.class)
+                    .persistenceUnitName("benchmarkJPA")
+                    .entityClass(MemcachedItem.class)
+                    .storeMetadata(true)
+                    .ignoreModifications(true);
+        }
+
+        cacheManager = new DefaultCacheManager(
+            new GlobalConfigurationBuilder().defaultCacheName(CACHE_NAME).build(), builder.build()
+        );
+
+        loader = (AdvancedCacheLoader<Object, Object>) cacheManager.getCache(CACHE_NAME).getAdvancedCache()
+            .getComponentRegistry().getComponent(PersistenceManager.class)
+            .getStores(AdvancedCacheLoader.class).iterator().next();
+
+        executor = Executors.newFixedThreadPool(Runtime.getRuntime().availableProcessors());
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() throws SQLException {
+        executor.shutdownNow();
+        cacheManager.stop();
+
+        try (Connection connection = DriverManager.getConnection(URL);
+             Statement statement = connection.createStatement()) {
+            statement.execute("DROP ALL OBJECTS");
+        }
+    }
+
+    @Benchmark
+    public MarshalledEntry<Object, Object> load() {
+        return loader.load(key(ThreadLocalRandom.current().nextInt(rows)));
+    }
+
+    @Benchmark
+    public MarshalledEntry<Object, Object> loadMissing() {
+        return loader.load("missing:" + ThreadLocalRandom.current().nextInt(rows));
+    }
+
+    /**
+     * Reads the whole table like preload does
+     */
+    @Benchmark
+    @BenchmarkMode(Mode.SingleShotTime)
+    @OutputTimeUnit(TimeUnit.MILLISECONDS)
+    @Warmup(iterations = 3)
+    @Measurement(iterations = 10)
+    public long process() {
+        LongAdder entries = new LongAdder();
+        loader.process(null, (entry, context) -> entries.increment(), executor, true, true);
+        return entries.sum();
+    }
+
+    private void fillTable() throws SQLException {
+        final byte[] data = Payload.PHP_SERIALIZED.generate(size);
+
+        try (Connection connection = DriverManager.getConnection(URL)) {
+            try (Statement statement = connection.createStatement()) {
+                statement.execute(
+                    "CREATE TABLE cache (id_cache VARCHAR(255) PRIMARY KEY, data BLOB NOT NULL, "
+                        + "flags SMALLINT DEFAULT 0 NOT NULL, expire BIGINT DEFAULT 0 NOT NULL)"
+                );
+            }
+
+            try (PreparedStatement statement = connection.prepareStatement("INSERT INTO cache VALUES (?, ?, ?, ?)")) {
+                for (int i = 0; i < rows; i++) {
+                    statement.setString(1, key(i));
+                    statement.setBytes(2, data);
+                    statement.setLong(3, 0);
+                    statement.setLong(4, 0);
+                    statement.addBatch();
+                }
+
+                statement.executeBatch();
+            }
+        }
+    }
+
+    private static String key(int i) {
+        return "catalog:product:" + i;
+    }
+
+}
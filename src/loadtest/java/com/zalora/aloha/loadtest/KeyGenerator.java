@@ -0,0 +1,21 @@
+package com.zalora.aloha.loadtest;
+
+import java.util.concurrent.ThreadLocalRandom;
+
+/**
+ * Picks the index of the next key to request, shared by all client threads
+ *
+ * @author Wolfram Huesken <wolfram.huesken@zalora.com>
+ */
+public interface KeyGenerator {
+
+    /**
+     * @return a key index between 0 and the size of the key space, exclusive
+     */
+    int next(ThreadLocalRandom random);
+
+    static String key(int index) {
+        return String.format("loadtest:%08d", index);
+    }
+
+}
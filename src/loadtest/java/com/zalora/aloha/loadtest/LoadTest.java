@@ -0,0 +1,67 @@
+package com.zalora.aloha.loadtest;
+
+import java.nio.file.Paths;
+import java.util.*;
+import lombok.extern.slf4j.Slf4j;
+import org.infinispan.configuration.cache.CacheMode;
+
+/**
+ * Starts a cluster per cache mode in this JVM, drives it with HotRod clients and reports throughput and latencies
+ *
+ * mvn -Ploadtest test-compile exec:exec -Dloadtest.args="nodes=3 modes=REPL_ASYNC,DIST_SYNC output=baseline.properties"
+ *
+ * @author Wolfram Huesken <wolfram.huesken@zalora.com>
+ */
+@Slf4j
+public class LoadTest {
+
+    private static final String CACHE_NAME = "main";
+
+    /**
+     * Exits when done, the nodes of a failed run would keep the JVM alive otherwise
+     */
+    public static void main(String[] args) {
+        try {
+            run(LoadTestOptions.parse(args));
+        } catch (Exception ex) {
+            log.error("Load test failed", ex);
+            System.exit(1);
+        }
+
+        System.exit(0);
+    }
+
+    private static void run(LoadTestOptions options) throws Exception {
+        final Properties baseline = options.getBaseline().isEmpty()
+            ? new Properties()
+            : LoadTestResult.read(Paths.get(options.getBaseline()));
+
+        final KeyGenerator keys = options.keyGenerator();
+        final ValueSource values = new ValueSource(options.getValueSize(), options.getMaxValueSize());
+
+        List<LoadTestResult> results = new ArrayList<>();
+        for (CacheMode mode : options.getModes()) {
+            try (LocalCluster cluster = new LocalCluster(mode)) {
+                cluster.fillTable(options.getKeys(), values);
+                cluster.start(options.getNodes(), options.getBasePort(), mode, options.getNumOwners());
+
+                results.add(new Workload(options, keys, values).run(mode.name(), cluster.getServers(), CACHE_NAME));
+            }
+        }
+
+        Properties current = new Properties();
+        StringBuilder report = new StringBuilder(options.toString()).append(System.lineSeparator());
+        for (LoadTestResult result : results) {
+            result.appendTo(current);
+            report.append(result.format(baseline));
+        }
+
+        System.out.println(report);
+
+        if (!options.getOutput().isEmpty()) {
+            LoadTestResult.write(Paths.get(options.getOutput()), current);
+            log.info("Results written to {}", options.getOutput());
+        }
+    }
+
+}
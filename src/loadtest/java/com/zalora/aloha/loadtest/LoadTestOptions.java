@@ -0,0 +1,175 @@
+package com.zalora.aloha.loadtest;
+
+import java.util.*;
+import lombok.Getter;
+import org.infinispan.configuration.cache.CacheMode;
+import org.springframework.util.Assert;
+
+/**
+ * Options of a load test run, passed as key=value arguments
+ *
+ * @author Wolfram Huesken <wolfram.huesken@zalora.com>
+ */
+@Getter
+public class LoadTestOptions {
+
+    /**
+     * Nodes started in this JVM
+     */
+    private int nodes = 3;
+
+    /**
+     * Cache modes of the primary cache, each one runs on a fresh cluster
+     */
+    private List<CacheMode> modes = Arrays.asList(CacheMode.REPL_ASYNC, CacheMode.REPL_SYNC, CacheMode.DIST_SYNC);
+
+    /**
+     * DIST_SYNC only
+     */
+    private int numOwners = 2;
+
+    /**
+     * Size of the key space, all keys are in the read-through table as well
+     */
+    private int keys = 100000;
+
+    /**
+     * zipfian or uniform
+     */
+    private String distribution = "zipfian";
+
+    /**
+     * Skew of the zipfian distribution, the higher the fewer keys get most of the requests
+     */
+    private double zipfExponent = 0.99;
+
+    /**
+     * Values are between valueSize and maxValueSize bytes, 0 keeps all values at valueSize
+     */
+    private int valueSize = 1024;
+
+    private int maxValueSize = 0;
+
+    /**
+     * Share of reads, the rest are puts
+     */
+    private double readRatio = 0.9;
+
+    /**
+     * Client threads, all share one HotRod client
+     */
+    private int threads = 16;
+
+    /**
+     * Seconds before and while measuring
+     */
+    private int warmup = 10;
+
+    private int duration = 30;
+
+    private int basePort = 12222;
+
+    /**
+     * Results are written here, if set
+     */
+    private String output = "";
+
+    /**
+     * Results of an earlier run the current run is compared to, if set
+     */
+    private String baseline = "";
+
+    public static LoadTestOptions parse(String[] args) {
+        LoadTestOptions options = new LoadTestOptions();
+
+        for (String arg : args) {
+            final int separator = arg.indexOf('=');
+            Assert.isTrue(separator > 0, "Arguments are key=value, got " + arg);
+            options.set(arg.substring(0, separator), arg.substring(separator + 1));
+        }
+
+        Assert.isTrue(options.nodes > 0, "At least one node is needed");
+        Assert.isTrue(options.keys > 0, "Key space must not be empty");
+        Assert.isTrue(options.readRatio >= 0.0 && options.readRatio <= 1.0, "Read ratio must be between 0 and 1");
+        Assert.isTrue(options.threads > 0, "At least one client thread is needed");
+        Assert.isTrue(options.duration > 0, "Duration must be positive");
+
+        return options;
+    }
+
+    public KeyGenerator keyGenerator() {
+        switch (distribution) {
+            case "zipfian":
+                return new ZipfianGenerator(keys, zipfExponent);
+            case "uniform":
+                return new UniformGenerator(keys);
+            default:
+                throw new IllegalArgumentException("Unknown key distribution " + distribution);
+        }
+    }
+
+    private void set(String key, String value) {
+        switch (key) {
+            case "nodes":
+                nodes = Integer.parseInt(value);
+                break;
+            case "modes":
+                modes = new ArrayList<>();
+                for (String mode : value.split(",")) {
+                    modes.add(CacheMode.valueOf(mode.trim()));
+                }
+                break;
+            case "numOwners":
+                numOwners = Integer.parseInt(value);
+                break;
+            case "keys":
+                keys = Integer.parseInt(value);
+                break;
+            case "distribution":
+                distribution = value;
+                break;
+            case "zipfExponent":
+                zipfExponent = Double.parseDouble(value);
+                break;
+            case "valueSize":
+                valueSize = Integer.parseInt(value);
+                break;
+            case "maxValueSize":
+                maxValueSize = Integer.parseInt(value);
+                break;
+            case "readRatio":
+                readRatio = Double.parseDouble(value);
+                break;
+            case "threads":
+                threads = Integer.parseInt(value);
+                break;
+            case "warmup":
+                warmup = Integer.parseInt(value);
+                break;
+            case "duration":
+                duration = Integer.parseInt(value);
+                break;
+            case "basePort":
+                basePort = Integer.parseInt(value);
+                break;
+            case "output":
+                output = value;
+                break;
+            case "baseline":
+                baseline = value;
+                break;
+            default:
+                throw new IllegalArgumentException("Unknown option " + key);
+        }
+    }
+
+    @Override
+    public String toString() {
+        return String.format(
+            "nodes=%d, keys=%d, distribution=%s%s, values=%d-%d bytes, reads=%.0f%%, threads=%d, %ds after %ds warm-up",
+            nodes, keys, distribution, distribution.equals("zipfian") ? "(" + zipfExponent + ")" : "",
+            valueSize, Math.max(valueSize, maxValueSize), readRatio * 100, threads, duration, warmup
+        );
+    }
+
+}
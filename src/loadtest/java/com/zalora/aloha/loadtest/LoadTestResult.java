@@ -0,0 +1,129 @@
+package com.zalora.aloha.loadtest;
+
+import com.zalora.aloha.latency.HistogramSnapshot;
+import java.io.*;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.*;
+import java.util.*;
+import lombok.Getter;
+
+/**
+ * Throughput and latency percentiles of one run, latencies are in microseconds
+ *
+ * Results are stored as properties, so a later run can be compared to them as its baseline.
+ *
+ * @author Wolfram Huesken <wolfram.huesken@zalora.com>
+ */
+@Getter
+public class LoadTestResult {
+
+    private static final String[] PERCENTILES = {"p50", "p90", "p99", "p999", "max"};
+
+    private final String name;
+    private final long elapsedMillis;
+    private final HistogramSnapshot reads;
+    private final HistogramSnapshot writes;
+    private final long hits;
+    private final long errors;
+
+    public LoadTestResult(String name, long elapsedMillis, HistogramSnapshot reads, HistogramSnapshot writes,
+                          long hits, long errors) {
+        this.name = name;
+        this.elapsedMillis = elapsedMillis;
+        this.reads = reads;
+        this.writes = writes;
+        this.hits = hits;
+        this.errors = errors;
+    }
+
+    public double getThroughput() {
+        return elapsedMillis == 0 ? 0.0 : (reads.getCount() + writes.getCount()) * 1000.0 / elapsedMillis;
+    }
+
+    public double getHitRatio() {
+        return reads.getCount() == 0 ? 0.0 : (double) hits / reads.getCount();
+    }
+
+    /**
+     * Flat view, e.g. reads.p99, as stored and compared to a baseline
+     */
+    public Map<String, Number> toMap() {
+        Map<String, Number> values = new LinkedHashMap<>();
+        values.put("throughput", getThroughput());
+        values.put("hitRatio", getHitRatio());
+        values.put("errors", errors);
+        put(values, "reads", reads);
+        put(values, "writes", writes);
+
+        return values;
+    }
+
+    public void appendTo(Properties properties) {
+        for (Map.Entry<String, Number> value : toMap().entrySet()) {
+            properties.setProperty(name + "." + value.getKey(), value.getValue().toString());
+        }
+    }
+
+    /**
+     * @param baseline results of an earlier run, without this run's values nothing is compared
+     */
+    public String format(Properties baseline) {
+        StringBuilder report = new StringBuilder(String.format(
+            "%s: %.0f ops/s, hit ratio %.3f, %d errors%s%n",
+            name, getThroughput(), getHitRatio(), errors, change(baseline, "throughput", getThroughput())
+        ));
+
+        line(report, "reads", reads, baseline);
+        line(report, "writes", writes, baseline);
+
+        return report.toString();
+    }
+
+    public static void write(Path path, Properties properties) throws IOException {
+        try (Writer writer = Files.newBufferedWriter(path, StandardCharsets.UTF_8)) {
+            properties.store(writer, "Aloha-Server load test");
+        }
+    }
+
+    public static Properties read(Path path) throws IOException {
+        Properties properties = new Properties();
+        try (Reader reader = Files.newBufferedReader(path, StandardCharsets.UTF_8)) {
+            properties.load(reader);
+        }
+
+        return properties;
+    }
+
+    private void line(StringBuilder report, String type, HistogramSnapshot histogram, Properties baseline) {
+        report.append(String.format("  %-6s %10d ops", type, histogram.getCount()));
+
+        Map<String, Number> values = toMap();
+        for (String percentile : PERCENTILES) {
+            final String key = type + "." + percentile;
+            report.append(String.format(
+                "  %s %6dus%s", percentile, values.get(key).longValue(), change(baseline, key, values.get(key))
+            ));
+        }
+
+        report.append(System.lineSeparator());
+    }
+
+    private String change(Properties baseline, String key, Number value) {
+        final String previous = baseline.getProperty(name + "." + key);
+        if (previous == null || Double.parseDouble(previous) == 0.0) {
+            return "";
+        }
+
+        return String.format(" (%+.1f%%)", (value.doubleValue() / Double.parseDouble(previous) - 1.0) * 100);
+    }
+
+    private static void put(Map<String, Number> values, String type, HistogramSnapshot histogram) {
+        values.put(type + ".count", histogram.getCount());
+        values.put(type + ".p50", histogram.getP50());
+        values.put(type + ".p90", histogram.getP90());
+        values.put(type + ".p99", histogram.getP99());
+        values.put(type + ".p999", histogram.getP999());
+        values.put(type + ".max", histogram.getMax());
+    }
+
+}
@@ -0,0 +1,134 @@
+package com.zalora.aloha.loadtest;
+
+import com.zalora.aloha.AlohaServerApplication;
+import java.sql.*;
+import java.util.*;
+import lombok.Getter;
+import lombok.extern.slf4j.Slf4j;
+import org.infinispan.configuration.cache.CacheMode;
+import org.springframework.boot.builder.SpringApplicationBuilder;
+import org.springframework.context.ConfigurableApplicationContext;
+
+/**
+ * Aloha-Server nodes in one JVM, each one a Spring context of its own with the real ServerConfig and ServerManager
+ *
+ * The nodes talk through JGroups' shared loopback, so messages are marshalled like on the network but never
+ * leave the process. An in-memory H2 database stands in for the MySQL read-through table, shared by all nodes.
+ * Web, Spring's JMX and the memcached endpoint are off, several nodes in one JVM would fight over their ports and
+ * names. Infinispan registers its MBeans in a JMX domain per node.
+ *
+ * @author Wolfram Huesken <wolfram.huesken@zalora.com>
+ */
+@Slf4j
+public class LocalCluster implements AutoCloseable {
+
+    private static final String JGROUPS_CONFIG = "loadtest-jgroups.xml";
+    private static final String DATABASE_USER = "sa";
+
+    private final String clusterName;
+    private final String databaseUrl;
+
+    @Getter
+    private final List<Integer> ports = new ArrayList<>();
+
+    private final List<ConfigurableApplicationContext> nodes = new ArrayList<>();
+
+    public LocalCluster(CacheMode mode) {
+        clusterName = "loadtest-" + mode.name().toLowerCase();
+        databaseUrl = "jdbc:h2:mem:" + clusterName + ";DB_CLOSE_DELAY=-1";
+    }
+
+    /**
+     * Fills the read-through table, so reads of keys nobody wrote yet go to the database
+     */
+    public void fillTable(int keys, ValueSource values) throws SQLException {
+        try (Connection connection = DriverManager.getConnection(databaseUrl, DATABASE_USER, "")) {
+            try (Statement statement = connection.createStatement()) {
+                statement.execute("DROP TABLE IF EXISTS cache");
+                statement.execute("CREATE TABLE cache (id_cache VARCHAR(250) NOT NULL PRIMARY KEY, "
+                    + "data BLOB NOT NULL, flags SMALLINT NOT NULL DEFAULT 0, expire BIGINT NOT NULL DEFAULT 0)");
+            }
+
+            try (PreparedStatement insert = connection.prepareStatement(
+                "INSERT INTO cache (id_cache, data, flags, expire) VALUES (?, ?, 0, 0)")) {
+                for (int i = 0; i < keys; i++) {
+                    insert.setString(1, KeyGenerator.key(i));
+                    insert.setBytes(2, values.next());
+                    insert.addBatch();
+
+                    if (i % 1000 == 999) {
+                        insert.executeBatch();
+                    }
+                }
+
+                insert.executeBatch();
+            }
+        }
+    }
+
+    /**
+     * Starts the nodes one after the other, each one waits for its state before the next one joins
+     */
+    public void start(int count, int basePort, CacheMode mode, int numOwners) {
+        for (int i = 0; i < count; i++) {
+            final int port = basePort + i;
+
+            nodes.add(new SpringApplicationBuilder(AlohaServerApplication.class)
+                .web(false)
+                .logStartupInfo(false)
+                .run(
+                    "--spring.jmx.enabled=false",
+                    "--endpoints.jmx.enabled=false",
+                    "--infinispan.cluster.name=" + clusterName,
+                    "--infinispan.cluster.jgroups.config=" + JGROUPS_CONFIG,
+                    "--infinispan.cluster.network.address=127.0.0.1",
+                    "--infinispan.cluster.statistics.enabled=false",
+                    "--infinispan.cluster.jmxDomain=org.infinispan." + clusterName + "-" + i,
+                    "--infinispan.hotrod.port=" + port,
+                    "--infinispan.memcached.enabled=false",
+                    "--infinispan.cache.primary.mode=" + mode.name(),
+                    "--infinispan.cache.primary.numOwners=" + numOwners,
+                    "--infinispan.cache.primary.readthrough.enabled=true",
+                    "--infinispan.cache.primary.readthrough.preload=false",
+                    "--infinispan.cache.primary.readthrough.negativeLookup.enabled=false",
+                    "--spring.datasource.url=" + databaseUrl,
+                    "--spring.datasource.username=" + DATABASE_USER,
+                    "--spring.datasource.hikari.maximum-pool-size=8"
+                ));
+
+            ports.add(port);
+            log.info("Node {} of {} listening on {}", i + 1, count, port);
+        }
+    }
+
+    /**
+     * @return host:port of every node, separated by semicolons like the HotRod client expects them
+     */
+    public String getServers() {
+        StringJoiner servers = new StringJoiner(";");
+        for (int port : ports) {
+            servers.add("127.0.0.1:" + port);
+        }
+
+        return servers.toString();
+    }
+
+    /**
+     * Stops the nodes in reverse order and drops the table
+     */
+    @Override
+    public void close() throws SQLException {
+        for (int i = nodes.size() - 1; i >= 0; i--) {
+            nodes.get(i).close();
+        }
+
+        nodes.clear();
+        ports.clear();
+
+        try (Connection connection = DriverManager.getConnection(databaseUrl, DATABASE_USER, "");
+             Statement statement = connection.createStatement()) {
+            statement.execute("DROP ALL OBJECTS");
+        }
+    }
+
+}
@@ -0,0 +1,23 @@
+package com.zalora.aloha.loadtest;
+
+import java.util.concurrent.ThreadLocalRandom;
+
+/**
+ * Every key is equally popular
+ *
+ * @author Wolfram Huesken <wolfram.huesken@zalora.com>
+ */
+public class UniformGenerator implements KeyGenerator {
+
+    private final int keys;
+
+    public UniformGenerator(int keys) {
+        this.keys = keys;
+    }
+
+    @Override
+    public int next(ThreadLocalRandom random) {
+        return random.nextInt(keys);
+    }
+
+}
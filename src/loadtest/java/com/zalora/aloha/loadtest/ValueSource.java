@@ -0,0 +1,44 @@
+package com.zalora.aloha.loadtest;
+
+import java.util.concurrent.ThreadLocalRandom;
+
+/**
+ * Values of random size between the configured bounds
+ *
+ * The bytes repeat a short pattern, so compressors see data they can shrink, like the PHP-serialized values in
+ * production, instead of random noise.
+ *
+ * @author Wolfram Huesken <wolfram.huesken@zalora.com>
+ */
+public class ValueSource {
+
+    private static final byte[] PATTERN = "a:3:{s:4:\"name\";s:5:\"aloha\";s:5:\"price\";d:42.5;s:4:\"tags\";a:0:{}}"
+        .getBytes();
+
+    private final int minSize;
+    private final int maxSize;
+
+    /**
+     * @param maxSize 0 or below minSize keeps all values at minSize
+     */
+    public ValueSource(int minSize, int maxSize) {
+        this.minSize = minSize;
+        this.maxSize = Math.max(minSize, maxSize);
+    }
+
+    public byte[] next() {
+        final ThreadLocalRandom random = ThreadLocalRandom.current();
+        final byte[] value = new byte[minSize == maxSize ? minSize : random.nextInt(minSize, maxSize + 1)];
+
+        for (int i = 0; i < value.length; i += PATTERN.length) {
+            System.arraycopy(PATTERN, 0, value, i, Math.min(PATTERN.length, value.length - i));
+        }
+
+        if (value.length > 0) {
+            value[random.nextInt(value.length)] = (byte) random.nextInt();
+        }
+
+        return value;
+    }
+
+}
@@ -0,0 +1,108 @@
+package com.zalora.aloha.loadtest;
+
+import com.zalora.aloha.latency.SlidingHistogram;
+import java.util.*;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.LongAdder;
+import lombok.extern.slf4j.Slf4j;
+import org.infinispan.client.hotrod.*;
+import org.infinispan.client.hotrod.configuration.ConfigurationBuilder;
+
+/**
+ * Client threads sending reads and puts through one HotRod client as fast as the cluster answers
+ *
+ * Latencies are measured around each call, so they include the client and the loopback network.
+ * Nothing is recorded during the warm-up, which fills the cache and gives the JIT time.
+ *
+ * @author Wolfram Huesken <wolfram.huesken@zalora.com>
+ */
+@Slf4j
+public class Workload {
+
+    private final LoadTestOptions options;
+    private final KeyGenerator keys;
+    private final ValueSource values;
+
+    private final SlidingHistogram reads = new SlidingHistogram();
+    private final SlidingHistogram writes = new SlidingHistogram();
+    private final LongAdder hits = new LongAdder();
+    private final LongAdder errors = new LongAdder();
+
+    private volatile boolean recording;
+    private volatile boolean running = true;
+
+    public Workload(LoadTestOptions options, KeyGenerator keys, ValueSource values) {
+        this.options = options;
+        this.keys = keys;
+        this.values = values;
+    }
+
+    public LoadTestResult run(String name, String servers, String cacheName) throws InterruptedException {
+        RemoteCacheManager cacheManager = new RemoteCacheManager(new ConfigurationBuilder()
+            .addServers(servers)
+            .connectionPool().maxActive(options.getThreads())
+            .build());
+
+        final RemoteCache<String, Object> cache = cacheManager.getCache(cacheName);
+        final ExecutorService executor = Executors.newFixedThreadPool(options.getThreads());
+
+        try {
+            for (int i = 0; i < options.getThreads(); i++) {
+                executor.submit(() -> runClient(cache));
+            }
+
+            log.info("{}: warming up for {}s", name, options.getWarmup());
+            TimeUnit.SECONDS.sleep(options.getWarmup());
+
+            recording = true;
+            final long start = System.nanoTime();
+            TimeUnit.SECONDS.sleep(options.getDuration());
+            recording = false;
+            final long elapsed = System.nanoTime() - start;
+
+            return new LoadTestResult(
+                name, TimeUnit.NANOSECONDS.toMillis(elapsed), reads.getTotal(), writes.getTotal(), hits.sum(),
+                errors.sum()
+            );
+        } finally {
+            running = false;
+            executor.shutdown();
+            executor.awaitTermination(30, TimeUnit.SECONDS);
+            cacheManager.stop();
+        }
+    }
+
+    private void runClient(RemoteCache<String, Object> cache) {
+        final ThreadLocalRandom random = ThreadLocalRandom.current();
+
+        while (running) {
+            final String key = KeyGenerator.key(keys.next(random));
+            final boolean read = random.nextDouble() < options.getReadRatio();
+            final byte[] value = read ? null : values.next();
+
+            final long start = System.nanoTime();
+            try {
+                if (read) {
+                    Object result = cache.get(key);
+                    if (recording && result != null) {
+                        hits.increment();
+                    }
+                } else {
+                    cache.put(key, value);
+                }
+            } catch (RuntimeException ex) {
+                if (recording) {
+                    errors.increment();
+                }
+
+                log.debug("{} of {} failed", read ? "Read" : "Write", key, ex);
+                continue;
+            }
+
+            if (recording) {
+                (read ? reads : writes).recordNanos(System.nanoTime() - start);
+            }
+        }
+    }
+
+}
@@ -0,0 +1,80 @@
+package com.zalora.aloha.loadtest;
+
+import java.util.concurrent.ThreadLocalRandom;
+import org.springframework.util.Assert;
+
+/**
+ * A few keys get most of the requests, like product pages and sessions of a shop
+ *
+ * Ranks are drawn with the method of Gray et al., "Quickly Generating Billion-Record Synthetic Databases",
+ * as YCSB does. Ranks are scrambled into key indexes, so the popular keys are spread over all segments
+ * instead of sitting next to each other.
+ *
+ * @author Wolfram Huesken <wolfram.huesken@zalora.com>
+ */
+public class ZipfianGenerator implements KeyGenerator {
+
+    private static final long FNV_OFFSET_BASIS = 0xcbf29ce484222325L;
+    private static final long FNV_PRIME = 1099511628211L;
+
+    private final int keys;
+    private final double theta;
+    private final double zetaN;
+    private final double alpha;
+    private final double eta;
+
+    /**
+     * @param theta skew, 0 is uniform. Has to stay below 1
+     */
+    public ZipfianGenerator(int keys, double theta) {
+        Assert.isTrue(keys > 0, "Key space must not be empty");
+        Assert.isTrue(theta >= 0.0 && theta < 1.0, "Zipfian exponent must be between 0 and 1, exclusive");
+
+        this.keys = keys;
+        this.theta = theta;
+
+        zetaN = zeta(keys, theta);
+        alpha = 1.0 / (1.0 - theta);
+        eta = (1.0 - Math.pow(2.0 / keys, 1.0 - theta)) / (1.0 - zeta(2, theta) / zetaN);
+    }
+
+    @Override
+    public int next(ThreadLocalRandom random) {
+        return scramble(rank(random.nextDouble()));
+    }
+
+    /**
+     * @return 0 for the most popular key
+     */
+    private int rank(double u) {
+        final double uz = u * zetaN;
+        if (uz < 1.0) {
+            return 0;
+        }
+
+        if (uz < 1.0 + Math.pow(0.5, theta)) {
+            return 1;
+        }
+
+        return (int) Math.min(keys * Math.pow(eta * u - eta + 1.0, alpha), keys - 1);
+    }
+
+    private int scramble(int rank) {
+        long hash = FNV_OFFSET_BASIS;
+        for (int i = 0; i < 4; i++) {
+            hash = (hash ^ ((rank >>> (i * 8)) & 0xff)) * FNV_PRIME;
+        }
+
+        return (int) Math.floorMod(hash, (long) keys);
+    }
+
+    private static double zeta(int n, double theta) {
+        double sum = 0.0;
+        for (int i = 1; i <= n; i++) {
+            sum += 1.0 / Math.pow(i, theta);
+        }
+
+        return sum;
+    }
+
+}
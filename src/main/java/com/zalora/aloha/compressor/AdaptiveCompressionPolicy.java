@@ -0,0 +1,71 @@
+package com.zalora.aloha.compressor;
+
+import java.util.function.ToLongFunction;
+import lombok.Getter;
+import lombok.Setter;
+import lombok.ToString;
+
+/**
+ * Chooses the compressor by size and access frequency:
+ * - Values below minSize stay uncompressed
+ * - Big values which are read less than hotAccessCount times are compressed with LZ4 HC,
+ *   the extra CPU is spent once and the memory is saved for the whole lifespan
+ * - Everything else uses the fast compressor
+ *
+ * Results which don't shrink below maxRatio of the original size are thrown away
+ *
+ * @author Wolfram Huesken <wolfram.huesken@zalora.com>
+ */
+@Getter
+@ToString(exclude = "accessFrequency")
+public class AdaptiveCompressionPolicy implements CompressionPolicy {
+
+    private final int minSize;
+    private final int highCompressionMinSize;
+    private final long hotAccessCount;
+    private final double maxRatio;
+    private final int sampleSize;
+
+    /**
+     * Estimated number of reads per key, nothing is tracked by default so every value counts as cold
+     */
+    @Setter
+    private ToLongFunction<String> accessFrequency = key -> 0;
+
+    public AdaptiveCompressionPolicy(int minSize, int highCompressionMinSize, long hotAccessCount, double maxRatio, int sampleSize) {
+        if (maxRatio <= 0 || maxRatio > 1) {
+            throw new IllegalArgumentException(String.format("Compression ratio must be in (0, 1]: %f", maxRatio));
+        }
+
+        this.minSize = minSize;
+        this.highCompressionMinSize = highCompressionMinSize;
+        this.hotAccessCount = hotAccessCount;
+        this.maxRatio = maxRatio;
+        this.sampleSize = sampleSize;
+    }
+
+    @Override
+    public Mode select(String key, int length) {
+        if (length < minSize) {
+            return Mode.NONE;
+        }
+
+        if (highCompressionMinSize > 0 && length >= highCompressionMinSize
+            && accessFrequency.applyAsLong(key) < hotAccessCount) {
+            return Mode.HIGH;
+        }
+
+        return Mode.FAST;
+    }
+
+    @Override
+    public boolean accept(int length, int compressedLength) {
+        return compressedLength <= length * maxRatio;
+    }
+
+    @Override
+    public int sampleSize() {
+        return sampleSize;
+    }
+
+}
@@ -0,0 +1,24 @@
+package com.zalora.aloha.compressor;
+
+import lombok.*;
+
+/**
+ * A byte array value compressed on the write path, values written over HotRod aren't MemcachedItems
+ *
+ * Data and flags are those of a compressed item with the PHP string flag, so the Compressor restores the value.
+ * Whether it was handed over wrapped is kept, reads get back the same type that was written.
+ *
+ * @author Wolfram Huesken <wolfram.huesken@zalora.com>
+ */
+@Getter
+@EqualsAndHashCode
+@AllArgsConstructor
+public class CompressedBytes {
+
+    private final byte[] data;
+
+    private final long flags;
+
+    private final boolean wrapped;
+
+}
@@ -0,0 +1,61 @@
+package com.zalora.aloha.compressor;
+
+import java.io.*;
+import java.util.*;
+import org.infinispan.commons.io.UnsignedNumeric;
+import org.infinispan.commons.marshall.AdvancedExternalizer;
+
+/**
+ * Marshals CompressedBytes for replication, state transfer and the snapshot
+ *
+ * The externalizer id is followed by a version byte, the flags as a varint, whether the value was wrapped and the
+ * data with a varint length.
+ *
+ * @author Wolfram Huesken <wolfram.huesken@zalora.com>
+ */
+public class CompressedBytesExternalizer implements AdvancedExternalizer<CompressedBytes> {
+
+    private static final long serialVersionUID = 2871066335471203652L;
+
+    /**
+     * Next to MemcachedItemExternalizer's
+     */
+    public static final int ID = 7504;
+
+    private static final byte VERSION = 1;
+
+    @Override
+    public Set<Class<? extends CompressedBytes>> getTypeClasses() {
+        return Collections.singleton(CompressedBytes.class);
+    }
+
+    @Override
+    public Integer getId() {
+        return ID;
+    }
+
+    @Override
+    public void writeObject(ObjectOutput output, CompressedBytes value) throws IOException {
+        output.writeByte(VERSION);
+        UnsignedNumeric.writeUnsignedLong(output, value.getFlags());
+        output.writeBoolean(value.isWrapped());
+        UnsignedNumeric.writeUnsignedInt(output, value.getData().length);
+        output.write(value.getData());
+    }
+
+    @Override
+    public CompressedBytes readObject(ObjectInput input) throws IOException {
+        final byte version = input.readByte();
+        if (version != VERSION) {
+            throw new IOException("Unknown CompressedBytes format " + version);
+        }
+
+        final long flags = UnsignedNumeric.readUnsignedLong(input);
+        final boolean wrapped = input.readBoolean();
+        final byte[] data = new byte[UnsignedNumeric.readUnsignedInt(input)];
+        input.readFully(data);
+
+        return new CompressedBytes(data, flags, wrapped);
+    }
+
+}
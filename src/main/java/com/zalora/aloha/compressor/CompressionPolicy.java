@@ -0,0 +1,35 @@
+package com.zalora.aloha.compressor;
+
+/**
+ * Decides if and how a value is compressed before it's written to the cache
+ *
+ * @author Wolfram Huesken <wolfram.huesken@zalora.com>
+ */
+public interface CompressionPolicy {
+
+    enum Mode {
+        NONE, FAST, HIGH
+    }
+
+    /**
+     * @param key    cache key of the value
+     * @param length uncompressed length of the value
+     * @return the compressor to use for the value
+     */
+    Mode select(String key, int length);
+
+    /**
+     * @param length           uncompressed length
+     * @param compressedLength length after compression
+     * @return true if the compressed value is worth keeping
+     */
+    boolean accept(int length, int compressedLength);
+
+    /**
+     * Values at least four times this size are probed with a sample of this size before they're compressed
+     *
+     * @return the sample size in bytes, 0 disables probing
+     */
+    int sampleSize();
+
+}
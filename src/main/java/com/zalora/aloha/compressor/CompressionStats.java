@@ -0,0 +1,113 @@
+package com.zalora.aloha.compressor;
+
+import com.zalora.aloha.latency.SlidingHistogram;
+import java.util.concurrent.atomic.LongAdder;
+import lombok.Getter;
+
+/**
+ * Counters of a single compressor instance, cheap enough to be updated on every call
+ *
+ * @author Wolfram Huesken <wolfram.huesken@zalora.com>
+ */
+public class CompressionStats {
+
+    private static final long MAX_RATIO = 1000;
+
+    private final LongAdder skipped = new LongAdder();
+    private final LongAdder rejected = new LongAdder();
+    private final LongAdder fast = new LongAdder();
+    private final LongAdder high = new LongAdder();
+    private final LongAdder bytesIn = new LongAdder();
+    private final LongAdder bytesOut = new LongAdder();
+    private final LongAdder compressNanos = new LongAdder();
+    private final LongAdder decompressed = new LongAdder();
+    private final LongAdder decompressNanos = new LongAdder();
+
+    @Getter
+    private final SlidingHistogram compressLatency = new SlidingHistogram();
+
+    @Getter
+    private final SlidingHistogram decompressLatency = new SlidingHistogram();
+
+    /**
+     * Compressed size of kept values in per mille of their original size
+     */
+    @Getter
+    private final SlidingHistogram ratios = new SlidingHistogram(MAX_RATIO);
+
+    /**
+     * Value was not compressed because of its size or type
+     */
+    public void skipped() {
+        skipped.increment();
+    }
+
+    /**
+     * Value was compressed, but the result didn't shrink enough
+     */
+    public void rejected(long nanos) {
+        rejected.increment();
+        compressNanos.add(nanos);
+        compressLatency.recordNanos(nanos);
+    }
+
+    public void compressed(CompressionPolicy.Mode mode, int length, int compressedLength, long nanos) {
+        (mode == CompressionPolicy.Mode.HIGH ? high : fast).increment();
+        bytesIn.add(length);
+        bytesOut.add(compressedLength);
+        compressNanos.add(nanos);
+        compressLatency.recordNanos(nanos);
+        ratios.record(length == 0 ? MAX_RATIO : compressedLength * MAX_RATIO / length);
+    }
+
+    public void decompressed(long nanos) {
+        decompressed.increment();
+        decompressNanos.add(nanos);
+        decompressLatency.recordNanos(nanos);
+    }
+
+    public long getSkipped() {
+        return skipped.sum();
+    }
+
+    public long getRejected() {
+        return rejected.sum();
+    }
+
+    public long getFast() {
+        return fast.sum();
+    }
+
+    public long getHigh() {
+        return high.sum();
+    }
+
+    public long getBytesIn() {
+        return bytesIn.sum();
+    }
+
+    public long getBytesOut() {
+        return bytesOut.sum();
+    }
+
+    public long getCompressNanos() {
+        return compressNanos.sum();
+    }
+
+    public long getDecompressed() {
+        return decompressed.sum();
+    }
+
+    public long getDecompressNanos() {
+        return decompressNanos.sum();
+    }
+
+    /**
+     * @return compressed size divided by original size of all kept values, 1 if nothing was compressed yet
+     */
+    public double getRatio() {
+        long in = getBytesIn();
+        return in == 0 ? 1.0 : (double) getBytesOut() / in;
+    }
+
+}
@@ -1,6 +1,7 @@
 package com.zalora.aloha.compressor;
 
 import com.zalora.aloha.memcached.MemcachedItem;
+import java.nio.ByteBuffer;
 
 /**
  * @author Wolfram Huesken <wolfram.huesken@zalora.com>
@@ -17,4 +18,44 @@ public interface Compressor {
      */
     void beforePut(MemcachedItem item);
 
+    /**
+     * Buffer variant of afterGet, reads source from position to limit and writes the original value to target
+     * If the value is not compressed, the flags are returned as they are and neither buffer is touched
+     *
+     * @param flags  flags stored along with the value
+     * @param source the stored value
+     * @param target needs uncompressedLength(flags, source.remaining()) bytes remaining
+     * @return the flags to hand to the client
+     */
+    long afterGet(long flags, ByteBuffer source, ByteBuffer target);
+
+    /**
+     * Buffer variant of beforePut, reads source from position to limit and writes the value to store to target
+     * If the value is left as it is, the flags are returned unchanged and the buffer positions are not moved
+     * The same happens if the compressed value doesn't fit into target, so a target smaller than the source
+     * only keeps values which actually shrink
+     *
+     * @param key    cache key of the value
+     * @param flags  flags set by the client
+     * @param source the original value
+     * @param target maxCompressedLength(source.remaining()) bytes remaining are always enough
+     * @return the flags to store along with the value
+     */
+    long beforePut(String key, long flags, ByteBuffer source, ByteBuffer target);
+
+    /**
+     * @param flags  flags stored along with the value
+     * @param length stored length of the value
+     * @return the length of the value after afterGet
+     */
+    int uncompressedLength(long flags, int length);
+
+    /**
+     * @param length length of the original value
+     * @return worst case length of the value after beforePut
+     */
+    int maxCompressedLength(int length);
+
+    CompressionStats getStats();
+
 }
@@ -0,0 +1,31 @@
+package com.zalora.aloha.compressor;
+
+/**
+ * Compresses everything above a size threshold with the fast compressor and keeps the result no matter what
+ *
+ * @author Wolfram Huesken <wolfram.huesken@zalora.com>
+ */
+public class FixedThresholdPolicy implements CompressionPolicy {
+
+    private final int threshold;
+
+    public FixedThresholdPolicy(int threshold) {
+        this.threshold = threshold;
+    }
+
+    @Override
+    public Mode select(String key, int length) {
+        return length < threshold ? Mode.NONE : Mode.FAST;
+    }
+
+    @Override
+    public boolean accept(int length, int compressedLength) {
+        return true;
+    }
+
+    @Override
+    public int sampleSize() {
+        return 0;
+    }
+
+}
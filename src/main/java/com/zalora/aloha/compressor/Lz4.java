@@ -1,15 +1,22 @@
 package com.zalora.aloha.compressor;
 
-import com.google.common.collect.ImmutableList;
-import com.google.common.collect.ImmutableMap;
 import com.zalora.aloha.memcached.MemcachedItem;
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+import lombok.Getter;
 import lombok.extern.slf4j.Slf4j;
 import net.jpountz.lz4.*;
+import org.springframework.util.Assert;
 
 /**
  * (De)-Compression done as in zcast's CompressionInterceptor
  * This class only works with php-memcached because it relies on the data types encoded in the flags
  *
+ * Flags are decoded with primitive arithmetic and compression goes through a per-thread scratch buffer,
+ * so the only allocation per call is the exact-size result array
+ * Whether and how hard a value is compressed is up to the CompressionPolicy, by default everything
+ * of at least 2 KB is compressed with the fast compressor
+ *
  * @author Wolfram Huesken <wolfram.huesken@zalora.com>
  * @link https://github.com/zalora/zcast
  */
@@ -26,34 +33,47 @@ public class Lz4 implements Compressor {
     private static final long ZCAST_FLAG_PHP_SERIALIZED = 2;
     private static final long ZCAST_FLAG_JSON_SERIALIZED = 4;
 
-    private static final ImmutableList<Long> PHP_FLAGS = ImmutableList.of(
-        PHP_FLAG_STRING, PHP_FLAG_LONG, PHP_FLAG_DOUBLE, PHP_FLAG_PHP_SERIALIZED, PHP_FLAG_JSON_SERIALIZED
-    );
-
-    private static final ImmutableMap<Long, Long> ZCAST_PHP_FLAGS_MAP = ImmutableMap.of(
-        ZCAST_FLAG_STRING, PHP_FLAG_STRING,
-        ZCAST_FLAG_PHP_SERIALIZED, PHP_FLAG_PHP_SERIALIZED,
-        ZCAST_FLAG_JSON_SERIALIZED, PHP_FLAG_JSON_SERIALIZED
-    );
-
-    private static final ImmutableMap<Long, Long> PHP_ZCAST_FLAGS_MAP = ImmutableMap.of(
-        PHP_FLAG_STRING, ZCAST_FLAG_STRING,
-        PHP_FLAG_PHP_SERIALIZED, ZCAST_FLAG_PHP_SERIALIZED,
-        PHP_FLAG_JSON_SERIALIZED, ZCAST_FLAG_JSON_SERIALIZED
-    );
+    /**
+     * One bit per PHP flag, bit n is set if n is a flag php-memcached uses for uncompressed values
+     */
+    private static final long PHP_FLAGS_MASK = 1L << PHP_FLAG_STRING | 1L << PHP_FLAG_LONG | 1L << PHP_FLAG_DOUBLE
+        | 1L << PHP_FLAG_PHP_SERIALIZED | 1L << PHP_FLAG_JSON_SERIALIZED;
 
     private static final int COMPRESSION_THRESHOLD = 2048;
 
+    /**
+     * memcached's default item size limit, bigger scratch buffers are not kept per thread
+     */
+    private static final int MAX_RETAINED_BUFFER_SIZE = 1024 * 1024;
+
     private static final LZ4Factory lz4Factory;
     private static final LZ4Compressor compressor;
+    private static final LZ4Compressor highCompressor;
     private static final LZ4FastDecompressor fastDecompressor;
 
+    private static final ThreadLocalBuffer scratchBuffer = new ThreadLocalBuffer(MAX_RETAINED_BUFFER_SIZE);
+
     static {
         lz4Factory = LZ4Factory.fastestInstance();
         compressor = lz4Factory.fastCompressor();
+        highCompressor = lz4Factory.highCompressor();
         fastDecompressor = lz4Factory.fastDecompressor();
     }
 
+    private final CompressionPolicy policy;
+
+    @Getter
+    private final CompressionStats stats = new CompressionStats();
+
+    public Lz4() {
+        this(new FixedThresholdPolicy(COMPRESSION_THRESHOLD));
+    }
+
+    public Lz4(CompressionPolicy policy) {
+        Assert.notNull(policy, "Compression policy must not be null");
+        this.policy = policy;
+    }
+
     @Override
     public void afterGet(MemcachedItem item) {
         if (item == null) {
@@ -62,16 +82,17 @@ public class Lz4 implements Compressor {
 
         // Item is not compressed
         final long flag = item.getFlags();
-        if (PHP_FLAGS.contains(flag)) {
+        if (isPhpFlag(flag)) {
             return;
         }
 
+        final long start = System.nanoTime();
         final byte[] compressed = item.getData();
         final int decompressedLength = getOriginalEntrySize(flag);
         byte[] uncompressed = new byte[decompressedLength];
 
         try {
-            fastDecompressor.decompress(compressed, uncompressed, decompressedLength);
+            fastDecompressor.decompress(compressed, 0, uncompressed, 0, decompressedLength);
         } catch (LZ4Exception lex) {
             log.error("Decompression failed", lex);
             return;
@@ -82,6 +103,8 @@ public class Lz4 implements Compressor {
 
         item.setData(uncompressed);
         item.setFlags(originalFlag);
+
+        stats.decompressed(System.nanoTime() - start);
     }
 
     @Override
@@ -91,33 +114,173 @@ public class Lz4 implements Compressor {
         }
 
         final long flag = item.getFlags();
+        final byte[] data = item.getData();
+        final int decompressedLength = data.length;
 
-        // If flags are not PHP values, then it's probably already compressed, so we don't touch it
-        if (!PHP_FLAGS.contains(flag)) {
+        final CompressionPolicy.Mode mode = select(item.getKey(), flag, decompressedLength);
+        if (mode == CompressionPolicy.Mode.NONE) {
+            stats.skipped();
             return;
         }
 
-        final byte[] data = item.getData();
-        final int decompressedLength = data.length;
+        // Do the compression magic in the scratch buffer and copy out the exact result
+        final long start = System.nanoTime();
+        final int maxCompressedLength = compressor.maxCompressedLength(decompressedLength);
+        final byte[] compressed = scratchBuffer.get(maxCompressedLength);
 
-        // If data length is below the threshold, we leave it uncompressed
-        if (decompressedLength < COMPRESSION_THRESHOLD) {
+        if (!probe(data, compressed)) {
+            stats.rejected(System.nanoTime() - start);
             return;
         }
 
-        // Do the compression magic
-        int maxCompressedLength = compressor.maxCompressedLength(decompressedLength);
-        byte[] compressed = new byte[maxCompressedLength];
-        int compressedLength = compressor.compress(
+        int compressedLength = compressorFor(mode).compress(
             data, 0, decompressedLength, compressed, 0, maxCompressedLength
         );
 
-        byte[] trimmedCompressed = new byte[compressedLength];
-        System.arraycopy(compressed, 0, trimmedCompressed, 0, compressedLength);
+        if (!policy.accept(decompressedLength, compressedLength)) {
+            stats.rejected(System.nanoTime() - start);
+            return;
+        }
 
         // Put compressed item in hz
         item.setFlags(getNewFlag(flag, decompressedLength));
-        item.setData(trimmedCompressed);
+        item.setData(Arrays.copyOf(compressed, compressedLength));
+
+        stats.compressed(mode, decompressedLength, compressedLength, System.nanoTime() - start);
+    }
+
+    @Override
+    public long afterGet(long flags, ByteBuffer source, ByteBuffer target) {
+        if (isPhpFlag(flags)) {
+            return flags;
+        }
+
+        final long start = System.nanoTime();
+        final int decompressedLength = getOriginalEntrySize(flags);
+        final long originalFlag = getOriginalFlag(flags);
+
+        try {
+            int read = fastDecompressor.decompress(
+                source, source.position(), target, target.position(), decompressedLength
+            );
+            source.position(source.position() + read);
+        } catch (LZ4Exception lex) {
+            log.error("Decompression failed", lex);
+            return flags;
+        }
+
+        target.position(target.position() + decompressedLength);
+        stats.decompressed(System.nanoTime() - start);
+
+        return originalFlag;
+    }
+
+    @Override
+    public long beforePut(String key, long flags, ByteBuffer source, ByteBuffer target) {
+        final int decompressedLength = source.remaining();
+
+        final CompressionPolicy.Mode mode = select(key, flags, decompressedLength);
+        if (mode == CompressionPolicy.Mode.NONE) {
+            stats.skipped();
+            return flags;
+        }
+
+        final long start = System.nanoTime();
+        final int compressedLength;
+        try {
+            if (!probe(source, target)) {
+                stats.rejected(System.nanoTime() - start);
+                return flags;
+            }
+
+            compressedLength = compressorFor(mode).compress(
+                source, source.position(), decompressedLength, target, target.position(), target.remaining()
+            );
+        } catch (LZ4Exception lex) {
+            // Didn't fit into target, keep the value as it is
+            stats.rejected(System.nanoTime() - start);
+            return flags;
+        }
+
+        if (!policy.accept(decompressedLength, compressedLength)) {
+            stats.rejected(System.nanoTime() - start);
+            return flags;
+        }
+
+        source.position(source.limit());
+        target.position(target.position() + compressedLength);
+        stats.compressed(mode, decompressedLength, compressedLength, System.nanoTime() - start);
+
+        return getNewFlag(flags, decompressedLength);
+    }
+
+    @Override
+    public int uncompressedLength(long flags, int length) {
+        return isPhpFlag(flags) ? length : getOriginalEntrySize(flags);
+    }
+
+    @Override
+    public int maxCompressedLength(int length) {
+        return compressor.maxCompressedLength(length);
+    }
+
+    /**
+     * Long and double values are never big enough to be worth it, so only the text types are compressed
+     */
+    private CompressionPolicy.Mode select(String key, long flag, int length) {
+        if (flag != PHP_FLAG_STRING && flag != PHP_FLAG_PHP_SERIALIZED && flag != PHP_FLAG_JSON_SERIALIZED) {
+            return CompressionPolicy.Mode.NONE;
+        }
+
+        return policy.select(key, length);
+    }
+
+    private LZ4Compressor compressorFor(CompressionPolicy.Mode mode) {
+        return mode == CompressionPolicy.Mode.HIGH ? highCompressor : compressor;
+    }
+
+    /**
+     * Compress a sample from the middle of big values first, so images and other already compressed data
+     * are detected without paying for the whole value
+     *
+     * @param data    the value
+     * @param scratch big enough for the compressed sample
+     * @return false if the sample didn't compress well
+     */
+    private boolean probe(byte[] data, byte[] scratch) {
+        final int sampleSize = policy.sampleSize();
+        if (sampleSize <= 0 || data.length < sampleSize * 4) {
+            return true;
+        }
+
+        int offset = (data.length - sampleSize) / 2;
+        int compressedLength = compressor.compress(data, offset, sampleSize, scratch, 0, scratch.length);
+
+        return policy.accept(sampleSize, compressedLength);
+    }
+
+    /**
+     * Same as above for buffers, the sample is compressed into target and overwritten later
+     */
+    private boolean probe(ByteBuffer source, ByteBuffer target) {
+        final int sampleSize = policy.sampleSize();
+        if (sampleSize <= 0 || source.remaining() < sampleSize * 4) {
+            return true;
+        }
+
+        int offset = source.position() + (source.remaining() - sampleSize) / 2;
+        int compressedLength = compressor.compress(
+            source, offset, sampleSize, target, target.position(), target.remaining()
+        );
+
+        return policy.accept(sampleSize, compressedLength);
+    }
+
+    /**
+     * If flags are not PHP values, then it's already compressed
+     */
+    private static boolean isPhpFlag(long flag) {
+        return flag >= 0 && flag < Long.SIZE && (PHP_FLAGS_MASK & (1L << flag)) != 0;
     }
 
     /**
@@ -137,13 +300,21 @@ public class Lz4 implements Compressor {
      * @return return the data type set by PHP
      */
     private long getOriginalFlag(long flag) {
-        flag &= 7;
+        final long zcastFlag = flag & 7;
 
-        if (!ZCAST_PHP_FLAGS_MAP.containsKey(flag)) {
-            throw new RuntimeException(String.format("ZCast Flag doesn't exist: %d", flag));
+        if (zcastFlag == ZCAST_FLAG_STRING) {
+            return PHP_FLAG_STRING;
         }
 
-        return ZCAST_PHP_FLAGS_MAP.get(flag);
+        if (zcastFlag == ZCAST_FLAG_PHP_SERIALIZED) {
+            return PHP_FLAG_PHP_SERIALIZED;
+        }
+
+        if (zcastFlag == ZCAST_FLAG_JSON_SERIALIZED) {
+            return PHP_FLAG_JSON_SERIALIZED;
+        }
+
+        throw new RuntimeException(String.format("ZCast Flag doesn't exist: %d", zcastFlag));
     }
 
     /**
@@ -154,14 +325,21 @@ public class Lz4 implements Compressor {
      * @return the encoded result
      */
     private long getNewFlag(long flag, int length) {
-        if (!PHP_ZCAST_FLAGS_MAP.containsKey(flag)) {
-            throw new RuntimeException(String.format("PHP Flag doesn't exist: %d", flag));
+        long newFlag = (long) length << 3;
+
+        if (flag == PHP_FLAG_STRING) {
+            return newFlag | ZCAST_FLAG_STRING;
         }
 
-        long newFlag = length << 3;
-        newFlag |= PHP_ZCAST_FLAGS_MAP.get(flag);
+        if (flag == PHP_FLAG_PHP_SERIALIZED) {
+            return newFlag | ZCAST_FLAG_PHP_SERIALIZED;
+        }
+
+        if (flag == PHP_FLAG_JSON_SERIALIZED) {
+            return newFlag | ZCAST_FLAG_JSON_SERIALIZED;
+        }
 
-        return newFlag;
+        throw new RuntimeException(String.format("PHP Flag doesn't exist: %d", flag));
     }
 
 }
@@ -1,6 +1,8 @@
 package com.zalora.aloha.compressor;
 
 import com.zalora.aloha.memcached.MemcachedItem;
+import java.nio.ByteBuffer;
+import lombok.Getter;
 
 /**
  * Just sit back and relax
@@ -9,6 +11,9 @@ import com.zalora.aloha.memcached.MemcachedItem;
  */
 public class NoCompressor implements Compressor {
 
+    @Getter
+    private final CompressionStats stats = new CompressionStats();
+
     @Override
     public void afterGet(MemcachedItem item) {
 
@@ -19,4 +24,24 @@ public class NoCompressor implements Compressor {
 
     }
 
+    @Override
+    public long afterGet(long flags, ByteBuffer source, ByteBuffer target) {
+        return flags;
+    }
+
+    @Override
+    public long beforePut(String key, long flags, ByteBuffer source, ByteBuffer target) {
+        return flags;
+    }
+
+    @Override
+    public int uncompressedLength(long flags, int length) {
+        return length;
+    }
+
+    @Override
+    public int maxCompressedLength(int length) {
+        return length;
+    }
+
 }
@@ -0,0 +1,42 @@
+package com.zalora.aloha.compressor;
+
+/**
+ * Per-thread scratch array which grows on demand
+ * Arrays bigger than the retain limit are handed out once and not kept, so a single huge value
+ * doesn't pin megabytes on every worker thread
+ *
+ * @author Wolfram Huesken <wolfram.huesken@zalora.com>
+ */
+public class ThreadLocalBuffer {
+
+    private static final byte[] EMPTY = new byte[0];
+
+    private final int maxRetainedSize;
+
+    private final ThreadLocal<byte[]> buffer = ThreadLocal.withInitial(() -> EMPTY);
+
+    public ThreadLocalBuffer(int maxRetainedSize) {
+        this.maxRetainedSize = maxRetainedSize;
+    }
+
+    /**
+     * The returned array is only valid until the next call on the same thread
+     *
+     * @param minSize minimum length of the array
+     * @return an array of at least minSize bytes, content is undefined
+     */
+    public byte[] get(int minSize) {
+        byte[] scratch = buffer.get();
+        if (scratch.length >= minSize) {
+            return scratch;
+        }
+
+        scratch = new byte[minSize];
+        if (minSize <= maxRetainedSize) {
+            buffer.set(scratch);
+        }
+
+        return scratch;
+    }
+
+}
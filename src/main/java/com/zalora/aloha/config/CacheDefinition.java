@@ -0,0 +1,124 @@
+package com.zalora.aloha.config;
+
+import lombok.Getter;
+import lombok.Setter;
+import org.infinispan.configuration.cache.CacheMode;
+import org.infinispan.configuration.cache.StorageType;
+
+/**
+ * One entry of infinispan.caches, a cache next to primary and secondary with settings of its own
+ *
+ * Defaults match the secondary cache. Named caches are served by HotRod only, hot keys, warm-up, snapshots and
+ * the memcached endpoint stay with the primary cache.
+ *
+ * @author Wolfram Huesken <wolfram.huesken@zalora.com>
+ */
+@Getter
+@Setter
+public class CacheDefinition {
+
+    private String name;
+    private CacheMode mode = CacheMode.REPL_SYNC;
+    private int numOwners = 2;
+
+    /**
+     * Lifespan of entries written without one (seconds), 0 keeps them forever
+     */
+    private long defaultExpiration = 0;
+
+    private int stateTransferChunkSize = 128;
+    private Lock lock = new Lock();
+    private StateTransfer stateTransfer = new StateTransfer();
+    private Storage storage = new Storage();
+    private Compression compression = new Compression();
+    private Readthrough readthrough = new Readthrough();
+
+    /**
+     * Read-through loads and write-path compression need to see MemcachedItems instead of marshalled bytes
+     */
+    public boolean isCompatibility() {
+        return readthrough.isEnabled() || compression.isWritePath();
+    }
+
+    public boolean isCompressorEnabled() {
+        return !compression.getCompressor().isEmpty() && isCompatibility();
+    }
+
+    @Override
+    public String toString() {
+        return String.format(
+            "%s (%s, expiration %ds, storage %s, read-through %s, compress on write %s)",
+            name, mode, defaultExpiration, storage.getType(),
+            readthrough.isEnabled() ? readthrough.getTable() : "off", compression.isWritePath()
+        );
+    }
+
+    @Getter
+    @Setter
+    public static class Lock {
+        private int timeout = 30;
+        private int concurrency = 1024;
+    }
+
+    @Getter
+    @Setter
+    public static class StateTransfer {
+        private long timeout = 240;
+        private long maxEntriesPerSecond = 0;
+        private long maxBytesPerSecond = 0;
+        private long chunkBytes = 1048576;
+    }
+
+    @Getter
+    @Setter
+    public static class Storage {
+        private StorageType type = StorageType.OBJECT;
+        private long maxSize = 0;
+        private int addressCount = 1048576;
+    }
+
+    @Getter
+    @Setter
+    public static class Compression {
+        private boolean writePath = false;
+        private String compressor = "com.zalora.aloha.compressor.Lz4";
+        private int minSize = 2048;
+        private int highCompressionMinSize = 65536;
+        private long hotAccessCount = 3;
+        private double maxRatio = 0.9;
+        private int sampleSize = 4096;
+    }
+
+    /**
+     * Without a url of its own, the table is read from spring.datasource
+     *
+     * Store settings left empty take the primary cache's value, they're named like the store's attributes
+     */
+    @Getter
+    @Setter
+    public static class Readthrough {
+        private boolean enabled = false;
+        private String table = "cache";
+        private String url = "";
+        private String username = "";
+        private String password = "";
+        private boolean batching = true;
+        private boolean negativeLookup = false;
+        private boolean writeBehind = false;
+        private Integer batchSize;
+        private Long batchWindow;
+        private Integer loaderThreads;
+        private Integer pageSize;
+        private Long expectedKeys;
+        private Double falsePositiveRate;
+        private Long negativeTtl;
+        private Integer negativeCacheSize;
+        private Long filterRebuildInterval;
+        private Integer filterBypassThreshold;
+        private Integer writeBatchSize;
+        private Long flushInterval;
+        private Integer maxPendingWrites;
+        private Long offerTimeout;
+    }
+
+}
@@ -0,0 +1,22 @@
+package com.zalora.aloha.config;
+
+import java.util.*;
+import lombok.Getter;
+import lombok.Setter;
+import org.springframework.boot.context.properties.ConfigurationProperties;
+import org.springframework.stereotype.Component;
+
+/**
+ * Binds the list under infinispan.caches, which @Value can't
+ *
+ * @author Wolfram Huesken <wolfram.huesken@zalora.com>
+ */
+@Getter
+@Setter
+@Component
+@ConfigurationProperties(prefix = "infinispan")
+public class CacheDefinitions {
+
+    private List<CacheDefinition> caches = new ArrayList<>();
+
+}
@@ -1,17 +1,21 @@
 package com.zalora.aloha.config;
 
+import com.zalora.aloha.compressor.*;
+import com.zalora.aloha.memcached.MemcachedItemExternalizer;
+import com.zalora.aloha.persistence.*;
+import com.zalora.aloha.storage.*;
 import java.util.concurrent.TimeUnit;
 import lombok.Getter;
 import lombok.extern.slf4j.Slf4j;
 import org.infinispan.configuration.cache.*;
 import org.infinispan.configuration.global.*;
-import org.infinispan.persistence.jpa.configuration.JpaStoreConfigurationBuilder;
+import org.infinispan.container.DefaultDataContainer;
+import org.infinispan.eviction.EvictionType;
 import org.infinispan.server.hotrod.configuration.HotRodServerConfiguration;
 import org.infinispan.server.hotrod.configuration.HotRodServerConfigurationBuilder;
 import org.springframework.beans.factory.annotation.*;
 import org.springframework.context.annotation.Bean;
 import org.springframework.stereotype.Component;
-import javax.annotation.PostConstruct;
 
 /**
  * @author Wolfram Huesken <wolfram.huesken@zalora.com>
@@ -36,6 +40,9 @@ public class ServerConfig {
     @Value("${infinispan.cluster.jgroups.config}")
     private String jgroupsConfig;
 
+    @Value("${infinispan.cluster.jmxDomain}")
+    private String jmxDomain;
+
     // Primary cache configuration
     @Getter
     @Value("${infinispan.cache.primary.name}")
@@ -53,9 +60,25 @@ public class ServerConfig {
     @Value("${infinispan.cache.primary.lock.concurrency}")
     private int primaryCacheLockConcurrency;
 
+    @Getter
     @Value("${infinispan.cache.primary.stateTransferChunkSize}")
     private int primaryStateTransferChunkSize;
 
+    @Value("${infinispan.cache.primary.stateTransfer.timeout}")
+    private long primaryStateTransferTimeout;
+
+    @Getter
+    @Value("${infinispan.cache.primary.stateTransfer.maxEntriesPerSecond}")
+    private long primaryStateTransferMaxEntriesPerSecond;
+
+    @Getter
+    @Value("${infinispan.cache.primary.stateTransfer.maxBytesPerSecond}")
+    private long primaryStateTransferMaxBytesPerSecond;
+
+    @Getter
+    @Value("${infinispan.cache.primary.stateTransfer.chunkBytes}")
+    private long primaryStateTransferChunkBytes;
+
     @Value("${infinispan.cache.primary.defaultExpiration}")
     private long primaryCacheDefaultExpiration;
 
@@ -64,17 +87,151 @@ public class ServerConfig {
     @Value("${infinispan.cache.primary.readthrough.enabled}")
     private boolean readthroughEnabled;
 
+    @Getter
     @Value("${infinispan.cache.primary.readthrough.preload}")
     private boolean readthroughPreload;
 
+    @Getter
     @Value("${infinispan.cache.primary.readthrough.preloadPageSize}")
     private int readthroughPreloadPageSize;
 
-    @Value("${infinispan.cache.primary.readthrough.entityClass}")
-    private String readthroughEntityClass;
+    @Getter
+    @Value("${infinispan.cache.primary.readthrough.preloadThreads}")
+    private int readthroughPreloadThreads;
+
+    @Getter
+    @Value("${infinispan.cache.primary.readthrough.warmup.enabled}")
+    private boolean warmupEnabled;
+
+    @Getter
+    @Value("${infinispan.cache.primary.readthrough.warmup.path}")
+    private String warmupPath;
+
+    @Getter
+    @Value("${infinispan.cache.primary.readthrough.warmup.interval}")
+    private long warmupInterval;
+
+    @Getter
+    @Value("${infinispan.cache.primary.readthrough.warmup.keys}")
+    private int warmupKeys;
+
+    @Getter
+    @Value("${infinispan.cache.primary.readthrough.warmup.sampleRate}")
+    private int warmupSampleRate;
+
+    @Getter
+    @Value("${infinispan.cache.primary.readthrough.warmup.threads}")
+    private int warmupThreads;
+
+    @Getter
+    @Value("${infinispan.cache.primary.readthrough.warmup.batchSize}")
+    private int warmupBatchSize;
+
+    @Getter
+    @Value("${infinispan.cache.primary.readthrough.warmup.timeout}")
+    private long warmupTimeout;
+
+    @Getter
+    @Value("${infinispan.cache.primary.readthrough.refreshAhead.enabled}")
+    private boolean refreshAheadEnabled;
+
+    @Getter
+    @Value("${infinispan.cache.primary.readthrough.refreshAhead.fraction}")
+    private double refreshAheadFraction;
+
+    @Getter
+    @Value("${infinispan.cache.primary.readthrough.refreshAhead.threads}")
+    private int refreshAheadThreads;
+
+    @Getter
+    @Value("${infinispan.cache.primary.readthrough.refreshAhead.queueSize}")
+    private int refreshAheadQueueSize;
+
+    @Value("${infinispan.cache.primary.readthrough.batch.enabled}")
+    private boolean readthroughBatchEnabled;
+
+    @Value("${infinispan.cache.primary.readthrough.batch.size}")
+    private int readthroughBatchSize;
+
+    @Value("${infinispan.cache.primary.readthrough.batch.window}")
+    private long readthroughBatchWindow;
+
+    @Value("${infinispan.cache.primary.readthrough.batch.threads}")
+    private int readthroughBatchThreads;
+
+    @Value("${infinispan.cache.primary.readthrough.negativeLookup.enabled}")
+    private boolean negativeLookupEnabled;
+
+    @Value("${infinispan.cache.primary.readthrough.negativeLookup.expectedKeys}")
+    private long negativeLookupExpectedKeys;
+
+    @Value("${infinispan.cache.primary.readthrough.negativeLookup.falsePositiveRate}")
+    private double negativeLookupFalsePositiveRate;
+
+    @Value("${infinispan.cache.primary.readthrough.negativeLookup.ttl}")
+    private long negativeLookupTtl;
+
+    @Value("${infinispan.cache.primary.readthrough.negativeLookup.maxSize}")
+    private int negativeLookupMaxSize;
+
+    @Value("${infinispan.cache.primary.readthrough.negativeLookup.rebuildInterval}")
+    private long negativeLookupRebuildInterval;
+
+    @Value("${infinispan.cache.primary.readthrough.negativeLookup.bypassThreshold}")
+    private int negativeLookupBypassThreshold;
+
+    @Value("${infinispan.cache.primary.readthrough.writeBehind.enabled}")
+    private boolean writeBehindEnabled;
+
+    @Value("${infinispan.cache.primary.readthrough.writeBehind.batchSize}")
+    private int writeBehindBatchSize;
 
-    @Value("${infinispan.cache.primary.readthrough.persistenceUnitName}")
-    private String readthroughPersistenceUnitName;
+    @Value("${infinispan.cache.primary.readthrough.writeBehind.flushInterval}")
+    private long writeBehindFlushInterval;
+
+    @Value("${infinispan.cache.primary.readthrough.writeBehind.maxPending}")
+    private int writeBehindMaxPending;
+
+    @Value("${infinispan.cache.primary.readthrough.writeBehind.offerTimeout}")
+    private long writeBehindOfferTimeout;
+
+    @Value("${infinispan.cache.primary.readthrough.guard.maxConcurrent}")
+    private int guardMaxConcurrent;
+
+    @Value("${infinispan.cache.primary.readthrough.guard.timeout}")
+    private long guardTimeout;
+
+    @Value("${infinispan.cache.primary.readthrough.guard.circuitBreaker.enabled}")
+    private boolean circuitBreakerEnabled;
+
+    @Value("${infinispan.cache.primary.readthrough.guard.circuitBreaker.failureRate}")
+    private double circuitBreakerFailureRate;
+
+    @Value("${infinispan.cache.primary.readthrough.guard.circuitBreaker.minimumLoads}")
+    private int circuitBreakerMinimumLoads;
+
+    @Value("${infinispan.cache.primary.readthrough.guard.circuitBreaker.window}")
+    private long circuitBreakerWindow;
+
+    @Value("${infinispan.cache.primary.readthrough.guard.circuitBreaker.openDuration}")
+    private long circuitBreakerOpenDuration;
+
+    @Value("${infinispan.cache.primary.readthrough.guard.circuitBreaker.trialLoads}")
+    private int circuitBreakerTrialLoads;
+
+    // Primary cache local snapshot
+    @Getter
+    @Value("${infinispan.cache.primary.snapshot.enabled}")
+    private boolean snapshotEnabled;
+
+    @Value("${infinispan.cache.primary.snapshot.path}")
+    private String snapshotPath;
+
+    @Value("${infinispan.cache.primary.snapshot.interval}")
+    private long snapshotInterval;
+
+    @Value("${infinispan.cache.primary.snapshot.maxAge}")
+    private long snapshotMaxAge;
 
     @Value("${spring.datasource.url}")
     private String dbUrl;
@@ -85,16 +242,71 @@ public class ServerConfig {
     @Value("${spring.datasource.password}")
     private String dbPassword;
 
-    @Value("${spring.jpa.show-sql}")
-    private String showSql;
+    @Value("${spring.datasource.hikari.maximum-pool-size}")
+    private int dbMaxPoolSize;
 
-    @Value("${spring.jpa.hibernate.ddl-auto}")
-    private String ddlAuto;
+    @Value("${spring.datasource.hikari.connection-timeout}")
+    private long dbConnectionTimeout;
 
     @Getter
     @Value("${infinispan.cache.primary.readthrough.compressor}")
     private String compressorClass;
 
+    // Primary cache compression policy
+    @Getter
+    @Value("${infinispan.cache.primary.compression.writePath}")
+    private boolean primaryCompressionWritePath;
+
+    @Value("${infinispan.cache.primary.compression.minSize}")
+    private int primaryCompressionMinSize;
+
+    @Value("${infinispan.cache.primary.compression.highCompressionMinSize}")
+    private int primaryCompressionHighMinSize;
+
+    @Value("${infinispan.cache.primary.compression.hotAccessCount}")
+    private long primaryCompressionHotAccessCount;
+
+    @Value("${infinispan.cache.primary.compression.maxRatio}")
+    private double primaryCompressionMaxRatio;
+
+    @Value("${infinispan.cache.primary.compression.sampleSize}")
+    private int primaryCompressionSampleSize;
+
+    // Primary cache hot key tracking
+    @Getter
+    @Value("${infinispan.cache.primary.hotKeys.enabled}")
+    private boolean hotKeysEnabled;
+
+    @Getter
+    @Value("${infinispan.cache.primary.hotKeys.topK}")
+    private int hotKeysTopK;
+
+    @Getter
+    @Value("${infinispan.cache.primary.hotKeys.threshold}")
+    private long hotKeysThreshold;
+
+    @Getter
+    @Value("${infinispan.cache.primary.hotKeys.window}")
+    private long hotKeysWindow;
+
+    @Getter
+    @Value("${infinispan.cache.primary.hotKeys.sampleRate}")
+    private int hotKeysSampleRate;
+
+    @Value("${infinispan.cache.primary.hotKeys.replicate}")
+    private boolean hotKeysReplicate;
+
+    // Primary cache storage
+    @Value("${infinispan.cache.primary.storage.type}")
+    private StorageType primaryStorageType;
+
+    @Getter
+    @Value("${infinispan.cache.primary.storage.maxSize}")
+    private long primaryStorageMaxSize;
+
+    @Value("${infinispan.cache.primary.storage.addressCount}")
+    private int primaryStorageAddressCount;
+
     // Secondary cache configuration
     @Getter
     @Value("${infinispan.cache.secondary.name}")
@@ -112,39 +324,140 @@ public class ServerConfig {
     @Value("${infinispan.cache.secondary.lock.concurrency}")
     private int secondaryCacheLockConcurrency;
 
+    @Getter
     @Value("${infinispan.cache.secondary.stateTransferChunkSize}")
     private int secondaryStateTransferChunkSize;
 
+    @Value("${infinispan.cache.secondary.stateTransfer.timeout}")
+    private long secondaryStateTransferTimeout;
+
+    @Getter
+    @Value("${infinispan.cache.secondary.stateTransfer.maxEntriesPerSecond}")
+    private long secondaryStateTransferMaxEntriesPerSecond;
+
+    @Getter
+    @Value("${infinispan.cache.secondary.stateTransfer.maxBytesPerSecond}")
+    private long secondaryStateTransferMaxBytesPerSecond;
+
+    @Getter
+    @Value("${infinispan.cache.secondary.stateTransfer.chunkBytes}")
+    private long secondaryStateTransferChunkBytes;
+
     @Value("${infinispan.cache.secondary.defaultExpiration}")
     private long secondaryCacheDefaultExpiration;
 
+    // Secondary cache compression policy
+    @Getter
+    @Value("${infinispan.cache.secondary.compression.writePath}")
+    private boolean secondaryCompressionWritePath;
+
+    @Getter
+    @Value("${infinispan.cache.secondary.compression.compressor}")
+    private String secondaryCompressorClass;
+
+    @Value("${infinispan.cache.secondary.compression.minSize}")
+    private int secondaryCompressionMinSize;
+
+    @Value("${infinispan.cache.secondary.compression.highCompressionMinSize}")
+    private int secondaryCompressionHighMinSize;
+
+    @Value("${infinispan.cache.secondary.compression.hotAccessCount}")
+    private long secondaryCompressionHotAccessCount;
+
+    @Value("${infinispan.cache.secondary.compression.maxRatio}")
+    private double secondaryCompressionMaxRatio;
+
+    @Value("${infinispan.cache.secondary.compression.sampleSize}")
+    private int secondaryCompressionSampleSize;
+
+    // Secondary cache storage
+    @Value("${infinispan.cache.secondary.storage.type}")
+    private StorageType secondaryStorageType;
+
+    @Getter
+    @Value("${infinispan.cache.secondary.storage.maxSize}")
+    private long secondaryStorageMaxSize;
+
+    @Value("${infinispan.cache.secondary.storage.addressCount}")
+    private int secondaryStorageAddressCount;
+
+    // Lock contention profiler of all caches
+    @Getter
+    @Value("${infinispan.lockProfiler.enabled}")
+    private boolean lockProfilerEnabled;
+
+    @Getter
+    @Value("${infinispan.lockProfiler.sampleRate}")
+    private int lockProfilerSampleRate;
+
+    @Getter
+    @Value("${infinispan.lockProfiler.threshold}")
+    private long lockProfilerThreshold;
+
+    @Getter
+    @Value("${infinispan.lockProfiler.topKeys}")
+    private int lockProfilerTopKeys;
+
+    @Getter
+    @Value("${infinispan.lockProfiler.prefixDelimiters}")
+    private String lockProfilerPrefixDelimiters;
+
+    @Getter
+    @Value("${infinispan.lockProfiler.maxPrefixes}")
+    private int lockProfilerMaxPrefixes;
+
+    @Getter
+    @Value("${infinispan.lockProfiler.window}")
+    private long lockProfilerWindow;
+
     // HotRod server configuration
+    @Value("${infinispan.hotrod.port}")
+    private int hotRodPort;
+
     @Value("${infinispan.hotrod.topologyLockTimeout}")
     private long topologyLockTimeout;
 
     @Value("${infinispan.hotrod.topologyReplTimeout}")
     private long topologyReplTimeout;
 
-    @PostConstruct
-    public void init() {
-        System.setProperty("readthrough.entityClass", readthroughEntityClass);
-        System.setProperty("spring.datasource.url", dbUrl);
-        System.setProperty("spring.datasource.username", dbUsername);
-        System.setProperty("spring.datasource.password", dbPassword);
+    // memcached endpoint configuration
+    @Getter
+    @Value("${infinispan.memcached.enabled}")
+    private boolean memcachedEnabled;
 
-        System.setProperty("spring.jpa.hibernate.ddl-auto", ddlAuto);
-        System.setProperty("spring.jpa.show_sql", showSql);
-    }
+    @Getter
+    @Value("${infinispan.memcached.primaryPort}")
+    private int memcachedPrimaryPort;
+
+    @Getter
+    @Value("${infinispan.memcached.secondaryPort}")
+    private int memcachedSecondaryPort;
+
+    @Getter
+    @Value("${infinispan.memcached.workerThreads}")
+    private int memcachedWorkerThreads;
+
+    @Getter
+    @Value("${infinispan.memcached.maxItemSize}")
+    private int memcachedMaxItemSize;
+
+    @Getter
+    @Value("${infinispan.memcached.deltaUpdates}")
+    private boolean memcachedDeltaUpdates;
 
     @Bean
     public GlobalConfiguration globalConfig() {
         GlobalConfigurationBuilder gcb = new GlobalConfigurationBuilder();
         gcb.transport().defaultTransport()
             .clusterName(clusterName)
-            .globalJmxStatistics().enabled(globalStatisticsEnabled);
+            .globalJmxStatistics().enabled(globalStatisticsEnabled).jmxDomain(jmxDomain);
 
         gcb.shutdown().hookBehavior(ShutdownHookBehavior.REGISTER);
 
+        // Replication, state transfer and the snapshot marshal MemcachedItems compactly instead of serializing them
+        gcb.serialization().addAdvancedExternalizer(new MemcachedItemExternalizer());
+        gcb.serialization().addAdvancedExternalizer(new CompressedBytesExternalizer());
+
         if (jgroupsConfig.equals("")) {
             log.info("Using default jgroups discovery");
         } else {
@@ -160,7 +473,9 @@ public class ServerConfig {
         ConfigurationBuilder mainConfigBuilder = new ConfigurationBuilder();
         mainConfigBuilder
             .clustering().cacheMode(primaryCacheMode)
-            .stateTransfer().chunkSize(primaryStateTransferChunkSize)
+            .stateTransfer()
+                .chunkSize(primaryStateTransferChunkSize)
+                .timeout(primaryStateTransferTimeout, TimeUnit.SECONDS)
             .compatibility().enable()
             .jmxStatistics().enable()
             .locking()
@@ -175,36 +490,116 @@ public class ServerConfig {
             mainConfigBuilder.clustering().hash().numOwners(primaryCacheNumOwners);
         }
 
-        if (readthroughEnabled) {
-            Class<?> entityClass;
-            try {
-                    entityClass = Class.forName(readthroughEntityClass);
-                } catch (ClassNotFoundException ex) {
-                    log.error("Entity Class not found, continuing without read-through", ex);
-                    return mainConfigBuilder.build();
-                }
+        configureStorage(
+            mainConfigBuilder, primaryCacheName, primaryStorageType, primaryStorageMaxSize,
+            primaryStorageAddressCount, true, primaryCacheLockConcurrency
+        );
 
+        if (readthroughEnabled) {
+            // ServerManager runs the parallel preload instead of Infinispan's sequential one
             mainConfigBuilder.persistence()
                 .passivation(false)
-                .addStore(JpaStoreConfigurationBuilder.class)
+                .addStore(MemcachedItemStoreConfigurationBuilder.class)
                     .shared(true)
-                    .preload(readthroughPreload)
-                    .persistenceUnitName(readthroughPersistenceUnitName)
-                    .storeMetadata(true)
-                    .entityClass(entityClass)
-                    .ignoreModifications(true);
+                    .preload(false)
+                    .connectionUrl(dbUrl)
+                    .username(dbUsername)
+                    .password(dbPassword)
+                    .maxPoolSize(dbMaxPoolSize)
+                    .connectionTimeout(dbConnectionTimeout)
+                    .batching(readthroughBatchEnabled)
+                    .batchSize(readthroughBatchSize)
+                    .batchWindow(readthroughBatchWindow)
+                    .loaderThreads(readthroughBatchThreads)
+                    .pageSize(readthroughPreloadPageSize)
+                    .negativeLookup(negativeLookupEnabled)
+                    .expectedKeys(negativeLookupExpectedKeys)
+                    .falsePositiveRate(negativeLookupFalsePositiveRate)
+                    .negativeTtl(negativeLookupTtl)
+                    .negativeCacheSize(negativeLookupMaxSize)
+                    .filterRebuildInterval(negativeLookupRebuildInterval)
+                    .filterBypassThreshold(negativeLookupBypassThreshold)
+                    .writeBehind(writeBehindEnabled)
+                    .writeBatchSize(writeBehindBatchSize)
+                    .flushInterval(writeBehindFlushInterval)
+                    .maxPendingWrites(writeBehindMaxPending)
+                    .offerTimeout(writeBehindOfferTimeout)
+                    .maxConcurrentLoads(guardMaxConcurrent)
+                    .loadTimeout(guardTimeout)
+                    .circuitBreaker(circuitBreakerEnabled)
+                    .breakerFailureRate(circuitBreakerFailureRate)
+                    .breakerMinimumLoads(circuitBreakerMinimumLoads)
+                    .breakerWindow(circuitBreakerWindow)
+                    .breakerOpenDuration(circuitBreakerOpenDuration)
+                    .breakerTrialLoads(circuitBreakerTrialLoads)
+                    .ignoreModifications(!writeBehindEnabled);
+
+            log.info(
+                "Enabled read through, batched loads: {}, write-behind: {}",
+                readthroughBatchEnabled, writeBehindEnabled
+            );
+        }
 
-            log.info("Enabled read through for {}", readthroughEntityClass);
+        if (snapshotEnabled) {
+            // Infinispan preloads before the cache joins the cluster
+            mainConfigBuilder.persistence()
+                .addStore(SnapshotStoreConfigurationBuilder.class)
+                    .shared(false)
+                    .preload(true)
+                    .path(snapshotPath)
+                    .interval(snapshotInterval)
+                    .maxAge(snapshotMaxAge)
+                    .ignoreModifications(true);
         }
 
         return mainConfigBuilder.build();
     }
 
+    /**
+     * Replicated side cache for the hot keys of the primary cache
+     */
+    @Bean
+    public Configuration hotKeyConfig() {
+        ConfigurationBuilder hotKeyConfigBuilder = new ConfigurationBuilder();
+        hotKeyConfigBuilder
+            .clustering().cacheMode(CacheMode.REPL_SYNC)
+            .jmxStatistics().enable()
+            .locking()
+                .lockAcquisitionTimeout(primaryCacheLockTimeout, TimeUnit.SECONDS);
+
+        return hotKeyConfigBuilder.build();
+    }
+
+    /**
+     * Only distributed caches benefit from replicating hot keys, replicated ones have them on every node already
+     */
+    public boolean isHotKeyReplicationEnabled() {
+        return hotKeysEnabled && hotKeysReplicate
+            && primaryCacheMode.friendlyCacheModeString().equals(CACHE_MODE_DISTRIBUTED);
+    }
+
+    @Bean
+    public CompressionPolicy mainCompressionPolicy() {
+        AdaptiveCompressionPolicy policy = new AdaptiveCompressionPolicy(
+            primaryCompressionMinSize,
+            primaryCompressionHighMinSize,
+            primaryCompressionHotAccessCount,
+            primaryCompressionMaxRatio,
+            primaryCompressionSampleSize
+        );
+
+        log.info("Compression policy for {}: {}", primaryCacheName, policy);
+        return policy;
+    }
+
     @Bean
     public Configuration sessionConfig() {
         ConfigurationBuilder sessionConfigBuilder = new ConfigurationBuilder();
         sessionConfigBuilder
             .clustering().cacheMode(secondaryCacheMode)
+            .stateTransfer()
+                .chunkSize(secondaryStateTransferChunkSize)
+                .timeout(secondaryStateTransferTimeout, TimeUnit.SECONDS)
             .jmxStatistics().enable()
             .locking()
                 .lockAcquisitionTimeout(secondaryCacheLockTimeout, TimeUnit.SECONDS)
@@ -218,13 +613,195 @@ public class ServerConfig {
             sessionConfigBuilder.expiration().lifespan(secondaryCacheDefaultExpiration, TimeUnit.SECONDS);
         }
 
+        // The compression interceptor and the memcached endpoint need to see MemcachedItems instead of marshalled bytes
+        final boolean compatibility = secondaryCompressionWritePath || isMemcachedSecondaryEnabled();
+        if (compatibility) {
+            sessionConfigBuilder.compatibility().enable();
+            log.info(
+                "Enabled compatibility mode for {}, compress on write: {}, memcached endpoint: {}",
+                secondaryCacheName, secondaryCompressionWritePath, isMemcachedSecondaryEnabled()
+            );
+        }
+
+        configureStorage(
+            sessionConfigBuilder, secondaryCacheName, secondaryStorageType, secondaryStorageMaxSize,
+            secondaryStorageAddressCount, compatibility, secondaryCacheLockConcurrency
+        );
+
         return sessionConfigBuilder.build();
     }
 
+    @Bean
+    public CompressionPolicy sessionCompressionPolicy() {
+        AdaptiveCompressionPolicy policy = new AdaptiveCompressionPolicy(
+            secondaryCompressionMinSize,
+            secondaryCompressionHighMinSize,
+            secondaryCompressionHotAccessCount,
+            secondaryCompressionMaxRatio,
+            secondaryCompressionSampleSize
+        );
+
+        log.info("Compression policy for {}: {}", secondaryCacheName, policy);
+        return policy;
+    }
+
+    /**
+     * Configuration of a cache of infinispan.caches, built like the secondary cache's
+     */
+    public Configuration namedCacheConfig(CacheDefinition definition) {
+        ConfigurationBuilder builder = new ConfigurationBuilder();
+        builder
+            .clustering().cacheMode(definition.getMode())
+            .stateTransfer()
+                .chunkSize(definition.getStateTransferChunkSize())
+                .timeout(definition.getStateTransfer().getTimeout(), TimeUnit.SECONDS)
+            .jmxStatistics().enable()
+            .locking()
+                .lockAcquisitionTimeout(definition.getLock().getTimeout(), TimeUnit.SECONDS)
+                .concurrencyLevel(definition.getLock().getConcurrency());
+
+        if (definition.getMode().friendlyCacheModeString().equals(CACHE_MODE_DISTRIBUTED)) {
+            builder.clustering().hash().numOwners(definition.getNumOwners());
+        }
+
+        if (definition.getDefaultExpiration() > 0) {
+            builder.expiration().lifespan(definition.getDefaultExpiration(), TimeUnit.SECONDS);
+        }
+
+        if (definition.isCompatibility()) {
+            builder.compatibility().enable();
+        }
+
+        configureStorage(
+            builder, definition.getName(), definition.getStorage().getType(), definition.getStorage().getMaxSize(),
+            definition.getStorage().getAddressCount(), definition.isCompatibility(), definition.getLock().getConcurrency()
+        );
+
+        final CacheDefinition.Readthrough readthrough = definition.getReadthrough();
+        if (readthrough.isEnabled()) {
+            final boolean ownDatabase = !readthrough.getUrl().isEmpty();
+
+            builder.persistence()
+                .passivation(false)
+                .addStore(MemcachedItemStoreConfigurationBuilder.class)
+                    .shared(true)
+                    .preload(false)
+                    .connectionUrl(ownDatabase ? readthrough.getUrl() : dbUrl)
+                    .username(ownDatabase ? readthrough.getUsername() : dbUsername)
+                    .password(ownDatabase ? readthrough.getPassword() : dbPassword)
+                    .table(readthrough.getTable())
+                    .maxPoolSize(dbMaxPoolSize)
+                    .connectionTimeout(dbConnectionTimeout)
+                    .batching(readthrough.isBatching())
+                    .batchSize(orPrimary(readthrough.getBatchSize(), readthroughBatchSize))
+                    .batchWindow(orPrimary(readthrough.getBatchWindow(), readthroughBatchWindow))
+                    .loaderThreads(orPrimary(readthrough.getLoaderThreads(), readthroughBatchThreads))
+                    .pageSize(orPrimary(readthrough.getPageSize(), readthroughPreloadPageSize))
+                    .negativeLookup(readthrough.isNegativeLookup())
+                    .expectedKeys(orPrimary(readthrough.getExpectedKeys(), negativeLookupExpectedKeys))
+                    .falsePositiveRate(orPrimary(readthrough.getFalsePositiveRate(), negativeLookupFalsePositiveRate))
+                    .negativeTtl(orPrimary(readthrough.getNegativeTtl(), negativeLookupTtl))
+                    .negativeCacheSize(orPrimary(readthrough.getNegativeCacheSize(), negativeLookupMaxSize))
+                    .filterRebuildInterval(orPrimary(readthrough.getFilterRebuildInterval(), negativeLookupRebuildInterval))
+                    .filterBypassThreshold(orPrimary(readthrough.getFilterBypassThreshold(), negativeLookupBypassThreshold))
+                    .writeBehind(readthrough.isWriteBehind())
+                    .writeBatchSize(orPrimary(readthrough.getWriteBatchSize(), writeBehindBatchSize))
+                    .flushInterval(orPrimary(readthrough.getFlushInterval(), writeBehindFlushInterval))
+                    .maxPendingWrites(orPrimary(readthrough.getMaxPendingWrites(), writeBehindMaxPending))
+                    .offerTimeout(orPrimary(readthrough.getOfferTimeout(), writeBehindOfferTimeout))
+                    .maxConcurrentLoads(guardMaxConcurrent)
+                    .loadTimeout(guardTimeout)
+                    .circuitBreaker(circuitBreakerEnabled)
+                    .breakerFailureRate(circuitBreakerFailureRate)
+                    .breakerMinimumLoads(circuitBreakerMinimumLoads)
+                    .breakerWindow(circuitBreakerWindow)
+                    .breakerOpenDuration(circuitBreakerOpenDuration)
+                    .breakerTrialLoads(circuitBreakerTrialLoads)
+                    .ignoreModifications(!readthrough.isWriteBehind());
+        }
+
+        log.info("Defined cache {}", definition);
+        return builder.build();
+    }
+
+    /**
+     * Read-through settings a named cache leaves empty take the primary cache's value
+     */
+    private static <T> T orPrimary(T value, T primaryValue) {
+        return value != null ? value : primaryValue;
+    }
+
+    public CompressionPolicy namedCompressionPolicy(CacheDefinition definition) {
+        final CacheDefinition.Compression compression = definition.getCompression();
+        AdaptiveCompressionPolicy policy = new AdaptiveCompressionPolicy(
+            compression.getMinSize(),
+            compression.getHighCompressionMinSize(),
+            compression.getHotAccessCount(),
+            compression.getMaxRatio(),
+            compression.getSampleSize()
+        );
+
+        log.info("Compression policy for {}: {}", definition.getName(), policy);
+        return policy;
+    }
+
+    /**
+     * Infinispan 9.0 can neither store compatibility mode caches off-heap nor size their MemcachedItems,
+     * so those stay on the heap and are bounded with our own size estimate
+     *
+     * Its memory based eviction also only accepts BINARY storage, so bounded OBJECT caches without compatibility
+     * mode are stored as BINARY. Bounded OFF_HEAP caches get a memory bounded container of our own, the builder
+     * still needs a size though, otherwise the off-heap entries are written without room for the LRU pointers
+     */
+    private void configureStorage(ConfigurationBuilder builder, String cacheName, StorageType storageType,
+                                  long maxSize, int addressCount, boolean compatibility, int concurrency) {
+        if (compatibility && storageType != StorageType.OBJECT) {
+            log.warn("{} runs in compatibility mode, which doesn't support {} storage, using OBJECT", cacheName, storageType);
+            storageType = StorageType.OBJECT;
+        }
+
+        builder.memory().storageType(storageType);
+
+        if (storageType == StorageType.OFF_HEAP) {
+            builder.memory().addressCount(addressCount);
+        }
+
+        if (maxSize <= 0) {
+            log.info("{} stores entries as {}, unbounded", cacheName, storageType);
+            return;
+        }
+
+        if (storageType == StorageType.OFF_HEAP) {
+            builder.memory().size(maxSize).evictionType(EvictionType.COUNT);
+            builder.dataContainer().dataContainer(new EvictionCountingOffHeapDataContainer(addressCount, maxSize));
+        } else if (compatibility) {
+            builder.dataContainer().dataContainer(
+                DefaultDataContainer.boundedDataContainer(concurrency, maxSize, new MemcachedItemSizeCalculator())
+            );
+        } else {
+            storageType = StorageType.BINARY;
+            builder.memory().storageType(storageType).size(maxSize).evictionType(EvictionType.MEMORY);
+        }
+
+        log.info("{} stores entries as {}, bounded to {} bytes", cacheName, storageType, maxSize);
+    }
+
+    public boolean isMemcachedSecondaryEnabled() {
+        return memcachedEnabled && memcachedSecondaryPort > 0;
+    }
+
+    /**
+     * The memcached endpoints listen on the same address as the HotRod server
+     */
+    public String getMemcachedHost() {
+        return networkAddress.equals("") ? "127.0.0.1" : networkAddress;
+    }
+
     @Bean
     private HotRodServerConfiguration hotRodServerConfiguration() {
         HotRodServerConfigurationBuilder builder = new HotRodServerConfigurationBuilder();
         builder.defaultCacheName(primaryCacheName)
+            .port(hotRodPort)
             .authentication().disable()
             .topologyLockTimeout(topologyLockTimeout)
             .topologyReplTimeout(topologyReplTimeout);
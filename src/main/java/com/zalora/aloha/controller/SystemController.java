@@ -1,6 +1,13 @@
 package com.zalora.aloha.controller;
 
+import com.zalora.aloha.hotkeys.*;
+import com.zalora.aloha.latency.LatencyRegistry;
+import com.zalora.aloha.locks.LockProfile;
+import com.zalora.aloha.manager.ServerManager;
+import com.zalora.aloha.statetransfer.StateTransferProgress;
+import java.util.*;
 import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.web.bind.annotation.*;
 
 /**
@@ -10,4 +17,60 @@ import org.springframework.web.bind.annotation.*;
 @RestController
 public class SystemController {
 
+    @Autowired
+    private ServerManager serverManager;
+
+    /**
+     * Most read keys of the primary cache on this node, hottest first
+     */
+    @GetMapping("/hotkeys")
+    public List<HotKey> hotKeys() {
+        final HotKeyTracker tracker = serverManager.getHotKeyTracker();
+        if (tracker == null) {
+            return Collections.emptyList();
+        }
+
+        final HotKeyReplicator replicator = serverManager.getHotKeyReplicator();
+        List<HotKey> hotKeys = new ArrayList<>();
+
+        for (Map.Entry<String, Long> entry : tracker.getTopKeys()) {
+            hotKeys.add(new HotKey(
+                entry.getKey(),
+                entry.getValue(),
+                tracker.isHot(entry.getKey()),
+                replicator != null && replicator.isReplicated(entry.getKey())
+            ));
+        }
+
+        return hotKeys;
+    }
+
+    /**
+     * Percentiles of the last minute and since start by histogram name
+     * Latencies are in microseconds, compression ratios in per mille of the original size
+     */
+    @GetMapping("/latency")
+    public Map<String, LatencyRegistry.Report> latency() {
+        return serverManager.getLatencies().getReports();
+    }
+
+    /**
+     * Progress of the state this node received last by cache name, segments, entries, bytes and ETA
+     */
+    @GetMapping("/statetransfer")
+    public Map<String, StateTransferProgress> stateTransfer() {
+        return serverManager.getStateTransfers();
+    }
+
+    /**
+     * Sampled lock waits by cache name, with histograms by key prefix and the most contended keys and stripes
+     */
+    @GetMapping("/locks")
+    public Map<String, LockProfile> locks() {
+        Map<String, LockProfile> profiles = new TreeMap<>();
+        serverManager.getLockProfilers().forEach((cacheName, profiler) -> profiles.put(cacheName, profiler.getProfile()));
+
+        return profiles;
+    }
+
 }
@@ -0,0 +1,119 @@
+package com.zalora.aloha.hotkeys;
+
+import java.util.*;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.*;
+import lombok.Getter;
+import org.springframework.util.Assert;
+
+/**
+ * Counts a sample of the reads per key and keeps about the most read maxKeys keys, the keys warmed up on start
+ *
+ * Unlike HotKeyTracker, which watches a handful of keys closely, this one keeps thousands of them roughly:
+ * only every sampleRate-th read is counted, and once twice maxKeys keys are tracked, the least read half is dropped.
+ * Counts are halved by age(), so keys which aren't read anymore make room for new ones.
+ *
+ * @author Wolfram Huesken <wolfram.huesken@zalora.com>
+ */
+public class AccessRecorder {
+
+    @Getter
+    private final int maxKeys;
+
+    @Getter
+    private final int sampleRate;
+
+    private final ConcurrentMap<String, AtomicLong> counts = new ConcurrentHashMap<>();
+
+    private final AtomicBoolean pruning = new AtomicBoolean();
+
+    private final LongAdder samples = new LongAdder();
+
+    /**
+     * @param sampleRate 1 counts every read
+     */
+    public AccessRecorder(int maxKeys, int sampleRate) {
+        Assert.isTrue(maxKeys > 0, "Maximum keys must be positive");
+        Assert.isTrue(sampleRate > 0, "Sample rate must be positive");
+
+        this.maxKeys = maxKeys;
+        this.sampleRate = sampleRate;
+    }
+
+    public void record(String key) {
+        if (sampleRate > 1 && ThreadLocalRandom.current().nextInt(sampleRate) != 0) {
+            return;
+        }
+
+        samples.increment();
+
+        AtomicLong count = counts.get(key);
+        if (count == null) {
+            if (counts.size() >= maxKeys * 2) {
+                prune();
+            }
+
+            count = counts.computeIfAbsent(key, newKey -> new AtomicLong());
+        }
+
+        count.incrementAndGet();
+    }
+
+    /**
+     * Carries over a count of an earlier run, e.g. read from the hot key list
+     */
+    public void restore(String key, long count) {
+        counts.computeIfAbsent(key, newKey -> new AtomicLong()).addAndGet(count);
+    }
+
+    /**
+     * @return up to limit keys with their sampled reads, most read first
+     */
+    public List<Map.Entry<String, Long>> getTopKeys(int limit) {
+        List<Map.Entry<String, Long>> top = new ArrayList<>(counts.size());
+        for (Map.Entry<String, AtomicLong> count : counts.entrySet()) {
+            top.add(new AbstractMap.SimpleImmutableEntry<>(count.getKey(), count.getValue().get()));
+        }
+
+        top.sort(Map.Entry.<String, Long>comparingByValue().reversed());
+        return top.size() > limit ? new ArrayList<>(top.subList(0, limit)) : top;
+    }
+
+    /**
+     * Halves all counts, keys which drop to 0 are forgotten
+     */
+    public void age() {
+        for (Map.Entry<String, AtomicLong> count : counts.entrySet()) {
+            if (count.getValue().updateAndGet(value -> value / 2) == 0) {
+                counts.remove(count.getKey(), count.getValue());
+            }
+        }
+    }
+
+    public int getTrackedKeys() {
+        return counts.size();
+    }
+
+    public long getSamples() {
+        return samples.sum();
+    }
+
+    /**
+     * Drops the least read keys down to maxKeys, one thread prunes while the others keep counting
+     */
+    private void prune() {
+        if (!pruning.compareAndSet(false, true)) {
+            return;
+        }
+
+        try {
+            List<Map.Entry<String, Long>> top = getTopKeys(Integer.MAX_VALUE);
+            for (Map.Entry<String, Long> cold : top.subList(Math.min(maxKeys, top.size()), top.size())) {
+                counts.remove(cold.getKey());
+            }
+        } finally {
+            pruning.set(false);
+        }
+    }
+
+}
@@ -0,0 +1,76 @@
+package com.zalora.aloha.hotkeys;
+
+import java.util.concurrent.atomic.AtomicLongArray;
+import org.springframework.util.Assert;
+
+/**
+ * Approximate frequency counts in fixed memory
+ * Estimates never undercount, they overcount by about 2 * total / width with high probability
+ *
+ * @author Wolfram Huesken <wolfram.huesken@zalora.com>
+ */
+public class CountMinSketch {
+
+    private static final int DEPTH = 4;
+
+    private static final int[] SEEDS = {0x9E3779B1, 0x85EBCA77, 0xC2B2AE3D, 0x27D4EB2F};
+
+    private final AtomicLongArray counters;
+    private final int mask;
+
+    /**
+     * @param width counters per row, rounded up to a power of two
+     */
+    public CountMinSketch(int width) {
+        Assert.isTrue(width > 0 && width <= 1 << 26, "Sketch width must be between 1 and 2^26");
+
+        int rowSize = Integer.highestOneBit(width - 1 > 0 ? width - 1 : 1) << 1;
+        counters = new AtomicLongArray(rowSize * DEPTH);
+        mask = rowSize - 1;
+    }
+
+    /**
+     * @return the estimated count after the increment
+     */
+    public long increment(Object key) {
+        final int hash = spread(key.hashCode());
+        long min = Long.MAX_VALUE;
+
+        for (int row = 0; row < DEPTH; row++) {
+            min = Math.min(min, counters.incrementAndGet(index(hash, row)));
+        }
+
+        return min;
+    }
+
+    public long estimate(Object key) {
+        final int hash = spread(key.hashCode());
+        long min = Long.MAX_VALUE;
+
+        for (int row = 0; row < DEPTH; row++) {
+            min = Math.min(min, counters.get(index(hash, row)));
+        }
+
+        return min;
+    }
+
+    /**
+     * Halves all counters, so old accesses lose weight
+     * Increments running at the same time may get lost, which doesn't matter for an estimate
+     */
+    public void age() {
+        for (int i = 0; i < counters.length(); i++) {
+            counters.set(i, counters.get(i) >>> 1);
+        }
+    }
+
+    private int index(int hash, int row) {
+        int h = hash * SEEDS[row];
+        return row * (mask + 1) + ((h ^ (h >>> 16)) & mask);
+    }
+
+    private static int spread(int hash) {
+        return hash ^ (hash >>> 16);
+    }
+
+}
@@ -0,0 +1,25 @@
+package com.zalora.aloha.hotkeys;
+
+import lombok.*;
+
+/**
+ * A tracked key as shown by /hotkeys
+ *
+ * @author Wolfram Huesken <wolfram.huesken@zalora.com>
+ */
+@Data
+@AllArgsConstructor
+public class HotKey {
+
+    private String key;
+
+    /**
+     * Estimated reads, halved every window
+     */
+    private long reads;
+
+    private boolean hot;
+
+    private boolean replicated;
+
+}
@@ -0,0 +1,108 @@
+package com.zalora.aloha.hotkeys;
+
+import java.io.*;
+import java.nio.*;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.*;
+import java.util.*;
+import java.util.zip.CRC32;
+
+/**
+ * File format of the hot key list, the keys to warm up on start:
+ * - header: magic (4), format version (4), creation time in ms (8), number of keys (4)
+ * - key: length (2), UTF-8 bytes, sampled reads (8)
+ * - CRC32 of everything before it (8)
+ *
+ * Keys are stored most read first. The file is written next to the target and moved in place,
+ * a damaged or cut off file is rejected as a whole.
+ *
+ * @author Wolfram Huesken <wolfram.huesken@zalora.com>
+ */
+public class HotKeyFile {
+
+    private static final int MAGIC = 0x414c484b;
+    private static final int FORMAT_VERSION = 1;
+
+    private static final int HEADER_LENGTH = 20;
+    private static final int CHECKSUM_LENGTH = 8;
+
+    /**
+     * @return size of the file in bytes
+     */
+    public static long write(Path target, long created, List<Map.Entry<String, Long>> keys) throws IOException {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream(HEADER_LENGTH + keys.size() * 48);
+        DataOutputStream out = new DataOutputStream(bytes);
+
+        out.writeInt(MAGIC);
+        out.writeInt(FORMAT_VERSION);
+        out.writeLong(created);
+        out.writeInt(keys.size());
+
+        for (Map.Entry<String, Long> key : keys) {
+            byte[] keyBytes = key.getKey().getBytes(StandardCharsets.UTF_8);
+            out.writeShort(keyBytes.length);
+            out.write(keyBytes);
+            out.writeLong(key.getValue());
+        }
+
+        CRC32 crc = new CRC32();
+        crc.update(bytes.toByteArray());
+        out.writeLong(crc.getValue());
+
+        final Path absoluteTarget = target.toAbsolutePath();
+        final Path temporary = absoluteTarget.resolveSibling(absoluteTarget.getFileName() + ".tmp");
+
+        Files.createDirectories(absoluteTarget.getParent());
+        Files.write(temporary, bytes.toByteArray());
+        Files.move(temporary, absoluteTarget, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+
+        return bytes.size();
+    }
+
+    /**
+     * @param consumer gets each key with its sampled reads, most read first
+     * @return creation time of the list
+     * @throws IOException if the file is damaged, incomplete or can't be read
+     */
+    public static long read(Path path, KeyConsumer consumer) throws IOException {
+        final byte[] bytes = Files.readAllBytes(path);
+        if (bytes.length < HEADER_LENGTH + CHECKSUM_LENGTH) {
+            throw new IOException("Hot key list " + path + " is cut off");
+        }
+
+        final ByteBuffer buffer = ByteBuffer.wrap(bytes);
+        if (buffer.getInt() != MAGIC || buffer.getInt() != FORMAT_VERSION) {
+            throw new IOException("Not a hot key list or an unknown format version");
+        }
+
+        CRC32 crc = new CRC32();
+        crc.update(bytes, 0, bytes.length - CHECKSUM_LENGTH);
+        if (crc.getValue() != buffer.getLong(bytes.length - CHECKSUM_LENGTH)) {
+            throw new IOException("Checksum of hot key list " + path + " doesn't match");
+        }
+
+        final long created = buffer.getLong();
+        final int keys = buffer.getInt();
+
+        try {
+            for (int i = 0; i < keys; i++) {
+                byte[] key = new byte[buffer.getShort() & 0xffff];
+                buffer.get(key);
+                consumer.accept(new String(key, StandardCharsets.UTF_8), buffer.getLong());
+            }
+        } catch (BufferUnderflowException ex) {
+            throw new IOException("Hot key list " + path + " is damaged", ex);
+        }
+
+        return created;
+    }
+
+    /**
+     * Gets each key of the file
+     */
+    public interface KeyConsumer {
+
+        void accept(String key, long reads);
+    }
+
+}
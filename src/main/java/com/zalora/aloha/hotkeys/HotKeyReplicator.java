@@ -0,0 +1,154 @@
+package com.zalora.aloha.hotkeys;
+
+import java.util.*;
+import java.util.concurrent.*;
+import lombok.Getter;
+import lombok.extern.slf4j.Slf4j;
+import org.infinispan.AdvancedCache;
+import org.infinispan.container.entries.CacheEntry;
+import org.infinispan.context.Flag;
+import org.infinispan.metadata.Metadata;
+import org.infinispan.util.TimeService;
+import org.springframework.util.Assert;
+
+/**
+ * Copies hot keys of a distributed cache into a replicated side cache, so every node can serve them locally
+ * instead of sending all reads to the few owners
+ *
+ * Promotion and demotion run periodically based on this node's tracker. A node only demotes keys it promoted
+ * itself, if they're still hot somewhere else, that node promotes them again. Writes to the main cache
+ * drop the key from the side cache (see HotKeyInterceptor), the next promotion copies the new value.
+ * Values are copied the way the main cache returns them, i.e. decompressed.
+ *
+ * @author Wolfram Huesken <wolfram.huesken@zalora.com>
+ */
+@Slf4j
+public class HotKeyReplicator {
+
+    private final HotKeyTracker tracker;
+    private final AdvancedCache<Object, Object> sideCache;
+    private volatile AdvancedCache<Object, Object> mainCache;
+    private final TimeService timeService;
+
+    /**
+     * Keys promoted by this node
+     */
+    private final Set<String> promoted = ConcurrentHashMap.newKeySet();
+
+    @Getter
+    private volatile long promotions;
+
+    @Getter
+    private volatile long demotions;
+
+    /**
+     * The replicator is handed to the main cache's interceptor, so the main cache is set later on, see start()
+     */
+    public HotKeyReplicator(HotKeyTracker tracker, AdvancedCache<Object, Object> sideCache) {
+        Assert.notNull(tracker, "Hot key tracker must not be null");
+        Assert.notNull(sideCache, "Side cache must not be null");
+
+        this.tracker = tracker;
+        this.sideCache = sideCache;
+        timeService = sideCache.getComponentRegistry().getComponent(TimeService.class);
+    }
+
+    /**
+     * Starts promoting hot keys of the main cache
+     */
+    public void start(AdvancedCache<Object, Object> mainCache) {
+        Assert.notNull(mainCache, "Main cache must not be null");
+        this.mainCache = mainCache;
+    }
+
+    /**
+     * @return the replicated entry or null if the key isn't replicated
+     */
+    public CacheEntry<Object, Object> get(Object key) {
+        return sideCache.withFlags(Flag.CACHE_MODE_LOCAL, Flag.SKIP_STATISTICS).getCacheEntry(key);
+    }
+
+    public boolean isReplicated(Object key) {
+        return sideCache.withFlags(Flag.CACHE_MODE_LOCAL).containsKey(key);
+    }
+
+    public void invalidate(Object key) {
+        if (isReplicated(key)) {
+            sideCache.withFlags(Flag.IGNORE_RETURN_VALUES).remove(key);
+        }
+    }
+
+    public void invalidateAll() {
+        sideCache.clear();
+    }
+
+    /**
+     * Promotes hot keys which aren't replicated yet and demotes the ones which cooled off
+     */
+    public synchronized void run() {
+        if (mainCache == null) {
+            return;
+        }
+
+        try {
+            for (String key : tracker.getHotKeys()) {
+                if (!isReplicated(key)) {
+                    promote(key);
+                }
+            }
+
+            for (String key : promoted) {
+                if (!tracker.isHot(key)) {
+                    demote(key);
+                }
+            }
+        } catch (RuntimeException ex) {
+            log.error("Hot key replication failed", ex);
+        }
+    }
+
+    private void promote(String key) {
+        // SKIP_STATISTICS keeps HotKeyInterceptor out of the way
+        final AdvancedCache<Object, Object> untracked = mainCache.withFlags(Flag.SKIP_STATISTICS);
+
+        CacheEntry<Object, Object> entry = untracked.getCacheEntry(key);
+        if (entry == null || entry.getValue() == null) {
+            return;
+        }
+
+        sideCache.withFlags(Flag.IGNORE_RETURN_VALUES).put(key, entry.getValue(), remainingMetadata(entry));
+
+        // A write may have slipped in between reading the entry and replicating it
+        CacheEntry<Object, Object> current = untracked.getCacheEntry(key);
+        if (current == null || !Objects.equals(current.getValue(), entry.getValue())) {
+            sideCache.withFlags(Flag.IGNORE_RETURN_VALUES).remove(key);
+            return;
+        }
+
+        promoted.add(key);
+        promotions++;
+        log.info("Replicating hot key {} ({} reads)", key, tracker.estimate(key));
+    }
+
+    private void demote(String key) {
+        promoted.remove(key);
+        sideCache.withFlags(Flag.IGNORE_RETURN_VALUES).remove(key);
+
+        demotions++;
+        log.info("Hot key {} cooled off", key);
+    }
+
+    /**
+     * The metadata is kept as it is (e.g. the HotRod version), just the lifespan is shortened to what's left
+     */
+    private Metadata remainingMetadata(CacheEntry<Object, Object> entry) {
+        final Metadata metadata = entry.getMetadata();
+        if (metadata == null || entry.getLifespan() < 0 || entry.getCreated() < 0) {
+            return metadata;
+        }
+
+        long remaining = entry.getCreated() + entry.getLifespan() - timeService.wallClockTime();
+        return metadata.builder().lifespan(Math.max(remaining, 1), TimeUnit.MILLISECONDS).build();
+    }
+
+}
@@ -0,0 +1,160 @@
+package com.zalora.aloha.hotkeys;
+
+import java.util.*;
+import java.util.concurrent.*;
+import lombok.Getter;
+import org.springframework.util.Assert;
+
+/**
+ * Counts key accesses in a count-min sketch and keeps the top K keys
+ *
+ * Only every sampleRate-th read is counted, estimates are scaled back up to reads.
+ * Counts are halved every window, so a key which isn't read anymore cools off after a few windows.
+ * A key is hot once its estimate reaches the threshold and stays hot until it drops below half of it,
+ * so keys close to the threshold don't flap.
+ *
+ * Reads only touch the candidates if a key is admitted or its count grew noticeably. The candidates are cut back
+ * to the top K once per window in age(), in between up to twice as many are admitted, and hot keys always.
+ *
+ * @author Wolfram Huesken <wolfram.huesken@zalora.com>
+ */
+public class HotKeyTracker {
+
+    /**
+     * Counters per top K slot, enough to keep the overcounting of the sketch well below typical thresholds
+     */
+    private static final int SKETCH_WIDTH_PER_KEY = 4096;
+
+    /**
+     * A candidate's count is updated once it grew by an eighth
+     */
+    private static final int UPDATE_SHIFT = 3;
+
+    private final CountMinSketch sketch;
+
+    @Getter
+    private final int topK;
+
+    @Getter
+    private final long threshold;
+
+    @Getter
+    private final int sampleRate;
+
+    /**
+     * Top K candidates with their last estimate
+     */
+    private final ConcurrentMap<String, Long> candidates = new ConcurrentHashMap<>();
+
+    /**
+     * Smallest estimate in candidates after the last eviction, new keys need to beat it
+     */
+    private volatile long admissionCount;
+
+    private final Set<String> hotKeys = ConcurrentHashMap.newKeySet();
+
+    /**
+     * @param sampleRate 1 counts every read
+     */
+    public HotKeyTracker(int topK, long threshold, int sampleRate) {
+        Assert.isTrue(topK > 0, "Top K must be positive");
+        Assert.isTrue(threshold > 1, "Hot key threshold must be greater than 1");
+        Assert.isTrue(sampleRate > 0, "Sample rate must be positive");
+
+        this.topK = topK;
+        this.threshold = threshold;
+        this.sampleRate = sampleRate;
+        sketch = new CountMinSketch(topK * SKETCH_WIDTH_PER_KEY);
+    }
+
+    public void record(String key) {
+        if (sampleRate > 1 && ThreadLocalRandom.current().nextInt(sampleRate) != 0) {
+            return;
+        }
+
+        final long count = sketch.increment(key) * sampleRate;
+        final boolean hot = count >= threshold;
+
+        final Long previous = candidates.get(key);
+        if (previous == null) {
+            if (!hot && (count < admissionCount || candidates.size() >= topK * 2)) {
+                return;
+            }
+
+            candidates.put(key, count);
+        } else if (count - previous >= Math.max(previous >> UPDATE_SHIFT, sampleRate)) {
+            candidates.put(key, count);
+        }
+
+        if (hot && !hotKeys.contains(key)) {
+            hotKeys.add(key);
+        }
+    }
+
+    public long estimate(String key) {
+        return sketch.estimate(key) * sampleRate;
+    }
+
+    public boolean isHot(String key) {
+        return hotKeys.contains(key);
+    }
+
+    /**
+     * @return the top K keys and their estimates, hottest first
+     */
+    public List<Map.Entry<String, Long>> getTopKeys() {
+        List<Map.Entry<String, Long>> top = new ArrayList<>(candidates.size());
+        for (String key : candidates.keySet()) {
+            top.add(new AbstractMap.SimpleImmutableEntry<>(key, estimate(key)));
+        }
+
+        top.sort(Map.Entry.<String, Long>comparingByValue().reversed());
+        return top.size() > topK ? new ArrayList<>(top.subList(0, topK)) : top;
+    }
+
+    public Set<String> getHotKeys() {
+        return Collections.unmodifiableSet(hotKeys);
+    }
+
+    /**
+     * Halves all counts and cuts the candidates back to the top K, called once per window
+     * Keys which dropped below half the threshold aren't hot anymore
+     */
+    public void age() {
+        sketch.age();
+
+        for (String key : candidates.keySet()) {
+            long count = estimate(key);
+            candidates.replace(key, count);
+
+            if (count < threshold / 2) {
+                hotKeys.remove(key);
+            }
+        }
+
+        evictCandidates();
+        hotKeys.retainAll(candidates.keySet());
+    }
+
+    /**
+     * Keys admitted concurrently are kept, they're counted against the next window
+     */
+    private void evictCandidates() {
+        final int excess = candidates.size() - topK;
+        if (excess <= 0) {
+            admissionCount = admissionCount / 2;
+            return;
+        }
+
+        List<Map.Entry<String, Long>> coldest = new ArrayList<>(candidates.entrySet());
+        coldest.sort(Map.Entry.comparingByValue());
+
+        for (Map.Entry<String, Long> candidate : coldest.subList(0, excess)) {
+            candidates.remove(candidate.getKey());
+            hotKeys.remove(candidate.getKey());
+        }
+
+        admissionCount = coldest.get(excess - 1).getValue() + 1;
+    }
+
+}
@@ -0,0 +1,53 @@
+package com.zalora.aloha.interceptor;
+
+import com.zalora.aloha.hotkeys.AccessRecorder;
+import org.infinispan.commands.FlagAffectedCommand;
+import org.infinispan.commands.read.*;
+import org.infinispan.context.InvocationContext;
+import org.infinispan.context.impl.FlagBitSets;
+import org.infinispan.interceptors.BaseCustomAsyncInterceptor;
+import org.springframework.util.Assert;
+
+/**
+ * Records reads started on this node, the most read keys are warmed up on the next start
+ * Commands flagged with SKIP_STATISTICS aren't recorded
+ *
+ * @author Wolfram Huesken <wolfram.huesken@zalora.com>
+ */
+public class AccessRecordingInterceptor extends BaseCustomAsyncInterceptor {
+
+    private final AccessRecorder recorder;
+
+    public AccessRecordingInterceptor(AccessRecorder recorder) {
+        Assert.notNull(recorder, "Access recorder must not be null");
+        this.recorder = recorder;
+    }
+
+    @Override
+    public Object visitGetKeyValueCommand(InvocationContext ctx, GetKeyValueCommand command) throws Throwable {
+        record(ctx, command, command.getKey());
+        return invokeNext(ctx, command);
+    }
+
+    @Override
+    public Object visitGetCacheEntryCommand(InvocationContext ctx, GetCacheEntryCommand command) throws Throwable {
+        record(ctx, command, command.getKey());
+        return invokeNext(ctx, command);
+    }
+
+    @Override
+    public Object visitGetAllCommand(InvocationContext ctx, GetAllCommand command) throws Throwable {
+        for (Object key : command.getKeys()) {
+            record(ctx, command, key);
+        }
+
+        return invokeNext(ctx, command);
+    }
+
+    private void record(InvocationContext ctx, FlagAffectedCommand command, Object key) {
+        if (ctx.isOriginLocal() && !command.hasAnyFlag(FlagBitSets.SKIP_STATISTICS) && key instanceof String) {
+            recorder.record((String) key);
+        }
+    }
+
+}
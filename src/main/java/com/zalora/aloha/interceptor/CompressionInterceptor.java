@@ -0,0 +1,224 @@
+package com.zalora.aloha.interceptor;
+
+import com.zalora.aloha.compressor.*;
+import com.zalora.aloha.memcached.MemcachedItem;
+import java.util.*;
+import org.infinispan.commands.VisitableCommand;
+import org.infinispan.commands.read.*;
+import org.infinispan.commands.write.*;
+import org.infinispan.commons.marshall.WrappedByteArray;
+import org.infinispan.container.DataContainer;
+import org.infinispan.container.entries.*;
+import org.infinispan.context.InvocationContext;
+import org.infinispan.distribution.DistributionManager;
+import org.infinispan.interceptors.BaseCustomAsyncInterceptor;
+import org.springframework.util.Assert;
+
+/**
+ * Compresses values before they're written and decompresses them when they're read,
+ * so they sit compressed on the heap and travel compressed to the other nodes
+ *
+ * MemcachedItems keep their type, the compressor encodes the compression in the flags.
+ * Byte arrays written over HotRod have no flags, compressed ones are stored as CompressedBytes.
+ * Both directions work on copies, neither the client's value nor the stored value is modified.
+ * Reads hand out decompressed copies with the original PHP flags.
+ *
+ * Conditional replace and remove compare against what the client has seen, i.e. the decompressed value,
+ * so the primary owner swaps the expected value for the stored one if they match. Other nodes may not have
+ * the entry or hold an outdated copy, they pass the expected value on as it is.
+ * Commands coming from other nodes carry compressed values and their results are decompressed by the node
+ * the command came from, so only the swap is done for them.
+ *
+ * @author Wolfram Huesken <wolfram.huesken@zalora.com>
+ */
+public class CompressionInterceptor extends BaseCustomAsyncInterceptor {
+
+    private final Compressor compressor;
+
+    public CompressionInterceptor(Compressor compressor) {
+        Assert.notNull(compressor, "Compressor must not be null");
+        this.compressor = compressor;
+    }
+
+    @Override
+    public Object visitPutKeyValueCommand(InvocationContext ctx, PutKeyValueCommand command) throws Throwable {
+        if (!ctx.isOriginLocal()) {
+            return invokeNext(ctx, command);
+        }
+
+        command.setValue(compress(command.getKey(), command.getValue()));
+        return invokeNextThenApply(ctx, command, this::decompressReturnValue);
+    }
+
+    @Override
+    public Object visitPutMapCommand(InvocationContext ctx, PutMapCommand command) throws Throwable {
+        if (!ctx.isOriginLocal()) {
+            return invokeNext(ctx, command);
+        }
+
+        for (Map.Entry<Object, Object> entry : command.getMap().entrySet()) {
+            entry.setValue(compress(entry.getKey(), entry.getValue()));
+        }
+
+        return invokeNextThenApply(ctx, command, this::decompressReturnValue);
+    }
+
+    @Override
+    public Object visitReplaceCommand(InvocationContext ctx, ReplaceCommand command) throws Throwable {
+        command.setOldValue(storedValue(command.getKey(), command.getOldValue()));
+        if (!ctx.isOriginLocal()) {
+            return invokeNext(ctx, command);
+        }
+
+        command.setNewValue(compress(command.getKey(), command.getNewValue()));
+        return invokeNextThenApply(ctx, command, this::decompressReturnValue);
+    }
+
+    @Override
+    public Object visitRemoveCommand(InvocationContext ctx, RemoveCommand command) throws Throwable {
+        command.setValue(storedValue(command.getKey(), command.getValue()));
+        if (!ctx.isOriginLocal()) {
+            return invokeNext(ctx, command);
+        }
+
+        return invokeNextThenApply(ctx, command, this::decompressReturnValue);
+    }
+
+    @Override
+    public Object visitGetKeyValueCommand(InvocationContext ctx, GetKeyValueCommand command) throws Throwable {
+        return visitRead(ctx, command);
+    }
+
+    @Override
+    public Object visitGetCacheEntryCommand(InvocationContext ctx, GetCacheEntryCommand command) throws Throwable {
+        return visitRead(ctx, command);
+    }
+
+    @Override
+    public Object visitGetAllCommand(InvocationContext ctx, GetAllCommand command) throws Throwable {
+        return visitRead(ctx, command);
+    }
+
+    /**
+     * Remote gets are answered with the stored value, the requesting node decompresses it
+     */
+    private Object visitRead(InvocationContext ctx, VisitableCommand command) throws Throwable {
+        if (!ctx.isOriginLocal()) {
+            return invokeNext(ctx, command);
+        }
+
+        return invokeNextThenApply(ctx, command, this::decompressReturnValue);
+    }
+
+    @SuppressWarnings("unchecked")
+    private Object decompressReturnValue(InvocationContext ctx, VisitableCommand command, Object rv) {
+        if (rv instanceof Map) {
+            Map<Object, Object> decompressed = new HashMap<>(((Map<Object, Object>) rv).size());
+            for (Map.Entry<Object, Object> entry : ((Map<Object, Object>) rv).entrySet()) {
+                decompressed.put(entry.getKey(), decompress(entry.getValue()));
+            }
+
+            return decompressed;
+        }
+
+        return decompress(rv);
+    }
+
+    /**
+     * @return a compressed copy of items and byte arrays, everything else as it is
+     */
+    private Object compress(Object key, Object value) {
+        if (value instanceof MemcachedItem) {
+            MemcachedItem copy = copy((MemcachedItem) value);
+            compressor.beforePut(copy);
+
+            return copy;
+        }
+
+        final boolean wrapped = value instanceof WrappedByteArray;
+        if (!wrapped && !(value instanceof byte[])) {
+            return value;
+        }
+
+        // Compressed as a plain PHP string, the flags tell whether the compressor took it
+        final byte[] data = wrapped ? ((WrappedByteArray) value).getBytes() : (byte[]) value;
+        MemcachedItem item = new MemcachedItem(String.valueOf(key), data, 0, 0);
+        compressor.beforePut(item);
+
+        return item.getFlags() == 0 ? value : new CompressedBytes(item.getData(), item.getFlags(), wrapped);
+    }
+
+    /**
+     * @return a decompressed copy of items, byte arrays and entries holding them, everything else as it is
+     */
+    @SuppressWarnings("unchecked")
+    private Object decompress(Object value) {
+        if (value instanceof CacheEntry) {
+            CacheEntry<Object, Object> entry = (CacheEntry<Object, Object>) value;
+            if (!(entry.getValue() instanceof MemcachedItem) && !(entry.getValue() instanceof CompressedBytes)) {
+                return entry;
+            }
+
+            CacheEntry<Object, Object> copy = entry.clone();
+            copy.setValue(decompress(entry.getValue()));
+            return copy;
+        }
+
+        if (value instanceof CompressedBytes) {
+            CompressedBytes bytes = (CompressedBytes) value;
+            MemcachedItem item = new MemcachedItem(null, bytes.getData(), bytes.getFlags(), 0);
+            compressor.afterGet(item);
+
+            return bytes.isWrapped() ? new WrappedByteArray(item.getData()) : item.getData();
+        }
+
+        if (!(value instanceof MemcachedItem)) {
+            return value;
+        }
+
+        MemcachedItem copy = copy((MemcachedItem) value);
+        compressor.afterGet(copy);
+
+        return copy;
+    }
+
+    /**
+     * The compressor swaps the data array, so a shallow copy is enough to keep the original untouched
+     */
+    private static MemcachedItem copy(MemcachedItem item) {
+        return new MemcachedItem(item.getKey(), item.getData(), item.getFlags(), item.getExpire());
+    }
+
+    /**
+     * If the client's expected value matches the decompressed stored value, the stored value is returned, so
+     * the comparison inside the command succeeds. If the entry changes in between, the command fails as it should.
+     * Only the primary owner has the entry for sure and is the one checking the condition.
+     */
+    @SuppressWarnings("unchecked")
+    private Object storedValue(Object key, Object expected) {
+        if (!(expected instanceof MemcachedItem) && !(expected instanceof WrappedByteArray)
+            && !(expected instanceof byte[])) {
+            return expected;
+        }
+
+        // Infinispan 9.0 mixes up the lifecycle methods of custom interceptors sharing a base class,
+        // so the components are looked up here instead of in start()
+        DistributionManager distributionManager = cache.getAdvancedCache().getDistributionManager();
+        if (distributionManager != null && !distributionManager.getCacheTopology().getDistribution(key).isPrimary()) {
+            return expected;
+        }
+
+        DataContainer<Object, Object> dataContainer = (DataContainer<Object, Object>) cache.getAdvancedCache().getDataContainer();
+        InternalCacheEntry<Object, Object> stored = dataContainer.peek(key);
+        if (stored == null || !(stored.getValue() instanceof MemcachedItem) && !(stored.getValue() instanceof CompressedBytes)) {
+            return expected;
+        }
+
+        if (Objects.deepEquals(expected, decompress(stored.getValue()))) {
+            return stored.getValue();
+        }
+
+        return expected;
+    }
+
+}
@@ -0,0 +1,38 @@
+package com.zalora.aloha.interceptor;
+
+import org.infinispan.commands.functional.ReadWriteKeyCommand;
+import org.infinispan.container.entries.CacheEntry;
+import org.infinispan.context.InvocationContext;
+import org.infinispan.functional.impl.MetaParamsInternalMetadata;
+import org.infinispan.interceptors.BaseCustomAsyncInterceptor;
+import org.infinispan.metadata.*;
+
+/**
+ * Swaps the metadata functional writes leave on entries for EmbeddedMetadata before they're committed
+ *
+ * Infinispan 9.0 can't marshal most of the functional meta params, so state transfer and any replicated
+ * command building on such metadata would fail. Has to sit after the EntryWrappingInterceptor, which commits
+ * the entries once the command returns. Every owner runs the command, so every owner converts its entry.
+ *
+ * @author Wolfram Huesken <wolfram.huesken@zalora.com>
+ */
+public class FunctionalMetadataInterceptor extends BaseCustomAsyncInterceptor {
+
+    @Override
+    public Object visitReadWriteKeyCommand(InvocationContext ctx, ReadWriteKeyCommand command) throws Throwable {
+        return invokeNextThenAccept(ctx, command, (rCtx, rCommand, rv) -> {
+            CacheEntry<?, ?> entry = rCtx.lookupEntry(((ReadWriteKeyCommand) rCommand).getKey());
+            if (entry == null || !(entry.getMetadata() instanceof MetaParamsInternalMetadata)) {
+                return;
+            }
+
+            final Metadata metadata = entry.getMetadata();
+            entry.setMetadata(new EmbeddedMetadata.Builder()
+                .version(metadata.version())
+                .lifespan(metadata.lifespan())
+                .maxIdle(metadata.maxIdle())
+                .build());
+        });
+    }
+
+}
@@ -0,0 +1,129 @@
+package com.zalora.aloha.interceptor;
+
+import com.zalora.aloha.hotkeys.*;
+import org.infinispan.commands.FlagAffectedCommand;
+import org.infinispan.commands.read.*;
+import org.infinispan.commands.write.*;
+import org.infinispan.container.entries.CacheEntry;
+import org.infinispan.context.InvocationContext;
+import org.infinispan.context.impl.FlagBitSets;
+import org.infinispan.interceptors.BaseCustomAsyncInterceptor;
+import org.springframework.util.Assert;
+
+/**
+ * Counts reads per key and serves replicated hot keys from the side cache
+ *
+ * Only reads and writes started on this node are handled, commands coming from other nodes
+ * were seen by the interceptor of the originating node already.
+ * Commands flagged with SKIP_STATISTICS are neither counted nor served from the side cache.
+ *
+ * @author Wolfram Huesken <wolfram.huesken@zalora.com>
+ */
+public class HotKeyInterceptor extends BaseCustomAsyncInterceptor {
+
+    private final HotKeyTracker tracker;
+
+    private final HotKeyReplicator replicator;
+
+    /**
+     * @param replicator null to only count reads
+     */
+    public HotKeyInterceptor(HotKeyTracker tracker, HotKeyReplicator replicator) {
+        Assert.notNull(tracker, "Hot key tracker must not be null");
+        this.tracker = tracker;
+        this.replicator = replicator;
+    }
+
+    @Override
+    public Object visitGetKeyValueCommand(InvocationContext ctx, GetKeyValueCommand command) throws Throwable {
+        if (track(ctx, command, command.getKey())) {
+            CacheEntry<Object, Object> replicated = replicated(command.getKey());
+            if (replicated != null) {
+                return replicated.getValue();
+            }
+        }
+
+        return invokeNext(ctx, command);
+    }
+
+    @Override
+    public Object visitGetCacheEntryCommand(InvocationContext ctx, GetCacheEntryCommand command) throws Throwable {
+        if (track(ctx, command, command.getKey())) {
+            CacheEntry<Object, Object> replicated = replicated(command.getKey());
+            if (replicated != null) {
+                return replicated;
+            }
+        }
+
+        return invokeNext(ctx, command);
+    }
+
+    @Override
+    public Object visitGetAllCommand(InvocationContext ctx, GetAllCommand command) throws Throwable {
+        for (Object key : command.getKeys()) {
+            track(ctx, command, key);
+        }
+
+        return invokeNext(ctx, command);
+    }
+
+    @Override
+    public Object visitPutKeyValueCommand(InvocationContext ctx, PutKeyValueCommand command) throws Throwable {
+        return invokeNextThenAccept(ctx, command, (rCtx, rCommand, rv) -> invalidate(rCtx, command.getKey()));
+    }
+
+    @Override
+    public Object visitPutMapCommand(InvocationContext ctx, PutMapCommand command) throws Throwable {
+        return invokeNextThenAccept(ctx, command, (rCtx, rCommand, rv) -> {
+            for (Object key : command.getMap().keySet()) {
+                invalidate(rCtx, key);
+            }
+        });
+    }
+
+    @Override
+    public Object visitReplaceCommand(InvocationContext ctx, ReplaceCommand command) throws Throwable {
+        return invokeNextThenAccept(ctx, command, (rCtx, rCommand, rv) -> invalidate(rCtx, command.getKey()));
+    }
+
+    @Override
+    public Object visitRemoveCommand(InvocationContext ctx, RemoveCommand command) throws Throwable {
+        return invokeNextThenAccept(ctx, command, (rCtx, rCommand, rv) -> invalidate(rCtx, command.getKey()));
+    }
+
+    @Override
+    public Object visitClearCommand(InvocationContext ctx, ClearCommand command) throws Throwable {
+        return invokeNextThenAccept(ctx, command, (rCtx, rCommand, rv) -> {
+            if (replicator != null && rCtx.isOriginLocal()) {
+                replicator.invalidateAll();
+            }
+        });
+    }
+
+    /**
+     * @return true if the read was counted
+     */
+    private boolean track(InvocationContext ctx, FlagAffectedCommand command, Object key) {
+        if (!ctx.isOriginLocal() || command.hasAnyFlag(FlagBitSets.SKIP_STATISTICS) || !(key instanceof String)) {
+            return false;
+        }
+
+        tracker.record((String) key);
+        return true;
+    }
+
+    private CacheEntry<Object, Object> replicated(Object key) {
+        if (replicator == null || !tracker.isHot((String) key)) {
+            return null;
+        }
+
+        return replicator.get(key);
+    }
+
+    private void invalidate(InvocationContext ctx, Object key) {
+        if (replicator != null && ctx.isOriginLocal()) {
+            replicator.invalidate(key);
+        }
+    }
+
+}
@@ -0,0 +1,35 @@
+package com.zalora.aloha.interceptor;
+
+import com.zalora.aloha.locks.LockProfiler;
+import org.infinispan.commands.VisitableCommand;
+import org.infinispan.commands.write.DataWriteCommand;
+import org.infinispan.context.InvocationContext;
+import org.infinispan.interceptors.BaseCustomAsyncInterceptor;
+import org.springframework.util.Assert;
+
+/**
+ * Ends the lock wait started by LockWaitInterceptor, sits right behind the locking interceptor
+ * Writes which this node didn't lock, e.g. on a node which isn't the key's primary owner, aren't recorded
+ *
+ * @author Wolfram Huesken <wolfram.huesken@zalora.com>
+ */
+public class LockAcquiredInterceptor extends BaseCustomAsyncInterceptor {
+
+    private final LockProfiler profiler;
+
+    public LockAcquiredInterceptor(LockProfiler profiler) {
+        Assert.notNull(profiler, "Lock profiler must not be null");
+        this.profiler = profiler;
+    }
+
+    @Override
+    protected Object handleDefault(InvocationContext ctx, VisitableCommand command) throws Throwable {
+        if (command instanceof DataWriteCommand) {
+            final Object key = ((DataWriteCommand) command).getKey();
+            profiler.end(key, ctx.hasLockedKey(key));
+        }
+
+        return invokeNext(ctx, command);
+    }
+
+}
@@ -0,0 +1,48 @@
+package com.zalora.aloha.interceptor;
+
+import com.zalora.aloha.locks.LockProfiler;
+import org.infinispan.commands.VisitableCommand;
+import org.infinispan.commands.write.DataWriteCommand;
+import org.infinispan.context.InvocationContext;
+import org.infinispan.context.impl.FlagBitSets;
+import org.infinispan.interceptors.BaseCustomAsyncInterceptor;
+import org.infinispan.util.concurrent.TimeoutException;
+import org.springframework.util.Assert;
+
+/**
+ * Starts the lock wait of sampled single key writes, sits right before the locking interceptor
+ *
+ * Infinispan 9.0 acquires locks of non-transactional writes on the invoking thread, so LockAcquiredInterceptor
+ * behind the locking interceptor runs on the same thread once the lock is held. A write whose lock times out never
+ * gets there, its wait is recorded here. Failures on other threads come from later, asynchronous stages.
+ *
+ * @author Wolfram Huesken <wolfram.huesken@zalora.com>
+ */
+public class LockWaitInterceptor extends BaseCustomAsyncInterceptor {
+
+    private final LockProfiler profiler;
+
+    public LockWaitInterceptor(LockProfiler profiler) {
+        Assert.notNull(profiler, "Lock profiler must not be null");
+        this.profiler = profiler;
+    }
+
+    @Override
+    protected Object handleDefault(InvocationContext ctx, VisitableCommand command) throws Throwable {
+        if (!(command instanceof DataWriteCommand)
+            || ((DataWriteCommand) command).hasAnyFlag(FlagBitSets.SKIP_LOCKING)
+            || !profiler.begin()) {
+            return invokeNext(ctx, command);
+        }
+
+        final Thread thread = Thread.currentThread();
+        return invokeNextAndExceptionally(ctx, command, (rCtx, rCommand, throwable) -> {
+            if (Thread.currentThread() == thread) {
+                profiler.failed(((DataWriteCommand) rCommand).getKey(), throwable instanceof TimeoutException);
+            }
+
+            throw throwable;
+        });
+    }
+
+}
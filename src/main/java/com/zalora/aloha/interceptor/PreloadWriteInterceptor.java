@@ -0,0 +1,36 @@
+package com.zalora.aloha.interceptor;
+
+import com.zalora.aloha.persistence.PreloadWrites;
+import org.infinispan.commands.VisitableCommand;
+import org.infinispan.commands.write.WriteCommand;
+import org.infinispan.context.InvocationContext;
+import org.infinispan.interceptors.BaseCustomAsyncInterceptor;
+import org.springframework.util.Assert;
+
+/**
+ * Records the keys of all writes, from clients, other nodes and state transfer, so the preload leaves them alone
+ * Listeners aren't enough, a remove which doesn't find the entry doesn't fire an event
+ *
+ * @author Wolfram Huesken <wolfram.huesken@zalora.com>
+ */
+public class PreloadWriteInterceptor extends BaseCustomAsyncInterceptor {
+
+    private final PreloadWrites preloadWrites;
+
+    public PreloadWriteInterceptor(PreloadWrites preloadWrites) {
+        Assert.notNull(preloadWrites, "Preload writes must not be null");
+        this.preloadWrites = preloadWrites;
+    }
+
+    @Override
+    protected Object handleDefault(InvocationContext ctx, VisitableCommand command) throws Throwable {
+        if (command instanceof WriteCommand) {
+            for (Object key : ((WriteCommand) command).getAffectedKeys()) {
+                preloadWrites.written(key);
+            }
+        }
+
+        return invokeNext(ctx, command);
+    }
+
+}
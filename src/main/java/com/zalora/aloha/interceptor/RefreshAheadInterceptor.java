@@ -0,0 +1,48 @@
+package com.zalora.aloha.interceptor;
+
+import com.zalora.aloha.persistence.RefreshAhead;
+import org.infinispan.commands.read.*;
+import org.infinispan.context.InvocationContext;
+import org.infinispan.interceptors.BaseCustomAsyncInterceptor;
+import org.springframework.util.Assert;
+
+/**
+ * Hands reads started on this node to RefreshAhead once they're done, reads served by other nodes are left alone
+ *
+ * @author Wolfram Huesken <wolfram.huesken@zalora.com>
+ */
+public class RefreshAheadInterceptor extends BaseCustomAsyncInterceptor {
+
+    private final RefreshAhead refreshAhead;
+
+    public RefreshAheadInterceptor(RefreshAhead refreshAhead) {
+        Assert.notNull(refreshAhead, "Refresh-ahead must not be null");
+        this.refreshAhead = refreshAhead;
+    }
+
+    @Override
+    public Object visitGetKeyValueCommand(InvocationContext ctx, GetKeyValueCommand command) throws Throwable {
+        return invokeNextThenAccept(ctx, command, (rCtx, rCommand, rv) -> read(rCtx, command.getKey()));
+    }
+
+    @Override
+    public Object visitGetCacheEntryCommand(InvocationContext ctx, GetCacheEntryCommand command) throws Throwable {
+        return invokeNextThenAccept(ctx, command, (rCtx, rCommand, rv) -> read(rCtx, command.getKey()));
+    }
+
+    @Override
+    public Object visitGetAllCommand(InvocationContext ctx, GetAllCommand command) throws Throwable {
+        return invokeNextThenAccept(ctx, command, (rCtx, rCommand, rv) -> {
+            for (Object key : command.getKeys()) {
+                read(rCtx, key);
+            }
+        });
+    }
+
+    private void read(InvocationContext ctx, Object key) {
+        if (ctx.isOriginLocal()) {
+            refreshAhead.read(key);
+        }
+    }
+
+}
@@ -0,0 +1,177 @@
+package com.zalora.aloha.interceptor;
+
+import com.zalora.aloha.memcached.MemcachedItem;
+import com.zalora.aloha.statetransfer.*;
+import java.util.*;
+import lombok.extern.slf4j.Slf4j;
+import org.infinispan.AdvancedCache;
+import org.infinispan.commands.write.PutKeyValueCommand;
+import org.infinispan.commons.marshall.WrappedBytes;
+import org.infinispan.container.entries.InternalCacheEntry;
+import org.infinispan.context.InvocationContext;
+import org.infinispan.context.impl.FlagBitSets;
+import org.infinispan.distribution.ch.*;
+import org.infinispan.factories.ComponentRegistry;
+import org.infinispan.interceptors.BaseCustomAsyncInterceptor;
+import org.infinispan.manager.EmbeddedCacheManager;
+import org.infinispan.remoting.transport.Address;
+import org.infinispan.statetransfer.StateTransferManager;
+import org.infinispan.topology.CacheTopology;
+import org.infinispan.util.function.SerializableFunction;
+import org.springframework.util.Assert;
+
+/**
+ * Throttles and counts the entries this node receives by state transfer
+ *
+ * Received state is applied as puts flagged with PUT_FOR_STATE_TRANSFER, everything else passes untouched.
+ * The first entry of a new topology starts a new progress and asks the owners of the incoming segments
+ * how many entries they hold, which the ETA is based on.
+ *
+ * @author Wolfram Huesken <wolfram.huesken@zalora.com>
+ */
+@Slf4j
+public class StateTransferInterceptor extends BaseCustomAsyncInterceptor {
+
+    private final StateTransferProgress progress;
+
+    private final StateTransferThrottle throttle;
+
+    private volatile StateTransferManager stateTransferManager;
+
+    private volatile KeyPartitioner keyPartitioner;
+
+    public StateTransferInterceptor(StateTransferProgress progress, StateTransferThrottle throttle) {
+        Assert.notNull(progress, "State transfer progress must not be null");
+        Assert.notNull(throttle, "State transfer throttle must not be null");
+
+        this.progress = progress;
+        this.throttle = throttle;
+    }
+
+    @Override
+    public Object visitPutKeyValueCommand(InvocationContext ctx, PutKeyValueCommand command) throws Throwable {
+        if (command.hasAnyFlag(FlagBitSets.PUT_FOR_STATE_TRANSFER)) {
+            received(command.getKey(), command.getValue());
+        }
+
+        return invokeNext(ctx, command);
+    }
+
+    private void received(Object key, Object value) {
+        if (stateTransferManager == null) {
+            lookUpComponents();
+        }
+
+        final CacheTopology topology = stateTransferManager.getCacheTopology();
+        if (topology != null && topology.getTopologyId() != progress.getTopologyId()) {
+            begin(topology);
+        }
+
+        final long bytes = sizeOf(key) + sizeOf(value);
+        progress.throttled(throttle.acquire(bytes));
+        progress.received(keyPartitioner.getSegment(key), bytes);
+    }
+
+    /**
+     * Not done in start(): Infinispan 9.0 shares the start method of all custom interceptors,
+     * overriding it in one of them breaks the start of the others
+     */
+    private void lookUpComponents() {
+        ComponentRegistry componentRegistry = cache.getAdvancedCache().getComponentRegistry();
+        keyPartitioner = componentRegistry.getComponent(KeyPartitioner.class);
+        stateTransferManager = componentRegistry.getComponent(StateTransferManager.class);
+    }
+
+    /**
+     * Incoming segments are the ones this node owns in the pending hash but not in the current one
+     */
+    private void begin(CacheTopology topology) {
+        final ConsistentHash current = topology.getCurrentCH();
+        final ConsistentHash pending = topology.getPendingCH();
+        final Address self = cache.getAdvancedCache().getRpcManager().getAddress();
+
+        if (pending == null || !pending.getMembers().contains(self)) {
+            return;
+        }
+
+        Set<Integer> segments = new HashSet<>(pending.getSegmentsForOwner(self));
+        if (current.getMembers().contains(self)) {
+            segments.removeAll(current.getSegmentsForOwner(self));
+        }
+
+        if (!progress.begin(topology.getTopologyId(), segments, pending.getNumSegments())) {
+            return;
+        }
+
+        log.info(
+            "Receiving {} segments of {} for topology {}, {}",
+            segments.size(), cache.getName(), topology.getTopologyId(), throttle
+        );
+
+        Map<Address, Set<Integer>> segmentsByOwner = new HashMap<>();
+        for (Integer segment : segments) {
+            segmentsByOwner.computeIfAbsent(current.locatePrimaryOwnerForSegment(segment), owner -> new HashSet<>())
+                .add(segment);
+        }
+
+        segmentsByOwner.forEach((owner, ownerSegments) -> countEntries(topology.getTopologyId(), owner, ownerSegments));
+    }
+
+    private void countEntries(int topologyId, Address owner, Set<Integer> segments) {
+        embeddedCacheManager.executor()
+            .filterTargets(Collections.singleton(owner))
+            .submitConsumer(entriesBySegment(cache.getName(), segments), (address, entriesBySegment, throwable) -> {
+                if (throwable != null) {
+                    log.warn("{} couldn't count its entries of {}, no ETA", address, cache.getName(), throwable);
+                    return;
+                }
+
+                progress.expect(topologyId, entriesBySegment);
+            });
+    }
+
+    /**
+     * Runs on the owner, may not capture the interceptor
+     */
+    private static SerializableFunction<EmbeddedCacheManager, Map<Integer, Long>> entriesBySegment(
+        String cacheName, Set<Integer> segments) {
+        return cacheManager -> {
+            AdvancedCache<Object, Object> cache = cacheManager.<Object, Object>getCache(cacheName).getAdvancedCache();
+            KeyPartitioner keyPartitioner = cache.getComponentRegistry().getComponent(KeyPartitioner.class);
+
+            Map<Integer, Long> entries = new HashMap<>(segments.size() * 4 / 3 + 1);
+            segments.forEach(segment -> entries.put(segment, 0L));
+
+            for (InternalCacheEntry<Object, Object> entry : cache.getDataContainer()) {
+                entries.computeIfPresent(keyPartitioner.getSegment(entry.getKey()), (segment, count) -> count + 1);
+            }
+
+            return entries;
+        };
+    }
+
+    /**
+     * Payload size of keys and values as they're transferred, without the marshalling overhead
+     */
+    private static long sizeOf(Object object) {
+        if (object instanceof MemcachedItem) {
+            MemcachedItem item = (MemcachedItem) object;
+            return sizeOf(item.getKey()) + sizeOf(item.getData());
+        }
+
+        if (object instanceof byte[]) {
+            return ((byte[]) object).length;
+        }
+
+        if (object instanceof WrappedBytes) {
+            return ((WrappedBytes) object).getLength();
+        }
+
+        if (object instanceof String) {
+            return ((String) object).length();
+        }
+
+        return 0;
+    }
+
+}
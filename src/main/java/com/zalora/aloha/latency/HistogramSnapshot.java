@@ -0,0 +1,38 @@
+package com.zalora.aloha.latency;
+
+import lombok.Value;
+import org.HdrHistogram.Histogram;
+
+/**
+ * Percentiles of a histogram at one point in time, latencies are in microseconds
+ *
+ * @author Wolfram Huesken <wolfram.huesken@zalora.com>
+ */
+@Value
+public class HistogramSnapshot {
+
+    private long count;
+    private double mean;
+    private long p50;
+    private long p90;
+    private long p99;
+    private long p999;
+    private long max;
+
+    static HistogramSnapshot of(Histogram histogram) {
+        if (histogram.getTotalCount() == 0) {
+            return new HistogramSnapshot(0, 0.0, 0, 0, 0, 0, 0);
+        }
+
+        return new HistogramSnapshot(
+            histogram.getTotalCount(),
+            histogram.getMean(),
+            histogram.getValueAtPercentile(50.0),
+            histogram.getValueAtPercentile(90.0),
+            histogram.getValueAtPercentile(99.0),
+            histogram.getValueAtPercentile(99.9),
+            histogram.getMaxValue()
+        );
+    }
+
+}
@@ -0,0 +1,56 @@
+package com.zalora.aloha.latency;
+
+import io.netty.channel.*;
+import java.util.*;
+import org.infinispan.server.hotrod.*;
+
+/**
+ * Measures the time from a decoded HotRod request to its response, per cache and operation
+ * That's the time spent in the server without the network, so the client's view minus this is the network
+ *
+ * Requests are matched to responses by message id, as responses can overtake each other.
+ * Both directions run on the channel's event loop, so the map doesn't need to be thread-safe.
+ *
+ * @author Wolfram Huesken <wolfram.huesken@zalora.com>
+ */
+class HotRodLatencyHandler extends ChannelDuplexHandler {
+
+    private final LatencyRegistry registry;
+    private final Map<Long, Long> started = new HashMap<>();
+
+    HotRodLatencyHandler(LatencyRegistry registry) {
+        this.registry = registry;
+    }
+
+    @Override
+    public void channelRead(ChannelHandlerContext ctx, Object msg) throws Exception {
+        if (msg instanceof CacheDecodeContext) {
+            started.put(((CacheDecodeContext) msg).getHeader().getMessageId(), System.nanoTime());
+        }
+
+        super.channelRead(ctx, msg);
+    }
+
+    @Override
+    public void write(ChannelHandlerContext ctx, Object msg, ChannelPromise promise) throws Exception {
+        if (msg instanceof Response) {
+            Response response = (Response) msg;
+            Long start = started.remove(response.getMessageId());
+
+            // Client listener events are responses without a request
+            if (start != null) {
+                registry.histogram(name(response)).recordNanos(System.nanoTime() - start);
+            }
+        }
+
+        super.write(ctx, msg, promise);
+    }
+
+    private static String name(Response response) {
+        final String cacheName = response.getCacheName() == null || response.getCacheName().isEmpty()
+            ? "default" : response.getCacheName();
+
+        return "hotrod." + cacheName + "." + response.getOperation();
+    }
+
+}
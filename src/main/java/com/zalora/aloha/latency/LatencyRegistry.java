@@ -0,0 +1,43 @@
+package com.zalora.aloha.latency;
+
+import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
+import lombok.Value;
+
+/**
+ * Sliding histograms by name, e.g. hotrod.session.GET or readthrough.load
+ *
+ * @author Wolfram Huesken <wolfram.huesken@zalora.com>
+ */
+public class LatencyRegistry {
+
+    private final Map<String, SlidingHistogram> histograms = new ConcurrentHashMap<>();
+
+    /**
+     * @return the histogram registered under name, created on first use
+     */
+    public SlidingHistogram histogram(String name) {
+        return histograms.computeIfAbsent(name, ignored -> new SlidingHistogram());
+    }
+
+    /**
+     * Adds a histogram owned by someone else, e.g. a cache store created by Infinispan
+     */
+    public void register(String name, SlidingHistogram histogram) {
+        histograms.put(name, histogram);
+    }
+
+    public Map<String, Report> getReports() {
+        Map<String, Report> reports = new TreeMap<>();
+        histograms.forEach((name, histogram) -> reports.put(name, new Report(histogram.getWindow(), histogram.getTotal())));
+
+        return reports;
+    }
+
+    @Value
+    public static class Report {
+        private HistogramSnapshot window;
+        private HistogramSnapshot total;
+    }
+
+}
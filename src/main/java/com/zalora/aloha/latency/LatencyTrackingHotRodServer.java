@@ -0,0 +1,44 @@
+package com.zalora.aloha.latency;
+
+import io.netty.channel.*;
+import java.util.*;
+import org.infinispan.server.core.transport.*;
+import org.infinispan.server.hotrod.HotRodServer;
+import org.infinispan.server.hotrod.transport.*;
+import org.springframework.util.Assert;
+
+/**
+ * HotRod server with a latency handler between the codec and the request handlers
+ * Same pipeline as HotRodServer's otherwise
+ *
+ * @author Wolfram Huesken <wolfram.huesken@zalora.com>
+ */
+public class LatencyTrackingHotRodServer extends HotRodServer {
+
+    /**
+     * First handler after decoder and encoder, see HotRodChannelInitializer
+     */
+    private static final String FIRST_HANDLER = "local-handler";
+
+    private final LatencyRegistry registry;
+
+    public LatencyTrackingHotRodServer(LatencyRegistry registry) {
+        Assert.notNull(registry, "Latency registry must not be null");
+        this.registry = registry;
+    }
+
+    @Override
+    public ChannelInitializer<Channel> getInitializer() {
+        List<NettyInitializer> initializers = new ArrayList<>();
+        initializers.add(new HotRodChannelInitializer(this, transport, getEncoder(), getExecutor(getQualifiedName())));
+
+        if (configuration.idleTimeout() > 0) {
+            initializers.add(new TimeoutEnabledChannelInitializer<>(this));
+        }
+
+        initializers.add(channel -> channel.pipeline().addBefore(FIRST_HANDLER, "latency", new HotRodLatencyHandler(registry)));
+
+        return new NettyInitializers(initializers);
+    }
+
+}
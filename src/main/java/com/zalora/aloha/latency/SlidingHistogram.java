@@ -0,0 +1,142 @@
+package com.zalora.aloha.latency;
+
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.ReentrantLock;
+import org.HdrHistogram.*;
+import org.springframework.util.Assert;
+
+/**
+ * HdrHistogram over a sliding window and since start
+ *
+ * Values go into a Recorder, which is wait-free for writers. Whatever was recorded is moved into the slot of
+ * the current period once that period is over or a snapshot is taken, the window is the sum of all slots.
+ * There's no timer thread, whoever records or reads after a period ended moves the window on.
+ *
+ * @author Wolfram Huesken <wolfram.huesken@zalora.com>
+ */
+public class SlidingHistogram {
+
+    /**
+     * One hour in microseconds, longer latencies are recorded as one hour
+     */
+    public static final long DEFAULT_HIGHEST_VALUE = TimeUnit.HOURS.toMicros(1);
+
+    private static final int SIGNIFICANT_DIGITS = 2;
+    private static final long DEFAULT_WINDOW_SECONDS = 60;
+    private static final int DEFAULT_SLOTS = 6;
+
+    private final long highestValue;
+    private final long slotNanos;
+
+    private final Recorder recorder;
+    private final Histogram[] slots;
+    private final Histogram total;
+    private final ReentrantLock lock = new ReentrantLock();
+
+    /**
+     * Last interval histogram, handed back to the recorder to be reused
+     */
+    private Histogram spare;
+    private int current;
+    private volatile long nextRotation;
+
+    public SlidingHistogram() {
+        this(DEFAULT_HIGHEST_VALUE);
+    }
+
+    public SlidingHistogram(long highestValue) {
+        this(highestValue, DEFAULT_WINDOW_SECONDS, DEFAULT_SLOTS);
+    }
+
+    /**
+     * @param highestValue  bigger values are recorded as this value
+     * @param windowSeconds length of the sliding window
+     * @param slots         the window moves on in steps of windowSeconds / slots
+     */
+    public SlidingHistogram(long highestValue, long windowSeconds, int slots) {
+        Assert.isTrue(highestValue > 1, "Highest value must be greater than 1");
+        Assert.isTrue(windowSeconds > 0, "Window must be positive");
+        Assert.isTrue(slots > 0, "Number of slots must be positive");
+
+        this.highestValue = highestValue;
+        this.slotNanos = TimeUnit.SECONDS.toNanos(windowSeconds) / slots;
+
+        recorder = new Recorder(highestValue, SIGNIFICANT_DIGITS);
+        total = new Histogram(highestValue, SIGNIFICANT_DIGITS);
+
+        this.slots = new Histogram[slots];
+        for (int i = 0; i < slots; i++) {
+            this.slots[i] = new Histogram(highestValue, SIGNIFICANT_DIGITS);
+        }
+
+        nextRotation = System.nanoTime() + slotNanos;
+    }
+
+    public void record(long value) {
+        recorder.recordValue(Math.max(0, Math.min(value, highestValue)));
+
+        final long now = System.nanoTime();
+        if (now - nextRotation >= 0 && lock.tryLock()) {
+            try {
+                rotate(now);
+            } finally {
+                lock.unlock();
+            }
+        }
+    }
+
+    /**
+     * Records a duration in microseconds
+     */
+    public void recordNanos(long nanos) {
+        record(TimeUnit.NANOSECONDS.toMicros(nanos));
+    }
+
+    public HistogramSnapshot getWindow() {
+        lock.lock();
+        try {
+            rotate(System.nanoTime());
+
+            Histogram window = new Histogram(highestValue, SIGNIFICANT_DIGITS);
+            for (Histogram slot : slots) {
+                window.add(slot);
+            }
+
+            return HistogramSnapshot.of(window);
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    public HistogramSnapshot getTotal() {
+        lock.lock();
+        try {
+            rotate(System.nanoTime());
+            return HistogramSnapshot.of(total);
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Clears the slots of all periods which are over and moves the recorded values into the current slot
+     * Values recorded shortly before a period ended may end up in the next one, which is good enough for a window
+     * Must hold the lock
+     */
+    private void rotate(long now) {
+        if (now - nextRotation >= 0) {
+            final long periods = (now - nextRotation) / slotNanos + 1;
+            for (int i = 0; i < Math.min(periods, slots.length); i++) {
+                current = (current + 1) % slots.length;
+                slots[current].reset();
+            }
+
+            nextRotation += periods * slotNanos;
+        }
+
+        spare = spare == null ? recorder.getIntervalHistogram() : recorder.getIntervalHistogram(spare);
+        slots[current].add(spare);
+        total.add(spare);
+    }
+
+}
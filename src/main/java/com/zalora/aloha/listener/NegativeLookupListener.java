@@ -0,0 +1,33 @@
+package com.zalora.aloha.listener;
+
+import com.zalora.aloha.persistence.NegativeLookupFilter;
+import org.infinispan.notifications.Listener;
+import org.infinispan.notifications.cachelistener.annotation.*;
+import org.infinispan.notifications.cachelistener.event.CacheEntryEvent;
+import org.springframework.util.Assert;
+
+/**
+ * Keys written to the cache are very likely in the database as well,
+ * adding them right away keeps the filter from hiding them until the next rebuild
+ *
+ * @author Wolfram Huesken <wolfram.huesken@zalora.com>
+ */
+@Listener(observation = Listener.Observation.POST)
+public class NegativeLookupListener {
+
+    private final NegativeLookupFilter filter;
+
+    public NegativeLookupListener(NegativeLookupFilter filter) {
+        Assert.notNull(filter, "Negative lookup filter must not be null");
+        this.filter = filter;
+    }
+
+    @CacheEntryCreated
+    @CacheEntryModified
+    public void written(CacheEntryEvent<Object, Object> event) {
+        if (event.getKey() instanceof String) {
+            filter.add((String) event.getKey());
+        }
+    }
+
+}
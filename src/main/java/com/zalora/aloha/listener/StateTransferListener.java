@@ -0,0 +1,78 @@
+package com.zalora.aloha.listener;
+
+import com.zalora.aloha.latency.SlidingHistogram;
+import com.zalora.aloha.statetransfer.StateTransferProgress;
+import lombok.extern.slf4j.Slf4j;
+import org.infinispan.notifications.Listener;
+import org.infinispan.notifications.cachelistener.annotation.DataRehashed;
+import org.infinispan.notifications.cachelistener.event.DataRehashedEvent;
+import org.springframework.util.Assert;
+
+/**
+ * Measures how long a rebalance takes from the new topology to the end of the state transfer
+ * and marks the received state as complete once it's over
+ *
+ * @author Wolfram Huesken <wolfram.huesken@zalora.com>
+ */
+@Slf4j
+@Listener
+public class StateTransferListener {
+
+    private final SlidingHistogram durations;
+
+    private final StateTransferProgress progress;
+
+    private volatile long started;
+
+    public StateTransferListener(SlidingHistogram durations, StateTransferProgress progress) {
+        Assert.notNull(durations, "Histogram must not be null");
+        Assert.notNull(progress, "State transfer progress must not be null");
+        this.durations = durations;
+        this.progress = progress;
+    }
+
+    @DataRehashed
+    public void rehashed(DataRehashedEvent<?, ?> event) {
+        if (event.isPre()) {
+            started = System.nanoTime();
+            return;
+        }
+
+        if (progress.finish()) {
+            received(event);
+        }
+
+        if (started == 0) {
+            return;
+        }
+
+        final long nanos = System.nanoTime() - started;
+        started = 0;
+
+        durations.recordNanos(nanos);
+        log.info(
+            "State transfer of {} for topology {} took {}ms",
+            event.getCache().getName(), event.getNewTopologyId(), nanos / 1000000
+        );
+    }
+
+    /**
+     * Chunk sizes are fixed while the cache runs, so a better one is only logged for the next start
+     */
+    private void received(DataRehashedEvent<?, ?> event) {
+        log.info(
+            "Received {} entries, {} bytes of {} in {}ms",
+            progress.getEntries(), progress.getBytes(), event.getCache().getName(), progress.getElapsedMillis()
+        );
+
+        if (progress.getSuggestedChunkSize() > 2 * progress.getChunkSize()
+            || progress.getSuggestedChunkSize() < progress.getChunkSize() / 2) {
+            log.info(
+                "Entries of {} average {} bytes, a chunk size of {} would make chunks of about {} bytes",
+                event.getCache().getName(), progress.getAverageEntrySize(),
+                progress.getSuggestedChunkSize(), progress.getChunkBytes()
+            );
+        }
+    }
+
+}
@@ -0,0 +1,59 @@
+package com.zalora.aloha.locks;
+
+import com.zalora.aloha.latency.LatencyRegistry;
+import java.util.*;
+import lombok.Value;
+
+/**
+ * Lock waits of one cache as shown by /locks, times are in microseconds
+ *
+ * @author Wolfram Huesken <wolfram.huesken@zalora.com>
+ */
+@Value
+public class LockProfile {
+
+    private int sampleRate;
+
+    /**
+     * Shorter waits aren't counted for keys and stripes
+     */
+    private long thresholdMicros;
+
+    /**
+     * Whether the cache uses lock striping, stripes are what striping would use otherwise
+     */
+    private boolean striped;
+
+    private int stripes;
+
+    private long timeouts;
+
+    /**
+     * All sampled waits, contended or not
+     */
+    private LatencyRegistry.Report waits;
+
+    private Map<String, LatencyRegistry.Report> prefixes;
+
+    private List<ContendedKey> keys;
+
+    private List<ContendedStripe> contendedStripes;
+
+    @Value
+    public static class ContendedKey {
+        private String key;
+        private int stripe;
+        private long waits;
+        private long totalMicros;
+        private long maxMicros;
+        private long timeouts;
+    }
+
+    @Value
+    public static class ContendedStripe {
+        private int stripe;
+        private long waits;
+        private long totalMicros;
+    }
+
+}
@@ -0,0 +1,372 @@
+package com.zalora.aloha.locks;
+
+import com.zalora.aloha.latency.*;
+import java.nio.charset.StandardCharsets;
+import java.util.*;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.*;
+import lombok.Getter;
+import org.infinispan.commons.marshall.WrappedBytes;
+import org.infinispan.commons.util.Util;
+import org.infinispan.util.StripedHashFunction;
+import org.springframework.util.Assert;
+
+/**
+ * Samples how long writes of one cache wait for their key's lock, by key prefix, by stripe and by key
+ *
+ * Every sampleRate-th write is timed from right before the locking interceptor until it holds the lock, so an
+ * uncontended sample measures the locking interceptor itself, about a microsecond. All samples go into the wait
+ * histograms. Waits of at least threshold, and lock timeouts, count as contended and are added to their key and stripe.
+ *
+ * Infinispan locks per key unless lock striping is on. Stripes are then the ones a striped lock container of the
+ * cache's concurrency level would use, so the profile shows how striping would spread the contention.
+ * Contended keys are pruned like in AccessRecorder, counts of keys and stripes are halved by age().
+ *
+ * @author Wolfram Huesken <wolfram.huesken@zalora.com>
+ */
+public class LockProfiler {
+
+    private static final String NO_PREFIX = "-";
+    private static final String OTHER_PREFIXES = "other";
+    private static final int MAX_PREFIX_LENGTH = 32;
+
+    /**
+     * Contended keys tracked per key listed, the rest is pruned
+     */
+    private static final int TRACKED_KEYS_FACTOR = 8;
+
+    /**
+     * Prefix histograms only keep the last minute in two slots, they're many and a full one is big
+     */
+    private static final long PREFIX_WINDOW_SECONDS = 60;
+    private static final int PREFIX_SLOTS = 2;
+
+    /**
+     * JBoss Marshalling tags of a HotRod client's String key, protocol version first
+     */
+    private static final byte MARSHALLING_VERSION = 0x03;
+    private static final byte SMALL_STRING = 0x3e;
+    private static final byte MEDIUM_STRING = 0x3f;
+
+    @Getter
+    private final int sampleRate;
+
+    private final long thresholdNanos;
+
+    @Getter
+    private final int topKeys;
+
+    private final String prefixDelimiters;
+    private final int maxPrefixes;
+
+    @Getter
+    private final boolean striped;
+
+    private final StripedHashFunction<Object> stripes;
+    private final AtomicLongArray stripeWaits;
+    private final AtomicLongArray stripeNanos;
+
+    /**
+     * Waits are recorded up to the lock acquisition timeout
+     */
+    private final long highestValue;
+
+    @Getter
+    private final SlidingHistogram waits;
+
+    private final ConcurrentMap<String, SlidingHistogram> prefixes = new ConcurrentHashMap<>();
+    private final ConcurrentMap<String, KeyWaits> keys = new ConcurrentHashMap<>();
+    private final AtomicBoolean pruning = new AtomicBoolean();
+    private final LongAdder timeouts = new LongAdder();
+
+    /**
+     * Start of the current thread's sampled write and whether one is pending
+     */
+    private final ThreadLocal<long[]> pending = ThreadLocal.withInitial(() -> new long[2]);
+
+    /**
+     * @param sampleRate       1 times every write
+     * @param thresholdMicros  shorter waits aren't counted as contended
+     * @param prefixDelimiters a key's prefix ends before the first of these characters
+     * @param concurrency      the cache's lock concurrency level
+     * @param lockTimeoutMillis the cache's lock acquisition timeout
+     */
+    public LockProfiler(int sampleRate, long thresholdMicros, int topKeys, String prefixDelimiters, int maxPrefixes,
+                        boolean striped, int concurrency, long lockTimeoutMillis) {
+        Assert.isTrue(sampleRate > 0, "Sample rate must be positive");
+        Assert.isTrue(thresholdMicros >= 0, "Threshold must not be negative");
+        Assert.isTrue(topKeys > 0, "Number of top keys must be positive");
+        Assert.notNull(prefixDelimiters, "Prefix delimiters must not be null");
+        Assert.isTrue(maxPrefixes > 0, "Maximum prefixes must be positive");
+        Assert.isTrue(concurrency > 0, "Concurrency level must be positive");
+
+        this.sampleRate = sampleRate;
+        this.thresholdNanos = TimeUnit.MICROSECONDS.toNanos(thresholdMicros);
+        this.topKeys = topKeys;
+        this.prefixDelimiters = prefixDelimiters;
+        this.maxPrefixes = maxPrefixes;
+        this.striped = striped;
+
+        stripes = new StripedHashFunction<>(concurrency);
+        stripeWaits = new AtomicLongArray(stripes.getNumSegments());
+        stripeNanos = new AtomicLongArray(stripes.getNumSegments());
+
+        highestValue = Math.max(TimeUnit.MILLISECONDS.toMicros(lockTimeoutMillis), 2);
+        waits = new SlidingHistogram(highestValue);
+    }
+
+    /**
+     * Called before the write goes to the locking interceptor
+     *
+     * @return whether the write is sampled
+     */
+    public boolean begin() {
+        final long[] current = pending.get();
+        if (sampleRate > 1 && ThreadLocalRandom.current().nextInt(sampleRate) != 0) {
+            current[1] = 0;
+            return false;
+        }
+
+        current[0] = System.nanoTime();
+        current[1] = 1;
+        return true;
+    }
+
+    /**
+     * Called once the locking interceptor passed the write on
+     *
+     * @param locked false if this node didn't lock the key, e.g. because another node owns it
+     */
+    public void end(Object key, boolean locked) {
+        final long[] current = pending.get();
+        if (current[1] == 0) {
+            return;
+        }
+
+        current[1] = 0;
+        if (locked) {
+            record(key, System.nanoTime() - current[0], false);
+        }
+    }
+
+    /**
+     * Called if a sampled write failed on this thread, only a write still waiting for its lock timed out on it
+     */
+    public void failed(Object key, boolean lockTimeout) {
+        final long[] current = pending.get();
+        if (current[1] == 0) {
+            return;
+        }
+
+        current[1] = 0;
+        if (lockTimeout) {
+            timeouts.increment();
+            record(key, System.nanoTime() - current[0], true);
+        }
+    }
+
+    /**
+     * Halves the counts of keys and stripes, keys which drop to 0 are forgotten
+     */
+    public void age() {
+        for (Map.Entry<String, KeyWaits> entry : keys.entrySet()) {
+            if (entry.getValue().age() == 0) {
+                keys.remove(entry.getKey(), entry.getValue());
+            }
+        }
+
+        for (int i = 0; i < stripeWaits.length(); i++) {
+            stripeWaits.getAndUpdate(i, value -> value / 2);
+            stripeNanos.getAndUpdate(i, value -> value / 2);
+        }
+    }
+
+    public LockProfile getProfile() {
+        Map<String, LatencyRegistry.Report> prefixReports = new TreeMap<>();
+        prefixes.forEach((prefix, histogram) -> prefixReports.put(
+            prefix, new LatencyRegistry.Report(histogram.getWindow(), histogram.getTotal())
+        ));
+
+        return new LockProfile(
+            sampleRate, TimeUnit.NANOSECONDS.toMicros(thresholdNanos), striped, stripes.getNumSegments(),
+            timeouts.sum(), new LatencyRegistry.Report(waits.getWindow(), waits.getTotal()), prefixReports,
+            getTopKeys(topKeys), getTopStripes(topKeys)
+        );
+    }
+
+    /**
+     * @return up to limit keys, longest total wait first
+     */
+    public List<LockProfile.ContendedKey> getTopKeys(int limit) {
+        List<LockProfile.ContendedKey> top = new ArrayList<>(keys.size());
+        keys.forEach((key, keyWaits) -> top.add(keyWaits.toContendedKey(key)));
+
+        top.sort(Comparator.comparingLong(LockProfile.ContendedKey::getTotalMicros).reversed());
+        return top.size() > limit ? new ArrayList<>(top.subList(0, limit)) : top;
+    }
+
+    /**
+     * @return up to limit stripes with contended waits, longest total wait first
+     */
+    public List<LockProfile.ContendedStripe> getTopStripes(int limit) {
+        List<LockProfile.ContendedStripe> top = new ArrayList<>();
+        for (int i = 0; i < stripeWaits.length(); i++) {
+            final long count = stripeWaits.get(i);
+            if (count > 0) {
+                top.add(new LockProfile.ContendedStripe(i, count, TimeUnit.NANOSECONDS.toMicros(stripeNanos.get(i))));
+            }
+        }
+
+        top.sort(Comparator.comparingLong(LockProfile.ContendedStripe::getTotalMicros).reversed());
+        return top.size() > limit ? new ArrayList<>(top.subList(0, limit)) : top;
+    }
+
+    private void record(Object key, long nanos, boolean timeout) {
+        waits.recordNanos(nanos);
+
+        final String name = keyName(key);
+        prefixHistogram(prefix(name)).recordNanos(nanos);
+
+        if (nanos < thresholdNanos && !timeout) {
+            return;
+        }
+
+        // The lock container hashes the key as the cache stores it
+        final int stripe = stripes.hashToSegment(key);
+        stripeWaits.incrementAndGet(stripe);
+        stripeNanos.addAndGet(stripe, nanos);
+
+        KeyWaits keyWaits = keys.get(name);
+        if (keyWaits == null) {
+            if (keys.size() >= topKeys * TRACKED_KEYS_FACTOR) {
+                prune();
+            }
+
+            keyWaits = keys.computeIfAbsent(name, newKey -> new KeyWaits(stripe));
+        }
+
+        keyWaits.record(nanos, timeout);
+    }
+
+    private SlidingHistogram prefixHistogram(String prefix) {
+        SlidingHistogram histogram = prefixes.get(prefix);
+        if (histogram != null) {
+            return histogram;
+        }
+
+        if (prefixes.size() >= maxPrefixes) {
+            prefix = OTHER_PREFIXES;
+        }
+
+        return prefixes.computeIfAbsent(
+            prefix, newPrefix -> new SlidingHistogram(highestValue, PREFIX_WINDOW_SECONDS, PREFIX_SLOTS)
+        );
+    }
+
+    private String prefix(String key) {
+        for (int i = 0; i < key.length() && i < MAX_PREFIX_LENGTH; i++) {
+            if (prefixDelimiters.indexOf(key.charAt(i)) >= 0) {
+                return i == 0 ? NO_PREFIX : key.substring(0, i);
+            }
+        }
+
+        return NO_PREFIX;
+    }
+
+    /**
+     * Drops the least contended keys down to half of the tracked keys, one thread prunes while the others record
+     */
+    private void prune() {
+        if (!pruning.compareAndSet(false, true)) {
+            return;
+        }
+
+        try {
+            List<LockProfile.ContendedKey> top = getTopKeys(Integer.MAX_VALUE);
+            final int keep = Math.min(topKeys * TRACKED_KEYS_FACTOR / 2, top.size());
+            for (LockProfile.ContendedKey cold : top.subList(keep, top.size())) {
+                keys.remove(cold.getKey());
+            }
+        } finally {
+            pruning.set(false);
+        }
+    }
+
+    /**
+     * Keys of caches outside of compatibility mode are the bytes the HotRod client marshalled
+     */
+    static String keyName(Object key) {
+        if (key instanceof String) {
+            return (String) key;
+        }
+
+        if (!(key instanceof WrappedBytes)) {
+            return String.valueOf(key);
+        }
+
+        final WrappedBytes wrapped = (WrappedBytes) key;
+        final int offset = wrapped.backArrayOffset();
+        final byte[] bytes = offset == 0 && wrapped.getLength() == wrapped.getBytes().length
+            ? wrapped.getBytes()
+            : Arrays.copyOfRange(wrapped.getBytes(), offset, offset + wrapped.getLength());
+        if (bytes.length > 2 && bytes[0] == MARSHALLING_VERSION && bytes[1] == SMALL_STRING) {
+            final int length = bytes[2] == 0 ? 256 : bytes[2] & 0xff;
+            if (bytes.length == length + 3) {
+                return new String(bytes, 3, length, StandardCharsets.UTF_8);
+            }
+        }
+
+        if (bytes.length > 3 && bytes[0] == MARSHALLING_VERSION && bytes[1] == MEDIUM_STRING) {
+            final int length = (bytes[2] & 0xff) << 8 | bytes[3] & 0xff;
+            if (bytes.length == length + 4) {
+                return new String(bytes, 4, length, StandardCharsets.UTF_8);
+            }
+        }
+
+        return Util.toHexString(bytes);
+    }
+
+    /**
+     * Contended waits of one key
+     */
+    private static class KeyWaits {
+
+        private final int stripe;
+        private final AtomicLong count = new AtomicLong();
+        private final AtomicLong nanos = new AtomicLong();
+        private final AtomicLong maxNanos = new AtomicLong();
+        private final AtomicLong timeouts = new AtomicLong();
+
+        KeyWaits(int stripe) {
+            this.stripe = stripe;
+        }
+
+        void record(long waited, boolean timeout) {
+            count.incrementAndGet();
+            nanos.addAndGet(waited);
+            maxNanos.accumulateAndGet(waited, Math::max);
+
+            if (timeout) {
+                timeouts.incrementAndGet();
+            }
+        }
+
+        /**
+         * @return the halved count
+         */
+        long age() {
+            nanos.updateAndGet(value -> value / 2);
+            timeouts.updateAndGet(value -> value / 2);
+            return count.updateAndGet(value -> value / 2);
+        }
+
+        LockProfile.ContendedKey toContendedKey(String key) {
+            return new LockProfile.ContendedKey(
+                key, stripe, count.get(), TimeUnit.NANOSECONDS.toMicros(nanos.get()),
+                TimeUnit.NANOSECONDS.toMicros(maxNanos.get()), timeouts.get()
+            );
+        }
+
+    }
+
+}
@@ -1,23 +1,38 @@
 package com.zalora.aloha.manager;
 
-import javax.annotation.PostConstruct;
-import com.zalora.aloha.compressor.Compressor;
-import com.zalora.aloha.config.ServerConfig;
+import javax.annotation.*;
+import com.zalora.aloha.compressor.*;
+import com.zalora.aloha.config.*;
+import com.zalora.aloha.hotkeys.*;
+import com.zalora.aloha.interceptor.*;
+import com.zalora.aloha.latency.*;
 import com.zalora.aloha.listener.*;
+import com.zalora.aloha.locks.LockProfiler;
+import com.zalora.aloha.memcached.*;
+import com.zalora.aloha.persistence.*;
+import com.zalora.aloha.statetransfer.*;
 import lombok.Getter;
 import lombok.extern.slf4j.Slf4j;
-import org.infinispan.configuration.cache.Configuration;
+import org.infinispan.AdvancedCache;
+import org.infinispan.configuration.cache.*;
 import org.infinispan.configuration.global.GlobalConfiguration;
+import org.infinispan.interceptors.AsyncInterceptor;
+import org.infinispan.interceptors.impl.*;
+import org.infinispan.interceptors.locking.NonTransactionalLockingInterceptor;
 import org.infinispan.manager.*;
 import org.infinispan.notifications.cachelistener.annotation.CacheEntryLoaded;
+import org.infinispan.persistence.manager.PersistenceManager;
 import org.infinispan.server.hotrod.HotRodServer;
 import org.infinispan.server.hotrod.configuration.HotRodServerConfiguration;
 import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.context.annotation.Bean;
 import org.springframework.stereotype.Component;
 import org.springframework.util.Assert;
+import java.io.IOException;
 import java.lang.annotation.Annotation;
+import java.nio.file.*;
 import java.util.*;
+import java.util.concurrent.*;
 
 /**
  * @author Wolfram Huesken <wolfram.huesken@zalora.com>
@@ -26,28 +41,184 @@ import java.util.*;
 @Component
 public class ServerManager {
 
+    private static final String HOT_KEY_CACHE_SUFFIX = "-hot";
+
     @Autowired
     private HotRodServerConfiguration hotRodServerConfiguration;
 
+    /**
+     * Latency histograms of HotRod, read-through, compression and state transfer
+     */
+    @Getter
+    private final LatencyRegistry latencies = new LatencyRegistry();
+
     @Getter
-    private HotRodServer hotRodServer = new HotRodServer();
+    private HotRodServer hotRodServer = new LatencyTrackingHotRodServer(latencies);
 
     private EmbeddedCacheManager embeddedCacheManager;
 
+    private ServerConfig serverConfig;
+
+    @Getter
+    private ParallelPreloader preloader;
+
+    /**
+     * Local snapshot of the primary cache, null if disabled
+     */
+    @Getter
+    private SnapshotStore snapshotStore;
+
+    /**
+     * Read frequencies of the primary cache, null if disabled
+     */
+    @Getter
+    private HotKeyTracker hotKeyTracker;
+
+    @Getter
+    private HotKeyReplicator hotKeyReplicator;
+
+    /**
+     * Sampled reads of the primary cache, its top keys are warmed up on start. Null if disabled
+     */
+    @Getter
+    private AccessRecorder accessRecorder;
+
+    @Getter
+    private HotKeyWarmer warmer;
+
+    /**
+     * Keys written to the primary cache while it's preloaded, null if preload is disabled
+     */
+    private PreloadWrites preloadWrites;
+
+    /**
+     * Reloads read-through entries of the primary cache before they expire, null if disabled
+     */
+    @Getter
+    private RefreshAhead refreshAhead;
+
+    /**
+     * memcached endpoints by cache name
+     */
+    @Getter
+    private Map<String, MemcachedServer> memcachedServers = new HashMap<>();
+
+    private final ScheduledExecutorService scheduler = Executors.newSingleThreadScheduledExecutor(runnable -> {
+        Thread thread = new Thread(runnable, "aloha-scheduler");
+        thread.setDaemon(true);
+        return thread;
+    });
+
+    /**
+     * Compressor instances by cache name
+     */
+    @Getter
+    private Map<String, Compressor> compressors = new HashMap<>();
+
+    /**
+     * Progress of the state received by cache name
+     */
+    @Getter
+    private Map<String, StateTransferProgress> stateTransfers = new HashMap<>();
+
+    private Map<String, StateTransferThrottle> stateTransferThrottles = new HashMap<>();
+
+    /**
+     * Lock waits by cache name, empty if the profiler is disabled
+     */
+    @Getter
+    private Map<String, LockProfiler> lockProfilers = new HashMap<>();
+
+    /**
+     * Caches of infinispan.caches, next to primary and secondary
+     */
+    @Getter
+    private List<CacheDefinition> namedCaches;
+
     @Autowired
-    public ServerManager(GlobalConfiguration globalConfig, ServerConfig serverConfig, Configuration mainConfig, Configuration sessionConfig) {
+    public ServerManager(GlobalConfiguration globalConfig, ServerConfig serverConfig, Configuration mainConfig,
+                         Configuration sessionConfig, Configuration hotKeyConfig,
+                         CompressionPolicy mainCompressionPolicy, CompressionPolicy sessionCompressionPolicy,
+                         CacheDefinitions cacheDefinitions) {
         Assert.notNull(globalConfig, "Global Configuration must not be null");
         Assert.notNull(serverConfig, "Server Configuration must not be null");
         Assert.notNull(mainConfig, "Main Cache Configuration must not be null");
         Assert.notNull(sessionConfig, "Secondary Cache Configuration must not be null");
+        Assert.notNull(hotKeyConfig, "Hot Key Cache Configuration must not be null");
+        Assert.notNull(mainCompressionPolicy, "Main Cache Compression Policy must not be null");
+        Assert.notNull(sessionCompressionPolicy, "Secondary Cache Compression Policy must not be null");
+        Assert.notNull(cacheDefinitions, "Cache Definitions must not be null");
+
+        this.serverConfig = serverConfig;
+        this.namedCaches = cacheDefinitions.getCaches();
+        validateNamedCaches();
+
+        final String mainCacheName = serverConfig.getPrimaryCacheName();
+        final String sessionCacheName = serverConfig.getSecondaryCacheName();
+
+        if (!serverConfig.getCompressorClass().isEmpty()
+            && (serverConfig.isReadthroughEnabled() || serverConfig.isPrimaryCompressionWritePath())) {
+            initCompressor(mainCacheName, serverConfig.getCompressorClass(), mainCompressionPolicy);
+        }
+
+        if (serverConfig.isSecondaryCompressionWritePath() && !serverConfig.getSecondaryCompressorClass().isEmpty()) {
+            initCompressor(sessionCacheName, serverConfig.getSecondaryCompressorClass(), sessionCompressionPolicy);
+        }
+
+        initStateTransfer(
+            mainCacheName, mainConfig, serverConfig.getPrimaryStateTransferChunkBytes(),
+            serverConfig.getPrimaryStateTransferMaxEntriesPerSecond(),
+            serverConfig.getPrimaryStateTransferMaxBytesPerSecond()
+        );
+
+        initStateTransfer(
+            sessionCacheName, sessionConfig, serverConfig.getSecondaryStateTransferChunkBytes(),
+            serverConfig.getSecondaryStateTransferMaxEntriesPerSecond(),
+            serverConfig.getSecondaryStateTransferMaxBytesPerSecond()
+        );
+
+        initLockProfiler(mainCacheName, mainConfig);
+        initLockProfiler(sessionCacheName, sessionConfig);
 
         embeddedCacheManager = new DefaultCacheManager(globalConfig);
-        embeddedCacheManager.defineConfiguration(serverConfig.getPrimaryCacheName(), mainConfig);
-        embeddedCacheManager.defineConfiguration(serverConfig.getSecondaryCacheName(), sessionConfig);
+
+        if (serverConfig.isHotKeysEnabled()) {
+            initHotKeys(serverConfig, hotKeyConfig, mainCompressionPolicy);
+        }
+
+        if (serverConfig.isReadthroughEnabled() && serverConfig.isWarmupEnabled()) {
+            accessRecorder = new AccessRecorder(serverConfig.getWarmupKeys(), serverConfig.getWarmupSampleRate());
+        }
+
+        if (serverConfig.isReadthroughEnabled() && serverConfig.isReadthroughPreload()) {
+            preloadWrites = new PreloadWrites();
+        }
+
+        if (serverConfig.isReadthroughEnabled() && serverConfig.isRefreshAheadEnabled()) {
+            refreshAhead = new RefreshAhead(
+                serverConfig.getRefreshAheadFraction(), serverConfig.getRefreshAheadThreads(),
+                serverConfig.getRefreshAheadQueueSize()
+            );
+        }
+
+        mainConfig = withInterceptors(
+            mainCacheName, mainConfig, serverConfig.isPrimaryCompressionWritePath(), hotKeyTracker != null,
+            accessRecorder != null, refreshAhead != null, preloadWrites != null
+        );
+        sessionConfig = withInterceptors(
+            sessionCacheName, sessionConfig, serverConfig.isSecondaryCompressionWritePath(), false, false, false, false
+        );
+
+        embeddedCacheManager.defineConfiguration(mainCacheName, mainConfig);
+        embeddedCacheManager.defineConfiguration(sessionCacheName, sessionConfig);
+
+        for (CacheDefinition definition : namedCaches) {
+            defineNamedCache(definition);
+        }
 
         // Compress entry before putting it in memory
-        if (serverConfig.isReadthroughEnabled() && !serverConfig.getCompressorClass().isEmpty()) {
-            initCompressor(serverConfig.getCompressorClass());
+        if (serverConfig.isReadthroughEnabled() && compressors.containsKey(mainCacheName)) {
+            initReadthroughCompression(mainCacheName, compressors.get(mainCacheName));
         }
     }
 
@@ -56,30 +227,587 @@ public class ServerManager {
         return embeddedCacheManager;
     }
 
+    /**
+     * The warm-up runs before the endpoints start, so the first requests already find the hot keys
+     */
     @PostConstruct
     public void init() {
+        final boolean restored = serverConfig.isSnapshotEnabled() && initSnapshot(serverConfig.getPrimaryCacheName());
+
+        if (serverConfig.isReadthroughEnabled()) {
+            initReadthroughStore(serverConfig.getPrimaryCacheName());
+
+            if (refreshAhead != null) {
+                startRefreshAhead(serverConfig.getPrimaryCacheName());
+            }
+
+            if (accessRecorder != null) {
+                startWarmup(serverConfig.getPrimaryCacheName(), !restored);
+            }
+
+            if (serverConfig.isReadthroughPreload() && !restored) {
+                startPreload(serverConfig.getPrimaryCacheName());
+            }
+        }
+
         // Start HotRod Server
         hotRodServer.start(hotRodServerConfiguration, embeddedCacheManager);
+
+        if (serverConfig.isMemcachedEnabled()) {
+            startMemcached(
+                serverConfig.getPrimaryCacheName(), serverConfig.getMemcachedPrimaryPort(),
+                serverConfig.isPrimaryCompressionWritePath()
+            );
+
+            if (serverConfig.isMemcachedSecondaryEnabled()) {
+                startMemcached(
+                    serverConfig.getSecondaryCacheName(), serverConfig.getMemcachedSecondaryPort(),
+                    serverConfig.isSecondaryCompressionWritePath()
+                );
+            }
+        }
+
+        if (hotKeyTracker != null) {
+            startHotKeys(serverConfig.getPrimaryCacheName());
+        }
+
+        registerLatencies(serverConfig.getPrimaryCacheName());
+        registerLatencies(serverConfig.getSecondaryCacheName());
+
+        startStateTransfer(serverConfig.getPrimaryCacheName());
+        startStateTransfer(serverConfig.getSecondaryCacheName());
+
+        for (CacheDefinition definition : namedCaches) {
+            startNamedCache(definition.getName());
+        }
+
+        startLockProfilers();
+    }
+
+    @PreDestroy
+    public void stop() {
+        for (MemcachedServer memcachedServer : memcachedServers.values()) {
+            memcachedServer.stop();
+        }
+
+        hotRodServer.stop();
+
+        if (preloader != null) {
+            preloader.stop();
+        }
+
+        if (refreshAhead != null) {
+            refreshAhead.stop();
+        }
+
+        if (accessRecorder != null) {
+            persistHotKeys(false);
+        }
+    }
+
+    /**
+     * Names end up in metric and latency names and have to be unique, HotRod clients address the caches by them
+     */
+    private void validateNamedCaches() {
+        Set<String> names = new HashSet<>();
+        names.add(serverConfig.getPrimaryCacheName());
+        names.add(serverConfig.getSecondaryCacheName());
+
+        for (CacheDefinition definition : namedCaches) {
+            Assert.hasText(definition.getName(), "Every cache of infinispan.caches needs a name");
+            Assert.isTrue(names.add(definition.getName()), "Cache " + definition.getName() + " is defined twice");
+        }
+    }
+
+    private void defineNamedCache(CacheDefinition definition) {
+        final String cacheName = definition.getName();
+
+        if (definition.isCompressorEnabled()) {
+            initCompressor(
+                cacheName, definition.getCompression().getCompressor(), serverConfig.namedCompressionPolicy(definition)
+            );
+        }
+
+        final Configuration config = serverConfig.namedCacheConfig(definition);
+
+        initStateTransfer(
+            cacheName, config, definition.getStateTransfer().getChunkBytes(),
+            definition.getStateTransfer().getMaxEntriesPerSecond(), definition.getStateTransfer().getMaxBytesPerSecond()
+        );
+        initLockProfiler(cacheName, config);
+
+        embeddedCacheManager.defineConfiguration(cacheName, withInterceptors(
+            cacheName, config, definition.getCompression().isWritePath(), false, false, false, false
+        ));
+
+        if (definition.getReadthrough().isEnabled() && compressors.containsKey(cacheName)) {
+            initReadthroughCompression(cacheName, compressors.get(cacheName));
+        }
+    }
+
+    /**
+     * Starts the cache, so it joins the cluster with the node instead of on its first HotRod request
+     */
+    private void startNamedCache(String cacheName) {
+        embeddedCacheManager.getCache(cacheName);
+
+        initReadthroughStore(cacheName);
+        registerLatencies(cacheName);
+        startStateTransfer(cacheName);
+    }
+
+    /**
+     * Serves the cache via the memcached protocol, so PHP clients can talk to the cluster without a proxy
+     * If the cache doesn't decompress on read itself, the endpoint does it
+     * Delta updates only work on uncompressed items, so they're off for caches with a compressor
+     */
+    private void startMemcached(String cacheName, int port, boolean compressionWritePath) {
+        if (port <= 0) {
+            return;
+        }
+
+        final Compressor compressor = compressors.get(cacheName);
+        final boolean delta = serverConfig.isMemcachedDeltaUpdates() && compressor == null;
+        if (serverConfig.isMemcachedDeltaUpdates() && compressor != null) {
+            log.info("{} may hold compressed items, memcached writes replicate whole items", cacheName);
+        }
+
+        MemcachedOperations operations = new MemcachedOperations(
+            embeddedCacheManager.<Object, Object>getCache(cacheName).getAdvancedCache(),
+            compressionWritePath ? null : compressor, scheduler, delta
+        );
+
+        MemcachedServer memcachedServer = new MemcachedServer(
+            cacheName, operations, serverConfig.getMemcachedHost(), port,
+            serverConfig.getMemcachedWorkerThreads(), serverConfig.getMemcachedMaxItemSize()
+        );
+        memcachedServer.start();
+
+        memcachedServers.put(cacheName, memcachedServer);
+    }
+
+    /**
+     * The snapshot was restored before the cache joined, entries the cluster doesn't have anymore are dropped now
+     *
+     * @return whether entries were restored, the database preload is skipped then
+     */
+    private boolean initSnapshot(String cacheName) {
+        AdvancedCache<Object, Object> cache = embeddedCacheManager.getCache(cacheName).getAdvancedCache();
+        Set<SnapshotStore> stores = cache.getComponentRegistry()
+            .getComponent(PersistenceManager.class).getStores(SnapshotStore.class);
+
+        if (stores.isEmpty()) {
+            return false;
+        }
+
+        snapshotStore = stores.iterator().next();
+        if (snapshotStore.getRestoredEntries() == 0) {
+            return false;
+        }
+
+        // Alone in the cluster nobody had fresher data to send, everything restored stays
+        if (cache.getRpcManager() != null && cache.getRpcManager().getMembers().size() > 1) {
+            snapshotStore.removeStale();
+        } else {
+            snapshotStore.forgetRestored();
+        }
+
+        return true;
+    }
+
+    /**
+     * Preloads in the background, misses are served by read-through until it's done
+     */
+    private void startPreload(String cacheName) {
+        AdvancedCache<Object, Object> cache = embeddedCacheManager.getCache(cacheName).getAdvancedCache();
+        MemcachedItemStore store = readthroughStore(cache);
+
+        if (store == null) {
+            log.error("No read-through store found for {}, skipping preload", cacheName);
+            return;
+        }
+
+        preloader = new ParallelPreloader(
+            cache, store, compressors.get(cacheName), preloadWrites,
+            serverConfig.getReadthroughPreloadThreads(), serverConfig.getReadthroughPreloadPageSize()
+        );
+        preloader.start();
+    }
+
+    /**
+     * Warms up the keys of the last list unless a snapshot was restored, then keeps writing the list
+     */
+    private void startWarmup(String cacheName, boolean warm) {
+        if (warm) {
+            warmUp(cacheName);
+        }
+
+        final long interval = serverConfig.getWarmupInterval();
+        if (interval > 0) {
+            scheduler.scheduleWithFixedDelay(() -> persistHotKeys(true), interval, interval, TimeUnit.SECONDS);
+        }
     }
 
-    private void initCompressor(String compressorClass) {
-        final Compressor compressor;
+    /**
+     * Blocks until the keys are loaded or the timeout is reached
+     * The counts of the list are carried over, so a short run doesn't shrink the list
+     */
+    private void warmUp(String cacheName) {
+        final Path path = Paths.get(serverConfig.getWarmupPath());
+        if (!Files.exists(path)) {
+            log.info("No hot key list at {}, skipping warm-up", path);
+            return;
+        }
+
+        AdvancedCache<Object, Object> cache = embeddedCacheManager.getCache(cacheName).getAdvancedCache();
+        MemcachedItemStore store = readthroughStore(cache);
+
+        if (store == null) {
+            log.error("No read-through store found for {}, skipping warm-up", cacheName);
+            return;
+        }
 
+        final List<String> keys = new ArrayList<>();
         try {
-            compressor = (Compressor) Class.forName(compressorClass).newInstance();
-        } catch (ClassNotFoundException | IllegalAccessException | InstantiationException e) {
-            log.error("Could not instantiate {}, disabling compression", compressorClass);
+            HotKeyFile.read(path, (key, reads) -> {
+                keys.add(key);
+                accessRecorder.restore(key, reads);
+            });
+        } catch (IOException ex) {
+            log.warn("Ignoring hot key list {}: {}", path, ex.getMessage());
+            return;
+        }
+
+        warmer = new HotKeyWarmer(
+            cache, store, compressors.get(cacheName),
+            serverConfig.getWarmupThreads(), serverConfig.getWarmupBatchSize()
+        );
+        warmer.warm(keys, TimeUnit.SECONDS.toMillis(serverConfig.getWarmupTimeout()));
+    }
+
+    /**
+     * @param age halve the counts afterwards, so keys which aren't read anymore drop out of the list
+     */
+    private void persistHotKeys(boolean age) {
+        if (accessRecorder.getTrackedKeys() == 0) {
+            return;
+        }
+
+        final Path path = Paths.get(serverConfig.getWarmupPath());
+        try {
+            final long bytes = HotKeyFile.write(
+                path, System.currentTimeMillis(), accessRecorder.getTopKeys(serverConfig.getWarmupKeys())
+            );
+            log.debug("Wrote hot key list {} ({} bytes)", path, bytes);
+        } catch (IOException ex) {
+            log.error("Could not write hot key list {}", path, ex);
+        }
+
+        if (age) {
+            accessRecorder.age();
+        }
+    }
+
+    /**
+     * HotRod latencies are registered by the server itself on first use
+     */
+    private void registerLatencies(String cacheName) {
+        AdvancedCache<Object, Object> cache = embeddedCacheManager.getCache(cacheName).getAdvancedCache();
+
+        Compressor compressor = compressors.get(cacheName);
+        if (compressor != null) {
+            latencies.register("compression." + cacheName + ".compress", compressor.getStats().getCompressLatency());
+            latencies.register("compression." + cacheName + ".decompress", compressor.getStats().getDecompressLatency());
+            latencies.register("compression." + cacheName + ".ratio", compressor.getStats().getRatios());
+        }
+
+        // The primary cache's names predate the named caches
+        final String suffix = cacheName.equals(serverConfig.getPrimaryCacheName()) ? "" : "." + cacheName;
+
+        MemcachedItemStore store = readthroughStore(cache);
+        if (store != null) {
+            latencies.register("readthrough" + suffix + ".load", store.getLoadLatency());
+
+            if (store.getBatchingLoader() != null) {
+                latencies.register("readthrough" + suffix + ".batchQuery", store.getBatchingLoader().getQueryLatency());
+            }
+
+            if (store.getWriteBehindQueue() != null) {
+                latencies.register("writeBehind" + suffix + ".flush", store.getWriteBehindQueue().getFlushLatency());
+            }
+        }
+    }
+
+    /**
+     * The throttle keeps each chunk's wait well below the timeout, after which the sender gives up on it
+     */
+    private void initStateTransfer(String cacheName, Configuration config, long chunkBytes,
+                                   long maxEntriesPerSecond, long maxBytesPerSecond) {
+        final StateTransferConfiguration stateTransfer = config.clustering().stateTransfer();
+        final StateTransferThrottle throttle = new StateTransferThrottle(
+            cacheName, maxEntriesPerSecond, maxBytesPerSecond, stateTransfer.chunkSize(), stateTransfer.timeout()
+        );
+
+        stateTransfers.put(cacheName, new StateTransferProgress(stateTransfer.chunkSize(), chunkBytes));
+        stateTransferThrottles.put(cacheName, throttle);
+
+        if (throttle.isEnabled()) {
+            log.info("State transfer of {} is throttled, {}", cacheName, throttle);
+        }
+    }
+
+    private void initLockProfiler(String cacheName, Configuration config) {
+        if (!serverConfig.isLockProfilerEnabled()) {
+            return;
+        }
+
+        lockProfilers.put(cacheName, new LockProfiler(
+            serverConfig.getLockProfilerSampleRate(), serverConfig.getLockProfilerThreshold(),
+            serverConfig.getLockProfilerTopKeys(), serverConfig.getLockProfilerPrefixDelimiters(),
+            serverConfig.getLockProfilerMaxPrefixes(), config.locking().useLockStriping(),
+            config.locking().concurrencyLevel(), config.locking().lockAcquisitionTimeout()
+        ));
+    }
+
+    private void startLockProfilers() {
+        if (lockProfilers.isEmpty()) {
+            return;
+        }
+
+        lockProfilers.forEach((cacheName, profiler) -> latencies.register("locks." + cacheName, profiler.getWaits()));
+
+        final long window = serverConfig.getLockProfilerWindow();
+        scheduler.scheduleAtFixedRate(
+            () -> lockProfilers.values().forEach(LockProfiler::age), window, window, TimeUnit.SECONDS
+        );
+
+        log.info(
+            "Sampling 1 in {} lock waits of {}", serverConfig.getLockProfilerSampleRate(), lockProfilers.keySet()
+        );
+    }
+
+    /**
+     * The cache waited for its initial state before it started, the listener only sees the rebalances after that
+     */
+    private void startStateTransfer(String cacheName) {
+        AdvancedCache<Object, Object> cache = embeddedCacheManager.getCache(cacheName).getAdvancedCache();
+        StateTransferProgress progress = stateTransfers.get(cacheName);
+
+        if (progress.finish()) {
+            log.info(
+                "Received {} entries, {} bytes of {} on join in {}ms",
+                progress.getEntries(), progress.getBytes(), cacheName, progress.getElapsedMillis()
+            );
+        }
+
+        cache.addListener(new StateTransferListener(latencies.histogram("stateTransfer." + cacheName), progress));
+    }
+
+    /**
+     * Writes through the cache keep the store's key filter up to date between rebuilds
+     * Write-behind persists values decompressed, so the store needs the cache's compressor
+     */
+    private void initReadthroughStore(String cacheName) {
+        AdvancedCache<Object, Object> cache = embeddedCacheManager.getCache(cacheName).getAdvancedCache();
+        MemcachedItemStore store = readthroughStore(cache);
+
+        if (store == null) {
             return;
         }
 
+        if (store.getNegativeLookupFilter() != null) {
+            cache.addListener(new NegativeLookupListener(store.getNegativeLookupFilter()));
+        }
+
+        if (store.getWriteBehindQueue() != null) {
+            store.setCompressor(compressors.get(cacheName));
+        }
+    }
+
+    /**
+     * If the cache compresses writes itself, reloaded items are compressed on their way into the cache anyway
+     */
+    private void startRefreshAhead(String cacheName) {
+        AdvancedCache<Object, Object> cache = embeddedCacheManager.getCache(cacheName).getAdvancedCache();
+        MemcachedItemStore store = readthroughStore(cache);
+
+        if (store == null) {
+            log.error("No read-through store found for {}, refresh-ahead is disabled", cacheName);
+            return;
+        }
+
+        refreshAhead.start(
+            cache, store, serverConfig.isPrimaryCompressionWritePath() ? null : compressors.get(cacheName)
+        );
+    }
+
+    private static MemcachedItemStore readthroughStore(AdvancedCache<Object, Object> cache) {
+        Set<MemcachedItemStore> stores = cache.getComponentRegistry()
+            .getComponent(PersistenceManager.class).getStores(MemcachedItemStore.class);
+
+        return stores.isEmpty() ? null : stores.iterator().next();
+    }
+
+    private void initCompressor(String cacheName, String compressorClass, CompressionPolicy policy) {
+        final Compressor compressor = createCompressor(compressorClass, policy);
+        if (compressor == null) {
+            return;
+        }
+
+        compressors.put(cacheName, compressor);
+    }
+
+    private void initReadthroughCompression(String cacheName, Compressor compressor) {
         Set<Class<? extends Annotation>> events = new HashSet<>(1);
         events.add(CacheEntryLoaded.class);
 
-        embeddedCacheManager.getCache("main").addFilteredListener(
+        embeddedCacheManager.getCache(cacheName).addFilteredListener(
             new StorageFetchListener(), null, new DataCompressionEventConverter(compressor), events
         );
 
-        log.info("Read-through compressor {} added to main cache", compressor.getClass().getSimpleName());
+        log.info("Read-through compressor {} added to {} cache", compressor.getClass().getSimpleName(), cacheName);
+    }
+
+    /**
+     * Reads of the primary cache are counted, the access frequency feeds the compression policy as well
+     * In distributed mode, hot keys are copied to a replicated side cache
+     */
+    private void initHotKeys(ServerConfig serverConfig, Configuration hotKeyConfig, CompressionPolicy compressionPolicy) {
+        hotKeyTracker = new HotKeyTracker(
+            serverConfig.getHotKeysTopK(), serverConfig.getHotKeysThreshold(), serverConfig.getHotKeysSampleRate()
+        );
+
+        if (compressionPolicy instanceof AdaptiveCompressionPolicy) {
+            ((AdaptiveCompressionPolicy) compressionPolicy).setAccessFrequency(hotKeyTracker::estimate);
+        }
+
+        if (serverConfig.isHotKeyReplicationEnabled()) {
+            final String hotKeyCacheName = serverConfig.getPrimaryCacheName() + HOT_KEY_CACHE_SUFFIX;
+            embeddedCacheManager.defineConfiguration(hotKeyCacheName, hotKeyConfig);
+
+            hotKeyReplicator = new HotKeyReplicator(
+                hotKeyTracker, embeddedCacheManager.<Object, Object>getCache(hotKeyCacheName).getAdvancedCache()
+            );
+        }
+
+        log.info(
+            "Tracking the top {} keys of {}, hot at {} reads, sample rate {}, replicated: {}",
+            serverConfig.getHotKeysTopK(), serverConfig.getPrimaryCacheName(), serverConfig.getHotKeysThreshold(),
+            serverConfig.getHotKeysSampleRate(), hotKeyReplicator != null
+        );
+    }
+
+    private void startHotKeys(String cacheName) {
+        final long window = serverConfig.getHotKeysWindow();
+        scheduler.scheduleAtFixedRate(hotKeyTracker::age, window, window, TimeUnit.SECONDS);
+
+        if (hotKeyReplicator != null) {
+            hotKeyReplicator.start(embeddedCacheManager.<Object, Object>getCache(cacheName).getAdvancedCache());
+            scheduler.scheduleWithFixedDelay(hotKeyReplicator::run, 1, 1, TimeUnit.SECONDS);
+        }
+    }
+
+    /**
+     * Put the state transfer interceptor right behind the invocation context, so it sees received state as it arrives
+     * Writes are recorded for a running preload next
+     * The compression interceptor follows, so values are compressed before they are locked, stored and replicated
+     * Reads are recorded and checked for refresh-ahead before the hot key interceptor, which answers reads of
+     * replicated keys itself
+     * The hot key interceptor comes last, so values served from the side cache are decompressed as well
+     * The lock profiler's interceptors enclose the locking interceptor, anything in between would count as waiting
+     */
+    private Configuration withInterceptors(String cacheName, Configuration config, boolean compression,
+                                           boolean hotKeys, boolean recordAccess, boolean refresh,
+                                           boolean trackPreloadWrites) {
+        final Compressor compressor = compressors.get(cacheName);
+        if (compression && compressor == null) {
+            log.error("No compressor for {}, writes stay uncompressed", cacheName);
+            compression = false;
+        }
+
+        ConfigurationBuilder builder = new ConfigurationBuilder().read(config);
+
+        builder.customInterceptors().addInterceptor()
+            .interceptor(new StateTransferInterceptor(stateTransfers.get(cacheName), stateTransferThrottles.get(cacheName)))
+            .after(InvocationContextInterceptor.class);
+
+        Class<? extends AsyncInterceptor> last = StateTransferInterceptor.class;
+
+        if (trackPreloadWrites) {
+            builder.customInterceptors().addInterceptor()
+                .interceptor(new PreloadWriteInterceptor(preloadWrites))
+                .after(last);
+
+            last = PreloadWriteInterceptor.class;
+        }
+
+        if (compression) {
+            builder.customInterceptors().addInterceptor()
+                .interceptor(new CompressionInterceptor(compressor))
+                .after(last);
+
+            last = CompressionInterceptor.class;
+            log.info("Write compressor {} added to {} cache", compressor.getClass().getSimpleName(), cacheName);
+        }
+
+        if (recordAccess) {
+            builder.customInterceptors().addInterceptor()
+                .interceptor(new AccessRecordingInterceptor(accessRecorder))
+                .after(last);
+
+            last = AccessRecordingInterceptor.class;
+        }
+
+        if (refresh) {
+            builder.customInterceptors().addInterceptor()
+                .interceptor(new RefreshAheadInterceptor(refreshAhead))
+                .after(last);
+
+            last = RefreshAheadInterceptor.class;
+        }
+
+        if (hotKeys) {
+            builder.customInterceptors().addInterceptor()
+                .interceptor(new HotKeyInterceptor(hotKeyTracker, hotKeyReplicator))
+                .after(last);
+        }
+
+        final LockProfiler lockProfiler = lockProfilers.get(cacheName);
+        if (lockProfiler != null) {
+            builder.customInterceptors().addInterceptor()
+                .interceptor(new LockWaitInterceptor(lockProfiler))
+                .before(NonTransactionalLockingInterceptor.class);
+
+            builder.customInterceptors().addInterceptor()
+                .interceptor(new LockAcquiredInterceptor(lockProfiler))
+                .after(NonTransactionalLockingInterceptor.class);
+        }
+
+        if (serverConfig.isMemcachedEnabled() && serverConfig.isMemcachedDeltaUpdates()) {
+            builder.customInterceptors().addInterceptor()
+                .interceptor(new FunctionalMetadataInterceptor())
+                .after(EntryWrappingInterceptor.class);
+        }
+
+        return builder.build();
+    }
+
+    /**
+     * Compressors taking a policy get it passed to their constructor, all others are created with the default one
+     */
+    private Compressor createCompressor(String compressorClass, CompressionPolicy policy) {
+        try {
+            Class<?> clazz = Class.forName(compressorClass);
+
+            try {
+                return (Compressor) clazz.getConstructor(CompressionPolicy.class).newInstance(policy);
+            } catch (NoSuchMethodException e) {
+                return (Compressor) clazz.newInstance();
+            }
+        } catch (ReflectiveOperationException e) {
+            log.error("Could not instantiate {}, disabling compression", compressorClass);
+            return null;
+        }
     }
 
 }
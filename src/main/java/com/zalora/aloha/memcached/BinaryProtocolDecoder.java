@@ -0,0 +1,275 @@
+package com.zalora.aloha.memcached;
+
+import com.zalora.aloha.memcached.MemcachedCommand.Op;
+import com.zalora.aloha.memcached.MemcachedResponse.Status;
+import io.netty.buffer.ByteBuf;
+import io.netty.channel.ChannelHandlerContext;
+import io.netty.handler.codec.ByteToMessageDecoder;
+import java.nio.charset.StandardCharsets;
+import java.util.List;
+
+/**
+ * Decodes memcached's binary protocol, SASL isn't supported
+ *
+ * @author Wolfram Huesken <wolfram.huesken@zalora.com>
+ * @link https://github.com/memcached/memcached/wiki/BinaryProtocolRevamped
+ */
+class BinaryProtocolDecoder extends ByteToMessageDecoder {
+
+    static final byte MAGIC_REQUEST = (byte) 0x80;
+    static final int HEADER_LENGTH = 24;
+
+    /**
+     * Expiration of incr/decr which makes them fail for missing keys instead of creating them
+     */
+    private static final long NO_INITIAL_VALUE = 0xffffffffL;
+
+    /**
+     * Extras and key on top of the value
+     */
+    private static final int MAX_OVERHEAD = 20 + TextProtocolDecoder.MAX_KEY_LENGTH;
+
+    private final int maxItemSize;
+
+    /**
+     * Bytes of a rejected body which still need to be skipped
+     */
+    private long discard;
+
+    BinaryProtocolDecoder(int maxItemSize) {
+        this.maxItemSize = maxItemSize;
+    }
+
+    @Override
+    protected void decode(ChannelHandlerContext ctx, ByteBuf in, List<Object> out) {
+        if (discard > 0) {
+            int skipped = (int) Math.min(in.readableBytes(), discard);
+            in.skipBytes(skipped);
+            discard -= skipped;
+            return;
+        }
+
+        if (in.readableBytes() < HEADER_LENGTH) {
+            return;
+        }
+
+        final int start = in.readerIndex();
+        if (in.getByte(start) != MAGIC_REQUEST) {
+            // Out of sync, nothing after this can be trusted
+            in.skipBytes(in.readableBytes());
+            ctx.close();
+            return;
+        }
+
+        final byte opcode = in.getByte(start + 1);
+        final int keyLength = in.getUnsignedShort(start + 2);
+        final int extrasLength = in.getUnsignedByte(start + 4);
+        final long bodyLength = in.getUnsignedInt(start + 8);
+        final int opaque = in.getInt(start + 12);
+        final long cas = in.getLong(start + 16);
+
+        if (bodyLength > maxItemSize + MAX_OVERHEAD) {
+            in.skipBytes(HEADER_LENGTH);
+            discard = bodyLength;
+            out.add(binary(MemcachedCommand.error(Status.TOO_LARGE, "Too large"), opcode, opaque));
+            return;
+        }
+
+        if (in.readableBytes() < HEADER_LENGTH + bodyLength) {
+            return;
+        }
+
+        in.skipBytes(HEADER_LENGTH);
+        final ByteBuf body = in.readSlice((int) bodyLength);
+
+        MemcachedCommand command;
+        if (keyLength + extrasLength > bodyLength || keyLength > TextProtocolDecoder.MAX_KEY_LENGTH) {
+            command = MemcachedCommand.error(Status.CLIENT_ERROR, "Invalid arguments");
+        } else {
+            command = parse(opcode, body, extrasLength, keyLength);
+            command.setCas(cas);
+
+            // Binary SET and REPLACE turn into CAS if the client passes a version
+            if (cas != 0 && (command.getOp() == Op.SET || command.getOp() == Op.REPLACE)) {
+                command.setOp(Op.CAS);
+            }
+        }
+
+        out.add(binary(command, opcode, opaque));
+    }
+
+    private MemcachedCommand parse(byte opcode, ByteBuf body, int extrasLength, int keyLength) {
+        final ByteBuf extras = body.readSlice(extrasLength);
+        final String key = keyLength > 0 ? body.readCharSequence(keyLength, StandardCharsets.UTF_8).toString() : null;
+        final byte[] value = new byte[body.readableBytes()];
+        body.readBytes(value);
+
+        switch (opcode) {
+            case 0x00:
+                return get(Op.GET, key, false, false);
+            case 0x09:
+                return get(Op.GET, key, true, false);
+            case 0x0c:
+                return get(Op.GET, key, false, true);
+            case 0x0d:
+                return get(Op.GET, key, true, true);
+            case 0x01:
+                return storage(Op.SET, key, extras, value, false);
+            case 0x11:
+                return storage(Op.SET, key, extras, value, true);
+            case 0x02:
+                return storage(Op.ADD, key, extras, value, false);
+            case 0x12:
+                return storage(Op.ADD, key, extras, value, true);
+            case 0x03:
+                return storage(Op.REPLACE, key, extras, value, false);
+            case 0x13:
+                return storage(Op.REPLACE, key, extras, value, true);
+            case 0x0e:
+                return concat(Op.APPEND, key, value, false);
+            case 0x19:
+                return concat(Op.APPEND, key, value, true);
+            case 0x0f:
+                return concat(Op.PREPEND, key, value, false);
+            case 0x1a:
+                return concat(Op.PREPEND, key, value, true);
+            case 0x04:
+                return keyCommand(Op.DELETE, key, false);
+            case 0x14:
+                return keyCommand(Op.DELETE, key, true);
+            case 0x05:
+                return arithmetic(Op.INCR, key, extras, false);
+            case 0x15:
+                return arithmetic(Op.INCR, key, extras, true);
+            case 0x06:
+                return arithmetic(Op.DECR, key, extras, false);
+            case 0x16:
+                return arithmetic(Op.DECR, key, extras, true);
+            case 0x1c:
+                return touch(Op.TOUCH, key, extras, false, false);
+            case 0x1d:
+                return touch(Op.GAT, key, extras, false, false);
+            case 0x1e:
+                return touch(Op.GAT, key, extras, true, false);
+            case 0x23:
+                return touch(Op.GAT, key, extras, false, true);
+            case 0x24:
+                return touch(Op.GAT, key, extras, true, true);
+            case 0x08:
+                return flush(extras, false);
+            case 0x18:
+                return flush(extras, true);
+            case 0x07:
+                return simple(Op.QUIT, false);
+            case 0x17:
+                return simple(Op.QUIT, true);
+            case 0x0a:
+                return simple(Op.NOOP, false);
+            case 0x0b:
+                return simple(Op.VERSION, false);
+            case 0x10:
+                return simple(Op.STATS, false);
+            default:
+                return MemcachedCommand.error(Status.UNKNOWN_COMMAND, "Unknown command");
+        }
+    }
+
+    private static MemcachedCommand get(Op op, String key, boolean quiet, boolean returnKey) {
+        MemcachedCommand command = keyCommand(op, key, quiet);
+        command.setReturnKey(returnKey);
+        return command;
+    }
+
+    /**
+     * Extras: flags (4), expiration (4)
+     */
+    private static MemcachedCommand storage(Op op, String key, ByteBuf extras, byte[] value, boolean quiet) {
+        if (extras.readableBytes() != 8) {
+            return invalid();
+        }
+
+        MemcachedCommand command = keyCommand(op, key, quiet);
+        command.setFlags(extras.readUnsignedInt());
+        command.setExpire(extras.readUnsignedInt());
+        command.setData(value);
+        return command;
+    }
+
+    private static MemcachedCommand concat(Op op, String key, byte[] value, boolean quiet) {
+        MemcachedCommand command = keyCommand(op, key, quiet);
+        command.setData(value);
+        return command;
+    }
+
+    /**
+     * Extras: delta (8), initial value (8), expiration (4)
+     */
+    private static MemcachedCommand arithmetic(Op op, String key, ByteBuf extras, boolean quiet) {
+        if (extras.readableBytes() != 20) {
+            return invalid();
+        }
+
+        MemcachedCommand command = keyCommand(op, key, quiet);
+        command.setDelta(extras.readLong());
+        command.setInitial(extras.readLong());
+
+        final long expire = extras.readUnsignedInt();
+        command.setFailIfMissing(expire == NO_INITIAL_VALUE);
+        command.setExpire(expire == NO_INITIAL_VALUE ? 0 : expire);
+        return command;
+    }
+
+    /**
+     * Extras: expiration (4)
+     */
+    private static MemcachedCommand touch(Op op, String key, ByteBuf extras, boolean quiet, boolean returnKey) {
+        if (extras.readableBytes() != 4) {
+            return invalid();
+        }
+
+        MemcachedCommand command = get(op, key, quiet, returnKey);
+        command.setExpire(extras.readUnsignedInt());
+        return command;
+    }
+
+    /**
+     * Extras: optional delay (4)
+     */
+    private static MemcachedCommand flush(ByteBuf extras, boolean quiet) {
+        MemcachedCommand command = simple(Op.FLUSH, quiet);
+        if (extras.readableBytes() == 4) {
+            command.setExpire(extras.readUnsignedInt());
+        }
+
+        return command;
+    }
+
+    private static MemcachedCommand keyCommand(Op op, String key, boolean quiet) {
+        if (key == null) {
+            return invalid();
+        }
+
+        MemcachedCommand command = new MemcachedCommand(op);
+        command.setKey(key);
+        command.setQuiet(quiet);
+        return command;
+    }
+
+    private static MemcachedCommand simple(Op op, boolean quiet) {
+        MemcachedCommand command = new MemcachedCommand(op);
+        command.setQuiet(quiet);
+        return command;
+    }
+
+    private static MemcachedCommand invalid() {
+        return MemcachedCommand.error(Status.CLIENT_ERROR, "Invalid arguments");
+    }
+
+    private static MemcachedCommand binary(MemcachedCommand command, byte opcode, int opaque) {
+        command.setBinary(true);
+        command.setOpcode(opcode);
+        command.setOpaque(opaque);
+        return command;
+    }
+
+}
@@ -0,0 +1,134 @@
+package com.zalora.aloha.memcached;
+
+import com.zalora.aloha.memcached.MemcachedCommand.Op;
+import io.netty.buffer.ByteBuf;
+import io.netty.channel.ChannelHandlerContext;
+import io.netty.handler.codec.MessageToByteEncoder;
+import java.nio.charset.StandardCharsets;
+import java.util.Map;
+
+/**
+ * Encodes responses in memcached's binary protocol
+ *
+ * @author Wolfram Huesken <wolfram.huesken@zalora.com>
+ */
+class BinaryProtocolEncoder extends MessageToByteEncoder<MemcachedResponse> {
+
+    private static final byte MAGIC_RESPONSE = (byte) 0x81;
+
+    private static final short STATUS_OK = 0x0000;
+    private static final short STATUS_NOT_FOUND = 0x0001;
+    private static final short STATUS_EXISTS = 0x0002;
+    private static final short STATUS_TOO_LARGE = 0x0003;
+    private static final short STATUS_INVALID_ARGUMENTS = 0x0004;
+    private static final short STATUS_NOT_STORED = 0x0005;
+    private static final short STATUS_NON_NUMERIC = 0x0006;
+    private static final short STATUS_UNKNOWN_COMMAND = 0x0081;
+    private static final short STATUS_INTERNAL_ERROR = 0x0084;
+
+    private static final byte[] EMPTY = new byte[0];
+
+    @Override
+    protected void encode(ChannelHandlerContext ctx, MemcachedResponse response, ByteBuf out) {
+        final MemcachedCommand command = response.getCommand();
+
+        switch (response.getStatus()) {
+            case OK:
+                break;
+            case NOT_FOUND:
+                error(out, command, STATUS_NOT_FOUND, "Not found");
+                return;
+            case EXISTS:
+                error(out, command, STATUS_EXISTS, "Data exists for key");
+                return;
+            case NOT_STORED:
+                error(out, command, STATUS_NOT_STORED, "Not stored");
+                return;
+            case NON_NUMERIC:
+                error(out, command, STATUS_NON_NUMERIC, "Non-numeric server-side value for incr or decr");
+                return;
+            case TOO_LARGE:
+                error(out, command, STATUS_TOO_LARGE, "Too large");
+                return;
+            case CLIENT_ERROR:
+                error(out, command, STATUS_INVALID_ARGUMENTS, response.getMessage());
+                return;
+            case UNKNOWN_COMMAND:
+                error(out, command, STATUS_UNKNOWN_COMMAND, "Unknown command");
+                return;
+            default:
+                error(out, command, STATUS_INTERNAL_ERROR, response.getMessage());
+                return;
+        }
+
+        final Op op = command.getOp();
+        switch (op) {
+            case GET:
+            case GAT:
+                if (response.getItems().isEmpty()) {
+                    error(out, command, STATUS_NOT_FOUND, "Not found");
+                    return;
+                }
+
+                final MemcachedResponse.Item item = response.getItems().get(0);
+                final byte[] key = command.isReturnKey() ? item.getKey().getBytes(StandardCharsets.UTF_8) : EMPTY;
+
+                header(out, command, STATUS_OK, key.length, 4, item.getData().length, item.getCas());
+                out.writeInt((int) item.getFlags());
+                out.writeBytes(key);
+                out.writeBytes(item.getData());
+                break;
+            case INCR:
+            case DECR:
+                header(out, command, STATUS_OK, 0, 0, 8, response.getCas());
+                out.writeLong(response.getNumber());
+                break;
+            case VERSION:
+                value(out, command, response.getMessage());
+                break;
+            case STATS:
+                for (Map.Entry<String, String> stat : response.getStats().entrySet()) {
+                    final byte[] name = stat.getKey().getBytes(StandardCharsets.UTF_8);
+                    final byte[] value = stat.getValue().getBytes(StandardCharsets.UTF_8);
+
+                    header(out, command, STATUS_OK, name.length, 0, value.length, 0);
+                    out.writeBytes(name);
+                    out.writeBytes(value);
+                }
+
+                // An empty stat ends the list
+                header(out, command, STATUS_OK, 0, 0, 0, 0);
+                break;
+            default:
+                header(out, command, STATUS_OK, 0, 0, 0, response.getCas());
+        }
+    }
+
+    private static void error(ByteBuf out, MemcachedCommand command, short status, String message) {
+        final byte[] body = message == null ? EMPTY : message.getBytes(StandardCharsets.UTF_8);
+
+        header(out, command, status, 0, 0, body.length, 0);
+        out.writeBytes(body);
+    }
+
+    private static void value(ByteBuf out, MemcachedCommand command, String value) {
+        final byte[] body = value.getBytes(StandardCharsets.UTF_8);
+
+        header(out, command, STATUS_OK, 0, 0, body.length, 0);
+        out.writeBytes(body);
+    }
+
+    private static void header(ByteBuf out, MemcachedCommand command, short status,
+                               int keyLength, int extrasLength, int valueLength, long cas) {
+        out.writeByte(MAGIC_RESPONSE);
+        out.writeByte(command.getOpcode());
+        out.writeShort(keyLength);
+        out.writeByte(extrasLength);
+        out.writeByte(0);
+        out.writeShort(status);
+        out.writeInt(keyLength + extrasLength + valueLength);
+        out.writeInt(command.getOpaque());
+        out.writeLong(cas);
+    }
+
+}
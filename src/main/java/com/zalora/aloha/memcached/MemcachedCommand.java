@@ -0,0 +1,116 @@
+package com.zalora.aloha.memcached;
+
+import java.util.*;
+import lombok.*;
+
+/**
+ * A decoded memcached request, the same for the text and the binary protocol
+ *
+ * @author Wolfram Huesken <wolfram.huesken@zalora.com>
+ */
+@Data
+@NoArgsConstructor
+public class MemcachedCommand {
+
+    public enum Op {
+        GET, GETS, GAT, GATS,
+        SET, ADD, REPLACE, APPEND, PREPEND, CAS,
+        /**
+         * Text protocol only, not part of memcached: change a range of an item's data, see MemcachedDelta
+         */
+        PATCH, CPATCH,
+        DELETE, INCR, DECR, TOUCH,
+        FLUSH, VERSION, STATS, VERBOSITY, NOOP, QUIT,
+        /**
+         * Request which couldn't be decoded, message holds the reason
+         */
+        ERROR
+    }
+
+    private Op op;
+
+    private List<String> keys = Collections.emptyList();
+
+    private long flags;
+
+    /**
+     * memcached exptime: 0 uses the cache's default, up to 30 days is relative, beyond it's a unix timestamp,
+     * negative values expire the item immediately
+     */
+    private long expire;
+
+    /**
+     * Expected version for CAS, 0 for none
+     */
+    private long cas;
+
+    private long delta;
+
+    /**
+     * Binary protocol only: incr/decr value for missing keys
+     */
+    private long initial;
+
+    /**
+     * Binary protocol only: incr/decr fails for missing keys instead of creating them
+     */
+    private boolean failIfMissing;
+
+    private byte[] data;
+
+    /**
+     * patch/cpatch: position in the item's data the change starts at
+     */
+    private int offset;
+
+    /**
+     * cpatch: data starts with this many bytes expected at offset, the replacement follows
+     */
+    private int compareLength;
+
+    /**
+     * noreply (text) or a quiet opcode (binary)
+     */
+    private boolean quiet;
+
+    /**
+     * Why an ERROR command couldn't be decoded
+     */
+    private MemcachedResponse.Status error;
+
+    private String message;
+
+    private boolean binary;
+
+    /**
+     * Binary protocol only: the opcode and opaque are echoed in the response
+     */
+    private byte opcode;
+
+    private int opaque;
+
+    /**
+     * Binary protocol only: GETK and friends return the key
+     */
+    private boolean returnKey;
+
+    public MemcachedCommand(Op op) {
+        this.op = op;
+    }
+
+    public String getKey() {
+        return keys.isEmpty() ? null : keys.get(0);
+    }
+
+    public void setKey(String key) {
+        keys = Collections.singletonList(key);
+    }
+
+    public static MemcachedCommand error(MemcachedResponse.Status status, String message) {
+        MemcachedCommand command = new MemcachedCommand(Op.ERROR);
+        command.setError(status);
+        command.setMessage(message);
+        return command;
+    }
+
+}
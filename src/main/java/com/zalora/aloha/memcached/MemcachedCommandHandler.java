@@ -0,0 +1,98 @@
+package com.zalora.aloha.memcached;
+
+import com.zalora.aloha.memcached.MemcachedCommand.Op;
+import com.zalora.aloha.memcached.MemcachedResponse.Status;
+import io.netty.channel.*;
+import java.io.IOException;
+import lombok.extern.slf4j.Slf4j;
+
+/**
+ * Runs decoded commands against the cache and writes the responses which aren't suppressed by noreply
+ * or a quiet opcode, responses are flushed once all pipelined requests of a read are done
+ *
+ * @author Wolfram Huesken <wolfram.huesken@zalora.com>
+ */
+@Slf4j
+class MemcachedCommandHandler extends SimpleChannelInboundHandler<MemcachedCommand> {
+
+    private final MemcachedOperations operations;
+
+    MemcachedCommandHandler(MemcachedOperations operations) {
+        this.operations = operations;
+    }
+
+    @Override
+    public void channelActive(ChannelHandlerContext ctx) throws Exception {
+        operations.getStats().connected();
+        super.channelActive(ctx);
+    }
+
+    @Override
+    public void channelInactive(ChannelHandlerContext ctx) throws Exception {
+        operations.getStats().disconnected();
+        super.channelInactive(ctx);
+    }
+
+    @Override
+    protected void channelRead0(ChannelHandlerContext ctx, MemcachedCommand command) {
+        MemcachedResponse response;
+        try {
+            response = operations.execute(command);
+        } catch (RuntimeException ex) {
+            log.error("{} of {} failed", command.getOp(), command.getKey(), ex);
+            operations.getStats().error();
+            response = new MemcachedResponse(command, Status.SERVER_ERROR, ex.getClass().getSimpleName());
+        }
+
+        if (command.getOp() == Op.QUIT) {
+            if (command.isBinary() && !command.isQuiet()) {
+                ctx.writeAndFlush(response).addListener(ChannelFutureListener.CLOSE);
+            } else {
+                ctx.flush().close();
+            }
+
+            return;
+        }
+
+        if (!suppressed(command, response)) {
+            ctx.write(response);
+        }
+    }
+
+    @Override
+    public void channelReadComplete(ChannelHandlerContext ctx) {
+        ctx.flush();
+    }
+
+    @Override
+    public void exceptionCaught(ChannelHandlerContext ctx, Throwable cause) {
+        if (cause instanceof IOException) {
+            log.debug("Closing memcached connection {}", ctx.channel().remoteAddress(), cause);
+        } else {
+            log.error("Closing memcached connection {}", ctx.channel().remoteAddress(), cause);
+        }
+
+        ctx.close();
+    }
+
+    /**
+     * noreply suppresses every response, quiet binary gets only suppress misses and all other
+     * quiet binary commands only suppress successes
+     */
+    private static boolean suppressed(MemcachedCommand command, MemcachedResponse response) {
+        if (!command.isQuiet()) {
+            return false;
+        }
+
+        if (!command.isBinary()) {
+            return true;
+        }
+
+        if (command.getOp() == Op.GET || command.getOp() == Op.GAT) {
+            return response.getStatus() == Status.OK && response.getItems().isEmpty();
+        }
+
+        return response.getStatus() == Status.OK;
+    }
+
+}
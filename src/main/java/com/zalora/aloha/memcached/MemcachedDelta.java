@@ -0,0 +1,155 @@
+package com.zalora.aloha.memcached;
+
+import java.util.Arrays;
+import org.infinispan.commons.api.functional.EntryView.ReadWriteEntryView;
+import org.infinispan.commons.api.functional.MetaParam.*;
+import org.infinispan.container.versioning.*;
+import org.infinispan.util.function.SerializableFunction;
+
+/**
+ * A change to the data of a stored MemcachedItem, applied by every owner of the key
+ *
+ * The function is what travels to the other nodes instead of the changed item, so a write costs
+ * about the size of the change, no matter how big the item is. Version and lifespan are decided
+ * by the node taking the request, every owner ends up with the same entry.
+ *
+ * Data is changed byte by byte, so this only works on items which aren't stored compressed.
+ *
+ * @author Wolfram Huesken <wolfram.huesken@zalora.com>
+ */
+public class MemcachedDelta implements SerializableFunction<ReadWriteEntryView<Object, Object>, MemcachedDelta.Result> {
+
+    private static final long serialVersionUID = -3188470514307151843L;
+
+    public enum Type {
+        APPEND, PREPEND,
+        /**
+         * Overwrites the data at offset, the item grows if the patch reaches beyond its end
+         */
+        PATCH,
+        /**
+         * Replaces the expected bytes at offset, only if they're still there. Replacement may differ in length
+         */
+        COMPARE_AND_PATCH
+    }
+
+    public enum Result {
+        STORED, NOT_FOUND,
+        /**
+         * The expected bytes didn't match
+         */
+        EXISTS,
+        /**
+         * Offset is beyond the end of the item
+         */
+        OUT_OF_RANGE
+    }
+
+    private final Type type;
+    private final int offset;
+    private final byte[] expected;
+    private final byte[] data;
+    private final long version;
+    private final long lifespan;
+
+    /**
+     * @param expected bytes COMPARE_AND_PATCH expects at offset, ignored otherwise
+     * @param version  version of the changed entry
+     * @param lifespan lifespan of the changed entry in ms, -1 for immortal
+     */
+    public MemcachedDelta(Type type, int offset, byte[] expected, byte[] data,
+                          long version, long lifespan) {
+        this.type = type;
+        this.offset = offset;
+        this.expected = expected;
+        this.data = data;
+        this.version = version;
+        this.lifespan = lifespan;
+    }
+
+    @Override
+    public Result apply(ReadWriteEntryView<Object, Object> view) {
+        final Object value = view.find().orElse(null);
+        if (!(value instanceof MemcachedItem)) {
+            return Result.NOT_FOUND;
+        }
+
+        final MemcachedItem item = (MemcachedItem) value;
+        final Result result = check(item.getData());
+        if (result != Result.STORED) {
+            return result;
+        }
+
+        view.set(
+            new MemcachedItem(item.getKey(), applyTo(item.getData()), item.getFlags(), item.getExpire()),
+            new MetaEntryVersion<>(new FunctionalEntryVersionAdapter(new NumericVersion(version))),
+            new MetaLifespan(lifespan)
+        );
+
+        return result;
+    }
+
+    /**
+     * @return STORED if the change applies to the data, why it doesn't otherwise
+     */
+    public Result check(byte[] current) {
+        if ((type == Type.PATCH || type == Type.COMPARE_AND_PATCH) && offset > current.length) {
+            return Result.OUT_OF_RANGE;
+        }
+
+        if (type == Type.COMPARE_AND_PATCH && (offset + expected.length > current.length
+            || !Arrays.equals(Arrays.copyOfRange(current, offset, offset + expected.length), expected))) {
+            return Result.EXISTS;
+        }
+
+        return Result.STORED;
+    }
+
+    /**
+     * @return a changed copy of the data, only call this if check passed
+     */
+    public byte[] applyTo(byte[] current) {
+        switch (type) {
+            case APPEND:
+                return splice(current, current.length, 0, data);
+            case PREPEND:
+                return splice(current, 0, 0, data);
+            case PATCH:
+                byte[] changed = Arrays.copyOf(current, Math.max(current.length, offset + data.length));
+                System.arraycopy(data, 0, changed, offset, data.length);
+                return changed;
+            case COMPARE_AND_PATCH:
+                return splice(current, offset, expected.length, data);
+            default:
+                throw new IllegalStateException("Unknown delta type " + type);
+        }
+    }
+
+    /**
+     * Bytes of the change itself, i.e. what's replicated besides the key
+     */
+    public int size() {
+        return data.length + (expected == null ? 0 : expected.length);
+    }
+
+    /**
+     * @return current with length bytes at offset replaced by replacement
+     */
+    private static byte[] splice(byte[] current, int offset, int length, byte[] replacement) {
+        byte[] changed = new byte[current.length - length + replacement.length];
+        System.arraycopy(current, 0, changed, 0, offset);
+        System.arraycopy(replacement, 0, changed, offset, replacement.length);
+        System.arraycopy(
+            current, offset + length, changed, offset + replacement.length, current.length - offset - length
+        );
+
+        return changed;
+    }
+
+    @Override
+    public String toString() {
+        return "MemcachedDelta(" + type + ", offset=" + offset + ", bytes=" + size() + ", version=" + version
+            + ", lifespan=" + lifespan + "ms)";
+    }
+
+}
@@ -0,0 +1,87 @@
+package com.zalora.aloha.memcached;
+
+import java.io.*;
+import java.nio.charset.StandardCharsets;
+import java.util.*;
+import org.infinispan.commons.io.UnsignedNumeric;
+import org.infinispan.commons.marshall.AdvancedExternalizer;
+
+/**
+ * Marshals MemcachedItems for replication, state transfer and the snapshot, without Java serialization
+ *
+ * An item is the externalizer id followed by a version byte, then key, flags, expire and data with varint lengths
+ * and numbers. Lengths are stored plus one, 0 stands for null. A small item costs a few bytes on top of its key and
+ * data, instead of the class descriptor and fixed size fields of Java serialization.
+ *
+ * Nodes without the externalizer can't read items marshalled by it, so all nodes of a cluster have to be upgraded
+ * together. Snapshots written by Java serialization are still read.
+ *
+ * @author Wolfram Huesken <wolfram.huesken@zalora.com>
+ */
+public class MemcachedItemExternalizer implements AdvancedExternalizer<MemcachedItem> {
+
+    private static final long serialVersionUID = -6213541093257914571L;
+
+    /**
+     * Outside of the ranges Infinispan reserves for its own modules
+     */
+    public static final int ID = 7503;
+
+    private static final byte VERSION = 1;
+
+    @Override
+    public Set<Class<? extends MemcachedItem>> getTypeClasses() {
+        return Collections.singleton(MemcachedItem.class);
+    }
+
+    @Override
+    public Integer getId() {
+        return ID;
+    }
+
+    @Override
+    public void writeObject(ObjectOutput output, MemcachedItem item) throws IOException {
+        output.writeByte(VERSION);
+        writeBytes(output, item.getKey() == null ? null : item.getKey().getBytes(StandardCharsets.UTF_8));
+        UnsignedNumeric.writeUnsignedLong(output, item.getFlags());
+        UnsignedNumeric.writeUnsignedLong(output, item.getExpire());
+        writeBytes(output, item.getData());
+    }
+
+    @Override
+    public MemcachedItem readObject(ObjectInput input) throws IOException {
+        final byte version = input.readByte();
+        if (version != VERSION) {
+            throw new IOException("Unknown MemcachedItem format " + version);
+        }
+
+        final byte[] key = readBytes(input);
+        final long flags = UnsignedNumeric.readUnsignedLong(input);
+        final long expire = UnsignedNumeric.readUnsignedLong(input);
+        final byte[] data = readBytes(input);
+
+        return new MemcachedItem(key == null ? null : new String(key, StandardCharsets.UTF_8), data, flags, expire);
+    }
+
+    private static void writeBytes(ObjectOutput output, byte[] bytes) throws IOException {
+        if (bytes == null) {
+            UnsignedNumeric.writeUnsignedInt(output, 0);
+            return;
+        }
+
+        UnsignedNumeric.writeUnsignedInt(output, bytes.length + 1);
+        output.write(bytes);
+    }
+
+    private static byte[] readBytes(ObjectInput input) throws IOException {
+        final int length = UnsignedNumeric.readUnsignedInt(input);
+        if (length == 0) {
+            return null;
+        }
+
+        byte[] bytes = new byte[length - 1];
+        input.readFully(bytes);
+        return bytes;
+    }
+
+}
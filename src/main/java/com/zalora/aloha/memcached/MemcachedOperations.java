@@ -0,0 +1,588 @@
+package com.zalora.aloha.memcached;
+
+import com.zalora.aloha.compressor.Compressor;
+import com.zalora.aloha.memcached.MemcachedResponse.*;
+import com.zalora.aloha.persistence.MemcachedItemStore;
+import java.lang.management.ManagementFactory;
+import java.nio.charset.StandardCharsets;
+import java.util.*;
+import java.util.concurrent.*;
+import lombok.Getter;
+import lombok.extern.slf4j.Slf4j;
+import org.infinispan.AdvancedCache;
+import org.infinispan.commons.api.functional.FunctionalMap.ReadWriteMap;
+import org.infinispan.container.entries.CacheEntry;
+import org.infinispan.container.versioning.*;
+import org.infinispan.context.Flag;
+import org.infinispan.factories.ComponentRegistry;
+import org.infinispan.functional.impl.*;
+import org.infinispan.metadata.*;
+import org.infinispan.remoting.rpc.RpcManager;
+import org.infinispan.util.TimeService;
+import org.springframework.util.Assert;
+
+/**
+ * memcached semantics on top of a cache of MemcachedItems, shared by the text and the binary protocol
+ *
+ * Entries are versioned the same way the HotRod server does it, so CAS values are HotRod versions
+ * and both protocols can work on the same keys. Values stored with the zcast flag encoding
+ * (see Lz4) are decompressed before they're handed out, unless the cache does that itself.
+ * Read-modify-write commands (append, incr, touch, ...) replace the entry conditionally and retry
+ * if another write got in between. With delta updates, append, prepend, patch and cpatch send only
+ * the change to the other nodes instead (see MemcachedDelta).
+ *
+ * @author Wolfram Huesken <wolfram.huesken@zalora.com>
+ */
+@Slf4j
+public class MemcachedOperations {
+
+    /**
+     * Protocol level implemented, gat and gats came with 1.5.3
+     */
+    private static final String VERSION = "1.5.3";
+
+    private static final int MAX_ATTEMPTS = 16;
+
+    private final AdvancedCache<Object, Object> cache;
+    private final Compressor compressor;
+    private final ScheduledExecutorService scheduler;
+    private final ReadWriteMap<Object, Object> deltaMap;
+    private final VersionGenerator versionGenerator;
+    private final TimeService timeService;
+    private final long defaultLifespan;
+    private final long startTime;
+
+    @Getter
+    private final MemcachedStats stats = new MemcachedStats();
+
+    /**
+     * @param compressor decompresses values which are stored compressed, null if the cache hands them out decompressed
+     * @param scheduler  runs delayed flush_all
+     * @param delta      apply changes to items on every owner, only if no item is stored compressed
+     */
+    public MemcachedOperations(AdvancedCache<Object, Object> cache, Compressor compressor,
+                               ScheduledExecutorService scheduler, boolean delta) {
+        Assert.notNull(cache, "Cache must not be null");
+        Assert.notNull(scheduler, "Scheduler must not be null");
+
+        this.cache = cache;
+        this.compressor = compressor;
+        this.scheduler = scheduler;
+        this.deltaMap = delta ? ReadWriteMapImpl.create(FunctionalMapImpl.create(cache)) : null;
+
+        versionGenerator = versionGenerator(cache.getComponentRegistry());
+        timeService = cache.getComponentRegistry().getComponent(TimeService.class);
+        defaultLifespan = cache.getCacheConfiguration().expiration().lifespan();
+        startTime = timeService.wallClockTime();
+    }
+
+    public MemcachedResponse execute(MemcachedCommand command) {
+        switch (command.getOp()) {
+            case GET:
+            case GETS:
+                return get(command, false);
+            case GAT:
+            case GATS:
+                return get(command, true);
+            case SET:
+                return set(command);
+            case ADD:
+                return add(command);
+            case REPLACE:
+                return replace(command);
+            case CAS:
+                return cas(command);
+            case APPEND:
+            case PREPEND:
+            case PATCH:
+            case CPATCH:
+                return change(command);
+            case DELETE:
+                return delete(command);
+            case INCR:
+            case DECR:
+                return incr(command);
+            case TOUCH:
+                return touch(command);
+            case FLUSH:
+                return flush(command);
+            case VERSION:
+                return new MemcachedResponse(command, Status.OK, VERSION);
+            case STATS:
+                return stats(command);
+            case VERBOSITY:
+            case NOOP:
+            case QUIT:
+                return new MemcachedResponse(command, Status.OK);
+            default:
+                stats.error();
+                return new MemcachedResponse(command, command.getError(), command.getMessage());
+        }
+    }
+
+    private MemcachedResponse get(MemcachedCommand command, boolean touch) {
+        List<Item> items = new ArrayList<>(command.getKeys().size());
+
+        if (touch) {
+            final long lifespan = lifespan(command.getExpire());
+            stats.touch();
+
+            for (String key : command.getKeys()) {
+                addItem(items, key, touch(key, command.getExpire(), lifespan));
+            }
+        } else if (command.getKeys().size() == 1) {
+            addItem(items, command.getKey(), entry(command.getKey()));
+        } else {
+            Map<Object, CacheEntry<Object, Object>> entries = cache.getAllCacheEntries(new HashSet<>(command.getKeys()));
+            for (String key : command.getKeys()) {
+                addItem(items, key, memcachedEntry(entries.get(key)));
+            }
+        }
+
+        MemcachedResponse response = new MemcachedResponse(command, Status.OK);
+        response.setItems(items);
+        return response;
+    }
+
+    private void addItem(List<Item> items, String key, CacheEntry<Object, Object> entry) {
+        stats.get(entry != null);
+        if (entry == null) {
+            return;
+        }
+
+        MemcachedItem item = decode(entry.getValue());
+        items.add(new Item(key, item.getFlags(), item.getData(), version(entry)));
+    }
+
+    private MemcachedResponse set(MemcachedCommand command) {
+        stats.set();
+        final Metadata metadata = metadata(lifespan(command.getExpire()));
+
+        cache.withFlags(Flag.IGNORE_RETURN_VALUES).put(command.getKey(), item(command), metadata);
+        return stored(command, metadata);
+    }
+
+    private MemcachedResponse add(MemcachedCommand command) {
+        stats.set();
+        final Metadata metadata = metadata(lifespan(command.getExpire()));
+
+        if (memcachedItem(cache.putIfAbsent(command.getKey(), item(command), metadata)) != null) {
+            return new MemcachedResponse(command, Status.NOT_STORED);
+        }
+
+        return stored(command, metadata);
+    }
+
+    private MemcachedResponse replace(MemcachedCommand command) {
+        stats.set();
+        final Metadata metadata = metadata(lifespan(command.getExpire()));
+
+        if (memcachedItem(cache.replace(command.getKey(), item(command), metadata)) == null) {
+            return new MemcachedResponse(command, Status.NOT_STORED);
+        }
+
+        return stored(command, metadata);
+    }
+
+    private MemcachedResponse cas(MemcachedCommand command) {
+        stats.set();
+
+        CacheEntry<Object, Object> entry = entry(command.getKey());
+        if (entry == null) {
+            stats.casMiss();
+            return new MemcachedResponse(command, Status.NOT_FOUND);
+        }
+
+        final Metadata metadata = metadata(lifespan(command.getExpire()));
+        if (version(entry) != command.getCas()
+            || !cache.replace(command.getKey(), entry.getValue(), item(command), metadata)) {
+            stats.casBadval();
+            return new MemcachedResponse(command, Status.EXISTS);
+        }
+
+        return stored(command, metadata);
+    }
+
+    /**
+     * Changes are sent as they are if the delta map is there and no cas is given, otherwise the changed item is
+     */
+    private MemcachedResponse change(MemcachedCommand command) {
+        stats.set();
+
+        for (int attempt = 0; attempt < MAX_ATTEMPTS; attempt++) {
+            CacheEntry<Object, Object> entry = entry(command.getKey());
+            if (entry == null) {
+                return changed(command, MemcachedDelta.Result.NOT_FOUND, null);
+            }
+
+            if (command.getCas() != 0 && version(entry) != command.getCas()) {
+                return new MemcachedResponse(command, Status.EXISTS);
+            }
+
+            final Metadata metadata = updatedMetadata(entry);
+            final MemcachedDelta delta = delta(command, metadata);
+
+            if (deltaMap != null && command.getCas() == 0) {
+                MemcachedDelta.Result result = deltaMap.eval(command.getKey(), delta).join();
+                if (result == MemcachedDelta.Result.STORED) {
+                    stats.delta(delta.size(), ((MemcachedItem) entry.getValue()).getData().length);
+                }
+
+                return changed(command, result, metadata);
+            }
+
+            final MemcachedItem current = decode(entry.getValue());
+            final MemcachedDelta.Result result = delta.check(current.getData());
+            if (result != MemcachedDelta.Result.STORED) {
+                return changed(command, result, metadata);
+            }
+
+            final MemcachedItem changed = copy(current, delta.applyTo(current.getData()));
+            if (cache.replace(command.getKey(), entry.getValue(), changed, metadata)) {
+                return changed(command, result, metadata);
+            }
+        }
+
+        return contended(command);
+    }
+
+    /**
+     * cpatch's data block holds the expected bytes first, then the replacement
+     */
+    private static MemcachedDelta delta(MemcachedCommand command, Metadata metadata) {
+        final long version = ((NumericVersion) metadata.version()).getVersion();
+        final byte[] data = command.getData();
+
+        switch (command.getOp()) {
+            case APPEND:
+                return new MemcachedDelta(
+                    MemcachedDelta.Type.APPEND, 0, null, data, version, metadata.lifespan()
+                );
+            case PREPEND:
+                return new MemcachedDelta(
+                    MemcachedDelta.Type.PREPEND, 0, null, data, version, metadata.lifespan()
+                );
+            case PATCH:
+                return new MemcachedDelta(
+                    MemcachedDelta.Type.PATCH, command.getOffset(), null, data,
+                    version, metadata.lifespan()
+                );
+            default:
+                return new MemcachedDelta(
+                    MemcachedDelta.Type.COMPARE_AND_PATCH, command.getOffset(),
+                    Arrays.copyOf(data, command.getCompareLength()),
+                    Arrays.copyOfRange(data, command.getCompareLength(), data.length),
+                    version, metadata.lifespan()
+                );
+        }
+    }
+
+    /**
+     * append and prepend answer NOT_STORED for missing keys like memcached, patch and cpatch NOT_FOUND
+     */
+    private MemcachedResponse changed(MemcachedCommand command, MemcachedDelta.Result result, Metadata metadata) {
+        switch (result) {
+            case STORED:
+                return stored(command, metadata);
+            case NOT_FOUND:
+                final boolean concat = command.getOp() == MemcachedCommand.Op.APPEND
+                    || command.getOp() == MemcachedCommand.Op.PREPEND;
+                return new MemcachedResponse(command, concat ? Status.NOT_STORED : Status.NOT_FOUND);
+            case EXISTS:
+                return new MemcachedResponse(command, Status.EXISTS);
+            default:
+                return new MemcachedResponse(command, Status.NOT_STORED);
+        }
+    }
+
+    private MemcachedResponse delete(MemcachedCommand command) {
+        boolean deleted;
+
+        if (command.getCas() == 0) {
+            deleted = memcachedItem(cache.remove(command.getKey())) != null;
+        } else {
+            CacheEntry<Object, Object> entry = entry(command.getKey());
+            if (entry != null && version(entry) != command.getCas()) {
+                return new MemcachedResponse(command, Status.EXISTS);
+            }
+
+            deleted = entry != null && cache.remove(command.getKey(), entry.getValue());
+        }
+
+        stats.delete(deleted);
+        return new MemcachedResponse(command, deleted ? Status.OK : Status.NOT_FOUND);
+    }
+
+    /**
+     * Values are unsigned 64 bit integers, incr wraps around and decr stops at 0
+     */
+    private MemcachedResponse incr(MemcachedCommand command) {
+        final boolean incr = command.getOp() == MemcachedCommand.Op.INCR;
+
+        for (int attempt = 0; attempt < MAX_ATTEMPTS; attempt++) {
+            CacheEntry<Object, Object> entry = entry(command.getKey());
+
+            if (entry == null) {
+                if (!command.isBinary() || command.isFailIfMissing()) {
+                    return new MemcachedResponse(command, Status.NOT_FOUND);
+                }
+
+                final MemcachedItem item = new MemcachedItem(
+                    command.getKey(), number(command.getInitial()), 0, absoluteExpire(command.getExpire())
+                );
+                final Metadata metadata = metadata(lifespan(command.getExpire()));
+
+                if (cache.putIfAbsent(command.getKey(), item, metadata) == null) {
+                    return counted(command, command.getInitial(), metadata);
+                }
+
+                continue;
+            }
+
+            if (command.getCas() != 0 && version(entry) != command.getCas()) {
+                return new MemcachedResponse(command, Status.EXISTS);
+            }
+
+            final MemcachedItem current = decode(entry.getValue());
+            final long value;
+            try {
+                value = Long.parseUnsignedLong(new String(current.getData(), StandardCharsets.US_ASCII).trim());
+            } catch (NumberFormatException ex) {
+                return new MemcachedResponse(command, Status.NON_NUMERIC);
+            }
+
+            long result;
+            if (incr) {
+                result = value + command.getDelta();
+            } else {
+                result = Long.compareUnsigned(value, command.getDelta()) < 0 ? 0 : value - command.getDelta();
+            }
+
+            final Metadata metadata = updatedMetadata(entry);
+            if (cache.replace(command.getKey(), entry.getValue(), copy(current, number(result)), metadata)) {
+                return counted(command, result, metadata);
+            }
+        }
+
+        return contended(command);
+    }
+
+    private MemcachedResponse touch(MemcachedCommand command) {
+        stats.touch();
+
+        CacheEntry<Object, Object> entry = touch(command.getKey(), command.getExpire(), lifespan(command.getExpire()));
+        return new MemcachedResponse(command, entry != null ? Status.OK : Status.NOT_FOUND);
+    }
+
+    /**
+     * Sets a new lifespan and keeps value and version
+     *
+     * @return the touched entry, null if the key is missing
+     */
+    private CacheEntry<Object, Object> touch(String key, long expire, long lifespan) {
+        for (int attempt = 0; attempt < MAX_ATTEMPTS; attempt++) {
+            CacheEntry<Object, Object> entry = entry(key);
+            if (entry == null) {
+                return null;
+            }
+
+            final MemcachedItem stored = (MemcachedItem) entry.getValue();
+            final MemcachedItem touched = new MemcachedItem(key, stored.getData(), stored.getFlags(), absoluteExpire(expire));
+            final Metadata.Builder builder = entry.getMetadata() != null
+                ? entry.getMetadata().builder()
+                : new EmbeddedMetadata.Builder();
+
+            if (cache.replace(key, stored, touched, builder.lifespan(lifespan, TimeUnit.MILLISECONDS).build())) {
+                return entry;
+            }
+        }
+
+        log.warn("Gave up touching {} after {} attempts", key, MAX_ATTEMPTS);
+        return null;
+    }
+
+    /**
+     * A delay is relative in seconds or a unix timestamp, just like an expiration time
+     */
+    private MemcachedResponse flush(MemcachedCommand command) {
+        final long delay = command.getExpire() > 0 ? lifespan(command.getExpire()) : 0;
+
+        if (delay > 0) {
+            scheduler.schedule(cache::clear, delay, TimeUnit.MILLISECONDS);
+        } else {
+            cache.clear();
+        }
+
+        return new MemcachedResponse(command, Status.OK);
+    }
+
+    private MemcachedResponse stats(MemcachedCommand command) {
+        final long now = timeService.wallClockTime();
+        final Map<String, String> values = new LinkedHashMap<>();
+
+        values.put("pid", ManagementFactory.getRuntimeMXBean().getName().split("@")[0]);
+        values.put("uptime", String.valueOf(TimeUnit.MILLISECONDS.toSeconds(now - startTime)));
+        values.put("time", String.valueOf(TimeUnit.MILLISECONDS.toSeconds(now)));
+        values.put("version", VERSION);
+        values.put("curr_connections", String.valueOf(stats.getCurrConnections()));
+        values.put("total_connections", String.valueOf(stats.getTotalConnections()));
+        values.put("cmd_get", String.valueOf(stats.getCmdGet()));
+        values.put("cmd_set", String.valueOf(stats.getCmdSet()));
+        values.put("cmd_touch", String.valueOf(stats.getCmdTouch()));
+        values.put("get_hits", String.valueOf(stats.getGetHits()));
+        values.put("get_misses", String.valueOf(stats.getGetMisses()));
+        values.put("delete_hits", String.valueOf(stats.getDeleteHits()));
+        values.put("delete_misses", String.valueOf(stats.getDeleteMisses()));
+        values.put("cas_misses", String.valueOf(stats.getCasMisses()));
+        values.put("cas_badval", String.valueOf(stats.getCasBadval()));
+        values.put("delta_updates", String.valueOf(stats.getDeltaUpdates()));
+        values.put("delta_bytes", String.valueOf(stats.getDeltaBytes()));
+        values.put("delta_item_bytes", String.valueOf(stats.getDeltaItemBytes()));
+        values.put("curr_items", String.valueOf(cache.getDataContainer().size()));
+
+        MemcachedResponse response = new MemcachedResponse(command, Status.OK);
+        response.setStats(values);
+        return response;
+    }
+
+    private MemcachedResponse stored(MemcachedCommand command, Metadata metadata) {
+        MemcachedResponse response = new MemcachedResponse(command, Status.OK);
+        response.setCas(((NumericVersion) metadata.version()).getVersion());
+        return response;
+    }
+
+    private MemcachedResponse counted(MemcachedCommand command, long number, Metadata metadata) {
+        MemcachedResponse response = stored(command, metadata);
+        response.setNumber(number);
+        return response;
+    }
+
+    private MemcachedResponse contended(MemcachedCommand command) {
+        log.warn("Gave up {} of {} after {} attempts", command.getOp(), command.getKey(), MAX_ATTEMPTS);
+        return new MemcachedResponse(command, Status.SERVER_ERROR, "too many concurrent updates");
+    }
+
+    /**
+     * @return the entry if it holds a MemcachedItem, null otherwise
+     */
+    private CacheEntry<Object, Object> entry(String key) {
+        return memcachedEntry(cache.getCacheEntry(key));
+    }
+
+    private static CacheEntry<Object, Object> memcachedEntry(CacheEntry<Object, Object> entry) {
+        return entry != null && entry.getValue() instanceof MemcachedItem ? entry : null;
+    }
+
+    private static MemcachedItem memcachedItem(Object value) {
+        return value instanceof MemcachedItem ? (MemcachedItem) value : null;
+    }
+
+    private MemcachedItem item(MemcachedCommand command) {
+        return new MemcachedItem(command.getKey(), command.getData(), command.getFlags(), absoluteExpire(command.getExpire()));
+    }
+
+    private static MemcachedItem copy(MemcachedItem item, byte[] data) {
+        return new MemcachedItem(item.getKey(), data, item.getFlags(), item.getExpire());
+    }
+
+    private static byte[] number(long value) {
+        return Long.toUnsignedString(value).getBytes(StandardCharsets.US_ASCII);
+    }
+
+    /**
+     * @return a decompressed copy of zcast encoded items, all other items as they are
+     */
+    private MemcachedItem decode(Object value) {
+        MemcachedItem item = (MemcachedItem) value;
+        if (compressor == null) {
+            return item;
+        }
+
+        MemcachedItem copy = copy(item, item.getData());
+        compressor.afterGet(copy);
+        return copy;
+    }
+
+    private static long version(CacheEntry<Object, Object> entry) {
+        final Metadata metadata = entry.getMetadata();
+        if (metadata == null || !(metadata.version() instanceof NumericVersion)) {
+            return 0;
+        }
+
+        return ((NumericVersion) metadata.version()).getVersion();
+    }
+
+    private Metadata metadata(long lifespan) {
+        return new EmbeddedMetadata.Builder()
+            .version(versionGenerator.generateNew())
+            .lifespan(lifespan, TimeUnit.MILLISECONDS)
+            .build();
+    }
+
+    /**
+     * A new version with whatever lifespan is left
+     */
+    private Metadata updatedMetadata(CacheEntry<Object, Object> entry) {
+        final Metadata.Builder builder = entry.getMetadata() != null
+            ? entry.getMetadata().builder()
+            : new EmbeddedMetadata.Builder();
+        builder.version(versionGenerator.generateNew());
+
+        if (entry.getLifespan() >= 0 && entry.getCreated() >= 0) {
+            long remaining = entry.getCreated() + entry.getLifespan() - timeService.wallClockTime();
+            builder.lifespan(Math.max(remaining, 1), TimeUnit.MILLISECONDS);
+        }
+
+        return builder.build();
+    }
+
+    /**
+     * @return lifespan in ms for a memcached exptime, -1 for immortal entries
+     * Expired entries get the shortest possible lifespan, so add, replace and cas behave as usual
+     */
+    private long lifespan(long expire) {
+        if (expire < 0) {
+            return 1;
+        }
+
+        if (expire == 0) {
+            return defaultLifespan;
+        }
+
+        return Math.max(MemcachedItemStore.lifespan(expire, timeService.wallClockTime()), 1);
+    }
+
+    /**
+     * Relative expiration times are turned into timestamps, so the item's expire stays meaningful once it's stored
+     */
+    private long absoluteExpire(long expire) {
+        final long now = TimeUnit.MILLISECONDS.toSeconds(timeService.wallClockTime());
+
+        if (expire < 0) {
+            return now;
+        }
+
+        if (expire == 0 || expire > MemcachedItemStore.MAX_RELATIVE_EXPIRE) {
+            return expire;
+        }
+
+        return now + expire;
+    }
+
+    /**
+     * The same generator the HotRod server uses, so versions of both protocols are comparable
+     */
+    private static VersionGenerator versionGenerator(ComponentRegistry registry) {
+        VersionGenerator generator = registry.getVersionGenerator();
+        if (generator != null) {
+            return generator;
+        }
+
+        NumericVersionGenerator numericGenerator = new NumericVersionGenerator()
+            .clustered(registry.getComponent(RpcManager.class) != null);
+        registry.registerComponent(numericGenerator, VersionGenerator.class);
+
+        return numericGenerator;
+    }
+
+}
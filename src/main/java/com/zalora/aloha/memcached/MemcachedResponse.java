@@ -0,0 +1,60 @@
+package com.zalora.aloha.memcached;
+
+import java.util.*;
+import lombok.*;
+
+/**
+ * Result of a MemcachedCommand, encoded by the protocol the command came in with
+ *
+ * @author Wolfram Huesken <wolfram.huesken@zalora.com>
+ */
+@Getter
+@Setter
+public class MemcachedResponse {
+
+    public enum Status {
+        OK, NOT_FOUND, EXISTS, NOT_STORED, NON_NUMERIC, TOO_LARGE, CLIENT_ERROR, SERVER_ERROR, UNKNOWN_COMMAND
+    }
+
+    /**
+     * A value returned by get and friends
+     */
+    @Value
+    public static class Item {
+        private String key;
+        private long flags;
+        private byte[] data;
+        private long cas;
+    }
+
+    private final MemcachedCommand command;
+
+    private final Status status;
+
+    private List<Item> items = Collections.emptyList();
+
+    /**
+     * Result of incr/decr
+     */
+    private long number;
+
+    /**
+     * Version of the written entry
+     */
+    private long cas;
+
+    private String message;
+
+    private Map<String, String> stats = Collections.emptyMap();
+
+    public MemcachedResponse(MemcachedCommand command, Status status) {
+        this.command = command;
+        this.status = status;
+    }
+
+    public MemcachedResponse(MemcachedCommand command, Status status, String message) {
+        this(command, status);
+        this.message = message;
+    }
+
+}
@@ -0,0 +1,105 @@
+package com.zalora.aloha.memcached;
+
+import io.netty.bootstrap.ServerBootstrap;
+import io.netty.channel.*;
+import io.netty.channel.nio.NioEventLoopGroup;
+import io.netty.channel.socket.SocketChannel;
+import io.netty.channel.socket.nio.NioServerSocketChannel;
+import io.netty.util.concurrent.*;
+import lombok.Getter;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.util.Assert;
+
+/**
+ * memcached text and binary protocol endpoint for a single cache, both protocols are served on the same port
+ *
+ * Cache operations block while they wait for other nodes or the read-through store, so they run on
+ * a separate group of worker threads, requests of a connection are still executed in order.
+ *
+ * @author Wolfram Huesken <wolfram.huesken@zalora.com>
+ */
+@Slf4j
+public class MemcachedServer {
+
+    @Getter
+    private final String name;
+
+    @Getter
+    private final MemcachedOperations operations;
+
+    private final String host;
+    private final int port;
+    private final int workerThreads;
+    private final int maxItemSize;
+
+    private EventLoopGroup bossGroup;
+    private EventLoopGroup ioGroup;
+    private EventExecutorGroup workerGroup;
+    private Channel channel;
+
+    /**
+     * @param workerThreads 0 runs cache operations on the network threads
+     * @param maxItemSize   largest value accepted in bytes
+     */
+    public MemcachedServer(String name, MemcachedOperations operations, String host, int port,
+                           int workerThreads, int maxItemSize) {
+        Assert.notNull(operations, "Operations must not be null");
+        Assert.isTrue(port > 0, "Port must be positive");
+        Assert.isTrue(workerThreads >= 0, "Worker threads must not be negative");
+        Assert.isTrue(maxItemSize > 0, "Max item size must be positive");
+
+        this.name = name;
+        this.operations = operations;
+        this.host = host;
+        this.port = port;
+        this.workerThreads = workerThreads;
+        this.maxItemSize = maxItemSize;
+    }
+
+    public void start() {
+        bossGroup = new NioEventLoopGroup(1, new DefaultThreadFactory("memcached-" + name + "-boss", true));
+        ioGroup = new NioEventLoopGroup(0, new DefaultThreadFactory("memcached-" + name + "-io", true));
+
+        if (workerThreads > 0) {
+            workerGroup = new DefaultEventExecutorGroup(
+                workerThreads, new DefaultThreadFactory("memcached-" + name + "-worker", true)
+            );
+        }
+
+        ServerBootstrap bootstrap = new ServerBootstrap()
+            .group(bossGroup, ioGroup)
+            .channel(NioServerSocketChannel.class)
+            .childOption(ChannelOption.TCP_NODELAY, true)
+            .childOption(ChannelOption.SO_KEEPALIVE, true)
+            .childHandler(new ChannelInitializer<SocketChannel>() {
+                @Override
+                protected void initChannel(SocketChannel ch) {
+                    ch.pipeline().addLast("detector", new ProtocolDetector(maxItemSize));
+                    ch.pipeline().addLast(workerGroup, "handler", new MemcachedCommandHandler(operations));
+                }
+            });
+
+        channel = bootstrap.bind(host, port).syncUninterruptibly().channel();
+        log.info("memcached endpoint for {} listening on {}:{}", name, host, port);
+    }
+
+    public void stop() {
+        if (channel != null) {
+            channel.close().syncUninterruptibly();
+        }
+
+        if (workerGroup != null) {
+            workerGroup.shutdownGracefully();
+        }
+
+        if (ioGroup != null) {
+            ioGroup.shutdownGracefully();
+            bossGroup.shutdownGracefully();
+        }
+    }
+
+    public MemcachedStats getStats() {
+        return operations.getStats();
+    }
+
+}
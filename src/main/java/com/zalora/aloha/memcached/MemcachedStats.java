@@ -0,0 +1,136 @@
+package com.zalora.aloha.memcached;
+
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Counters of a memcached endpoint, named after memcached's own stats
+ *
+ * @author Wolfram Huesken <wolfram.huesken@zalora.com>
+ */
+public class MemcachedStats {
+
+    private final LongAdder currConnections = new LongAdder();
+    private final LongAdder totalConnections = new LongAdder();
+    private final LongAdder cmdGet = new LongAdder();
+    private final LongAdder getHits = new LongAdder();
+    private final LongAdder getMisses = new LongAdder();
+    private final LongAdder cmdSet = new LongAdder();
+    private final LongAdder cmdTouch = new LongAdder();
+    private final LongAdder deleteHits = new LongAdder();
+    private final LongAdder deleteMisses = new LongAdder();
+    private final LongAdder casMisses = new LongAdder();
+    private final LongAdder casBadval = new LongAdder();
+    private final LongAdder errors = new LongAdder();
+    private final LongAdder deltaUpdates = new LongAdder();
+    private final LongAdder deltaBytes = new LongAdder();
+    private final LongAdder deltaItemBytes = new LongAdder();
+
+    void connected() {
+        currConnections.increment();
+        totalConnections.increment();
+    }
+
+    void disconnected() {
+        currConnections.decrement();
+    }
+
+    void get(boolean hit) {
+        cmdGet.increment();
+        (hit ? getHits : getMisses).increment();
+    }
+
+    void set() {
+        cmdSet.increment();
+    }
+
+    void touch() {
+        cmdTouch.increment();
+    }
+
+    void delete(boolean hit) {
+        (hit ? deleteHits : deleteMisses).increment();
+    }
+
+    void casMiss() {
+        casMisses.increment();
+    }
+
+    void casBadval() {
+        casBadval.increment();
+    }
+
+    void error() {
+        errors.increment();
+    }
+
+    /**
+     * @param bytes     size of the change sent to the other nodes
+     * @param itemBytes size of the item before the change, roughly what a full write would have sent
+     */
+    void delta(long bytes, long itemBytes) {
+        deltaUpdates.increment();
+        deltaBytes.add(bytes);
+        deltaItemBytes.add(itemBytes);
+    }
+
+    public long getCurrConnections() {
+        return currConnections.sum();
+    }
+
+    public long getTotalConnections() {
+        return totalConnections.sum();
+    }
+
+    public long getCmdGet() {
+        return cmdGet.sum();
+    }
+
+    public long getGetHits() {
+        return getHits.sum();
+    }
+
+    public long getGetMisses() {
+        return getMisses.sum();
+    }
+
+    public long getCmdSet() {
+        return cmdSet.sum();
+    }
+
+    public long getCmdTouch() {
+        return cmdTouch.sum();
+    }
+
+    public long getDeleteHits() {
+        return deleteHits.sum();
+    }
+
+    public long getDeleteMisses() {
+        return deleteMisses.sum();
+    }
+
+    public long getCasMisses() {
+        return casMisses.sum();
+    }
+
+    public long getCasBadval() {
+        return casBadval.sum();
+    }
+
+    public long getErrors() {
+        return errors.sum();
+    }
+
+    public long getDeltaUpdates() {
+        return deltaUpdates.sum();
+    }
+
+    public long getDeltaBytes() {
+        return deltaBytes.sum();
+    }
+
+    public long getDeltaItemBytes() {
+        return deltaItemBytes.sum();
+    }
+
+}
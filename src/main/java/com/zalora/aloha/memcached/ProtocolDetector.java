@@ -0,0 +1,41 @@
+package com.zalora.aloha.memcached;
+
+import io.netty.buffer.ByteBuf;
+import io.netty.channel.*;
+import io.netty.handler.codec.ByteToMessageDecoder;
+import java.util.List;
+
+/**
+ * Looks at the first byte of a connection and sets up the pipeline for the text or the binary protocol
+ * Binary requests start with the magic byte 0x80, text commands with a letter
+ *
+ * @author Wolfram Huesken <wolfram.huesken@zalora.com>
+ */
+class ProtocolDetector extends ByteToMessageDecoder {
+
+    private final int maxItemSize;
+
+    ProtocolDetector(int maxItemSize) {
+        this.maxItemSize = maxItemSize;
+    }
+
+    @Override
+    protected void decode(ChannelHandlerContext ctx, ByteBuf in, List<Object> out) {
+        if (!in.isReadable()) {
+            return;
+        }
+
+        final ChannelPipeline pipeline = ctx.pipeline();
+        if (in.getByte(in.readerIndex()) == BinaryProtocolDecoder.MAGIC_REQUEST) {
+            pipeline.addAfter(ctx.name(), "encoder", new BinaryProtocolEncoder());
+            pipeline.addAfter(ctx.name(), "decoder", new BinaryProtocolDecoder(maxItemSize));
+        } else {
+            pipeline.addAfter(ctx.name(), "encoder", new TextProtocolEncoder());
+            pipeline.addAfter(ctx.name(), "decoder", new TextProtocolDecoder(maxItemSize));
+        }
+
+        // The buffered bytes are handed to the new decoder
+        pipeline.remove(this);
+    }
+
+}
@@ -0,0 +1,331 @@
+package com.zalora.aloha.memcached;
+
+import com.zalora.aloha.memcached.MemcachedCommand.Op;
+import com.zalora.aloha.memcached.MemcachedResponse.Status;
+import io.netty.buffer.ByteBuf;
+import io.netty.channel.ChannelHandlerContext;
+import io.netty.handler.codec.ByteToMessageDecoder;
+import java.nio.charset.StandardCharsets;
+import java.util.*;
+
+/**
+ * Decodes memcached's text protocol
+ * Storage commands are emitted once their data block is complete, oversized data blocks are skipped
+ *
+ * @author Wolfram Huesken <wolfram.huesken@zalora.com>
+ * @link https://github.com/memcached/memcached/blob/master/doc/protocol.txt
+ */
+class TextProtocolDecoder extends ByteToMessageDecoder {
+
+    private static final int MAX_LINE_LENGTH = 2048;
+    static final int MAX_KEY_LENGTH = 250;
+
+    private static final String NOREPLY = "noreply";
+
+    private final int maxItemSize;
+
+    /**
+     * Storage command waiting for its data block
+     */
+    private MemcachedCommand pending;
+    private int pendingLength;
+
+    /**
+     * Bytes of a rejected data block which still need to be skipped
+     */
+    private long discard;
+
+    TextProtocolDecoder(int maxItemSize) {
+        this.maxItemSize = maxItemSize;
+    }
+
+    @Override
+    protected void decode(ChannelHandlerContext ctx, ByteBuf in, List<Object> out) {
+        if (discard > 0) {
+            int skipped = (int) Math.min(in.readableBytes(), discard);
+            in.skipBytes(skipped);
+            discard -= skipped;
+            return;
+        }
+
+        if (pending != null) {
+            decodeData(in, out);
+            return;
+        }
+
+        final int eol = in.indexOf(in.readerIndex(), in.writerIndex(), (byte) '\n');
+        if (eol < 0) {
+            if (in.readableBytes() > MAX_LINE_LENGTH) {
+                in.skipBytes(in.readableBytes());
+                out.add(MemcachedCommand.error(Status.CLIENT_ERROR, "line too long"));
+            }
+
+            return;
+        }
+
+        int end = eol;
+        if (end > in.readerIndex() && in.getByte(end - 1) == '\r') {
+            end--;
+        }
+
+        final String line = in.toString(in.readerIndex(), end - in.readerIndex(), StandardCharsets.UTF_8);
+        in.readerIndex(eol + 1);
+
+        MemcachedCommand command;
+        try {
+            command = parse(tokenize(line));
+        } catch (NumberFormatException | IndexOutOfBoundsException ex) {
+            command = MemcachedCommand.error(Status.CLIENT_ERROR, "bad command line format");
+        }
+
+        if (command != null) {
+            out.add(command);
+        }
+    }
+
+    private void decodeData(ByteBuf in, List<Object> out) {
+        if (in.readableBytes() < pendingLength + 2) {
+            return;
+        }
+
+        byte[] data = new byte[pendingLength];
+        in.readBytes(data);
+
+        MemcachedCommand command = pending;
+        pending = null;
+
+        if (in.readByte() != '\r' || in.readByte() != '\n') {
+            out.add(MemcachedCommand.error(Status.CLIENT_ERROR, "bad data chunk"));
+            return;
+        }
+
+        command.setData(data);
+        out.add(command);
+    }
+
+    /**
+     * @return the command, null if it's waiting for its data block
+     */
+    private MemcachedCommand parse(List<String> tokens) {
+        if (tokens.isEmpty()) {
+            return MemcachedCommand.error(Status.UNKNOWN_COMMAND, null);
+        }
+
+        switch (tokens.get(0)) {
+            case "get":
+                return retrieval(Op.GET, tokens, 1);
+            case "gets":
+                return retrieval(Op.GETS, tokens, 1);
+            case "gat":
+                return retrieval(Op.GAT, tokens, 2);
+            case "gats":
+                return retrieval(Op.GATS, tokens, 2);
+            case "set":
+                return storage(Op.SET, tokens);
+            case "add":
+                return storage(Op.ADD, tokens);
+            case "replace":
+                return storage(Op.REPLACE, tokens);
+            case "append":
+                return storage(Op.APPEND, tokens);
+            case "prepend":
+                return storage(Op.PREPEND, tokens);
+            case "cas":
+                return storage(Op.CAS, tokens);
+            case "patch":
+                return patch(Op.PATCH, tokens);
+            case "cpatch":
+                return patch(Op.CPATCH, tokens);
+            case "delete":
+                return keyCommand(Op.DELETE, tokens, 2, 4);
+            case "incr":
+                return arithmetic(Op.INCR, tokens);
+            case "decr":
+                return arithmetic(Op.DECR, tokens);
+            case "touch": {
+                MemcachedCommand command = keyCommand(Op.TOUCH, tokens, 3, 4);
+                command.setExpire(Long.parseLong(tokens.get(2)));
+                return command;
+            }
+            case "flush_all": {
+                MemcachedCommand command = simple(Op.FLUSH, tokens, 3);
+                if (tokens.size() > 1 && !NOREPLY.equals(tokens.get(1))) {
+                    command.setExpire(Long.parseLong(tokens.get(1)));
+                }
+                return command;
+            }
+            case "version":
+                return simple(Op.VERSION, tokens, 1);
+            case "stats":
+                return new MemcachedCommand(Op.STATS);
+            case "verbosity":
+                return simple(Op.VERBOSITY, tokens, 3);
+            case "quit":
+                return simple(Op.QUIT, tokens, 1);
+            default:
+                return MemcachedCommand.error(Status.UNKNOWN_COMMAND, null);
+        }
+    }
+
+    /**
+     * get <key>*, gat <exptime> <key>*
+     */
+    private MemcachedCommand retrieval(Op op, List<String> tokens, int firstKey) {
+        if (tokens.size() <= firstKey) {
+            return MemcachedCommand.error(Status.UNKNOWN_COMMAND, null);
+        }
+
+        MemcachedCommand command = new MemcachedCommand(op);
+        if (firstKey > 1) {
+            command.setExpire(Long.parseLong(tokens.get(1)));
+        }
+
+        List<String> keys = tokens.subList(firstKey, tokens.size());
+        for (String key : keys) {
+            if (!validKey(key)) {
+                return invalidKey();
+            }
+        }
+
+        command.setKeys(new ArrayList<>(keys));
+        return command;
+    }
+
+    /**
+     * <command> <key> <flags> <exptime> <bytes> [<cas unique>] [noreply]
+     */
+    private MemcachedCommand storage(Op op, List<String> tokens) {
+        final int required = op == Op.CAS ? 6 : 5;
+        MemcachedCommand command = keyCommand(op, tokens, required, required + 1);
+        if (command.getOp() == Op.ERROR) {
+            return command;
+        }
+
+        command.setFlags(Long.parseLong(tokens.get(2)));
+        command.setExpire(Long.parseLong(tokens.get(3)));
+        if (op == Op.CAS) {
+            command.setCas(Long.parseUnsignedLong(tokens.get(5)));
+        }
+
+        final int length = Integer.parseInt(tokens.get(4));
+        if (command.getFlags() < 0 || length < 0) {
+            return MemcachedCommand.error(Status.CLIENT_ERROR, "bad command line format");
+        }
+
+        if (length > maxItemSize) {
+            discard = length + 2L;
+            return MemcachedCommand.error(Status.TOO_LARGE, "object too large for cache");
+        }
+
+        pending = command;
+        pendingLength = length;
+        return null;
+    }
+
+    /**
+     * patch <key> <offset> <bytes> [noreply]
+     * cpatch <key> <offset> <expected bytes> <bytes> [noreply], the data block holds the expected bytes and the new ones
+     */
+    private MemcachedCommand patch(Op op, List<String> tokens) {
+        final int required = op == Op.CPATCH ? 5 : 4;
+        MemcachedCommand command = keyCommand(op, tokens, required, required + 1);
+        if (command.getOp() == Op.ERROR) {
+            return command;
+        }
+
+        command.setOffset(Integer.parseInt(tokens.get(2)));
+        if (op == Op.CPATCH) {
+            command.setCompareLength(Integer.parseInt(tokens.get(3)));
+        }
+
+        final long length = command.getCompareLength() + (long) Integer.parseInt(tokens.get(required - 1));
+        if (command.getOffset() < 0 || command.getCompareLength() < 0 || length < command.getCompareLength()) {
+            return MemcachedCommand.error(Status.CLIENT_ERROR, "bad command line format");
+        }
+
+        if (length > maxItemSize) {
+            discard = length + 2L;
+            return MemcachedCommand.error(Status.TOO_LARGE, "object too large for cache");
+        }
+
+        pending = command;
+        pendingLength = (int) length;
+        return null;
+    }
+
+    /**
+     * incr|decr <key> <value> [noreply]
+     */
+    private MemcachedCommand arithmetic(Op op, List<String> tokens) {
+        MemcachedCommand command = keyCommand(op, tokens, 3, 4);
+        if (command.getOp() != Op.ERROR) {
+            command.setDelta(Long.parseUnsignedLong(tokens.get(2)));
+        }
+
+        return command;
+    }
+
+    /**
+     * A command with a key as first argument and an optional noreply as last one
+     */
+    private MemcachedCommand keyCommand(Op op, List<String> tokens, int minTokens, int maxTokens) {
+        if (tokens.size() < minTokens || tokens.size() > maxTokens) {
+            return MemcachedCommand.error(Status.UNKNOWN_COMMAND, null);
+        }
+
+        if (!validKey(tokens.get(1))) {
+            return invalidKey();
+        }
+
+        MemcachedCommand command = new MemcachedCommand(op);
+        command.setKey(tokens.get(1));
+        command.setQuiet(tokens.size() > minTokens && NOREPLY.equals(tokens.get(tokens.size() - 1)));
+
+        return command;
+    }
+
+    private MemcachedCommand simple(Op op, List<String> tokens, int maxTokens) {
+        if (tokens.size() > maxTokens) {
+            return MemcachedCommand.error(Status.UNKNOWN_COMMAND, null);
+        }
+
+        MemcachedCommand command = new MemcachedCommand(op);
+        command.setQuiet(tokens.size() > 1 && NOREPLY.equals(tokens.get(tokens.size() - 1)));
+
+        return command;
+    }
+
+    private static MemcachedCommand invalidKey() {
+        return MemcachedCommand.error(Status.CLIENT_ERROR, "bad command line format");
+    }
+
+    static boolean validKey(String key) {
+        return key.getBytes(StandardCharsets.UTF_8).length <= MAX_KEY_LENGTH;
+    }
+
+    /**
+     * Splits at spaces, a lot cheaper than a regex for every request
+     */
+    private static List<String> tokenize(String line) {
+        List<String> tokens = new ArrayList<>(8);
+        int start = -1;
+
+        for (int i = 0; i < line.length(); i++) {
+            if (line.charAt(i) == ' ') {
+                if (start >= 0) {
+                    tokens.add(line.substring(start, i));
+                    start = -1;
+                }
+            } else if (start < 0) {
+                start = i;
+            }
+        }
+
+        if (start >= 0) {
+            tokens.add(line.substring(start));
+        }
+
+        return tokens;
+    }
+
+}
@@ -0,0 +1,109 @@
+package com.zalora.aloha.memcached;
+
+import com.zalora.aloha.memcached.MemcachedCommand.Op;
+import io.netty.buffer.ByteBuf;
+import io.netty.channel.ChannelHandlerContext;
+import io.netty.handler.codec.MessageToByteEncoder;
+import java.nio.charset.StandardCharsets;
+import java.util.Map;
+
+/**
+ * Encodes responses in memcached's text protocol
+ *
+ * @author Wolfram Huesken <wolfram.huesken@zalora.com>
+ */
+class TextProtocolEncoder extends MessageToByteEncoder<MemcachedResponse> {
+
+    private static final byte[] CRLF = {'\r', '\n'};
+
+    @Override
+    protected void encode(ChannelHandlerContext ctx, MemcachedResponse response, ByteBuf out) {
+        final Op op = response.getCommand().getOp();
+
+        switch (response.getStatus()) {
+            case OK:
+                break;
+            case NOT_FOUND:
+                line(out, "NOT_FOUND");
+                return;
+            case EXISTS:
+                line(out, "EXISTS");
+                return;
+            case NOT_STORED:
+                line(out, "NOT_STORED");
+                return;
+            case NON_NUMERIC:
+                line(out, "CLIENT_ERROR cannot increment or decrement non-numeric value");
+                return;
+            case TOO_LARGE:
+                line(out, "SERVER_ERROR object too large for cache");
+                return;
+            case CLIENT_ERROR:
+                line(out, "CLIENT_ERROR " + response.getMessage());
+                return;
+            case SERVER_ERROR:
+                line(out, "SERVER_ERROR " + response.getMessage());
+                return;
+            default:
+                line(out, "ERROR");
+                return;
+        }
+
+        switch (op) {
+            case GET:
+            case GETS:
+            case GAT:
+            case GATS:
+                final boolean withCas = op == Op.GETS || op == Op.GATS;
+                for (MemcachedResponse.Item item : response.getItems()) {
+                    StringBuilder header = new StringBuilder(64)
+                        .append("VALUE ").append(item.getKey())
+                        .append(' ').append(item.getFlags())
+                        .append(' ').append(item.getData().length);
+
+                    if (withCas) {
+                        header.append(' ').append(Long.toUnsignedString(item.getCas()));
+                    }
+
+                    line(out, header.toString());
+                    out.writeBytes(item.getData());
+                    out.writeBytes(CRLF);
+                }
+                line(out, "END");
+                break;
+            case DELETE:
+                line(out, "DELETED");
+                break;
+            case INCR:
+            case DECR:
+                line(out, Long.toUnsignedString(response.getNumber()));
+                break;
+            case TOUCH:
+                line(out, "TOUCHED");
+                break;
+            case VERSION:
+                line(out, "VERSION " + response.getMessage());
+                break;
+            case STATS:
+                for (Map.Entry<String, String> stat : response.getStats().entrySet()) {
+                    line(out, "STAT " + stat.getKey() + " " + stat.getValue());
+                }
+                line(out, "END");
+                break;
+            case FLUSH:
+            case VERBOSITY:
+                line(out, "OK");
+                break;
+            case QUIT:
+                break;
+            default:
+                line(out, "STORED");
+        }
+    }
+
+    private static void line(ByteBuf out, String line) {
+        out.writeCharSequence(line, StandardCharsets.UTF_8);
+        out.writeBytes(CRLF);
+    }
+
+}
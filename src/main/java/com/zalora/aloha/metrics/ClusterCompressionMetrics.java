@@ -0,0 +1,51 @@
+package com.zalora.aloha.metrics;
+
+import com.zalora.jgroups.compress.LZ4_COMPRESS;
+import java.util.*;
+import org.infinispan.manager.EmbeddedCacheManager;
+import org.infinispan.remoting.transport.Transport;
+import org.infinispan.remoting.transport.jgroups.JGroupsTransport;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.actuate.endpoint.PublicMetrics;
+import org.springframework.boot.actuate.metrics.Metric;
+import org.springframework.stereotype.Component;
+
+/**
+ * Exposes the counters of LZ4_COMPRESS via /metrics, if the JGroups stack has it
+ *
+ * @author Wolfram Huesken <wolfram.huesken@zalora.com>
+ */
+@Component
+public class ClusterCompressionMetrics implements PublicMetrics {
+
+    private static final String PREFIX = "jgroups.compression.";
+
+    @Autowired
+    private EmbeddedCacheManager embeddedCacheManager;
+
+    @Override
+    public Collection<Metric<?>> metrics() {
+        Transport transport = embeddedCacheManager.getTransport();
+        if (!(transport instanceof JGroupsTransport) || ((JGroupsTransport) transport).getChannel() == null) {
+            return Collections.emptyList();
+        }
+
+        LZ4_COMPRESS compression = ((JGroupsTransport) transport).getChannel().getProtocolStack()
+            .findProtocol(LZ4_COMPRESS.class);
+        if (compression == null) {
+            return Collections.emptyList();
+        }
+
+        List<Metric<?>> metrics = new ArrayList<>();
+        metrics.add(new Metric<>(PREFIX + "compressed", compression.getCompressed()));
+        metrics.add(new Metric<>(PREFIX + "skipped", compression.getSkipped()));
+        metrics.add(new Metric<>(PREFIX + "rejected", compression.getRejected()));
+        metrics.add(new Metric<>(PREFIX + "decompressed", compression.getDecompressed()));
+        metrics.add(new Metric<>(PREFIX + "bytesIn", compression.getBytesIn()));
+        metrics.add(new Metric<>(PREFIX + "bytesOut", compression.getBytesOut()));
+        metrics.add(new Metric<>(PREFIX + "bytesSaved", compression.getBytesSaved()));
+
+        return metrics;
+    }
+
+}
@@ -0,0 +1,46 @@
+package com.zalora.aloha.metrics;
+
+import com.zalora.aloha.compressor.*;
+import com.zalora.aloha.manager.ServerManager;
+import java.util.*;
+import java.util.concurrent.TimeUnit;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.actuate.endpoint.PublicMetrics;
+import org.springframework.boot.actuate.metrics.Metric;
+import org.springframework.stereotype.Component;
+
+/**
+ * Exposes the compression counters of each cache via /metrics
+ *
+ * @author Wolfram Huesken <wolfram.huesken@zalora.com>
+ */
+@Component
+public class CompressionMetrics implements PublicMetrics {
+
+    @Autowired
+    private ServerManager serverManager;
+
+    @Override
+    public Collection<Metric<?>> metrics() {
+        List<Metric<?>> metrics = new ArrayList<>();
+
+        for (Map.Entry<String, Compressor> entry : serverManager.getCompressors().entrySet()) {
+            String prefix = String.format("compression.%s.", entry.getKey());
+            CompressionStats stats = entry.getValue().getStats();
+
+            metrics.add(new Metric<>(prefix + "skipped", stats.getSkipped()));
+            metrics.add(new Metric<>(prefix + "rejected", stats.getRejected()));
+            metrics.add(new Metric<>(prefix + "fast", stats.getFast()));
+            metrics.add(new Metric<>(prefix + "high", stats.getHigh()));
+            metrics.add(new Metric<>(prefix + "bytesIn", stats.getBytesIn()));
+            metrics.add(new Metric<>(prefix + "bytesOut", stats.getBytesOut()));
+            metrics.add(new Metric<>(prefix + "ratio", stats.getRatio()));
+            metrics.add(new Metric<>(prefix + "compressTimeMs", TimeUnit.NANOSECONDS.toMillis(stats.getCompressNanos())));
+            metrics.add(new Metric<>(prefix + "decompressed", stats.getDecompressed()));
+            metrics.add(new Metric<>(prefix + "decompressTimeMs", TimeUnit.NANOSECONDS.toMillis(stats.getDecompressNanos())));
+        }
+
+        return metrics;
+    }
+
+}
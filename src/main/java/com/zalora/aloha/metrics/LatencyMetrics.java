@@ -0,0 +1,40 @@
+package com.zalora.aloha.metrics;
+
+import com.zalora.aloha.latency.*;
+import com.zalora.aloha.manager.ServerManager;
+import java.util.*;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.actuate.endpoint.PublicMetrics;
+import org.springframework.boot.actuate.metrics.Metric;
+import org.springframework.stereotype.Component;
+
+/**
+ * Exposes the percentiles of the last minute via /metrics, /latency has the full picture
+ *
+ * @author Wolfram Huesken <wolfram.huesken@zalora.com>
+ */
+@Component
+public class LatencyMetrics implements PublicMetrics {
+
+    @Autowired
+    private ServerManager serverManager;
+
+    @Override
+    public Collection<Metric<?>> metrics() {
+        List<Metric<?>> metrics = new ArrayList<>();
+
+        for (Map.Entry<String, LatencyRegistry.Report> entry : serverManager.getLatencies().getReports().entrySet()) {
+            String prefix = String.format("latency.%s.", entry.getKey());
+            HistogramSnapshot window = entry.getValue().getWindow();
+
+            metrics.add(new Metric<>(prefix + "count", window.getCount()));
+            metrics.add(new Metric<>(prefix + "p50", window.getP50()));
+            metrics.add(new Metric<>(prefix + "p99", window.getP99()));
+            metrics.add(new Metric<>(prefix + "p999", window.getP999()));
+            metrics.add(new Metric<>(prefix + "max", window.getMax()));
+        }
+
+        return metrics;
+    }
+
+}
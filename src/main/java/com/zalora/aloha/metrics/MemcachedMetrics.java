@@ -0,0 +1,50 @@
+package com.zalora.aloha.metrics;
+
+import com.zalora.aloha.manager.ServerManager;
+import com.zalora.aloha.memcached.*;
+import java.util.*;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.actuate.endpoint.PublicMetrics;
+import org.springframework.boot.actuate.metrics.Metric;
+import org.springframework.stereotype.Component;
+
+/**
+ * Exposes the counters of each memcached endpoint via /metrics
+ *
+ * @author Wolfram Huesken <wolfram.huesken@zalora.com>
+ */
+@Component
+public class MemcachedMetrics implements PublicMetrics {
+
+    @Autowired
+    private ServerManager serverManager;
+
+    @Override
+    public Collection<Metric<?>> metrics() {
+        List<Metric<?>> metrics = new ArrayList<>();
+
+        for (Map.Entry<String, MemcachedServer> entry : serverManager.getMemcachedServers().entrySet()) {
+            String prefix = String.format("memcached.%s.", entry.getKey());
+            MemcachedStats stats = entry.getValue().getStats();
+
+            metrics.add(new Metric<>(prefix + "connections", stats.getCurrConnections()));
+            metrics.add(new Metric<>(prefix + "totalConnections", stats.getTotalConnections()));
+            metrics.add(new Metric<>(prefix + "gets", stats.getCmdGet()));
+            metrics.add(new Metric<>(prefix + "hits", stats.getGetHits()));
+            metrics.add(new Metric<>(prefix + "misses", stats.getGetMisses()));
+            metrics.add(new Metric<>(prefix + "sets", stats.getCmdSet()));
+            metrics.add(new Metric<>(prefix + "touches", stats.getCmdTouch()));
+            metrics.add(new Metric<>(prefix + "deleteHits", stats.getDeleteHits()));
+            metrics.add(new Metric<>(prefix + "deleteMisses", stats.getDeleteMisses()));
+            metrics.add(new Metric<>(prefix + "casMisses", stats.getCasMisses()));
+            metrics.add(new Metric<>(prefix + "casBadval", stats.getCasBadval()));
+            metrics.add(new Metric<>(prefix + "errors", stats.getErrors()));
+            metrics.add(new Metric<>(prefix + "deltaUpdates", stats.getDeltaUpdates()));
+            metrics.add(new Metric<>(prefix + "deltaBytes", stats.getDeltaBytes()));
+            metrics.add(new Metric<>(prefix + "deltaItemBytes", stats.getDeltaItemBytes()));
+        }
+
+        return metrics;
+    }
+
+}
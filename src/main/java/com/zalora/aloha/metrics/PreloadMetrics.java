@@ -0,0 +1,47 @@
+package com.zalora.aloha.metrics;
+
+import com.zalora.aloha.manager.ServerManager;
+import com.zalora.aloha.persistence.*;
+import java.util.*;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.actuate.endpoint.PublicMetrics;
+import org.springframework.boot.actuate.metrics.Metric;
+import org.springframework.stereotype.Component;
+
+/**
+ * Exposes the progress of the parallel preload via /metrics
+ *
+ * @author Wolfram Huesken <wolfram.huesken@zalora.com>
+ */
+@Component
+public class PreloadMetrics implements PublicMetrics {
+
+    @Autowired
+    private ServerManager serverManager;
+
+    @Override
+    public Collection<Metric<?>> metrics() {
+        List<Metric<?>> metrics = new ArrayList<>();
+
+        ParallelPreloader preloader = serverManager.getPreloader();
+        if (preloader == null) {
+            return metrics;
+        }
+
+        PreloadProgress progress = preloader.getProgress();
+
+        metrics.add(new Metric<>("preload.running", progress.getState() == PreloadProgress.State.RUNNING ? 1 : 0));
+        metrics.add(new Metric<>("preload.failed", progress.getState() == PreloadProgress.State.FAILED ? 1 : 0));
+        metrics.add(new Metric<>("preload.totalRows", progress.getTotalRows()));
+        metrics.add(new Metric<>("preload.rows", progress.getRows()));
+        metrics.add(new Metric<>("preload.skippedRows", progress.getSkippedRows()));
+        metrics.add(new Metric<>("preload.totalRanges", progress.getTotalRanges()));
+        metrics.add(new Metric<>("preload.finishedRanges", progress.getFinishedRanges()));
+        metrics.add(new Metric<>("preload.rowsPerSecond", progress.getRowsPerSecond()));
+        metrics.add(new Metric<>("preload.etaSeconds", progress.getEtaSeconds()));
+        metrics.add(new Metric<>("preload.elapsedMs", progress.getElapsedMillis()));
+
+        return metrics;
+    }
+
+}
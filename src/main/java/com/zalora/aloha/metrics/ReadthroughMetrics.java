@@ -0,0 +1,108 @@
+package com.zalora.aloha.metrics;
+
+import com.zalora.aloha.config.ServerConfig;
+import com.zalora.aloha.persistence.*;
+import java.util.*;
+import org.infinispan.manager.EmbeddedCacheManager;
+import org.infinispan.persistence.manager.PersistenceManager;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.actuate.endpoint.PublicMetrics;
+import org.springframework.boot.actuate.metrics.Metric;
+import org.springframework.stereotype.Component;
+
+/**
+ * Exposes the batching, coalescing, load guard, negative lookup and write-behind counters of the read-through store
+ * via /metrics
+ *
+ * @author Wolfram Huesken <wolfram.huesken@zalora.com>
+ */
+@Component
+public class ReadthroughMetrics implements PublicMetrics {
+
+    @Autowired
+    private ServerConfig serverConfig;
+
+    @Autowired
+    private EmbeddedCacheManager embeddedCacheManager;
+
+    @Override
+    public Collection<Metric<?>> metrics() {
+        List<Metric<?>> metrics = new ArrayList<>();
+        if (!serverConfig.isReadthroughEnabled()) {
+            return metrics;
+        }
+
+        PersistenceManager persistenceManager = embeddedCacheManager.getCache(serverConfig.getPrimaryCacheName())
+            .getAdvancedCache().getComponentRegistry().getComponent(PersistenceManager.class);
+
+        for (MemcachedItemStore store : persistenceManager.getStores(MemcachedItemStore.class)) {
+            BatchingLoader<?, ?> loader = store.getBatchingLoader();
+            if (loader != null) {
+                long batches = loader.getBatches();
+
+                metrics.add(new Metric<>("readthrough.requests", loader.getRequests()));
+                metrics.add(new Metric<>("readthrough.coalesced", loader.getCoalesced()));
+                metrics.add(new Metric<>("readthrough.batches", batches));
+                metrics.add(new Metric<>("readthrough.batchedKeys", loader.getBatchedKeys()));
+                metrics.add(new Metric<>("readthrough.avgBatchSize", batches == 0 ? 0.0 : (double) loader.getBatchedKeys() / batches));
+                metrics.add(new Metric<>("readthrough.failures", loader.getFailures()));
+                metrics.add(new Metric<>("readthrough.pending", loader.getPending()));
+            }
+
+            LoadGuard<?, ?> guard = store.getLoadGuard();
+            if (guard != null) {
+                metrics.add(new Metric<>("readthrough.guard.loads", guard.getLoads()));
+                metrics.add(new Metric<>("readthrough.guard.active", guard.getActive()));
+                metrics.add(new Metric<>("readthrough.guard.rejected", guard.getRejected()));
+                metrics.add(new Metric<>("readthrough.guard.timeouts", guard.getTimeouts()));
+                metrics.add(new Metric<>("readthrough.guard.failures", guard.getFailures()));
+                metrics.add(new Metric<>("readthrough.guard.shortCircuited", guard.getShortCircuited()));
+
+                CircuitBreaker breaker = guard.getCircuitBreaker();
+                if (breaker != null) {
+                    // 0 closed, 1 open, 2 half-open
+                    metrics.add(new Metric<>("readthrough.guard.breaker.state", breaker.getState().ordinal()));
+                    metrics.add(new Metric<>("readthrough.guard.breaker.opened", breaker.getOpened()));
+                }
+            }
+
+            WriteBehindQueue<?, ?> writeBehind = store.getWriteBehindQueue();
+            if (writeBehind != null) {
+                metrics.add(new Metric<>("writeBehind.pending", writeBehind.getPending()));
+                metrics.add(new Metric<>("writeBehind.writes", writeBehind.getWrites()));
+                metrics.add(new Metric<>("writeBehind.deletes", writeBehind.getDeletes()));
+                metrics.add(new Metric<>("writeBehind.coalesced", writeBehind.getCoalesced()));
+                metrics.add(new Metric<>("writeBehind.flushes", writeBehind.getFlushes()));
+                metrics.add(new Metric<>("writeBehind.flushedKeys", writeBehind.getFlushedKeys()));
+                metrics.add(new Metric<>("writeBehind.failures", writeBehind.getFailures()));
+                metrics.add(new Metric<>("writeBehind.blocked", writeBehind.getBlocked()));
+                metrics.add(new Metric<>("writeBehind.rejected", writeBehind.getRejected()));
+                metrics.add(new Metric<>("writeBehind.skipped", store.getSkippedWrites()));
+            }
+
+            NegativeLookupFilter filter = store.getNegativeLookupFilter();
+            if (filter == null) {
+                continue;
+            }
+
+            metrics.add(new Metric<>("readthrough.filter.ready", filter.isReady() ? 1 : 0));
+            metrics.add(new Metric<>("readthrough.filter.keys", filter.getApproximateKeys()));
+            metrics.add(new Metric<>("readthrough.filter.filtered", filter.getFiltered()));
+            metrics.add(new Metric<>("readthrough.filter.negativeHits", filter.getNegativeHits()));
+            metrics.add(new Metric<>("readthrough.filter.passed", filter.getPassed()));
+            metrics.add(new Metric<>("readthrough.filter.falsePositives", filter.getFalsePositives()));
+            metrics.add(new Metric<>("readthrough.filter.bypassed", filter.getBypassed()));
+            metrics.add(new Metric<>("readthrough.filter.staleRows", filter.getStaleRows()));
+            metrics.add(new Metric<>("readthrough.filter.observedFpp", filter.getObservedFalsePositiveRate()));
+            metrics.add(new Metric<>("readthrough.filter.expectedFpp", filter.getExpectedFalsePositiveRate()));
+            metrics.add(new Metric<>("readthrough.filter.negativeCacheSize", filter.getNegativeCacheSize()));
+            metrics.add(new Metric<>("readthrough.filter.filterBytes", filter.getFilterBytes()));
+            metrics.add(new Metric<>("readthrough.filter.memoryBytes", filter.getMemoryBytes()));
+            metrics.add(new Metric<>("readthrough.filter.rebuilds", filter.getRebuilds()));
+            metrics.add(new Metric<>("readthrough.filter.lastRebuildMs", filter.getLastRebuildMillis()));
+        }
+
+        return metrics;
+    }
+
+}
@@ -0,0 +1,45 @@
+package com.zalora.aloha.metrics;
+
+import com.zalora.aloha.manager.ServerManager;
+import com.zalora.aloha.persistence.RefreshAhead;
+import java.util.*;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.actuate.endpoint.PublicMetrics;
+import org.springframework.boot.actuate.metrics.Metric;
+import org.springframework.stereotype.Component;
+
+/**
+ * Exposes the refresh-ahead counters of the primary cache via /metrics
+ *
+ * @author Wolfram Huesken <wolfram.huesken@zalora.com>
+ */
+@Component
+public class RefreshAheadMetrics implements PublicMetrics {
+
+    private static final String PREFIX = "readthrough.refresh.";
+
+    @Autowired
+    private ServerManager serverManager;
+
+    @Override
+    public Collection<Metric<?>> metrics() {
+        RefreshAhead refreshAhead = serverManager.getRefreshAhead();
+        if (refreshAhead == null) {
+            return Collections.emptyList();
+        }
+
+        List<Metric<?>> metrics = new ArrayList<>();
+        metrics.add(new Metric<>(PREFIX + "scheduled", refreshAhead.getScheduled()));
+        metrics.add(new Metric<>(PREFIX + "dropped", refreshAhead.getDropped()));
+        metrics.add(new Metric<>(PREFIX + "refreshed", refreshAhead.getRefreshed()));
+        metrics.add(new Metric<>(PREFIX + "missing", refreshAhead.getMissing()));
+        metrics.add(new Metric<>(PREFIX + "superseded", refreshAhead.getSuperseded()));
+        metrics.add(new Metric<>(PREFIX + "unextended", refreshAhead.getUnextended()));
+        metrics.add(new Metric<>(PREFIX + "failures", refreshAhead.getFailures()));
+        metrics.add(new Metric<>(PREFIX + "pending", refreshAhead.getPending()));
+        metrics.add(new Metric<>(PREFIX + "attemptedKeys", refreshAhead.getAttemptedKeys()));
+
+        return metrics;
+    }
+
+}
@@ -0,0 +1,46 @@
+package com.zalora.aloha.metrics;
+
+import com.zalora.aloha.manager.ServerManager;
+import com.zalora.aloha.persistence.SnapshotStore;
+import java.util.*;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.actuate.endpoint.PublicMetrics;
+import org.springframework.boot.actuate.metrics.Metric;
+import org.springframework.stereotype.Component;
+
+/**
+ * Exposes restore and write statistics of the primary cache's local snapshot via /metrics
+ *
+ * @author Wolfram Huesken <wolfram.huesken@zalora.com>
+ */
+@Component
+public class SnapshotMetrics implements PublicMetrics {
+
+    @Autowired
+    private ServerManager serverManager;
+
+    @Override
+    public Collection<Metric<?>> metrics() {
+        List<Metric<?>> metrics = new ArrayList<>();
+
+        SnapshotStore store = serverManager.getSnapshotStore();
+        if (store == null) {
+            return metrics;
+        }
+
+        final long lastSnapshot = store.getLastSnapshotTime();
+
+        metrics.add(new Metric<>("snapshot.restoredEntries", store.getRestoredEntries()));
+        metrics.add(new Metric<>("snapshot.expiredEntries", store.getExpiredEntries()));
+        metrics.add(new Metric<>("snapshot.staleEntries", store.getStaleEntries()));
+        metrics.add(new Metric<>("snapshot.writes", store.getWrites()));
+        metrics.add(new Metric<>("snapshot.failures", store.getFailures()));
+        metrics.add(new Metric<>("snapshot.lastEntries", store.getLastEntries()));
+        metrics.add(new Metric<>("snapshot.lastBytes", store.getLastBytes()));
+        metrics.add(new Metric<>("snapshot.lastDurationMs", store.getLastDurationMillis()));
+        metrics.add(new Metric<>("snapshot.ageSeconds", lastSnapshot == 0 ? -1 : (System.currentTimeMillis() - lastSnapshot) / 1000));
+
+        return metrics;
+    }
+
+}
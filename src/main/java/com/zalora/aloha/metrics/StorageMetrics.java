@@ -0,0 +1,73 @@
+package com.zalora.aloha.metrics;
+
+import com.zalora.aloha.config.*;
+import com.zalora.aloha.storage.EvictionCountingOffHeapDataContainer;
+import java.util.*;
+import org.infinispan.AdvancedCache;
+import org.infinispan.configuration.cache.StorageType;
+import org.infinispan.container.DataContainer;
+import org.infinispan.container.offheap.OffHeapMemoryAllocator;
+import org.infinispan.manager.EmbeddedCacheManager;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.actuate.endpoint.PublicMetrics;
+import org.springframework.boot.actuate.metrics.Metric;
+import org.springframework.stereotype.Component;
+
+/**
+ * Exposes entries, memory bound, off-heap usage and evictions of each cache via /metrics
+ *
+ * @author Wolfram Huesken <wolfram.huesken@zalora.com>
+ */
+@Component
+public class StorageMetrics implements PublicMetrics {
+
+    @Autowired
+    private ServerConfig serverConfig;
+
+    @Autowired
+    private CacheDefinitions cacheDefinitions;
+
+    @Autowired
+    private EmbeddedCacheManager embeddedCacheManager;
+
+    @Override
+    public Collection<Metric<?>> metrics() {
+        List<Metric<?>> metrics = new ArrayList<>();
+
+        addMetrics(metrics, serverConfig.getPrimaryCacheName(), serverConfig.getPrimaryStorageMaxSize());
+        addMetrics(metrics, serverConfig.getSecondaryCacheName(), serverConfig.getSecondaryStorageMaxSize());
+
+        for (CacheDefinition definition : cacheDefinitions.getCaches()) {
+            addMetrics(metrics, definition.getName(), definition.getStorage().getMaxSize());
+        }
+
+        return metrics;
+    }
+
+    private void addMetrics(List<Metric<?>> metrics, String cacheName, long maxSize) {
+        if (!embeddedCacheManager.isRunning(cacheName)) {
+            return;
+        }
+
+        final String prefix = String.format("storage.%s.", cacheName);
+        final AdvancedCache<Object, Object> cache = embeddedCacheManager.getCache(cacheName).getAdvancedCache();
+        final DataContainer<Object, Object> dataContainer = cache.getDataContainer();
+
+        metrics.add(new Metric<>(prefix + "entries", dataContainer.size()));
+        metrics.add(new Metric<>(prefix + "maxSize", maxSize));
+
+        if (cache.getCacheConfiguration().memory().storageType() == StorageType.OFF_HEAP) {
+            OffHeapMemoryAllocator allocator = cache.getComponentRegistry().getComponent(OffHeapMemoryAllocator.class);
+            metrics.add(new Metric<>(prefix + "offHeapBytes", allocator.getAllocatedAmount()));
+        }
+
+        // The off-heap container doesn't report its evictions to the cache statistics
+        Object container = dataContainer;
+        long evictions = container instanceof EvictionCountingOffHeapDataContainer
+            ? ((EvictionCountingOffHeapDataContainer) container).getEvictions()
+            : cache.getStats().getEvictions();
+
+        metrics.add(new Metric<>(prefix + "evictions", evictions));
+    }
+
+}
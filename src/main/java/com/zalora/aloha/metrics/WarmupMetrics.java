@@ -0,0 +1,51 @@
+package com.zalora.aloha.metrics;
+
+import com.zalora.aloha.hotkeys.AccessRecorder;
+import com.zalora.aloha.manager.ServerManager;
+import com.zalora.aloha.persistence.*;
+import java.util.*;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.actuate.endpoint.PublicMetrics;
+import org.springframework.boot.actuate.metrics.Metric;
+import org.springframework.stereotype.Component;
+
+/**
+ * Exposes the recorded reads and the hot key warm-up via /metrics
+ *
+ * @author Wolfram Huesken <wolfram.huesken@zalora.com>
+ */
+@Component
+public class WarmupMetrics implements PublicMetrics {
+
+    @Autowired
+    private ServerManager serverManager;
+
+    @Override
+    public Collection<Metric<?>> metrics() {
+        List<Metric<?>> metrics = new ArrayList<>();
+
+        AccessRecorder recorder = serverManager.getAccessRecorder();
+        if (recorder == null) {
+            return metrics;
+        }
+
+        metrics.add(new Metric<>("warmup.trackedKeys", recorder.getTrackedKeys()));
+        metrics.add(new Metric<>("warmup.samples", recorder.getSamples()));
+
+        HotKeyWarmer warmer = serverManager.getWarmer();
+        if (warmer == null) {
+            return metrics;
+        }
+
+        PreloadProgress progress = warmer.getProgress();
+
+        metrics.add(new Metric<>("warmup.failed", progress.getState() == PreloadProgress.State.FAILED ? 1 : 0));
+        metrics.add(new Metric<>("warmup.keys", progress.getTotalRows()));
+        metrics.add(new Metric<>("warmup.loaded", progress.getRows()));
+        metrics.add(new Metric<>("warmup.skipped", progress.getSkippedRows()));
+        metrics.add(new Metric<>("warmup.elapsedMs", progress.getElapsedMillis()));
+
+        return metrics;
+    }
+
+}
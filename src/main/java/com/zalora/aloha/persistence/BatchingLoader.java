@@ -0,0 +1,222 @@
+package com.zalora.aloha.persistence;
+
+import com.zalora.aloha.latency.SlidingHistogram;
+import java.util.*;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.Function;
+import lombok.Getter;
+import lombok.extern.slf4j.Slf4j;
+import org.infinispan.persistence.spi.PersistenceException;
+import org.springframework.util.Assert;
+
+/**
+ * Turns single key lookups into batched ones:
+ * - Concurrent loads of the same key share one in-flight future
+ * - Keys requested within the batch window are fetched together, up to batchSize keys per batch
+ *
+ * A single dispatcher thread collects the keys and hands the batches to the worker threads.
+ * If all workers are busy, the dispatcher runs the batch itself, so keys pile up meanwhile
+ * and the next batch gets bigger instead of the queue growing without limits.
+ *
+ * @author Wolfram Huesken <wolfram.huesken@zalora.com>
+ */
+@Slf4j
+public class BatchingLoader<K, V> {
+
+    private final Function<Set<K>, Map<K, V>> batchLoad;
+    private final int batchSize;
+    private final long batchWindowNanos;
+
+    private final ConcurrentMap<K, CompletableFuture<V>> inFlight = new ConcurrentHashMap<>();
+    private final BlockingQueue<K> pending = new LinkedBlockingQueue<>();
+
+    private final ThreadPoolExecutor workers;
+    private final Thread dispatcher;
+
+    private volatile boolean running = true;
+
+    private final LongAdder requests = new LongAdder();
+    private final LongAdder coalesced = new LongAdder();
+    private final LongAdder batches = new LongAdder();
+    private final LongAdder batchedKeys = new LongAdder();
+    private final LongAdder failures = new LongAdder();
+
+    /**
+     * Duration of the batch queries
+     */
+    @Getter
+    private final SlidingHistogram queryLatency = new SlidingHistogram();
+
+    /**
+     * @param name        used for the thread names
+     * @param batchLoad   loads a set of keys, missing keys are simply not part of the result
+     * @param batchSize   maximum keys per batch
+     * @param batchWindow how long the first key of a batch waits for others to join
+     * @param unit        unit of batchWindow
+     * @param threads     maximum number of concurrent batches
+     */
+    public BatchingLoader(String name, Function<Set<K>, Map<K, V>> batchLoad, int batchSize, long batchWindow,
+                          TimeUnit unit, int threads) {
+        Assert.notNull(batchLoad, "Batch load function must not be null");
+        Assert.isTrue(batchSize > 0, "Batch size must be positive");
+        Assert.isTrue(threads > 0, "Loader threads must be positive");
+
+        this.batchLoad = batchLoad;
+        this.batchSize = batchSize;
+        this.batchWindowNanos = unit.toNanos(batchWindow);
+
+        workers = new ThreadPoolExecutor(
+            threads, threads, 60, TimeUnit.SECONDS, new SynchronousQueue<>(),
+            runnable -> new Thread(runnable, name + "-loader"), new ThreadPoolExecutor.CallerRunsPolicy()
+        );
+        workers.allowCoreThreadTimeOut(true);
+
+        dispatcher = new Thread(this::dispatch, name + "-dispatcher");
+        dispatcher.setDaemon(true);
+        dispatcher.start();
+    }
+
+    /**
+     * Blocks until the batch containing the key was loaded, or the timeout passed
+     * A load which times out stays in flight, others loading the same key still get its result
+     *
+     * @param timeout 0 waits until the batch was loaded
+     * @return the value or null if the key doesn't exist
+     */
+    public V load(K key, long timeout, TimeUnit unit) throws TimeoutException {
+        requests.increment();
+
+        CompletableFuture<V> future = new CompletableFuture<>();
+        CompletableFuture<V> existing = inFlight.putIfAbsent(key, future);
+
+        if (existing != null) {
+            coalesced.increment();
+            future = existing;
+        } else {
+            pending.add(key);
+
+            // Lost the race against stop(), nobody is going to pick up the key
+            if (!running) {
+                fail(key, new PersistenceException("Loader is stopped"));
+            }
+        }
+
+        try {
+            return timeout > 0 ? future.get(timeout, unit) : future.get();
+        } catch (InterruptedException ex) {
+            Thread.currentThread().interrupt();
+            throw new PersistenceException(String.format("Interrupted while loading %s", key), ex);
+        } catch (ExecutionException ex) {
+            throw new PersistenceException(String.format("Could not load %s", key), ex.getCause());
+        }
+    }
+
+    public void stop() {
+        running = false;
+        dispatcher.interrupt();
+        workers.shutdown();
+
+        PersistenceException stopped = new PersistenceException("Loader is stopped");
+        for (K key : inFlight.keySet()) {
+            fail(key, stopped);
+        }
+    }
+
+    public long getRequests() {
+        return requests.sum();
+    }
+
+    /**
+     * @return loads which joined an in-flight load of the same key
+     */
+    public long getCoalesced() {
+        return coalesced.sum();
+    }
+
+    public long getBatches() {
+        return batches.sum();
+    }
+
+    public long getBatchedKeys() {
+        return batchedKeys.sum();
+    }
+
+    public long getFailures() {
+        return failures.sum();
+    }
+
+    public int getPending() {
+        return pending.size();
+    }
+
+    private void dispatch() {
+        while (running) {
+            try {
+                final Set<K> batch = collectBatch();
+                workers.execute(() -> loadBatch(batch));
+            } catch (InterruptedException ex) {
+                Thread.currentThread().interrupt();
+                return;
+            } catch (RejectedExecutionException ex) {
+                log.debug("Loader was shut down while dispatching");
+                return;
+            }
+        }
+    }
+
+    private Set<K> collectBatch() throws InterruptedException {
+        Set<K> batch = new HashSet<>();
+        batch.add(pending.take());
+
+        final long deadline = System.nanoTime() + batchWindowNanos;
+        while (batch.size() < batchSize) {
+            long remaining = deadline - System.nanoTime();
+            K key = remaining > 0 ? pending.poll(remaining, TimeUnit.NANOSECONDS) : pending.poll();
+
+            if (key == null) {
+                break;
+            }
+
+            batch.add(key);
+        }
+
+        return batch;
+    }
+
+    private void loadBatch(Set<K> keys) {
+        batches.increment();
+        batchedKeys.add(keys.size());
+
+        final Map<K, V> values;
+        final long start = System.nanoTime();
+        try {
+            values = batchLoad.apply(keys);
+        } catch (RuntimeException ex) {
+            failures.increment();
+            log.error("Loading a batch of {} keys failed", keys.size(), ex);
+
+            for (K key : keys) {
+                fail(key, ex);
+            }
+            return;
+        } finally {
+            queryLatency.recordNanos(System.nanoTime() - start);
+        }
+
+        for (K key : keys) {
+            CompletableFuture<V> future = inFlight.remove(key);
+            if (future != null) {
+                future.complete(values.get(key));
+            }
+        }
+    }
+
+    private void fail(K key, Throwable cause) {
+        CompletableFuture<V> future = inFlight.remove(key);
+        if (future != null) {
+            future.completeExceptionally(cause);
+        }
+    }
+
+}
@@ -0,0 +1,105 @@
+package com.zalora.aloha.persistence;
+
+import com.google.common.hash.Hashing;
+import java.nio.ByteBuffer;
+import java.util.concurrent.atomic.*;
+import org.springframework.util.Assert;
+
+/**
+ * Concurrent Bloom filter for String keys, sized for an expected number of keys and false positive rate
+ * Keys are hashed once with murmur3_128, the two halves are combined into the bit positions
+ *
+ * @author Wolfram Huesken <wolfram.huesken@zalora.com>
+ */
+public class BloomFilter {
+
+    private final AtomicLongArray words;
+    private final long bitCount;
+    private final int hashes;
+    private final AtomicLong bitsSet = new AtomicLong();
+
+    public BloomFilter(long expectedKeys, double falsePositiveRate) {
+        Assert.isTrue(expectedKeys > 0, "Expected keys must be positive");
+        Assert.isTrue(falsePositiveRate > 0.0 && falsePositiveRate < 1.0, "False positive rate must be between 0 and 1");
+
+        long bits = (long) Math.ceil(-expectedKeys * Math.log(falsePositiveRate) / (Math.log(2) * Math.log(2)));
+        long wordCount = (bits + Long.SIZE - 1) / Long.SIZE;
+        Assert.isTrue(wordCount <= Integer.MAX_VALUE, "Bloom filter too large");
+
+        words = new AtomicLongArray((int) wordCount);
+        bitCount = wordCount * Long.SIZE;
+        hashes = Math.max(1, (int) Math.round((double) bitCount / expectedKeys * Math.log(2)));
+    }
+
+    public void add(String key) {
+        final ByteBuffer hash = hash(key);
+        long combined = hash.getLong(0);
+        final long step = hash.getLong(8);
+
+        for (int i = 0; i < hashes; i++) {
+            set((combined & Long.MAX_VALUE) % bitCount);
+            combined += step;
+        }
+    }
+
+    /**
+     * @return false if the key was definitely never added
+     */
+    public boolean mightContain(String key) {
+        final ByteBuffer hash = hash(key);
+        long combined = hash.getLong(0);
+        final long step = hash.getLong(8);
+
+        for (int i = 0; i < hashes; i++) {
+            if (!get((combined & Long.MAX_VALUE) % bitCount)) {
+                return false;
+            }
+            combined += step;
+        }
+
+        return true;
+    }
+
+    /**
+     * @return probability that mightContain returns true for a key which was never added, given the current fill
+     */
+    public double expectedFalsePositiveRate() {
+        return Math.pow((double) bitsSet.get() / bitCount, hashes);
+    }
+
+    /**
+     * @return number of distinct keys added, estimated from the fill
+     */
+    public long approximateKeys() {
+        double fill = (double) bitsSet.get() / bitCount;
+        return fill >= 1.0 ? Long.MAX_VALUE : Math.round(-Math.log1p(-fill) * bitCount / hashes);
+    }
+
+    public long getMemoryBytes() {
+        return (long) words.length() * Long.BYTES;
+    }
+
+    private void set(long bit) {
+        final int index = (int) (bit >>> 6);
+        final long mask = 1L << bit;
+
+        long word;
+        do {
+            word = words.get(index);
+            if ((word & mask) != 0) {
+                return;
+            }
+        } while (!words.compareAndSet(index, word, word | mask));
+
+        bitsSet.incrementAndGet();
+    }
+
+    private boolean get(long bit) {
+        return (words.get((int) (bit >>> 6)) & (1L << bit)) != 0;
+    }
+
+    private static ByteBuffer hash(String key) {
+        return ByteBuffer.wrap(Hashing.murmur3_128().hashUnencodedChars(key).asBytes());
+    }
+
+}
@@ -0,0 +1,192 @@
+package com.zalora.aloha.persistence;
+
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.*;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.util.Assert;
+
+/**
+ * Stops calls to a dependency which keeps failing, and lets a few through again after a while
+ *
+ * - CLOSED: everything is allowed, outcomes are counted in fixed windows. Once a window has seen at least
+ *   minimumCalls and the share of failures reaches failureRate, the breaker opens
+ * - OPEN: nothing is allowed until openDuration has passed, then the breaker is half-open
+ * - HALF_OPEN: up to trialCalls calls are allowed. If all of them succeed the breaker closes,
+ *   the first failure opens it again
+ *
+ * Outcomes are recorded under a lock, which is fine as long as the guarded calls are database queries
+ *
+ * @author Wolfram Huesken <wolfram.huesken@zalora.com>
+ */
+@Slf4j
+public class CircuitBreaker {
+
+    public enum State {
+        CLOSED, OPEN, HALF_OPEN
+    }
+
+    private final String name;
+    private final double failureRate;
+    private final int minimumCalls;
+    private final long windowNanos;
+    private final long openNanos;
+    private final int trialCalls;
+
+    private volatile State state = State.CLOSED;
+    private volatile long openedAt;
+
+    // Guarded by this
+    private long windowStart = System.nanoTime();
+    private int calls;
+    private int failures;
+    private int successfulTrials;
+
+    private final AtomicInteger startedTrials = new AtomicInteger();
+    private final LongAdder opened = new LongAdder();
+
+    /**
+     * @param name         used for logging
+     * @param failureRate  share of failed calls in a window which opens the breaker, between 0 and 1
+     * @param minimumCalls calls a window needs before its failure rate counts
+     * @param window       length of a window
+     * @param openDuration how long the breaker stays open
+     * @param unit         unit of window and openDuration
+     * @param trialCalls   successful calls in a row which close a half-open breaker
+     */
+    public CircuitBreaker(String name, double failureRate, int minimumCalls, long window, long openDuration,
+                          TimeUnit unit, int trialCalls) {
+        Assert.isTrue(failureRate > 0.0 && failureRate <= 1.0, "Failure rate must be between 0 and 1");
+        Assert.isTrue(minimumCalls > 0 && trialCalls > 0, "Minimum and trial calls must be positive");
+        Assert.isTrue(window > 0 && openDuration > 0, "Window and open duration must be positive");
+
+        this.name = name;
+        this.failureRate = failureRate;
+        this.minimumCalls = minimumCalls;
+        this.windowNanos = unit.toNanos(window);
+        this.openNanos = unit.toNanos(openDuration);
+        this.trialCalls = trialCalls;
+    }
+
+    /**
+     * @return whether a call may go ahead, it then has to report back via success, failure or cancel
+     */
+    public boolean allow() {
+        if (state == State.CLOSED) {
+            return true;
+        }
+
+        if (state == State.OPEN) {
+            if (System.nanoTime() - openedAt < openNanos) {
+                return false;
+            }
+
+            halfOpen();
+        }
+
+        // Either half-open, or another thread already decided how the trials went
+        switch (state) {
+            case CLOSED:
+                return true;
+            case OPEN:
+                return false;
+            default:
+                return startedTrials.incrementAndGet() <= trialCalls;
+        }
+    }
+
+    /**
+     * Hands back an allowed call which didn't happen after all, so it doesn't use up a trial
+     */
+    public void cancel() {
+        if (state == State.HALF_OPEN) {
+            startedTrials.decrementAndGet();
+        }
+    }
+
+    public synchronized void success() {
+        switch (state) {
+            case CLOSED:
+                record(false);
+                break;
+            case HALF_OPEN:
+                if (++successfulTrials >= trialCalls) {
+                    close();
+                }
+                break;
+            default:
+                // Started before the breaker opened
+        }
+    }
+
+    public synchronized void failure() {
+        switch (state) {
+            case CLOSED:
+                record(true);
+                break;
+            case HALF_OPEN:
+                open("a trial call failed");
+                break;
+            default:
+                // Started before the breaker opened
+        }
+    }
+
+    public State getState() {
+        return state;
+    }
+
+    /**
+     * @return how often the breaker opened
+     */
+    public long getOpened() {
+        return opened.sum();
+    }
+
+    private void record(boolean failed) {
+        final long now = System.nanoTime();
+        if (now - windowStart >= windowNanos) {
+            windowStart = now;
+            calls = 0;
+            failures = 0;
+        }
+
+        calls++;
+        if (failed) {
+            failures++;
+        }
+
+        if (calls >= minimumCalls && failures >= failureRate * calls) {
+            open(String.format("%d of %d calls failed", failures, calls));
+        }
+    }
+
+    private synchronized void halfOpen() {
+        if (state != State.OPEN || System.nanoTime() - openedAt < openNanos) {
+            return;
+        }
+
+        startedTrials.set(0);
+        successfulTrials = 0;
+        state = State.HALF_OPEN;
+
+        log.info("Circuit breaker {} is half-open, trying {} calls", name, trialCalls);
+    }
+
+    private void open(String reason) {
+        openedAt = System.nanoTime();
+        state = State.OPEN;
+        opened.increment();
+
+        log.warn("Circuit breaker {} opened for {}ms, {}", name, TimeUnit.NANOSECONDS.toMillis(openNanos), reason);
+    }
+
+    private void close() {
+        windowStart = System.nanoTime();
+        calls = 0;
+        failures = 0;
+        state = State.CLOSED;
+
+        log.info("Circuit breaker {} closed", name);
+    }
+
+}
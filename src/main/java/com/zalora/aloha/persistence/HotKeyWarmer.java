@@ -0,0 +1,144 @@
+package com.zalora.aloha.persistence;
+
+import com.zalora.aloha.compressor.Compressor;
+import java.util.*;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.AtomicInteger;
+import lombok.Getter;
+import lombok.extern.slf4j.Slf4j;
+import org.infinispan.AdvancedCache;
+import org.infinispan.distribution.DistributionManager;
+import org.springframework.util.Assert;
+
+/**
+ * Loads a list of keys from the MemcachedItem table before the node serves traffic, instead of the whole table
+ *
+ * Keys are loaded in batches of one query each on a few threads and written straight into the data container
+ * (see PreloadInserter). In distributed mode, keys this node doesn't own are left out.
+ *
+ * @author Wolfram Huesken <wolfram.huesken@zalora.com>
+ */
+@Slf4j
+public class HotKeyWarmer {
+
+    private final AdvancedCache<Object, Object> cache;
+    private final MemcachedItemStore store;
+    private final int threads;
+    private final int batchSize;
+
+    @Getter
+    private final PreloadProgress progress = new PreloadProgress();
+
+    private final PreloadInserter inserter;
+
+    /**
+     * @param compressor applied to each item before it's stored, may be null
+     * @param threads    0 uses one thread per core
+     */
+    public HotKeyWarmer(AdvancedCache<Object, Object> cache, MemcachedItemStore store, Compressor compressor,
+                        int threads, int batchSize) {
+        Assert.notNull(cache, "Cache must not be null");
+        Assert.notNull(store, "Store must not be null");
+        Assert.isTrue(threads >= 0, "Warm-up threads must not be negative");
+        Assert.isTrue(batchSize > 0, "Batch size must be positive");
+
+        this.cache = cache;
+        this.store = store;
+        this.threads = threads > 0 ? threads : Runtime.getRuntime().availableProcessors();
+        this.batchSize = batchSize;
+
+        // Runs before the node serves traffic, no client writes to keep track of
+        inserter = new PreloadInserter(cache, compressor, progress, null);
+    }
+
+    /**
+     * Blocks until all keys are loaded or the timeout is reached, the batches still running are abandoned then
+     *
+     * @return whether all batches were loaded
+     */
+    public boolean warm(List<String> keys, long timeoutMillis) {
+        final List<String> owned = ownedKeys(keys);
+        final List<List<String>> batches = batches(owned);
+
+        progress.start(keys.size(), batches.size());
+        progress.rows(0, keys.size() - owned.size());
+
+        final AtomicInteger threadCount = new AtomicInteger();
+        final int poolSize = Math.min(threads, Math.max(batches.size(), 1));
+        final ExecutorService executor = Executors.newFixedThreadPool(poolSize, runnable -> {
+            Thread thread = new Thread(runnable, String.format("warmup-%s-%d", cache.getName(), threadCount.incrementAndGet()));
+            thread.setDaemon(true);
+            return thread;
+        });
+
+        log.info("Warming up {} of {} hot keys of {} in {} batches on {} threads",
+            owned.size(), keys.size(), cache.getName(), batches.size(), poolSize);
+
+        boolean failed = false;
+
+        try {
+            List<Future<?>> loads = new ArrayList<>(batches.size());
+            for (List<String> batch : batches) {
+                loads.add(executor.submit(() -> {
+                    inserter.insert(store.loadKeys(new HashSet<>(batch)).values(), batch.size());
+                    progress.rangeFinished();
+                }));
+            }
+
+            final long deadline = System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(timeoutMillis);
+            for (Future<?> load : loads) {
+                try {
+                    load.get(Math.max(deadline - System.nanoTime(), 0), TimeUnit.NANOSECONDS);
+                } catch (ExecutionException ex) {
+                    failed = true;
+                    log.error("Warming up a batch of {} failed", cache.getName(), ex.getCause());
+                } catch (TimeoutException ex) {
+                    failed = true;
+                    log.warn("Warm-up of {} timed out after {}ms, serving without the remaining keys",
+                        cache.getName(), timeoutMillis);
+                    break;
+                }
+            }
+        } catch (InterruptedException ex) {
+            Thread.currentThread().interrupt();
+            failed = true;
+        } finally {
+            executor.shutdownNow();
+        }
+
+        progress.finish(failed);
+
+        log.info("Warmed up {} keys of {} in {}ms, {} skipped{}",
+            progress.getRows(), cache.getName(), progress.getElapsedMillis(), progress.getSkippedRows(),
+            failed ? ", incomplete" : ""
+        );
+
+        return !failed;
+    }
+
+    private List<String> ownedKeys(List<String> keys) {
+        final DistributionManager distributionManager = cache.getDistributionManager();
+        if (distributionManager == null || !cache.getCacheConfiguration().clustering().cacheMode().isDistributed()) {
+            return keys;
+        }
+
+        List<String> owned = new ArrayList<>(keys.size());
+        for (String key : keys) {
+            if (distributionManager.getLocality(key).isLocal()) {
+                owned.add(key);
+            }
+        }
+
+        return owned;
+    }
+
+    private List<List<String>> batches(List<String> keys) {
+        List<List<String>> batches = new ArrayList<>(keys.size() / batchSize + 1);
+        for (int i = 0; i < keys.size(); i += batchSize) {
+            batches.add(keys.subList(i, Math.min(i + batchSize, keys.size())));
+        }
+
+        return batches;
+    }
+
+}
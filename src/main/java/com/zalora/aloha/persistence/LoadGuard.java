@@ -0,0 +1,145 @@
+package com.zalora.aloha.persistence;
+
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.LongAdder;
+import lombok.Getter;
+import org.springframework.util.Assert;
+
+/**
+ * Keeps a slow or failing database from tying up the threads which load from it
+ *
+ * - Bulkhead: at most maxConcurrent loads run at the same time, further ones are rejected right away
+ * - Timeout: a load gives up after timeout milliseconds
+ * - Circuit breaker: failed and timed out loads are counted, while the breaker is open loads are short-circuited
+ *
+ * Rejected, timed out and short-circuited loads return null, so the caller sees a miss and the cache tier keeps
+ * answering, with a lower hit rate. Errors of loads which did run are counted and passed on.
+ *
+ * @author Wolfram Huesken <wolfram.huesken@zalora.com>
+ */
+public class LoadGuard<K, V> {
+
+    /**
+     * A load which gives up after the given number of milliseconds, 0 waits as long as it takes
+     */
+    @FunctionalInterface
+    public interface TimedLoad<K, V> {
+        V load(K key, long timeoutMillis) throws TimeoutException;
+    }
+
+    /**
+     * Null if the number of concurrent loads isn't limited
+     */
+    private final Semaphore permits;
+
+    @Getter
+    private final int maxConcurrent;
+
+    @Getter
+    private final long timeoutMillis;
+
+    /**
+     * Null if the circuit breaker is disabled
+     */
+    @Getter
+    private final CircuitBreaker circuitBreaker;
+
+    private final LongAdder loads = new LongAdder();
+    private final LongAdder rejected = new LongAdder();
+    private final LongAdder timeouts = new LongAdder();
+    private final LongAdder failures = new LongAdder();
+    private final LongAdder shortCircuited = new LongAdder();
+
+    /**
+     * @param maxConcurrent  maximum concurrent loads, 0 is unlimited
+     * @param timeoutMillis  how long a load may take, 0 is unlimited
+     * @param circuitBreaker null disables it
+     */
+    public LoadGuard(int maxConcurrent, long timeoutMillis, CircuitBreaker circuitBreaker) {
+        Assert.isTrue(maxConcurrent >= 0, "Maximum concurrent loads must not be negative");
+        Assert.isTrue(timeoutMillis >= 0, "Load timeout must not be negative");
+
+        this.permits = maxConcurrent > 0 ? new Semaphore(maxConcurrent) : null;
+        this.maxConcurrent = maxConcurrent;
+        this.timeoutMillis = timeoutMillis;
+        this.circuitBreaker = circuitBreaker;
+    }
+
+    /**
+     * @return the loaded value, or null if the key doesn't exist or the load didn't run or finish in time
+     */
+    public V load(K key, TimedLoad<K, V> load) {
+        loads.increment();
+
+        if (circuitBreaker != null && !circuitBreaker.allow()) {
+            shortCircuited.increment();
+            return null;
+        }
+
+        if (permits != null && !permits.tryAcquire()) {
+            rejected.increment();
+            if (circuitBreaker != null) {
+                circuitBreaker.cancel();
+            }
+            return null;
+        }
+
+        try {
+            V value = load.load(key, timeoutMillis);
+            if (circuitBreaker != null) {
+                circuitBreaker.success();
+            }
+            return value;
+        } catch (TimeoutException ex) {
+            timeouts.increment();
+            if (circuitBreaker != null) {
+                circuitBreaker.failure();
+            }
+            return null;
+        } catch (RuntimeException ex) {
+            failures.increment();
+            if (circuitBreaker != null) {
+                circuitBreaker.failure();
+            }
+            throw ex;
+        } finally {
+            if (permits != null) {
+                permits.release();
+            }
+        }
+    }
+
+    public long getLoads() {
+        return loads.sum();
+    }
+
+    /**
+     * @return loads turned into a miss because maxConcurrent loads were already running
+     */
+    public long getRejected() {
+        return rejected.sum();
+    }
+
+    /**
+     * @return loads turned into a miss because they took longer than the timeout
+     */
+    public long getTimeouts() {
+        return timeouts.sum();
+    }
+
+    public long getFailures() {
+        return failures.sum();
+    }
+
+    /**
+     * @return loads turned into a miss because the circuit breaker was open
+     */
+    public long getShortCircuited() {
+        return shortCircuited.sum();
+    }
+
+    public int getActive() {
+        return permits == null ? 0 : maxConcurrent - permits.availablePermits();
+    }
+
+}
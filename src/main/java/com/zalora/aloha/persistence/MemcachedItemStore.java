@@ -0,0 +1,774 @@
+package com.zalora.aloha.persistence;
+
+import com.zalora.aloha.compressor.*;
+import com.zalora.aloha.latency.SlidingHistogram;
+import com.zalora.aloha.memcached.MemcachedItem;
+import com.zaxxer.hikari.*;
+import java.sql.*;
+import java.util.*;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.*;
+import lombok.*;
+import lombok.extern.slf4j.Slf4j;
+import org.infinispan.commons.configuration.ConfiguredBy;
+import org.infinispan.commons.marshall.WrappedByteArray;
+import org.infinispan.filter.KeyFilter;
+import org.infinispan.marshall.core.*;
+import org.infinispan.metadata.*;
+import org.infinispan.metadata.impl.InternalMetadataImpl;
+import org.infinispan.persistence.TaskContextImpl;
+import org.infinispan.persistence.spi.*;
+import org.infinispan.persistence.spi.PersistenceException;
+import org.infinispan.util.TimeService;
+import org.springframework.util.Assert;
+
+/**
+ * Store for the MemcachedItem table, read-only unless write-behind is enabled
+ * Plain prepared statements on its own connection pool: no entity manager, no persistence context and no separate
+ * metadata table, the lifespan comes straight from the expire column. Full table reads stream the result set
+ * with a forward-only cursor instead of paging through it.
+ *
+ * With batching enabled, misses are coalesced and loaded in batches (see BatchingLoader), so a popular key expiring
+ * or a burst of misses after a deploy doesn't turn into a query per request
+ *
+ * With negative lookup enabled, keys which are definitely not in the table are answered without a query,
+ * see NegativeLookupFilter.
+ *
+ * Loads are limited in number and duration, and short-circuited by a circuit breaker while the database keeps
+ * failing, see LoadGuard. A load which doesn't run or doesn't finish in time is a miss.
+ *
+ * With write-behind enabled, writes and deletes are queued and written in batched upserts in the background,
+ * see WriteBehindQueue. Values compressed in the cache are written decompressed, like the rest of the table.
+ *
+ * The expire column follows memcached semantics: 0 never expires, values up to 30 days are relative,
+ * everything else is a unix timestamp. Rows which are already expired count as a miss.
+ *
+ * @author Wolfram Huesken <wolfram.huesken@zalora.com>
+ */
+@Slf4j
+@ConfiguredBy(MemcachedItemStoreConfiguration.class)
+public class MemcachedItemStore implements AdvancedCacheLoader<String, MemcachedItem>, CacheWriter<String, MemcachedItem> {
+
+    /**
+     * memcached treats expiration times up to 30 days as relative
+     */
+    public static final long MAX_RELATIVE_EXPIRE = TimeUnit.DAYS.toSeconds(30);
+
+    /**
+     * How long stopping waits for queued writes to reach the database
+     */
+    private static final long WRITE_BEHIND_STOP_TIMEOUT = 30;
+
+    /**
+     * Columns of the MemcachedItem entity, %s is the table
+     */
+    private static final String SELECT = "SELECT id_cache, data, flags, expire FROM %s";
+    private static final String SELECT_KEY = SELECT + " WHERE id_cache = ?";
+    private static final String SELECT_KEYS = "SELECT id_cache FROM %s";
+    private static final String SELECT_KEY_AT = "SELECT id_cache FROM %s ORDER BY id_cache LIMIT 1 OFFSET ?";
+    private static final String COUNT = "SELECT COUNT(*) FROM %s";
+    private static final String MYSQL_UPSERT = "INSERT INTO %s (id_cache, data, flags, expire) VALUES (?, ?, ?, ?) "
+        + "ON DUPLICATE KEY UPDATE data = VALUES(data), flags = VALUES(flags), expire = VALUES(expire)";
+    private static final String POSTGRESQL_UPSERT = "INSERT INTO %s (id_cache, data, flags, expire) VALUES (?, ?, ?, ?) "
+        + "ON CONFLICT (id_cache) DO UPDATE SET data = EXCLUDED.data, flags = EXCLUDED.flags, expire = EXCLUDED.expire";
+    private static final String H2_UPSERT = "MERGE INTO %s (id_cache, data, flags, expire) KEY (id_cache) VALUES (?, ?, ?, ?)";
+    private static final String DELETE = "DELETE FROM %s WHERE id_cache = ?";
+
+    private MemcachedItemStoreConfiguration configuration;
+    private MarshalledEntryFactory<String, MemcachedItem> marshalledEntryFactory;
+    private TimeService timeService;
+
+    private HikariDataSource dataSource;
+
+    /**
+     * Null if batching is disabled
+     */
+    @Getter
+    private BatchingLoader<String, MemcachedItem> batchingLoader;
+
+    /**
+     * Null if negative lookup is disabled
+     */
+    @Getter
+    private NegativeLookupFilter negativeLookupFilter;
+
+    private ScheduledExecutorService filterScheduler;
+
+    @Getter
+    private LoadGuard<String, MemcachedItem> loadGuard;
+
+    /**
+     * Duration of single key loads including coalescing and the batch window
+     */
+    @Getter
+    private final SlidingHistogram loadLatency = new SlidingHistogram();
+
+    /**
+     * Null if write-behind is disabled
+     */
+    @Getter
+    private WriteBehindQueue<String, MemcachedItem> writeBehindQueue;
+
+    /**
+     * Writes with keys or values which don't fit the table
+     */
+    private final LongAdder skippedWrites = new LongAdder();
+
+    /**
+     * Decompresses values before they are written, null if the cache doesn't compress
+     */
+    @Setter
+    private volatile Compressor compressor;
+
+    private volatile String databaseProduct;
+
+    @Override
+    @SuppressWarnings("unchecked")
+    public void init(InitializationContext ctx) {
+        configuration = ctx.getConfiguration();
+        marshalledEntryFactory = ctx.getMarshalledEntryFactory();
+        timeService = ctx.getTimeService();
+    }
+
+    @Override
+    public void start() {
+        HikariConfig hikariConfig = new HikariConfig();
+        hikariConfig.setPoolName("readthrough");
+        hikariConfig.setJdbcUrl(configuration.connectionUrl());
+        hikariConfig.setUsername(configuration.username());
+        hikariConfig.setPassword(configuration.password());
+        hikariConfig.setMaximumPoolSize(configuration.maxPoolSize());
+        hikariConfig.setConnectionTimeout(configuration.connectionTimeout());
+
+        dataSource = new HikariDataSource(hikariConfig);
+
+        if (configuration.batching()) {
+            batchingLoader = new BatchingLoader<>(
+                "readthrough", this::loadAll, configuration.batchSize(),
+                configuration.batchWindow(), TimeUnit.MILLISECONDS, configuration.loaderThreads()
+            );
+
+            log.info(
+                "Read-through batches up to {} keys within {}ms on {} threads",
+                configuration.batchSize(), configuration.batchWindow(), configuration.loaderThreads()
+            );
+        }
+
+        startLoadGuard();
+
+        if (configuration.negativeLookup()) {
+            startNegativeLookup();
+        }
+
+        if (configuration.writeBehind()) {
+            writeBehindQueue = new WriteBehindQueue<>(
+                "readthrough", this::writeBatch, configuration.writeBatchSize(), configuration.flushInterval(),
+                configuration.maxPendingWrites(), configuration.offerTimeout(), TimeUnit.MILLISECONDS
+            );
+
+            log.info(
+                "Write-behind in batches of up to {} keys every {}ms, at most {} keys queued",
+                configuration.writeBatchSize(), configuration.flushInterval(), configuration.maxPendingWrites()
+            );
+        }
+    }
+
+    private void startLoadGuard() {
+        CircuitBreaker circuitBreaker = null;
+        if (configuration.circuitBreaker()) {
+            circuitBreaker = new CircuitBreaker(
+                "readthrough-" + configuration.table(), configuration.breakerFailureRate(),
+                configuration.breakerMinimumLoads(), configuration.breakerWindow(),
+                configuration.breakerOpenDuration(), TimeUnit.MILLISECONDS, configuration.breakerTrialLoads()
+            );
+        }
+
+        loadGuard = new LoadGuard<>(configuration.maxConcurrentLoads(), configuration.loadTimeout(), circuitBreaker);
+
+        log.info(
+            "Read-through runs up to {} concurrent loads with a timeout of {}ms, circuit breaker: {}",
+            configuration.maxConcurrentLoads(), configuration.loadTimeout(), configuration.circuitBreaker()
+        );
+    }
+
+    /**
+     * The first scan runs in the background, so the cache doesn't wait for it
+     */
+    private void startNegativeLookup() {
+        negativeLookupFilter = new NegativeLookupFilter(
+            configuration.expectedKeys(), configuration.falsePositiveRate(),
+            configuration.negativeTtl(), configuration.negativeCacheSize(),
+            configuration.filterBypassThreshold(), TimeUnit.SECONDS.toMillis(configuration.filterRebuildInterval())
+        );
+
+        filterScheduler = Executors.newSingleThreadScheduledExecutor(runnable -> {
+            Thread thread = new Thread(runnable, "readthrough-filter");
+            thread.setDaemon(true);
+            return thread;
+        });
+
+        if (configuration.filterRebuildInterval() > 0) {
+            filterScheduler.scheduleWithFixedDelay(
+                this::rebuildFilter, 0, configuration.filterRebuildInterval(), TimeUnit.SECONDS
+            );
+        } else {
+            filterScheduler.execute(this::rebuildFilter);
+        }
+
+        log.info(
+            "Negative lookup for at least {} keys, false positive rate {}, misses remembered for {}ms, "
+                + "keys rejected more than {} times queried anyway",
+            configuration.expectedKeys(), configuration.falsePositiveRate(), configuration.negativeTtl(),
+            configuration.filterBypassThreshold()
+        );
+    }
+
+    private void rebuildFilter() {
+        try {
+            negativeLookupFilter.rebuild(size(), sink -> processKeys(configuration.pageSize(), sink));
+        } catch (RuntimeException ex) {
+            log.error("Rebuilding the negative lookup filter failed", ex);
+        }
+    }
+
+    @Override
+    public void stop() {
+        if (writeBehindQueue != null) {
+            writeBehindQueue.stop(WRITE_BEHIND_STOP_TIMEOUT, TimeUnit.SECONDS);
+        }
+
+        if (filterScheduler != null) {
+            filterScheduler.shutdownNow();
+        }
+
+        if (batchingLoader != null) {
+            batchingLoader.stop();
+        }
+
+        if (dataSource != null) {
+            dataSource.close();
+        }
+    }
+
+    @Override
+    public MarshalledEntry<String, MemcachedItem> load(Object key) {
+        if (!(key instanceof String)) {
+            return null;
+        }
+
+        final long start = System.nanoTime();
+        try {
+            return load((String) key);
+        } finally {
+            loadLatency.recordNanos(System.nanoTime() - start);
+        }
+    }
+
+    private MarshalledEntry<String, MemcachedItem> load(String key) {
+        // Coalesced loads share the loaded item, but the read-through compressor modifies it in place
+        MemcachedItem item = writeBehindQueue == null ? loadItem(key) : writeBehindQueue.load(key, this::loadItem);
+        if (item == null) {
+            return null;
+        }
+
+        return toEntry(new MemcachedItem(item.getKey(), item.getData(), item.getFlags(), item.getExpire()), true, true);
+    }
+
+    private MemcachedItem loadItem(String key) {
+        if (negativeLookupFilter != null && !negativeLookupFilter.mightExist(key)) {
+            return null;
+        }
+
+        return loadGuard.load(key, this::queryItem);
+    }
+
+    /**
+     * Only a miss the database answered goes into the negative lookup, not one the load guard made up
+     * A hit tells the negative lookup about rows it only found by bypassing the filter
+     */
+    private MemcachedItem queryItem(String key, long timeoutMillis) throws TimeoutException {
+        MemcachedItem item = batchingLoader == null
+            ? loadOne(key, timeoutMillis)
+            : batchingLoader.load(key, timeoutMillis, TimeUnit.MILLISECONDS);
+
+        if (negativeLookupFilter != null) {
+            if (item == null) {
+                negativeLookupFilter.missed(key);
+            } else {
+                negativeLookupFilter.found(key);
+            }
+        }
+
+        return item;
+    }
+
+    @Override
+    public boolean contains(Object key) {
+        return load(key) != null;
+    }
+
+    /**
+     * Only called with write-behind enabled, otherwise the store ignores modifications
+     * HotRod clients write byte arrays, they become rows with the PHP string flag. The expire column is taken
+     * from the entry's expiry time then. Values which can't be a row are skipped and counted.
+     */
+    @Override
+    public void write(MarshalledEntry<? extends String, ? extends MemcachedItem> entry) {
+        if (writeBehindQueue == null) {
+            return;
+        }
+
+        // The generic types only hold for memcached writes, HotRod writes bring their own
+        final MarshalledEntry<?, ?> untyped = entry;
+        final Object key = untyped.getKey();
+        final Object value = untyped.getValue();
+        if (value == null) {
+            return;
+        }
+
+        final MemcachedItem item = key instanceof String ? toItem((String) key, value, entry.getMetadata()) : null;
+        if (item == null) {
+            skippedWrites.increment();
+            return;
+        }
+
+        writeBehindQueue.write(item.getKey(), item);
+    }
+
+    /**
+     * @return a copy of the item as the cached one may be changed in place later on, a new item for byte values,
+     * null for everything else
+     */
+    private static MemcachedItem toItem(String key, Object value, InternalMetadata metadata) {
+        if (value instanceof MemcachedItem) {
+            MemcachedItem item = (MemcachedItem) value;
+            return new MemcachedItem(key, item.getData(), item.getFlags(), item.getExpire());
+        }
+
+        final long expire = metadata == null || metadata.expiryTime() < 0
+            ? 0 : TimeUnit.MILLISECONDS.toSeconds(metadata.expiryTime());
+
+        if (value instanceof CompressedBytes) {
+            // Decompressed like any other compressed item before it's written
+            CompressedBytes bytes = (CompressedBytes) value;
+            return new MemcachedItem(key, bytes.getData(), bytes.getFlags(), expire);
+        }
+
+        if (value instanceof WrappedByteArray) {
+            return new MemcachedItem(key, ((WrappedByteArray) value).getBytes(), 0, expire);
+        }
+
+        if (value instanceof byte[]) {
+            return new MemcachedItem(key, (byte[]) value, 0, expire);
+        }
+
+        return null;
+    }
+
+    public long getSkippedWrites() {
+        return skippedWrites.sum();
+    }
+
+    /**
+     * @return always true, whether the row exists is only known once the delete is written
+     */
+    @Override
+    public boolean delete(Object key) {
+        if (writeBehindQueue == null || !(key instanceof String)) {
+            return false;
+        }
+
+        writeBehindQueue.delete((String) key);
+        return true;
+    }
+
+    /**
+     * Streams the whole table in one query
+     */
+    @Override
+    public void process(KeyFilter<? super String> filter, CacheLoaderTask<String, MemcachedItem> task,
+                        Executor executor, boolean fetchValue, boolean fetchMetadata) {
+        final TaskContext taskContext = new TaskContextImpl();
+
+        processRange(null, null, configuration.pageSize(), page -> {
+            for (MemcachedItem item : page) {
+                if (filter != null && !filter.accept(item.getKey())) {
+                    continue;
+                }
+
+                MarshalledEntry<String, MemcachedItem> entry = toEntry(item, fetchValue, fetchMetadata);
+                if (entry == null) {
+                    continue;
+                }
+
+                try {
+                    task.processEntry(entry, taskContext);
+                } catch (InterruptedException ex) {
+                    Thread.currentThread().interrupt();
+                    throw new PersistenceException(ex);
+                }
+
+                if (taskContext.isStopped()) {
+                    return false;
+                }
+            }
+
+            return true;
+        });
+    }
+
+    /**
+     * Splits the key space into ranges of roughly the same number of rows
+     * Each boundary costs an index scan up to its offset, which is a lot cheaper than reading the rows
+     *
+     * @return the sorted, distinct upper bounds of all but the last range, empty for a single range
+     */
+    public List<String> splitKeys(int ranges) {
+        Assert.isTrue(ranges > 0, "Number of ranges must be positive");
+
+        final long rows = size();
+        final SortedSet<String> boundaries = new TreeSet<>();
+        if (ranges == 1 || rows < ranges) {
+            return new ArrayList<>(boundaries);
+        }
+
+        try (Connection connection = dataSource.getConnection();
+             PreparedStatement statement = connection.prepareStatement(sql(SELECT_KEY_AT))) {
+            for (int i = 1; i < ranges; i++) {
+                statement.setLong(1, rows * i / ranges - 1);
+
+                try (ResultSet resultSet = statement.executeQuery()) {
+                    if (resultSet.next()) {
+                        boundaries.add(resultSet.getString(1));
+                    }
+                }
+            }
+
+            return new ArrayList<>(boundaries);
+        } catch (SQLException ex) {
+            throw new PersistenceException(ex);
+        }
+    }
+
+    /**
+     * Streams all rows with lowerKey < key <= upperKey in one query and hands them out in pages
+     *
+     * @param lowerKey exclusive lower bound, null for the start of the table
+     * @param upperKey inclusive upper bound, null for the end of the table
+     * @param consumer gets each page, returns false to stop
+     */
+    public void processRange(String lowerKey, String upperKey, int pageSize, Predicate<List<MemcachedItem>> consumer) {
+        StringBuilder sql = new StringBuilder(sql(SELECT)).append(" WHERE 1 = 1");
+        if (lowerKey != null) {
+            sql.append(" AND id_cache > ?");
+        }
+        if (upperKey != null) {
+            sql.append(" AND id_cache <= ?");
+        }
+
+        final List<MemcachedItem> page = new ArrayList<>(pageSize);
+        final boolean completed = stream(sql.toString(), pageSize, statement -> {
+            int index = 1;
+            if (lowerKey != null) {
+                statement.setString(index++, lowerKey);
+            }
+            if (upperKey != null) {
+                statement.setString(index, upperKey);
+            }
+        }, resultSet -> {
+            page.add(readItem(resultSet));
+            if (page.size() < pageSize) {
+                return true;
+            }
+
+            final boolean proceed = consumer.test(new ArrayList<>(page));
+            page.clear();
+            return proceed;
+        });
+
+        if (completed && !page.isEmpty()) {
+            consumer.test(page);
+        }
+    }
+
+    /**
+     * Streams all keys in one query, without reading the data
+     */
+    public void processKeys(int fetchSize, Consumer<String> consumer) {
+        stream(sql(SELECT_KEYS), fetchSize, statement -> {}, resultSet -> {
+            consumer.accept(resultSet.getString(1));
+            return true;
+        });
+    }
+
+    /**
+     * Loads the given keys in one query, bypassing batching and the key filter
+     *
+     * @return the rows found by key, expired ones included
+     */
+    public Map<String, MemcachedItem> loadKeys(Set<String> keys) {
+        return keys.isEmpty() ? Collections.emptyMap() : loadAll(keys);
+    }
+
+    @Override
+    public int size() {
+        try (Connection connection = dataSource.getConnection();
+             PreparedStatement statement = connection.prepareStatement(sql(COUNT));
+             ResultSet resultSet = statement.executeQuery()) {
+            resultSet.next();
+
+            final long count = resultSet.getLong(1);
+            return count > Integer.MAX_VALUE ? Integer.MAX_VALUE : (int) count;
+        } catch (SQLException ex) {
+            throw new PersistenceException(ex);
+        }
+    }
+
+    /**
+     * Upserts and deletes a batch in one transaction with JDBC batches
+     */
+    private void writeBatch(Map<String, MemcachedItem> upserts, Set<String> deletes) {
+        try (Connection connection = dataSource.getConnection()) {
+            connection.setAutoCommit(false);
+
+            try {
+                if (!upserts.isEmpty()) {
+                    try (PreparedStatement statement = connection.prepareStatement(upsertStatement(connection))) {
+                        for (MemcachedItem item : upserts.values()) {
+                            MemcachedItem decompressed = decompress(item);
+
+                            statement.setString(1, decompressed.getKey());
+                            statement.setBytes(2, decompressed.getData());
+                            statement.setLong(3, decompressed.getFlags());
+                            statement.setLong(4, decompressed.getExpire());
+                            statement.addBatch();
+                        }
+
+                        statement.executeBatch();
+                    }
+                }
+
+                if (!deletes.isEmpty()) {
+                    try (PreparedStatement statement = connection.prepareStatement(sql(DELETE))) {
+                        for (String key : deletes) {
+                            statement.setString(1, key);
+                            statement.addBatch();
+                        }
+
+                        statement.executeBatch();
+                    }
+                }
+
+                connection.commit();
+            } catch (SQLException | RuntimeException ex) {
+                connection.rollback();
+                throw ex;
+            }
+        } catch (SQLException ex) {
+            throw new PersistenceException(ex);
+        }
+    }
+
+    /**
+     * Works on a copy, queued items are still served to reads
+     */
+    private MemcachedItem decompress(MemcachedItem item) {
+        final Compressor current = compressor;
+        if (current == null) {
+            return item;
+        }
+
+        MemcachedItem copy = new MemcachedItem(item.getKey(), item.getData(), item.getFlags(), item.getExpire());
+        current.afterGet(copy);
+        return copy;
+    }
+
+    /**
+     * Upserts aren't standard SQL, the statement depends on the database behind the connection URL
+     */
+    private String upsertStatement(Connection connection) throws SQLException {
+        final String database = databaseProduct(connection);
+        switch (database) {
+            case "MySQL":
+            case "MariaDB":
+                return sql(MYSQL_UPSERT);
+            case "PostgreSQL":
+                return sql(POSTGRESQL_UPSERT);
+            case "H2":
+                return sql(H2_UPSERT);
+            default:
+                throw new SQLException("Write-behind doesn't support " + database);
+        }
+    }
+
+    private String databaseProduct(Connection connection) throws SQLException {
+        if (databaseProduct == null) {
+            databaseProduct = connection.getMetaData().getDatabaseProductName();
+        }
+
+        return databaseProduct;
+    }
+
+    /**
+     * JDBC query timeouts are whole seconds, so the timeout is rounded up.
+     * Waiting for a connection is limited by the pool's connection timeout instead.
+     */
+    private MemcachedItem loadOne(String key, long timeoutMillis) throws TimeoutException {
+        try (Connection connection = dataSource.getConnection();
+             PreparedStatement statement = connection.prepareStatement(sql(SELECT_KEY))) {
+            statement.setString(1, key);
+            if (timeoutMillis > 0) {
+                statement.setQueryTimeout((int) TimeUnit.MILLISECONDS.toSeconds(timeoutMillis + 999));
+            }
+
+            try (ResultSet resultSet = statement.executeQuery()) {
+                return resultSet.next() ? readItem(resultSet) : null;
+            }
+        } catch (SQLTimeoutException ex) {
+            throw new TimeoutException(String.format("Loading %s took longer than %dms", key, timeoutMillis));
+        } catch (SQLException ex) {
+            throw new PersistenceException(ex);
+        }
+    }
+
+    /**
+     * The IN list is padded to the next power of two with repeated keys,
+     * so a handful of statements cover every batch size and stay in the statement caches
+     */
+    private Map<String, MemcachedItem> loadAll(Set<String> keys) {
+        final List<String> keyList = new ArrayList<>(keys);
+
+        int placeholders = 1;
+        while (placeholders < keyList.size()) {
+            placeholders <<= 1;
+        }
+
+        final String sql = sql(SELECT) + " WHERE id_cache IN (" + String.join(", ", Collections.nCopies(placeholders, "?")) + ")";
+
+        try (Connection connection = dataSource.getConnection();
+             PreparedStatement statement = connection.prepareStatement(sql)) {
+            for (int i = 0; i < placeholders; i++) {
+                statement.setString(i + 1, keyList.get(Math.min(i, keyList.size() - 1)));
+            }
+
+            Map<String, MemcachedItem> result = new HashMap<>(keyList.size());
+            try (ResultSet resultSet = statement.executeQuery()) {
+                while (resultSet.next()) {
+                    MemcachedItem item = readItem(resultSet);
+                    result.put(item.getKey(), item);
+                }
+            }
+
+            return result;
+        } catch (SQLException ex) {
+            throw new PersistenceException(ex);
+        }
+    }
+
+    /**
+     * @return the statement for the configured table
+     */
+    private String sql(String template) {
+        return String.format(template, configuration.table());
+    }
+
+    /**
+     * Reads a row of one of the SELECT statements
+     */
+    private static MemcachedItem readItem(ResultSet resultSet) throws SQLException {
+        return new MemcachedItem(resultSet.getString(1), resultSet.getBytes(2), resultSet.getLong(3), resultSet.getLong(4));
+    }
+
+    /**
+     * Runs a query with a forward-only cursor, so rows are fetched while they're read instead of all at once
+     * MySQL only streams with a fetch size of Integer.MIN_VALUE, PostgreSQL only uses a cursor outside of auto-commit
+     *
+     * @param rowHandler gets each row, returns false to stop
+     * @return false if the row handler stopped early
+     */
+    private boolean stream(String sql, int fetchSize, StatementSetter setter, RowHandler rowHandler) {
+        try (Connection connection = dataSource.getConnection()) {
+            connection.setAutoCommit(false);
+            connection.setReadOnly(true);
+
+            final String database = databaseProduct(connection);
+            final boolean mysql = database.equals("MySQL") || database.equals("MariaDB");
+
+            try (PreparedStatement statement = connection.prepareStatement(
+                sql, ResultSet.TYPE_FORWARD_ONLY, ResultSet.CONCUR_READ_ONLY
+            )) {
+                statement.setFetchSize(mysql ? Integer.MIN_VALUE : fetchSize);
+                setter.set(statement);
+
+                try (ResultSet resultSet = statement.executeQuery()) {
+                    while (resultSet.next()) {
+                        if (!rowHandler.handle(resultSet)) {
+                            return false;
+                        }
+                    }
+                }
+
+                return true;
+            } finally {
+                connection.rollback();
+            }
+        } catch (SQLException ex) {
+            throw new PersistenceException(ex);
+        }
+    }
+
+    /**
+     * @return lifespan in ms according to the expire column, -1 if the item never expires, 0 if it's expired already
+     */
+    public static long lifespan(long expire, long now) {
+        if (expire <= 0) {
+            return -1;
+        }
+
+        long lifespan = expire <= MAX_RELATIVE_EXPIRE
+            ? TimeUnit.SECONDS.toMillis(expire)
+            : TimeUnit.SECONDS.toMillis(expire) - now;
+
+        return Math.max(lifespan, 0);
+    }
+
+    /**
+     * @return the entry with the lifespan taken from the expire column, null if the item is missing or expired
+     */
+    private MarshalledEntry<String, MemcachedItem> toEntry(MemcachedItem item, boolean fetchValue, boolean fetchMetadata) {
+        if (item == null) {
+            return null;
+        }
+
+        final long now = timeService.wallClockTime();
+        final long lifespan = lifespan(item.getExpire(), now);
+        InternalMetadata metadata = null;
+
+        if (lifespan == 0) {
+            return null;
+        }
+
+        if (lifespan > 0) {
+            if (fetchMetadata) {
+                Metadata lifespanMetadata = new EmbeddedMetadata.Builder()
+                    .lifespan(lifespan, TimeUnit.MILLISECONDS)
+                    .build();
+                metadata = new InternalMetadataImpl(lifespanMetadata, now, now);
+            }
+        }
+
+        return marshalledEntryFactory.newMarshalledEntry(item.getKey(), fetchValue ? item : null, metadata);
+    }
+
+    @FunctionalInterface
+    private interface StatementSetter {
+        void set(PreparedStatement statement) throws SQLException;
+    }
+
+    @FunctionalInterface
+    private interface RowHandler {
+        boolean handle(ResultSet resultSet) throws SQLException;
+    }
+
+}
@@ -0,0 +1,323 @@
+package com.zalora.aloha.persistence;
+
+import org.infinispan.commons.configuration.BuiltBy;
+import org.infinispan.commons.configuration.ConfigurationFor;
+import org.infinispan.commons.configuration.attributes.*;
+import org.infinispan.configuration.cache.*;
+
+/**
+ * @author Wolfram Huesken <wolfram.huesken@zalora.com>
+ */
+@BuiltBy(MemcachedItemStoreConfigurationBuilder.class)
+@ConfigurationFor(MemcachedItemStore.class)
+public class MemcachedItemStoreConfiguration extends AbstractStoreConfiguration {
+
+    static final AttributeDefinition<String> CONNECTION_URL = AttributeDefinition
+        .builder("connectionUrl", null, String.class).immutable().build();
+
+    static final AttributeDefinition<String> USERNAME = AttributeDefinition
+        .builder("username", null, String.class).immutable().build();
+
+    static final AttributeDefinition<String> PASSWORD = AttributeDefinition
+        .builder("password", null, String.class).immutable().build();
+
+    static final AttributeDefinition<String> TABLE = AttributeDefinition
+        .builder("table", "cache").immutable().build();
+
+    static final AttributeDefinition<Integer> MAX_POOL_SIZE = AttributeDefinition
+        .builder("maxPoolSize", 30).immutable().build();
+
+    static final AttributeDefinition<Long> CONNECTION_TIMEOUT = AttributeDefinition
+        .builder("connectionTimeout", 30000L).immutable().build();
+
+    static final AttributeDefinition<Boolean> BATCHING = AttributeDefinition
+        .builder("batching", true).immutable().build();
+
+    static final AttributeDefinition<Integer> BATCH_SIZE = AttributeDefinition
+        .builder("batchSize", 100).immutable().build();
+
+    static final AttributeDefinition<Long> BATCH_WINDOW = AttributeDefinition
+        .builder("batchWindow", 2L).immutable().build();
+
+    static final AttributeDefinition<Integer> LOADER_THREADS = AttributeDefinition
+        .builder("loaderThreads", 8).immutable().build();
+
+    static final AttributeDefinition<Integer> PAGE_SIZE = AttributeDefinition
+        .builder("pageSize", 5000).immutable().build();
+
+    static final AttributeDefinition<Boolean> NEGATIVE_LOOKUP = AttributeDefinition
+        .builder("negativeLookup", false).immutable().build();
+
+    static final AttributeDefinition<Long> EXPECTED_KEYS = AttributeDefinition
+        .builder("expectedKeys", 1000000L).immutable().build();
+
+    static final AttributeDefinition<Double> FALSE_POSITIVE_RATE = AttributeDefinition
+        .builder("falsePositiveRate", 0.01).immutable().build();
+
+    static final AttributeDefinition<Long> NEGATIVE_TTL = AttributeDefinition
+        .builder("negativeTtl", 5000L).immutable().build();
+
+    static final AttributeDefinition<Integer> NEGATIVE_CACHE_SIZE = AttributeDefinition
+        .builder("negativeCacheSize", 100000).immutable().build();
+
+    static final AttributeDefinition<Long> FILTER_REBUILD_INTERVAL = AttributeDefinition
+        .builder("filterRebuildInterval", 300L).immutable().build();
+
+    static final AttributeDefinition<Integer> FILTER_BYPASS_THRESHOLD = AttributeDefinition
+        .builder("filterBypassThreshold", 10).immutable().build();
+
+    static final AttributeDefinition<Boolean> WRITE_BEHIND = AttributeDefinition
+        .builder("writeBehind", false).immutable().build();
+
+    static final AttributeDefinition<Integer> WRITE_BATCH_SIZE = AttributeDefinition
+        .builder("writeBatchSize", 500).immutable().build();
+
+    static final AttributeDefinition<Long> FLUSH_INTERVAL = AttributeDefinition
+        .builder("flushInterval", 1000L).immutable().build();
+
+    static final AttributeDefinition<Integer> MAX_PENDING_WRITES = AttributeDefinition
+        .builder("maxPendingWrites", 100000).immutable().build();
+
+    static final AttributeDefinition<Long> OFFER_TIMEOUT = AttributeDefinition
+        .builder("offerTimeout", 1000L).immutable().build();
+
+    static final AttributeDefinition<Integer> MAX_CONCURRENT_LOADS = AttributeDefinition
+        .builder("maxConcurrentLoads", 64).immutable().build();
+
+    static final AttributeDefinition<Long> LOAD_TIMEOUT = AttributeDefinition
+        .builder("loadTimeout", 1000L).immutable().build();
+
+    static final AttributeDefinition<Boolean> CIRCUIT_BREAKER = AttributeDefinition
+        .builder("circuitBreaker", true).immutable().build();
+
+    static final AttributeDefinition<Double> BREAKER_FAILURE_RATE = AttributeDefinition
+        .builder("breakerFailureRate", 0.5).immutable().build();
+
+    static final AttributeDefinition<Integer> BREAKER_MINIMUM_LOADS = AttributeDefinition
+        .builder("breakerMinimumLoads", 20).immutable().build();
+
+    static final AttributeDefinition<Long> BREAKER_WINDOW = AttributeDefinition
+        .builder("breakerWindow", 10000L).immutable().build();
+
+    static final AttributeDefinition<Long> BREAKER_OPEN_DURATION = AttributeDefinition
+        .builder("breakerOpenDuration", 5000L).immutable().build();
+
+    static final AttributeDefinition<Integer> BREAKER_TRIAL_LOADS = AttributeDefinition
+        .builder("breakerTrialLoads", 5).immutable().build();
+
+    public static AttributeSet attributeDefinitionSet() {
+        return new AttributeSet(
+            MemcachedItemStoreConfiguration.class, AbstractStoreConfiguration.attributeDefinitionSet(),
+            CONNECTION_URL, USERNAME, PASSWORD, TABLE, MAX_POOL_SIZE, CONNECTION_TIMEOUT, BATCHING, BATCH_SIZE, BATCH_WINDOW, LOADER_THREADS, PAGE_SIZE,
+            NEGATIVE_LOOKUP, EXPECTED_KEYS, FALSE_POSITIVE_RATE, NEGATIVE_TTL, NEGATIVE_CACHE_SIZE, FILTER_REBUILD_INTERVAL,
+            FILTER_BYPASS_THRESHOLD,
+            WRITE_BEHIND, WRITE_BATCH_SIZE, FLUSH_INTERVAL, MAX_PENDING_WRITES, OFFER_TIMEOUT,
+            MAX_CONCURRENT_LOADS, LOAD_TIMEOUT, CIRCUIT_BREAKER, BREAKER_FAILURE_RATE, BREAKER_MINIMUM_LOADS,
+            BREAKER_WINDOW, BREAKER_OPEN_DURATION, BREAKER_TRIAL_LOADS
+        );
+    }
+
+    public MemcachedItemStoreConfiguration(AttributeSet attributes, AsyncStoreConfiguration async, SingletonStoreConfiguration singletonStore) {
+        super(attributes, async, singletonStore);
+    }
+
+    public String connectionUrl() {
+        return attributes.attribute(CONNECTION_URL).get();
+    }
+
+    public String username() {
+        return attributes.attribute(USERNAME).get();
+    }
+
+    public String password() {
+        return attributes.attribute(PASSWORD).get();
+    }
+
+    /**
+     * @return table holding the items, with the columns of the MemcachedItem entity
+     */
+    public String table() {
+        return attributes.attribute(TABLE).get();
+    }
+
+    /**
+     * @return maximum number of connections of the store's pool
+     */
+    public int maxPoolSize() {
+        return attributes.attribute(MAX_POOL_SIZE).get();
+    }
+
+    /**
+     * @return milliseconds a query waits for a connection from the pool
+     */
+    public long connectionTimeout() {
+        return attributes.attribute(CONNECTION_TIMEOUT).get();
+    }
+
+    /**
+     * @return whether concurrent misses are coalesced and loaded in batches, otherwise every miss is a query
+     */
+    public boolean batching() {
+        return attributes.attribute(BATCHING).get();
+    }
+
+    /**
+     * @return maximum number of keys loaded with one query
+     */
+    public int batchSize() {
+        return attributes.attribute(BATCH_SIZE).get();
+    }
+
+    /**
+     * @return milliseconds a miss waits for other misses to join its batch
+     */
+    public long batchWindow() {
+        return attributes.attribute(BATCH_WINDOW).get();
+    }
+
+    /**
+     * @return maximum number of batch queries running at the same time
+     */
+    public int loaderThreads() {
+        return attributes.attribute(LOADER_THREADS).get();
+    }
+
+    /**
+     * @return rows fetched per query while iterating the whole table
+     */
+    public int pageSize() {
+        return attributes.attribute(PAGE_SIZE).get();
+    }
+
+    /**
+     * @return whether misses are answered by a Bloom filter of all keys and a negative cache
+     */
+    public boolean negativeLookup() {
+        return attributes.attribute(NEGATIVE_LOOKUP).get();
+    }
+
+    /**
+     * @return minimum number of keys the Bloom filter is sized for
+     */
+    public long expectedKeys() {
+        return attributes.attribute(EXPECTED_KEYS).get();
+    }
+
+    public double falsePositiveRate() {
+        return attributes.attribute(FALSE_POSITIVE_RATE).get();
+    }
+
+    /**
+     * @return milliseconds a key the database didn't have is remembered
+     */
+    public long negativeTtl() {
+        return attributes.attribute(NEGATIVE_TTL).get();
+    }
+
+    public int negativeCacheSize() {
+        return attributes.attribute(NEGATIVE_CACHE_SIZE).get();
+    }
+
+    /**
+     * @return seconds between two scans of all keys, 0 only scans on start
+     */
+    public long filterRebuildInterval() {
+        return attributes.attribute(FILTER_REBUILD_INTERVAL).get();
+    }
+
+    /**
+     * @return rejections of a key by the Bloom filter within a rebuild interval, after which it's queried anyway, 0 never
+     */
+    public int filterBypassThreshold() {
+        return attributes.attribute(FILTER_BYPASS_THRESHOLD).get();
+    }
+
+    /**
+     * @return whether writes go to the table in the background, requires ignoreModifications to be off
+     */
+    public boolean writeBehind() {
+        return attributes.attribute(WRITE_BEHIND).get();
+    }
+
+    public int writeBatchSize() {
+        return attributes.attribute(WRITE_BATCH_SIZE).get();
+    }
+
+    /**
+     * @return milliseconds a write waits at most before it's flushed
+     */
+    public long flushInterval() {
+        return attributes.attribute(FLUSH_INTERVAL).get();
+    }
+
+    /**
+     * @return keys waiting to be written before writes are blocked
+     */
+    public int maxPendingWrites() {
+        return attributes.attribute(MAX_PENDING_WRITES).get();
+    }
+
+    /**
+     * @return milliseconds a write waits for space in a full queue before it fails
+     */
+    public long offerTimeout() {
+        return attributes.attribute(OFFER_TIMEOUT).get();
+    }
+
+    /**
+     * @return loads running at the same time before further ones are answered as misses, 0 is unlimited
+     */
+    public int maxConcurrentLoads() {
+        return attributes.attribute(MAX_CONCURRENT_LOADS).get();
+    }
+
+    /**
+     * @return milliseconds after which a load is answered as a miss, 0 waits as long as the query takes
+     */
+    public long loadTimeout() {
+        return attributes.attribute(LOAD_TIMEOUT).get();
+    }
+
+    /**
+     * @return whether loads are answered as misses without a query while most of them fail or time out
+     */
+    public boolean circuitBreaker() {
+        return attributes.attribute(CIRCUIT_BREAKER).get();
+    }
+
+    /**
+     * @return share of failed or timed out loads within a window which opens the breaker
+     */
+    public double breakerFailureRate() {
+        return attributes.attribute(BREAKER_FAILURE_RATE).get();
+    }
+
+    /**
+     * @return loads a window needs before its failure rate counts
+     */
+    public int breakerMinimumLoads() {
+        return attributes.attribute(BREAKER_MINIMUM_LOADS).get();
+    }
+
+    /**
+     * @return milliseconds per window of counted loads
+     */
+    public long breakerWindow() {
+        return attributes.attribute(BREAKER_WINDOW).get();
+    }
+
+    /**
+     * @return milliseconds the breaker stays open before trial loads are let through
+     */
+    public long breakerOpenDuration() {
+        return attributes.attribute(BREAKER_OPEN_DURATION).get();
+    }
+
+    /**
+     * @return successful trial loads which close the breaker again
+     */
+    public int breakerTrialLoads() {
+        return attributes.attribute(BREAKER_TRIAL_LOADS).get();
+    }
+
+}
@@ -0,0 +1,272 @@
+package com.zalora.aloha.persistence;
+
+import static com.zalora.aloha.persistence.MemcachedItemStoreConfiguration.*;
+
+import java.util.regex.Pattern;
+import org.infinispan.commons.CacheConfigurationException;
+import org.infinispan.configuration.cache.*;
+
+/**
+ * @author Wolfram Huesken <wolfram.huesken@zalora.com>
+ */
+public class MemcachedItemStoreConfigurationBuilder
+    extends AbstractStoreConfigurationBuilder<MemcachedItemStoreConfiguration, MemcachedItemStoreConfigurationBuilder> {
+
+    private static final Pattern TABLE_NAME = Pattern.compile("[A-Za-z_][A-Za-z0-9_]*(\\.[A-Za-z_][A-Za-z0-9_]*)?");
+
+    public MemcachedItemStoreConfigurationBuilder(PersistenceConfigurationBuilder builder) {
+        super(builder, MemcachedItemStoreConfiguration.attributeDefinitionSet());
+    }
+
+    public MemcachedItemStoreConfigurationBuilder connectionUrl(String connectionUrl) {
+        attributes.attribute(CONNECTION_URL).set(connectionUrl);
+        return self();
+    }
+
+    public MemcachedItemStoreConfigurationBuilder username(String username) {
+        attributes.attribute(USERNAME).set(username);
+        return self();
+    }
+
+    public MemcachedItemStoreConfigurationBuilder password(String password) {
+        attributes.attribute(PASSWORD).set(password);
+        return self();
+    }
+
+    public MemcachedItemStoreConfigurationBuilder table(String table) {
+        attributes.attribute(TABLE).set(table);
+        return self();
+    }
+
+    public MemcachedItemStoreConfigurationBuilder maxPoolSize(int maxPoolSize) {
+        attributes.attribute(MAX_POOL_SIZE).set(maxPoolSize);
+        return self();
+    }
+
+    public MemcachedItemStoreConfigurationBuilder connectionTimeout(long connectionTimeout) {
+        attributes.attribute(CONNECTION_TIMEOUT).set(connectionTimeout);
+        return self();
+    }
+
+    public MemcachedItemStoreConfigurationBuilder batching(boolean batching) {
+        attributes.attribute(BATCHING).set(batching);
+        return self();
+    }
+
+    public MemcachedItemStoreConfigurationBuilder batchSize(int batchSize) {
+        attributes.attribute(BATCH_SIZE).set(batchSize);
+        return self();
+    }
+
+    public MemcachedItemStoreConfigurationBuilder batchWindow(long batchWindow) {
+        attributes.attribute(BATCH_WINDOW).set(batchWindow);
+        return self();
+    }
+
+    public MemcachedItemStoreConfigurationBuilder loaderThreads(int loaderThreads) {
+        attributes.attribute(LOADER_THREADS).set(loaderThreads);
+        return self();
+    }
+
+    public MemcachedItemStoreConfigurationBuilder pageSize(int pageSize) {
+        attributes.attribute(PAGE_SIZE).set(pageSize);
+        return self();
+    }
+
+    public MemcachedItemStoreConfigurationBuilder negativeLookup(boolean negativeLookup) {
+        attributes.attribute(NEGATIVE_LOOKUP).set(negativeLookup);
+        return self();
+    }
+
+    public MemcachedItemStoreConfigurationBuilder expectedKeys(long expectedKeys) {
+        attributes.attribute(EXPECTED_KEYS).set(expectedKeys);
+        return self();
+    }
+
+    public MemcachedItemStoreConfigurationBuilder falsePositiveRate(double falsePositiveRate) {
+        attributes.attribute(FALSE_POSITIVE_RATE).set(falsePositiveRate);
+        return self();
+    }
+
+    public MemcachedItemStoreConfigurationBuilder negativeTtl(long negativeTtl) {
+        attributes.attribute(NEGATIVE_TTL).set(negativeTtl);
+        return self();
+    }
+
+    public MemcachedItemStoreConfigurationBuilder negativeCacheSize(int negativeCacheSize) {
+        attributes.attribute(NEGATIVE_CACHE_SIZE).set(negativeCacheSize);
+        return self();
+    }
+
+    public MemcachedItemStoreConfigurationBuilder filterRebuildInterval(long filterRebuildInterval) {
+        attributes.attribute(FILTER_REBUILD_INTERVAL).set(filterRebuildInterval);
+        return self();
+    }
+
+    public MemcachedItemStoreConfigurationBuilder filterBypassThreshold(int filterBypassThreshold) {
+        attributes.attribute(FILTER_BYPASS_THRESHOLD).set(filterBypassThreshold);
+        return self();
+    }
+
+    public MemcachedItemStoreConfigurationBuilder writeBehind(boolean writeBehind) {
+        attributes.attribute(WRITE_BEHIND).set(writeBehind);
+        return self();
+    }
+
+    public MemcachedItemStoreConfigurationBuilder writeBatchSize(int writeBatchSize) {
+        attributes.attribute(WRITE_BATCH_SIZE).set(writeBatchSize);
+        return self();
+    }
+
+    public MemcachedItemStoreConfigurationBuilder flushInterval(long flushInterval) {
+        attributes.attribute(FLUSH_INTERVAL).set(flushInterval);
+        return self();
+    }
+
+    public MemcachedItemStoreConfigurationBuilder maxPendingWrites(int maxPendingWrites) {
+        attributes.attribute(MAX_PENDING_WRITES).set(maxPendingWrites);
+        return self();
+    }
+
+    public MemcachedItemStoreConfigurationBuilder offerTimeout(long offerTimeout) {
+        attributes.attribute(OFFER_TIMEOUT).set(offerTimeout);
+        return self();
+    }
+
+    public MemcachedItemStoreConfigurationBuilder maxConcurrentLoads(int maxConcurrentLoads) {
+        attributes.attribute(MAX_CONCURRENT_LOADS).set(maxConcurrentLoads);
+        return self();
+    }
+
+    public MemcachedItemStoreConfigurationBuilder loadTimeout(long loadTimeout) {
+        attributes.attribute(LOAD_TIMEOUT).set(loadTimeout);
+        return self();
+    }
+
+    public MemcachedItemStoreConfigurationBuilder circuitBreaker(boolean circuitBreaker) {
+        attributes.attribute(CIRCUIT_BREAKER).set(circuitBreaker);
+        return self();
+    }
+
+    public MemcachedItemStoreConfigurationBuilder breakerFailureRate(double breakerFailureRate) {
+        attributes.attribute(BREAKER_FAILURE_RATE).set(breakerFailureRate);
+        return self();
+    }
+
+    public MemcachedItemStoreConfigurationBuilder breakerMinimumLoads(int breakerMinimumLoads) {
+        attributes.attribute(BREAKER_MINIMUM_LOADS).set(breakerMinimumLoads);
+        return self();
+    }
+
+    public MemcachedItemStoreConfigurationBuilder breakerWindow(long breakerWindow) {
+        attributes.attribute(BREAKER_WINDOW).set(breakerWindow);
+        return self();
+    }
+
+    public MemcachedItemStoreConfigurationBuilder breakerOpenDuration(long breakerOpenDuration) {
+        attributes.attribute(BREAKER_OPEN_DURATION).set(breakerOpenDuration);
+        return self();
+    }
+
+    public MemcachedItemStoreConfigurationBuilder breakerTrialLoads(int breakerTrialLoads) {
+        attributes.attribute(BREAKER_TRIAL_LOADS).set(breakerTrialLoads);
+        return self();
+    }
+
+    @Override
+    public void validate() {
+        super.validate();
+
+        final String connectionUrl = attributes.attribute(CONNECTION_URL).get();
+        if (connectionUrl == null || connectionUrl.isEmpty()) {
+            throw new CacheConfigurationException("Connection URL is missing");
+        }
+
+        // Goes into the statements as it is
+        final String table = attributes.attribute(TABLE).get();
+        if (table == null || !TABLE_NAME.matcher(table).matches()) {
+            throw new CacheConfigurationException("Table name " + table + " is not a plain identifier");
+        }
+
+        if (attributes.attribute(MAX_POOL_SIZE).get() <= 0 || attributes.attribute(CONNECTION_TIMEOUT).get() <= 0) {
+            throw new CacheConfigurationException("Pool size and connection timeout must be positive");
+        }
+
+        if (attributes.attribute(BATCH_SIZE).get() <= 0 || attributes.attribute(LOADER_THREADS).get() <= 0
+            || attributes.attribute(PAGE_SIZE).get() <= 0) {
+            throw new CacheConfigurationException("Batch size, loader threads and page size must be positive");
+        }
+
+        if (attributes.attribute(BATCH_WINDOW).get() < 0) {
+            throw new CacheConfigurationException("Batch window must not be negative");
+        }
+
+        if (attributes.attribute(MAX_CONCURRENT_LOADS).get() < 0 || attributes.attribute(LOAD_TIMEOUT).get() < 0) {
+            throw new CacheConfigurationException("Maximum concurrent loads and load timeout must not be negative");
+        }
+
+        if (attributes.attribute(CIRCUIT_BREAKER).get()) {
+            double failureRate = attributes.attribute(BREAKER_FAILURE_RATE).get();
+            if (failureRate <= 0.0 || failureRate > 1.0) {
+                throw new CacheConfigurationException("Breaker failure rate must be above 0 and at most 1");
+            }
+
+            if (attributes.attribute(BREAKER_MINIMUM_LOADS).get() <= 0 || attributes.attribute(BREAKER_WINDOW).get() <= 0
+                || attributes.attribute(BREAKER_OPEN_DURATION).get() <= 0 || attributes.attribute(BREAKER_TRIAL_LOADS).get() <= 0) {
+                throw new CacheConfigurationException("Breaker minimum loads, window, open duration and trial loads must be positive");
+            }
+        }
+
+        if (attributes.attribute(NEGATIVE_LOOKUP).get()) {
+            if (attributes.attribute(EXPECTED_KEYS).get() <= 0) {
+                throw new CacheConfigurationException("Expected keys must be positive");
+            }
+
+            double falsePositiveRate = attributes.attribute(FALSE_POSITIVE_RATE).get();
+            if (falsePositiveRate <= 0.0 || falsePositiveRate >= 1.0) {
+                throw new CacheConfigurationException("False positive rate must be between 0 and 1");
+            }
+
+            if (attributes.attribute(NEGATIVE_TTL).get() < 0 || attributes.attribute(NEGATIVE_CACHE_SIZE).get() < 0
+                || attributes.attribute(FILTER_REBUILD_INTERVAL).get() < 0) {
+                throw new CacheConfigurationException("Negative TTL, cache size and rebuild interval must not be negative");
+            }
+
+            if (attributes.attribute(FILTER_BYPASS_THRESHOLD).get() < 0) {
+                throw new CacheConfigurationException("Filter bypass threshold must not be negative");
+            }
+        }
+
+        if (attributes.attribute(WRITE_BEHIND).get()) {
+            if (attributes.attribute(IGNORE_MODIFICATIONS).get()) {
+                throw new CacheConfigurationException("Write-behind needs ignoreModifications to be off");
+            }
+
+            final int writeBatchSize = attributes.attribute(WRITE_BATCH_SIZE).get();
+            if (writeBatchSize <= 0 || attributes.attribute(MAX_PENDING_WRITES).get() < writeBatchSize) {
+                throw new CacheConfigurationException("Write batch size must be positive and fit into the pending writes");
+            }
+
+            if (attributes.attribute(FLUSH_INTERVAL).get() <= 0 || attributes.attribute(OFFER_TIMEOUT).get() < 0) {
+                throw new CacheConfigurationException("Flush interval must be positive, offer timeout must not be negative");
+            }
+        }
+    }
+
+    @Override
+    public MemcachedItemStoreConfiguration create() {
+        return new MemcachedItemStoreConfiguration(attributes.protect(), async.create(), singletonStore.create());
+    }
+
+    @Override
+    public MemcachedItemStoreConfigurationBuilder read(MemcachedItemStoreConfiguration template) {
+        super.read(template);
+        return self();
+    }
+
+    @Override
+    public MemcachedItemStoreConfigurationBuilder self() {
+        return this;
+    }
+
+}
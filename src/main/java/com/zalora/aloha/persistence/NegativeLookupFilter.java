@@ -0,0 +1,291 @@
+package com.zalora.aloha.persistence;
+
+import com.google.common.cache.*;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.Consumer;
+import lombok.Getter;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.util.Assert;
+
+/**
+ * Answers "is this key definitely not in the table?" without asking the database
+ *
+ * A Bloom filter of all keys in the table is rebuilt from a key scan every now and then, keys written to
+ * the cache are added right away. Keys the database didn't have are remembered for a short time on top,
+ * that covers keys which are requested over and over but slip through the Bloom filter.
+ * Until the first scan is done, only the negative cache is used.
+ *
+ * Rows inserted into the table without going through the cache are found after the next rebuild, once the key
+ * is written to the cache, or once the Bloom filter rejected the key more than the bypass threshold times since
+ * it first did so within the bypass window. Such a key is queried anyway and added to the filter if it's there.
+ *
+ * @author Wolfram Huesken <wolfram.huesken@zalora.com>
+ */
+@Slf4j
+public class NegativeLookupFilter {
+
+    /**
+     * The table keeps growing between rebuilds, so the filter is sized with some headroom
+     */
+    private static final double GROWTH_HEADROOM = 1.25;
+
+    /**
+     * Rough heap cost of a negative cache entry without the key
+     */
+    private static final int NEGATIVE_ENTRY_OVERHEAD = 128;
+
+    /**
+     * Keys whose rejections are counted for the bypass, at most this many
+     */
+    private static final int MAX_REJECTED_KEYS = 100000;
+
+    private final long expectedKeys;
+    private final double falsePositiveRate;
+    private final int bypassThreshold;
+
+    private volatile BloomFilter filter;
+    private volatile BloomFilter building;
+
+    private final Cache<String, Boolean> negativeCache;
+    private final Cache<String, AtomicInteger> rejections;
+
+    private final LongAdder filtered = new LongAdder();
+    private final LongAdder negativeHits = new LongAdder();
+    private final LongAdder passed = new LongAdder();
+    private final LongAdder falsePositives = new LongAdder();
+    private final LongAdder bypassed = new LongAdder();
+    private final LongAdder staleRows = new LongAdder();
+    private final LongAdder negativeKeyChars = new LongAdder();
+
+    @Getter
+    private volatile long rebuilds;
+
+    @Getter
+    private volatile long lastRebuildMillis;
+
+    /**
+     * @param expectedKeys      minimum size of the Bloom filter, the number of rows is used if it's bigger
+     * @param negativeTtl       ms a missing key is remembered
+     * @param negativeCacheSize maximum number of missing keys remembered
+     * @param bypassThreshold   rejections by the Bloom filter after which a key is queried anyway, 0 never
+     * @param bypassWindow      ms rejections are counted from the first one, 0 counts them until the key is queried
+     */
+    public NegativeLookupFilter(long expectedKeys, double falsePositiveRate, long negativeTtl, int negativeCacheSize,
+                                int bypassThreshold, long bypassWindow) {
+        Assert.isTrue(expectedKeys > 0, "Expected keys must be positive");
+        Assert.isTrue(negativeTtl >= 0, "Negative TTL must not be negative");
+        Assert.isTrue(negativeCacheSize >= 0, "Negative cache size must not be negative");
+        Assert.isTrue(bypassThreshold >= 0 && bypassWindow >= 0, "Bypass threshold and window must not be negative");
+
+        this.expectedKeys = expectedKeys;
+        this.falsePositiveRate = falsePositiveRate;
+        this.bypassThreshold = bypassThreshold;
+
+        negativeCache = CacheBuilder.newBuilder()
+            .expireAfterWrite(negativeTtl, TimeUnit.MILLISECONDS)
+            .maximumSize(negativeCacheSize)
+            .removalListener((RemovalListener<String, Boolean>) removal -> negativeKeyChars.add(-removal.getKey().length()))
+            .build();
+
+        CacheBuilder<Object, Object> rejectionsBuilder = CacheBuilder.newBuilder().maximumSize(MAX_REJECTED_KEYS);
+        if (bypassWindow > 0) {
+            rejectionsBuilder.expireAfterWrite(bypassWindow, TimeUnit.MILLISECONDS);
+        }
+        rejections = rejectionsBuilder.build();
+    }
+
+    /**
+     * @return false if the key is definitely not in the table
+     */
+    public boolean mightExist(String key) {
+        if (negativeCache.getIfPresent(key) != null) {
+            negativeHits.increment();
+            return false;
+        }
+
+        final BloomFilter current = filter;
+        if (current != null && !current.mightContain(key)) {
+            if (!bypass(key)) {
+                filtered.increment();
+                return false;
+            }
+
+            bypassed.increment();
+        }
+
+        passed.increment();
+        return true;
+    }
+
+    /**
+     * Counts a rejection of the key, the one past the threshold lets it through and starts counting anew
+     * Increments don't reset the window, it starts with the first rejection
+     */
+    private boolean bypass(String key) {
+        if (bypassThreshold == 0) {
+            return false;
+        }
+
+        if (rejections.asMap().computeIfAbsent(key, k -> new AtomicInteger()).incrementAndGet() <= bypassThreshold) {
+            return false;
+        }
+
+        rejections.invalidate(key);
+        return true;
+    }
+
+    /**
+     * The database didn't have a key which passed mightExist
+     */
+    public void missed(String key) {
+        final BloomFilter current = filter;
+        if (current != null && current.mightContain(key)) {
+            falsePositives.increment();
+        }
+
+        if (negativeCache.asMap().putIfAbsent(key, Boolean.TRUE) == null) {
+            negativeKeyChars.add(key.length());
+        }
+    }
+
+    /**
+     * The database had a key which passed mightExist, a bypassed one is added to the filter
+     */
+    public void found(String key) {
+        final BloomFilter current = filter;
+        if (current != null && !current.mightContain(key)) {
+            staleRows.increment();
+            add(key);
+        }
+    }
+
+    /**
+     * The key was written and might be in the table now
+     * The filter being built is updated first, so a key is never missing in both filters
+     */
+    public void add(String key) {
+        negativeCache.invalidate(key);
+
+        final BloomFilter next = building;
+        if (next != null) {
+            next.add(key);
+        }
+
+        final BloomFilter current = filter;
+        if (current != null) {
+            current.add(key);
+        }
+    }
+
+    /**
+     * Builds a new filter from a scan of all keys and swaps it in once it's complete
+     *
+     * @param rows number of rows in the table
+     * @param scan hands every key of the table to its argument
+     */
+    public void rebuild(long rows, Consumer<Consumer<String>> scan) {
+        final long start = System.currentTimeMillis();
+        final BloomFilter next = new BloomFilter(Math.max(expectedKeys, (long) (rows * GROWTH_HEADROOM)), falsePositiveRate);
+
+        building = next;
+        try {
+            scan.accept(next::add);
+            filter = next;
+        } finally {
+            building = null;
+        }
+
+        lastRebuildMillis = System.currentTimeMillis() - start;
+        rebuilds++;
+
+        log.info(
+            "Negative lookup filter rebuilt from {} rows in {}ms, {} bytes, expected false positive rate {}",
+            rows, lastRebuildMillis, next.getMemoryBytes(), String.format("%.4f", next.expectedFalsePositiveRate())
+        );
+    }
+
+    public boolean isReady() {
+        return filter != null;
+    }
+
+    /**
+     * @return lookups answered by the Bloom filter
+     */
+    public long getFiltered() {
+        return filtered.sum();
+    }
+
+    /**
+     * @return lookups answered by the negative cache
+     */
+    public long getNegativeHits() {
+        return negativeHits.sum();
+    }
+
+    /**
+     * @return lookups which went to the database
+     */
+    public long getPassed() {
+        return passed.sum();
+    }
+
+    /**
+     * @return keys the Bloom filter let through, but the database didn't have
+     */
+    public long getFalsePositives() {
+        return falsePositives.sum();
+    }
+
+    /**
+     * @return lookups the Bloom filter rejected, but which went to the database after too many rejections
+     */
+    public long getBypassed() {
+        return bypassed.sum();
+    }
+
+    /**
+     * @return rows found by a bypass, they were inserted into the table without going through the cache
+     */
+    public long getStaleRows() {
+        return staleRows.sum();
+    }
+
+    /**
+     * @return share of missing keys the Bloom filter let through
+     */
+    public double getObservedFalsePositiveRate() {
+        long falsePositives = getFalsePositives();
+        long negatives = falsePositives + getFiltered();
+        return negatives == 0 ? 0.0 : (double) falsePositives / negatives;
+    }
+
+    public double getExpectedFalsePositiveRate() {
+        final BloomFilter current = filter;
+        return current == null ? 0.0 : current.expectedFalsePositiveRate();
+    }
+
+    public long getApproximateKeys() {
+        final BloomFilter current = filter;
+        return current == null ? 0 : current.approximateKeys();
+    }
+
+    public long getNegativeCacheSize() {
+        return negativeCache.size();
+    }
+
+    public long getFilterBytes() {
+        final BloomFilter current = filter;
+        final BloomFilter next = building;
+        return (current == null ? 0 : current.getMemoryBytes()) + (next == null ? 0 : next.getMemoryBytes());
+    }
+
+    /**
+     * @return estimated heap used by the Bloom filters and the negative cache
+     */
+    public long getMemoryBytes() {
+        return getFilterBytes() + getNegativeCacheSize() * NEGATIVE_ENTRY_OVERHEAD + negativeKeyChars.sum() * 2;
+    }
+
+}
@@ -0,0 +1,145 @@
+package com.zalora.aloha.persistence;
+
+import com.zalora.aloha.compressor.Compressor;
+import java.util.*;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.AtomicInteger;
+import lombok.Getter;
+import lombok.extern.slf4j.Slf4j;
+import org.infinispan.AdvancedCache;
+import org.springframework.util.Assert;
+
+/**
+ * Fills the cache from the MemcachedItem table in parallel, instead of Infinispan's sequential preload
+ *
+ * The key space is split into a few ranges per thread, so threads finishing early pick up the remaining ones.
+ * Every range is read page by page on its own connection and the rows are written straight into the data container
+ * (see PreloadInserter), on every node just like Infinispan's preload. Writes and removes meanwhile are recorded
+ * in PreloadWrites, so their keys aren't overwritten with outdated rows.
+ *
+ * @author Wolfram Huesken <wolfram.huesken@zalora.com>
+ */
+@Slf4j
+public class ParallelPreloader {
+
+    private static final int RANGES_PER_THREAD = 4;
+
+    private final AdvancedCache<Object, Object> cache;
+    private final MemcachedItemStore store;
+    private final int threads;
+    private final int pageSize;
+
+    @Getter
+    private final PreloadProgress progress = new PreloadProgress();
+
+    private final PreloadInserter inserter;
+
+    private final PreloadWrites preloadWrites;
+
+    private volatile boolean running = true;
+
+    /**
+     * @param compressor    applied to each item before it's stored, may be null
+     * @param preloadWrites filled by the cache's PreloadWriteInterceptor
+     * @param threads       0 uses one thread per core
+     */
+    public ParallelPreloader(AdvancedCache<Object, Object> cache, MemcachedItemStore store, Compressor compressor,
+                             PreloadWrites preloadWrites, int threads, int pageSize) {
+        Assert.notNull(cache, "Cache must not be null");
+        Assert.notNull(store, "Store must not be null");
+        Assert.notNull(preloadWrites, "Preload writes must not be null");
+        Assert.isTrue(threads >= 0, "Preload threads must not be negative");
+        Assert.isTrue(pageSize > 0, "Page size must be positive");
+
+        this.cache = cache;
+        this.store = store;
+        this.threads = threads > 0 ? threads : Runtime.getRuntime().availableProcessors();
+        this.pageSize = pageSize;
+        this.preloadWrites = preloadWrites;
+
+        inserter = new PreloadInserter(cache, compressor, progress, preloadWrites);
+    }
+
+    /**
+     * Runs the preload in the background, the cache serves requests meanwhile
+     */
+    public void start() {
+        // Changes are tracked from here on, the table may be read before the preload thread gets to run
+        preloadWrites.track();
+
+        Thread coordinator = new Thread(this::preload, "preload-" + cache.getName());
+        coordinator.setDaemon(true);
+        coordinator.start();
+    }
+
+    /**
+     * The running pages are finished, no further ones are read
+     */
+    public void stop() {
+        running = false;
+    }
+
+    private void preload() {
+        final AtomicInteger threadCount = new AtomicInteger();
+        final ExecutorService executor = Executors.newFixedThreadPool(threads, runnable -> {
+            Thread thread = new Thread(runnable, String.format("preload-%s-%d", cache.getName(), threadCount.incrementAndGet()));
+            thread.setDaemon(true);
+            return thread;
+        });
+
+        boolean failed = false;
+
+        try {
+            List<String> boundaries = store.splitKeys(threads * RANGES_PER_THREAD);
+            progress.start(store.size(), boundaries.size() + 1);
+
+            log.info("Preloading {} rows into {} in {} ranges on {} threads",
+                progress.getTotalRows(), cache.getName(), progress.getTotalRanges(), threads);
+
+            List<Future<?>> ranges = new ArrayList<>(boundaries.size() + 1);
+            String lowerKey = null;
+            for (String upperKey : boundaries) {
+                ranges.add(submitRange(executor, lowerKey, upperKey));
+                lowerKey = upperKey;
+            }
+            ranges.add(submitRange(executor, lowerKey, null));
+
+            for (Future<?> range : ranges) {
+                try {
+                    range.get();
+                } catch (ExecutionException ex) {
+                    failed = true;
+                    log.error("Preloading a range of {} failed", cache.getName(), ex.getCause());
+                }
+            }
+        } catch (InterruptedException ex) {
+            Thread.currentThread().interrupt();
+            failed = true;
+        } catch (RuntimeException ex) {
+            failed = true;
+            log.error("Preloading {} failed", cache.getName(), ex);
+        } finally {
+            executor.shutdownNow();
+            preloadWrites.forget();
+        }
+
+        progress.finish(failed);
+
+        log.info("Preloaded {} rows into {} in {}ms ({} rows/s), {} skipped{}",
+            progress.getRows(), cache.getName(), progress.getElapsedMillis(), (long) progress.getRowsPerSecond(),
+            progress.getSkippedRows(), failed ? ", incomplete because of errors" : ""
+        );
+    }
+
+    private Future<?> submitRange(ExecutorService executor, String lowerKey, String upperKey) {
+        return executor.submit(() -> {
+            store.processRange(lowerKey, upperKey, pageSize, page -> {
+                inserter.insert(page, page.size());
+                return running;
+            });
+
+            progress.rangeFinished();
+        });
+    }
+
+}
@@ -0,0 +1,99 @@
+package com.zalora.aloha.persistence;
+
+import com.zalora.aloha.compressor.Compressor;
+import com.zalora.aloha.memcached.MemcachedItem;
+import java.util.Collection;
+import java.util.concurrent.TimeUnit;
+import org.infinispan.AdvancedCache;
+import org.infinispan.container.DataContainer;
+import org.infinispan.distribution.DistributionManager;
+import org.infinispan.metadata.*;
+import org.infinispan.util.TimeService;
+
+/**
+ * Writes rows of the MemcachedItem table straight into the data container of the local node
+ * No locking, no listeners, no replication, just like Infinispan's preload.
+ * Keys which are in the cache already, e.g. loaded by read-through meanwhile, are left alone, and so are keys
+ * written or removed since the preload started. In distributed mode only keys the node owns are inserted.
+ *
+ * @author Wolfram Huesken <wolfram.huesken@zalora.com>
+ */
+class PreloadInserter {
+
+    private final Compressor compressor;
+    private final PreloadProgress progress;
+
+    private final PreloadWrites preloadWrites;
+
+    private final DataContainer<Object, Object> dataContainer;
+    private final DistributionManager distributionManager;
+    private final TimeService timeService;
+    private final Metadata defaultMetadata;
+
+    /**
+     * @param compressor    applied to each item before it's stored, may be null
+     * @param preloadWrites keys changed since the preload started, may be null
+     */
+    PreloadInserter(AdvancedCache<Object, Object> cache, Compressor compressor, PreloadProgress progress,
+                    PreloadWrites preloadWrites) {
+        this.compressor = compressor;
+        this.progress = progress;
+        this.preloadWrites = preloadWrites;
+
+        dataContainer = cache.getDataContainer();
+        distributionManager = cache.getCacheConfiguration().clustering().cacheMode().isDistributed()
+            ? cache.getDistributionManager() : null;
+        timeService = cache.getComponentRegistry().getComponent(TimeService.class);
+        defaultMetadata = new EmbeddedMetadata.Builder()
+            .lifespan(cache.getCacheConfiguration().expiration().lifespan())
+            .build();
+    }
+
+    /**
+     * @param requested rows asked for, the ones which didn't come back count as skipped
+     */
+    void insert(Collection<MemcachedItem> items, int requested) {
+        final long now = timeService.wallClockTime();
+        int loaded = 0;
+
+        for (MemcachedItem item : items) {
+            final long lifespan = MemcachedItemStore.lifespan(item.getExpire(), now);
+            if (lifespan == 0 || !owned(item.getKey())) {
+                continue;
+            }
+
+            final Metadata metadata = lifespan < 0
+                ? defaultMetadata
+                : new EmbeddedMetadata.Builder().lifespan(lifespan, TimeUnit.MILLISECONDS).build();
+
+            if (compressor != null) {
+                compressor.beforePut(item);
+            }
+
+            final boolean[] inserted = {false};
+            dataContainer.compute(item.getKey(), (key, oldEntry, factory) -> {
+                // Checked under the container's lock of the key, so a change recorded later overwrites the insert
+                if (oldEntry != null && !oldEntry.isExpired(now) || preloadWrites != null && preloadWrites.contains(key)) {
+                    return oldEntry;
+                }
+
+                inserted[0] = true;
+                return factory.create(key, item, metadata);
+            });
+
+            if (inserted[0]) {
+                loaded++;
+            }
+        }
+
+        progress.rows(loaded, requested - loaded);
+    }
+
+    /**
+     * Copies of other nodes' keys would never be updated and end up in the snapshot
+     */
+    private boolean owned(String key) {
+        return distributionManager == null || distributionManager.getLocality(key).isLocal();
+    }
+
+}
@@ -0,0 +1,102 @@
+package com.zalora.aloha.persistence;
+
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.*;
+import lombok.Getter;
+
+/**
+ * Progress of a running or finished preload
+ *
+ * @author Wolfram Huesken <wolfram.huesken@zalora.com>
+ */
+public class PreloadProgress {
+
+    public enum State {PENDING, RUNNING, FINISHED, FAILED}
+
+    @Getter
+    private volatile State state = State.PENDING;
+
+    @Getter
+    private volatile long totalRows;
+
+    @Getter
+    private volatile int totalRanges;
+
+    private final AtomicInteger finishedRanges = new AtomicInteger();
+    private final LongAdder rows = new LongAdder();
+    private final LongAdder skippedRows = new LongAdder();
+
+    private volatile long startNanos;
+    private volatile long endNanos;
+
+    void start(long totalRows, int totalRanges) {
+        this.totalRows = totalRows;
+        this.totalRanges = totalRanges;
+        startNanos = System.nanoTime();
+        state = State.RUNNING;
+    }
+
+    void rows(int loaded, int skipped) {
+        rows.add(loaded);
+        skippedRows.add(skipped);
+    }
+
+    void rangeFinished() {
+        finishedRanges.incrementAndGet();
+    }
+
+    void finish(boolean failed) {
+        endNanos = System.nanoTime();
+        state = failed ? State.FAILED : State.FINISHED;
+    }
+
+    public int getFinishedRanges() {
+        return finishedRanges.get();
+    }
+
+    /**
+     * @return rows put into the cache
+     */
+    public long getRows() {
+        return rows.sum();
+    }
+
+    /**
+     * @return rows which were expired, already in the cache, changed meanwhile or owned by other nodes
+     */
+    public long getSkippedRows() {
+        return skippedRows.sum();
+    }
+
+    public long getElapsedMillis() {
+        if (state == State.PENDING) {
+            return 0;
+        }
+
+        long end = state == State.RUNNING ? System.nanoTime() : endNanos;
+        return TimeUnit.NANOSECONDS.toMillis(end - startNanos);
+    }
+
+    public double getRowsPerSecond() {
+        long elapsed = getElapsedMillis();
+        return elapsed == 0 ? 0.0 : (getRows() + getSkippedRows()) * 1000.0 / elapsed;
+    }
+
+    /**
+     * @return estimated seconds until the preload is done, -1 if there is no estimate yet
+     */
+    public long getEtaSeconds() {
+        if (state != State.RUNNING) {
+            return state == State.PENDING ? -1 : 0;
+        }
+
+        double rate = getRowsPerSecond();
+        if (rate == 0.0) {
+            return -1;
+        }
+
+        long remaining = Math.max(totalRows - getRows() - getSkippedRows(), 0);
+        return (long) Math.ceil(remaining / rate);
+    }
+
+}
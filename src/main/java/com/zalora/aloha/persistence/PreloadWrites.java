@@ -0,0 +1,41 @@
+package com.zalora.aloha.persistence;
+
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Keys written or removed while a preload runs, their rows are outdated and must not be inserted
+ *
+ * Keys are recorded before the command reaches the data container, so an insert either sees the key
+ * or is overwritten by the change afterwards. Removes count even if they didn't find an entry.
+ *
+ * @author Wolfram Huesken <wolfram.huesken@zalora.com>
+ */
+public class PreloadWrites {
+
+    /**
+     * Null while no preload runs
+     */
+    private volatile Set<Object> keys;
+
+    public void written(Object key) {
+        final Set<Object> current = keys;
+        if (current != null) {
+            current.add(key);
+        }
+    }
+
+    void track() {
+        keys = ConcurrentHashMap.newKeySet();
+    }
+
+    void forget() {
+        keys = null;
+    }
+
+    boolean contains(Object key) {
+        final Set<Object> current = keys;
+        return current != null && current.contains(key);
+    }
+
+}
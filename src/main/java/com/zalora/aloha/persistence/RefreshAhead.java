@@ -0,0 +1,262 @@
+package com.zalora.aloha.persistence;
+
+import com.zalora.aloha.compressor.Compressor;
+import com.zalora.aloha.memcached.MemcachedItem;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.*;
+import lombok.Getter;
+import lombok.extern.slf4j.Slf4j;
+import org.infinispan.AdvancedCache;
+import org.infinispan.container.DataContainer;
+import org.infinispan.container.entries.InternalCacheEntry;
+import org.infinispan.context.Flag;
+import org.infinispan.marshall.core.MarshalledEntry;
+import org.infinispan.util.TimeService;
+import org.springframework.util.Assert;
+
+/**
+ * Reloads entries from the read-through store before they expire, as long as they're still read
+ *
+ * A read of an entry within the last fraction of its lifespan queues a reload on a few background threads.
+ * The reloaded row replaces the entry only if it's still the one which was read, so a write in between wins.
+ * Each version of an entry is reloaded once: if the row is gone, the reload fails or it wouldn't expire any later,
+ * the entry expires as usual and the next read loads it again. A full queue drops the reload, a later read queues it
+ * again. Items with an absolute expire time aren't reloaded at all, the row would bring back the same expiry.
+ *
+ * Reloads go through the store's load guard, so an unhealthy database turns them into misses as well.
+ *
+ * @author Wolfram Huesken <wolfram.huesken@zalora.com>
+ */
+@Slf4j
+public class RefreshAhead {
+
+    /**
+     * Entries which were reloaded unsuccessfully are remembered until they expire, at most this many
+     */
+    private static final int MAX_ATTEMPTED_KEYS = 100000;
+
+    @Getter
+    private final double fraction;
+
+    private final ThreadPoolExecutor executor;
+
+    /**
+     * Expiry time of the entry version a reload was queued for, by key
+     */
+    private final ConcurrentMap<String, Long> attempts = new ConcurrentHashMap<>();
+
+    private final AtomicBoolean pruning = new AtomicBoolean();
+
+    private volatile AdvancedCache<Object, Object> cache;
+    private volatile DataContainer<Object, Object> dataContainer;
+    private volatile TimeService timeService;
+    private volatile MemcachedItemStore store;
+    private volatile Compressor compressor;
+
+    private final LongAdder scheduled = new LongAdder();
+    private final LongAdder dropped = new LongAdder();
+    private final LongAdder refreshed = new LongAdder();
+    private final LongAdder missing = new LongAdder();
+    private final LongAdder superseded = new LongAdder();
+    private final LongAdder unextended = new LongAdder();
+    private final LongAdder failures = new LongAdder();
+
+    /**
+     * @param fraction  share of the lifespan before the expiry in which reads queue a reload, between 0 and 1
+     * @param threads   reloads running at the same time
+     * @param queueSize reloads waiting for a thread before further ones are dropped
+     */
+    public RefreshAhead(double fraction, int threads, int queueSize) {
+        Assert.isTrue(fraction > 0.0 && fraction < 1.0, "Refresh-ahead fraction must be between 0 and 1");
+        Assert.isTrue(threads > 0 && queueSize > 0, "Refresh-ahead threads and queue size must be positive");
+
+        this.fraction = fraction;
+
+        AtomicInteger threadCount = new AtomicInteger();
+        executor = new ThreadPoolExecutor(
+            threads, threads, 60, TimeUnit.SECONDS, new ArrayBlockingQueue<>(queueSize),
+            runnable -> {
+                Thread thread = new Thread(runnable, "readthrough-refresh-" + threadCount.incrementAndGet());
+                thread.setDaemon(true);
+                return thread;
+            }
+        );
+        executor.allowCoreThreadTimeOut(true);
+    }
+
+    /**
+     * Reads before start are ignored, the store only exists once the cache runs
+     *
+     * @param compressor applied to reloaded items, null if the cache compresses writes itself or not at all
+     */
+    @SuppressWarnings("unchecked")
+    public void start(AdvancedCache<Object, Object> cache, MemcachedItemStore store, Compressor compressor) {
+        Assert.notNull(cache, "Cache must not be null");
+        Assert.notNull(store, "Read-through store must not be null");
+
+        this.dataContainer = (DataContainer<Object, Object>) cache.getDataContainer();
+        this.timeService = cache.getComponentRegistry().getComponent(TimeService.class);
+        this.compressor = compressor;
+        this.store = store;
+        this.cache = cache.withFlags(Flag.SKIP_CACHE_LOAD, Flag.SKIP_CACHE_STORE);
+
+        log.info(
+            "Refreshing read-through entries of {} read in the last {}% of their lifespan",
+            cache.getName(), Math.round(fraction * 100)
+        );
+    }
+
+    public void stop() {
+        executor.shutdownNow();
+    }
+
+    /**
+     * Called after every read of the key on this node, queues a reload if the local entry is about to expire
+     */
+    public void read(Object key) {
+        if (store == null || !(key instanceof String)) {
+            return;
+        }
+
+        final InternalCacheEntry<Object, Object> entry = dataContainer.peek(key);
+        if (entry == null || entry.getLifespan() <= 0 || !(entry.getValue() instanceof MemcachedItem)) {
+            return;
+        }
+
+        if (((MemcachedItem) entry.getValue()).getExpire() > MemcachedItemStore.MAX_RELATIVE_EXPIRE) {
+            return;
+        }
+
+        final long expiry = entry.getExpiryTime();
+        final long now = timeService.wallClockTime();
+        if (now >= expiry || now < expiry - (long) (entry.getLifespan() * fraction)) {
+            return;
+        }
+
+        final String stringKey = (String) key;
+        final Long attempted = attempts.putIfAbsent(stringKey, expiry);
+        if (attempted != null && (attempted == expiry || !attempts.replace(stringKey, attempted, expiry))) {
+            return;
+        }
+
+        if (attempts.size() > MAX_ATTEMPTED_KEYS) {
+            prune(now);
+        }
+
+        final Object expected = entry.getValue();
+        try {
+            executor.execute(() -> refresh(stringKey, expected, expiry));
+            scheduled.increment();
+        } catch (RejectedExecutionException ex) {
+            dropped.increment();
+            attempts.remove(stringKey, expiry);
+        }
+    }
+
+    private void refresh(String key, Object expected, long expiry) {
+        try {
+            final MarshalledEntry<String, MemcachedItem> loaded = store.load(key);
+            if (loaded == null || loaded.getValue() == null) {
+                missing.increment();
+                return;
+            }
+
+            // A row which wouldn't outlive the entry would just be reloaded again on the next read
+            final long lifespan = loaded.getMetadata() == null
+                ? cache.getCacheConfiguration().expiration().lifespan()
+                : loaded.getMetadata().lifespan();
+
+            if (lifespan > 0 && timeService.wallClockTime() + lifespan <= expiry) {
+                unextended.increment();
+                return;
+            }
+
+            final MemcachedItem item = loaded.getValue();
+            if (compressor != null) {
+                compressor.beforePut(item);
+            }
+
+            // Without a lifespan of its own, the item gets the cache's default one, just like on read-through
+            final boolean replaced = loaded.getMetadata() == null
+                ? cache.replace(key, expected, item)
+                : cache.replace(key, expected, item, loaded.getMetadata().lifespan(), TimeUnit.MILLISECONDS);
+
+            if (replaced) {
+                refreshed.increment();
+                attempts.remove(key, expiry);
+            } else {
+                superseded.increment();
+            }
+        } catch (RuntimeException ex) {
+            failures.increment();
+            log.warn("Refreshing {} failed: {}", key, ex.getMessage());
+        }
+    }
+
+    /**
+     * Forgets the entry versions which expired meanwhile, one thread prunes while the others keep going
+     */
+    private void prune(long now) {
+        if (!pruning.compareAndSet(false, true)) {
+            return;
+        }
+
+        try {
+            attempts.values().removeIf(expiry -> expiry <= now);
+        } finally {
+            pruning.set(false);
+        }
+    }
+
+    /**
+     * @return reloads queued
+     */
+    public long getScheduled() {
+        return scheduled.sum();
+    }
+
+    /**
+     * @return reloads not queued because the queue was full
+     */
+    public long getDropped() {
+        return dropped.sum();
+    }
+
+    public long getRefreshed() {
+        return refreshed.sum();
+    }
+
+    /**
+     * @return reloads which found no row, or were turned into a miss by the load guard
+     */
+    public long getMissing() {
+        return missing.sum();
+    }
+
+    /**
+     * @return reloads which weren't stored because the entry was written or removed meanwhile
+     */
+    public long getSuperseded() {
+        return superseded.sum();
+    }
+
+    /**
+     * @return reloads which weren't stored because the row expires no later than the entry
+     */
+    public long getUnextended() {
+        return unextended.sum();
+    }
+
+    public long getFailures() {
+        return failures.sum();
+    }
+
+    public int getPending() {
+        return executor.getQueue().size();
+    }
+
+    public int getAttemptedKeys() {
+        return attempts.size();
+    }
+
+}
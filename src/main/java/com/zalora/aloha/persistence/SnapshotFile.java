@@ -0,0 +1,290 @@
+package com.zalora.aloha.persistence;
+
+import java.io.*;
+import java.nio.*;
+import java.nio.channels.FileChannel;
+import java.nio.file.*;
+import java.util.zip.CRC32;
+import lombok.Getter;
+
+/**
+ * File format of the local snapshot, a header followed by checksummed blocks of marshalled entries:
+ * - header: magic (4), format version (4), creation time in ms (8)
+ * - block: payload length (4), number of entries (4), CRC32 of the payload (8), payload
+ * - entry: key length (4), key, value length (4), value, expiry time in ms or -1 (8), max idle in ms or -1 (8)
+ *
+ * An empty block ends the file, a file without it was cut off and is rejected as a whole.
+ * Files are written to a temporary file and moved in place once complete, readers map one block at a time,
+ * so the size of the file isn't limited by the 2 GB of a single mapping.
+ *
+ * @author Wolfram Huesken <wolfram.huesken@zalora.com>
+ */
+public class SnapshotFile {
+
+    private static final int MAGIC = 0x414c5348;
+    private static final int FORMAT_VERSION = 1;
+
+    private static final int HEADER_LENGTH = 16;
+    private static final int BLOCK_HEADER_LENGTH = 16;
+
+    /**
+     * Blocks are closed once their payload reaches this size, larger entries get a block of their own
+     */
+    private static final int BLOCK_SIZE = 4 * 1024 * 1024;
+
+    /**
+     * Gets each entry of the file
+     */
+    public interface EntryConsumer {
+
+        /**
+         * @return false to stop reading
+         */
+        boolean accept(byte[] key, byte[] value, long expiryTime, long maxIdle) throws IOException;
+    }
+
+    /**
+     * Checks all blocks of the file before handing out any entry, so a damaged file isn't loaded halfway
+     *
+     * @return creation time of the snapshot
+     * @throws IOException if the file is damaged, incomplete or can't be read
+     */
+    public static long read(Path path, EntryConsumer consumer) throws IOException {
+        try (FileChannel channel = FileChannel.open(path, StandardOpenOption.READ)) {
+            final long created = readHeader(channel);
+
+            long position = HEADER_LENGTH;
+            while (true) {
+                final Block block = Block.read(channel, position);
+                if (block.getLength() == 0) {
+                    break;
+                }
+
+                block.verify(channel);
+                position = block.getEnd();
+            }
+
+            position = HEADER_LENGTH;
+            while (true) {
+                final Block block = Block.read(channel, position);
+                if (block.getLength() == 0) {
+                    return created;
+                }
+
+                if (!readEntries(channel.map(FileChannel.MapMode.READ_ONLY, block.getPayload(), block.getLength()),
+                    block.getEntries(), consumer)) {
+                    return created;
+                }
+
+                position = block.getEnd();
+            }
+        } catch (BufferUnderflowException | IllegalArgumentException ex) {
+            throw new IOException("Snapshot " + path + " is damaged", ex);
+        }
+    }
+
+    /**
+     * @return creation time of the snapshot, without checking the blocks
+     */
+    public static long readCreated(Path path) throws IOException {
+        try (FileChannel channel = FileChannel.open(path, StandardOpenOption.READ)) {
+            return readHeader(channel);
+        }
+    }
+
+    private static long readHeader(FileChannel channel) throws IOException {
+        ByteBuffer header = readFully(channel, 0, HEADER_LENGTH);
+        if (header.getInt() != MAGIC || header.getInt() != FORMAT_VERSION) {
+            throw new IOException("Not a snapshot or an unknown format version");
+        }
+
+        return header.getLong();
+    }
+
+    private static boolean readEntries(ByteBuffer payload, int entries, EntryConsumer consumer) throws IOException {
+        for (int i = 0; i < entries; i++) {
+            byte[] key = new byte[payload.getInt()];
+            payload.get(key);
+
+            byte[] value = new byte[payload.getInt()];
+            payload.get(value);
+
+            if (!consumer.accept(key, value, payload.getLong(), payload.getLong())) {
+                return false;
+            }
+        }
+
+        return true;
+    }
+
+    private static ByteBuffer readFully(FileChannel channel, long position, int length) throws IOException {
+        ByteBuffer buffer = ByteBuffer.allocate(length);
+        while (buffer.hasRemaining()) {
+            if (channel.read(buffer, position + buffer.position()) < 0) {
+                throw new EOFException("Snapshot ends unexpectedly");
+            }
+        }
+
+        buffer.flip();
+        return buffer;
+    }
+
+    @Getter
+    private static class Block {
+
+        private final long payload;
+        private final int length;
+        private final int entries;
+        private final long checksum;
+
+        private Block(long payload, int length, int entries, long checksum) {
+            this.payload = payload;
+            this.length = length;
+            this.entries = entries;
+            this.checksum = checksum;
+        }
+
+        static Block read(FileChannel channel, long position) throws IOException {
+            ByteBuffer header = readFully(channel, position, BLOCK_HEADER_LENGTH);
+            Block block = new Block(position + BLOCK_HEADER_LENGTH, header.getInt(), header.getInt(), header.getLong());
+
+            if (block.length < 0 || block.entries < 0 || block.getEnd() > channel.size()) {
+                throw new IOException("Snapshot block at " + position + " is damaged");
+            }
+
+            return block;
+        }
+
+        void verify(FileChannel channel) throws IOException {
+            CRC32 crc = new CRC32();
+            crc.update(channel.map(FileChannel.MapMode.READ_ONLY, payload, length));
+
+            if (crc.getValue() != checksum) {
+                throw new IOException("Checksum of the snapshot block at " + (payload - BLOCK_HEADER_LENGTH) + " doesn't match");
+            }
+        }
+
+        long getEnd() {
+            return payload + length;
+        }
+    }
+
+    /**
+     * Writes a snapshot next to the target and moves it in place on commit, the previous snapshot stays intact until then
+     */
+    public static class Writer implements Closeable {
+
+        private final Path target;
+        private final Path temporary;
+        private final FileChannel channel;
+
+        private final BlockBuffer block = new BlockBuffer();
+        private final DataOutputStream blockOut = new DataOutputStream(block);
+        private int blockEntries;
+
+        @Getter
+        private long entries;
+
+        private boolean committed;
+
+        public Writer(Path target, long created) throws IOException {
+            this.target = target.toAbsolutePath();
+            this.temporary = this.target.resolveSibling(this.target.getFileName() + ".tmp");
+
+            Files.createDirectories(this.target.getParent());
+            channel = FileChannel.open(
+                temporary, StandardOpenOption.CREATE, StandardOpenOption.WRITE, StandardOpenOption.TRUNCATE_EXISTING
+            );
+
+            ByteBuffer header = ByteBuffer.allocate(HEADER_LENGTH);
+            header.putInt(MAGIC).putInt(FORMAT_VERSION).putLong(created).flip();
+            writeFully(header);
+        }
+
+        public void append(byte[] key, byte[] value, long expiryTime, long maxIdle) throws IOException {
+            blockOut.writeInt(key.length);
+            blockOut.write(key);
+            blockOut.writeInt(value.length);
+            blockOut.write(value);
+            blockOut.writeLong(expiryTime);
+            blockOut.writeLong(maxIdle);
+
+            blockEntries++;
+            entries++;
+
+            if (block.size() >= BLOCK_SIZE) {
+                flushBlock();
+            }
+        }
+
+        /**
+         * Ends the file, syncs it to disk and replaces the previous snapshot
+         *
+         * @return size of the snapshot in bytes
+         */
+        public long commit() throws IOException {
+            if (blockEntries > 0) {
+                flushBlock();
+            }
+            flushBlock();
+
+            channel.force(true);
+            final long size = channel.size();
+            channel.close();
+
+            Files.move(temporary, target, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+            committed = true;
+            return size;
+        }
+
+        private void flushBlock() throws IOException {
+            final ByteBuffer payload = block.asByteBuffer();
+
+            CRC32 crc = new CRC32();
+            crc.update(payload.duplicate());
+
+            ByteBuffer header = ByteBuffer.allocate(BLOCK_HEADER_LENGTH);
+            header.putInt(payload.remaining()).putInt(blockEntries).putLong(crc.getValue()).flip();
+
+            writeFully(header);
+            writeFully(payload);
+
+            block.reset();
+            blockEntries = 0;
+        }
+
+        private void writeFully(ByteBuffer buffer) throws IOException {
+            while (buffer.hasRemaining()) {
+                channel.write(buffer);
+            }
+        }
+
+        /**
+         * Throws away the temporary file unless it was committed
+         */
+        @Override
+        public void close() throws IOException {
+            if (committed) {
+                return;
+            }
+
+            channel.close();
+            Files.deleteIfExists(temporary);
+        }
+    }
+
+    /**
+     * Hands out its buffer without copying it
+     */
+    private static class BlockBuffer extends ByteArrayOutputStream {
+
+        BlockBuffer() {
+            super(BLOCK_SIZE);
+        }
+
+        ByteBuffer asByteBuffer() {
+            return ByteBuffer.wrap(buf, 0, count);
+        }
+    }
+
+}
@@ -0,0 +1,323 @@
+package com.zalora.aloha.persistence;
+
+import java.io.IOException;
+import java.nio.file.*;
+import java.util.*;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.*;
+import lombok.Getter;
+import lombok.extern.slf4j.Slf4j;
+import org.infinispan.AdvancedCache;
+import org.infinispan.commons.marshall.StreamingMarshaller;
+import org.infinispan.commons.configuration.ConfiguredBy;
+import org.infinispan.commons.persistence.Store;
+import org.infinispan.container.DataContainer;
+import org.infinispan.container.entries.InternalCacheEntry;
+import org.infinispan.filter.KeyFilter;
+import org.infinispan.marshall.core.*;
+import org.infinispan.metadata.*;
+import org.infinispan.metadata.impl.InternalMetadataImpl;
+import org.infinispan.persistence.TaskContextImpl;
+import org.infinispan.persistence.spi.*;
+import org.infinispan.persistence.spi.PersistenceException;
+import org.infinispan.util.TimeService;
+
+/**
+ * Keeps a copy of the node's local entries in a file, so a restarted node starts warm (see SnapshotFile)
+ * The snapshot is written periodically and when the cache stops, which happens after the node left the cluster.
+ *
+ * The store only feeds Infinispan's preload, which runs before the node joins. Lookups never hit the file
+ * and later iterations don't see it, the entries are in memory after preload anyway.
+ *
+ * The store remembers the values it restored. State transfer and writes replace the value of every entry they touch,
+ * so once the node has joined a running cluster, entries which still hold a restored value were removed or
+ * expired elsewhere in the meantime and are dropped by removeStale.
+ *
+ * @author Wolfram Huesken <wolfram.huesken@zalora.com>
+ */
+@Slf4j
+@Store(shared = false)
+@ConfiguredBy(SnapshotStoreConfiguration.class)
+public class SnapshotStore implements AdvancedCacheLoader<Object, Object> {
+
+    private SnapshotStoreConfiguration configuration;
+    private AdvancedCache<Object, Object> cache;
+    private StreamingMarshaller marshaller;
+    private MarshalledEntryFactory<Object, Object> marshalledEntryFactory;
+    private TimeService timeService;
+
+    private Path path;
+    private ScheduledExecutorService scheduler;
+
+    /**
+     * The snapshot is only handed out to the first iteration, i.e. preload
+     */
+    private final AtomicBoolean restored = new AtomicBoolean();
+
+    /**
+     * Restored values by key until the node joined, values are compared by identity
+     */
+    private volatile Map<Object, Object> restoredValues = Collections.emptyMap();
+
+    @Getter
+    private volatile long restoredEntries;
+
+    @Getter
+    private volatile long expiredEntries;
+
+    @Getter
+    private volatile long staleEntries;
+
+    private final AtomicLong writes = new AtomicLong();
+    private final AtomicLong failures = new AtomicLong();
+
+    @Getter
+    private volatile long lastEntries;
+
+    @Getter
+    private volatile long lastBytes;
+
+    @Getter
+    private volatile long lastDurationMillis;
+
+    /**
+     * Wall clock time of the last snapshot, written or restored, 0 if there is none
+     */
+    @Getter
+    private volatile long lastSnapshotTime;
+
+    @Override
+    @SuppressWarnings("unchecked")
+    public void init(InitializationContext ctx) {
+        configuration = ctx.getConfiguration();
+        cache = ctx.getCache().getAdvancedCache();
+        marshaller = ctx.getMarshaller();
+        marshalledEntryFactory = ctx.getMarshalledEntryFactory();
+        timeService = ctx.getTimeService();
+    }
+
+    @Override
+    public void start() {
+        path = Paths.get(configuration.path());
+
+        if (configuration.interval() > 0) {
+            scheduler = Executors.newSingleThreadScheduledExecutor(runnable -> {
+                Thread thread = new Thread(runnable, "snapshot-" + cache.getName());
+                thread.setDaemon(true);
+                return thread;
+            });
+
+            scheduler.scheduleWithFixedDelay(
+                this::writeQuietly, configuration.interval(), configuration.interval(), TimeUnit.SECONDS
+            );
+        }
+
+        log.info("Snapshots of {} go to {} every {}s and on stop", cache.getName(), path, configuration.interval());
+    }
+
+    @Override
+    public void stop() {
+        if (scheduler != null) {
+            scheduler.shutdownNow();
+        }
+
+        writeQuietly();
+    }
+
+    /**
+     * Writes the local entries to the snapshot file, expired entries and L1 copies are left out
+     */
+    public synchronized void write() throws IOException {
+        final long start = System.nanoTime();
+        final long now = timeService.wallClockTime();
+        final DataContainer<Object, Object> dataContainer = cache.getDataContainer();
+
+        try (SnapshotFile.Writer writer = new SnapshotFile.Writer(path, now)) {
+            for (InternalCacheEntry<Object, Object> entry : dataContainer) {
+                if (entry.isL1Entry() || entry.isExpired(now) || entry.getValue() == null) {
+                    continue;
+                }
+
+                final long expiryTime = entry.getLifespan() < 0 ? -1 : entry.getCreated() + entry.getLifespan();
+                writer.append(marshall(entry.getKey()), marshall(entry.getValue()), expiryTime, entry.getMaxIdle());
+            }
+
+            lastBytes = writer.commit();
+            lastEntries = writer.getEntries();
+        }
+
+        lastDurationMillis = TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start);
+        lastSnapshotTime = now;
+        writes.incrementAndGet();
+
+        log.info("Wrote {} entries of {} to {} in {}ms", lastEntries, cache.getName(), path, lastDurationMillis);
+    }
+
+    private void writeQuietly() {
+        try {
+            write();
+        } catch (IOException | RuntimeException ex) {
+            failures.incrementAndGet();
+            log.error("Writing the snapshot of {} to {} failed", cache.getName(), path, ex);
+        }
+    }
+
+    private byte[] marshall(Object object) throws IOException {
+        try {
+            return marshaller.objectToByteBuffer(object);
+        } catch (InterruptedException ex) {
+            Thread.currentThread().interrupt();
+            throw new IOException(ex);
+        }
+    }
+
+    /**
+     * Drops restored entries which weren't refreshed by state transfer or a write
+     * Only call this after joining a cluster which had the data already, otherwise everything restored is dropped.
+     *
+     * @return number of entries dropped
+     */
+    public long removeStale() {
+        final DataContainer<Object, Object> dataContainer = cache.getDataContainer();
+        long removed = 0;
+
+        for (Map.Entry<Object, Object> restoredValue : restoredValues.entrySet()) {
+            final boolean[] stale = new boolean[1];
+            dataContainer.compute(restoredValue.getKey(), (key, entry, factory) -> {
+                stale[0] = entry != null && entry.getValue() == restoredValue.getValue();
+                return stale[0] ? null : entry;
+            });
+
+            if (stale[0]) {
+                removed++;
+            }
+        }
+
+        forgetRestored();
+        staleEntries = removed;
+        log.info("Removed {} restored entries of {} which are gone from the cluster", removed, cache.getName());
+        return removed;
+    }
+
+    /**
+     * Keeps all restored entries, e.g. because there was no cluster to refresh them
+     */
+    public void forgetRestored() {
+        restoredValues = Collections.emptyMap();
+    }
+
+    @Override
+    public MarshalledEntry<Object, Object> load(Object key) {
+        return null;
+    }
+
+    @Override
+    public boolean contains(Object key) {
+        return false;
+    }
+
+    /**
+     * Restores the snapshot on the first call, it's skipped if it's missing, damaged or too old
+     */
+    @Override
+    public void process(KeyFilter<? super Object> filter, CacheLoaderTask<Object, Object> task,
+                        Executor executor, boolean fetchValue, boolean fetchMetadata) {
+        if (!restored.compareAndSet(false, true) || !Files.exists(path)) {
+            return;
+        }
+
+        final long now = timeService.wallClockTime();
+        final TaskContext taskContext = new TaskContextImpl();
+        final long[] counts = new long[2];
+        final List<Object> keys = new ArrayList<>();
+
+        try {
+            final long created = SnapshotFile.readCreated(path);
+            if (configuration.maxAge() > 0 && now - created > TimeUnit.SECONDS.toMillis(configuration.maxAge())) {
+                log.warn("Snapshot {} is older than {}s, not restoring it", path, configuration.maxAge());
+                return;
+            }
+
+            SnapshotFile.read(path, (keyBytes, valueBytes, expiryTime, maxIdle) -> {
+                final long lifespan = expiryTime < 0 ? -1 : expiryTime - now;
+                if (expiryTime >= 0 && lifespan <= 0) {
+                    counts[1]++;
+                    return true;
+                }
+
+                final Object key = unmarshall(keyBytes);
+                if (filter != null && !filter.accept(key)) {
+                    return true;
+                }
+
+                Metadata metadata = new EmbeddedMetadata.Builder()
+                    .lifespan(lifespan, TimeUnit.MILLISECONDS)
+                    .maxIdle(maxIdle, TimeUnit.MILLISECONDS)
+                    .build();
+
+                try {
+                    task.processEntry(marshalledEntryFactory.newMarshalledEntry(
+                        key, fetchValue ? unmarshall(valueBytes) : null,
+                        fetchMetadata ? new InternalMetadataImpl(metadata, now, now) : null
+                    ), taskContext);
+                } catch (InterruptedException ex) {
+                    Thread.currentThread().interrupt();
+                    throw new PersistenceException(ex);
+                }
+
+                keys.add(key);
+                counts[0]++;
+                return !taskContext.isStopped();
+            });
+
+            lastSnapshotTime = created;
+        } catch (IOException ex) {
+            failures.incrementAndGet();
+            log.error("Restoring snapshot {} failed, starting with {} entries", path, counts[0], ex);
+        }
+
+        rememberRestored(keys);
+        restoredEntries = counts[0];
+        expiredEntries = counts[1];
+        log.info("Restored {} entries of {} from {}, {} had expired", counts[0], cache.getName(), path, counts[1]);
+    }
+
+    /**
+     * Preload put the entries already, the cache may hold them in another form than the one restored
+     */
+    private void rememberRestored(List<Object> keys) {
+        final DataContainer<Object, Object> dataContainer = cache.getDataContainer();
+        final Map<Object, Object> values = new HashMap<>(keys.size() * 4 / 3 + 1);
+
+        for (Object key : keys) {
+            InternalCacheEntry<Object, Object> entry = dataContainer.peek(key);
+            if (entry != null) {
+                values.put(key, entry.getValue());
+            }
+        }
+
+        restoredValues = values;
+    }
+
+    private Object unmarshall(byte[] bytes) throws IOException {
+        try {
+            return marshaller.objectFromByteBuffer(bytes);
+        } catch (ClassNotFoundException ex) {
+            throw new IOException(ex);
+        }
+    }
+
+    @Override
+    public int size() {
+        return 0;
+    }
+
+    public long getWrites() {
+        return writes.get();
+    }
+
+    public long getFailures() {
+        return failures.get();
+    }
+
+}
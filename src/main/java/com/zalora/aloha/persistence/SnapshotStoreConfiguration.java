@@ -0,0 +1,56 @@
+package com.zalora.aloha.persistence;
+
+import org.infinispan.commons.configuration.BuiltBy;
+import org.infinispan.commons.configuration.ConfigurationFor;
+import org.infinispan.commons.configuration.attributes.*;
+import org.infinispan.configuration.cache.*;
+
+/**
+ * @author Wolfram Huesken <wolfram.huesken@zalora.com>
+ */
+@BuiltBy(SnapshotStoreConfigurationBuilder.class)
+@ConfigurationFor(SnapshotStore.class)
+public class SnapshotStoreConfiguration extends AbstractStoreConfiguration {
+
+    static final AttributeDefinition<String> PATH = AttributeDefinition
+        .builder("path", null, String.class).immutable().build();
+
+    static final AttributeDefinition<Long> INTERVAL = AttributeDefinition
+        .builder("interval", 300L).immutable().build();
+
+    static final AttributeDefinition<Long> MAX_AGE = AttributeDefinition
+        .builder("maxAge", 0L).immutable().build();
+
+    public static AttributeSet attributeDefinitionSet() {
+        return new AttributeSet(
+            SnapshotStoreConfiguration.class, AbstractStoreConfiguration.attributeDefinitionSet(),
+            PATH, INTERVAL, MAX_AGE
+        );
+    }
+
+    public SnapshotStoreConfiguration(AttributeSet attributes, AsyncStoreConfiguration async, SingletonStoreConfiguration singletonStore) {
+        super(attributes, async, singletonStore);
+    }
+
+    /**
+     * @return location of the snapshot file
+     */
+    public String path() {
+        return attributes.attribute(PATH).get();
+    }
+
+    /**
+     * @return seconds between two snapshots while running, 0 only writes one on stop
+     */
+    public long interval() {
+        return attributes.attribute(INTERVAL).get();
+    }
+
+    /**
+     * @return seconds after which a snapshot is too old to be restored, 0 restores snapshots of any age
+     */
+    public long maxAge() {
+        return attributes.attribute(MAX_AGE).get();
+    }
+
+}
@@ -0,0 +1,68 @@
+package com.zalora.aloha.persistence;
+
+import static com.zalora.aloha.persistence.SnapshotStoreConfiguration.*;
+
+import org.infinispan.commons.CacheConfigurationException;
+import org.infinispan.configuration.cache.*;
+
+/**
+ * @author Wolfram Huesken <wolfram.huesken@zalora.com>
+ */
+public class SnapshotStoreConfigurationBuilder
+    extends AbstractStoreConfigurationBuilder<SnapshotStoreConfiguration, SnapshotStoreConfigurationBuilder> {
+
+    public SnapshotStoreConfigurationBuilder(PersistenceConfigurationBuilder builder) {
+        super(builder, SnapshotStoreConfiguration.attributeDefinitionSet());
+    }
+
+    public SnapshotStoreConfigurationBuilder path(String path) {
+        attributes.attribute(PATH).set(path);
+        return self();
+    }
+
+    public SnapshotStoreConfigurationBuilder interval(long interval) {
+        attributes.attribute(INTERVAL).set(interval);
+        return self();
+    }
+
+    public SnapshotStoreConfigurationBuilder maxAge(long maxAge) {
+        attributes.attribute(MAX_AGE).set(maxAge);
+        return self();
+    }
+
+    @Override
+    public void validate() {
+        super.validate();
+
+        final String path = attributes.attribute(PATH).get();
+        if (path == null || path.isEmpty()) {
+            throw new CacheConfigurationException("Snapshot path is missing");
+        }
+
+        if (attributes.attribute(INTERVAL).get() < 0 || attributes.attribute(MAX_AGE).get() < 0) {
+            throw new CacheConfigurationException("Snapshot interval and maximum age must not be negative");
+        }
+
+        // Entries only come back through preload, a shared snapshot would mix up the nodes' data
+        if (!attributes.attribute(PRELOAD).get() || attributes.attribute(SHARED).get()) {
+            throw new CacheConfigurationException("The snapshot store needs preload on and shared off");
+        }
+    }
+
+    @Override
+    public SnapshotStoreConfiguration create() {
+        return new SnapshotStoreConfiguration(attributes.protect(), async.create(), singletonStore.create());
+    }
+
+    @Override
+    public SnapshotStoreConfigurationBuilder read(SnapshotStoreConfiguration template) {
+        super.read(template);
+        return self();
+    }
+
+    @Override
+    public SnapshotStoreConfigurationBuilder self() {
+        return this;
+    }
+
+}
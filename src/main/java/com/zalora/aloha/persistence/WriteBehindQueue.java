@@ -0,0 +1,320 @@
+package com.zalora.aloha.persistence;
+
+import com.zalora.aloha.latency.SlidingHistogram;
+import java.util.*;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.concurrent.locks.LockSupport;
+import java.util.function.Function;
+import lombok.Getter;
+import lombok.extern.slf4j.Slf4j;
+import org.infinispan.persistence.spi.PersistenceException;
+import org.springframework.util.Assert;
+
+/**
+ * Takes writes and deletes off the request path and hands them to a batch writer in the background:
+ * - Repeated updates of a key only keep the latest one, so a hot key costs one row per flush
+ * - A batch is written once batchSize keys are waiting or the flush interval is over
+ * - At most maxPending keys wait, further writes block for up to offerTimeout and fail after that
+ *
+ * Queued keys are visible via load until their batch is written, so reads never see an older row.
+ * A failed batch is put back, unless the key was written again meanwhile, and retried after the flush interval.
+ *
+ * @author Wolfram Huesken <wolfram.huesken@zalora.com>
+ */
+@Slf4j
+public class WriteBehindQueue<K, V> {
+
+    /**
+     * Writes a batch in one go, throws if nothing was written
+     */
+    public interface BatchWriter<K, V> {
+        void write(Map<K, V> upserts, Set<K> deletes);
+    }
+
+    private static final Object DELETED = new Object();
+
+    private final BatchWriter<K, V> writer;
+    private final int batchSize;
+    private final int maxPending;
+    private final long flushIntervalNanos;
+    private final long offerTimeoutNanos;
+
+    /**
+     * Latest value or DELETED by key, every entry holds one permit
+     */
+    private final ConcurrentMap<K, Object> pending = new ConcurrentHashMap<>();
+
+    /**
+     * Batch being written, still holding the permits of its keys
+     */
+    private final ConcurrentMap<K, Object> inFlight = new ConcurrentHashMap<>();
+
+    private final Semaphore permits;
+    private final Thread flusher;
+
+    private volatile boolean running = true;
+
+    private final LongAdder writes = new LongAdder();
+    private final LongAdder deletes = new LongAdder();
+    private final LongAdder coalesced = new LongAdder();
+    private final LongAdder flushes = new LongAdder();
+    private final LongAdder flushedKeys = new LongAdder();
+    private final LongAdder failures = new LongAdder();
+    private final LongAdder blocked = new LongAdder();
+    private final LongAdder rejected = new LongAdder();
+
+    @Getter
+    private final SlidingHistogram flushLatency = new SlidingHistogram();
+
+    /**
+     * @param name          used for the thread name
+     * @param writer        writes a batch of upserts and deletes
+     * @param batchSize     maximum keys per batch
+     * @param flushInterval how long a write waits at most for its batch to fill up
+     * @param maxPending    maximum keys waiting to be written
+     * @param offerTimeout  how long a write waits for space in a full queue
+     * @param unit          unit of flushInterval and offerTimeout
+     */
+    public WriteBehindQueue(String name, BatchWriter<K, V> writer, int batchSize, long flushInterval,
+                            int maxPending, long offerTimeout, TimeUnit unit) {
+        Assert.notNull(writer, "Batch writer must not be null");
+        Assert.isTrue(batchSize > 0, "Batch size must be positive");
+        Assert.isTrue(flushInterval > 0, "Flush interval must be positive");
+        Assert.isTrue(maxPending >= batchSize, "Maximum pending writes must not be smaller than the batch size");
+        Assert.isTrue(offerTimeout >= 0, "Offer timeout must not be negative");
+
+        this.writer = writer;
+        this.batchSize = batchSize;
+        this.maxPending = maxPending;
+        this.flushIntervalNanos = unit.toNanos(flushInterval);
+        this.offerTimeoutNanos = unit.toNanos(offerTimeout);
+
+        permits = new Semaphore(maxPending);
+
+        flusher = new Thread(this::flushLoop, name + "-write-behind");
+        flusher.setDaemon(true);
+        flusher.start();
+    }
+
+    public void write(K key, V value) {
+        Assert.notNull(value, "Value must not be null");
+        enqueue(key, value);
+        writes.increment();
+    }
+
+    public void delete(K key) {
+        enqueue(key, DELETED);
+        deletes.increment();
+    }
+
+    /**
+     * @param fallback loads keys which aren't queued
+     * @return the queued value, null if a delete is queued, otherwise whatever fallback returns
+     */
+    @SuppressWarnings("unchecked")
+    public V load(K key, Function<K, V> fallback) {
+        // A batch is added to inFlight before it's removed from pending, so this order never misses a key
+        Object value = pending.get(key);
+        if (value == null) {
+            value = inFlight.get(key);
+        }
+
+        if (value == null) {
+            return fallback.apply(key);
+        }
+
+        return value == DELETED ? null : (V) value;
+    }
+
+    /**
+     * Writes everything still queued, gives up after timeout
+     */
+    public void stop(long timeout, TimeUnit unit) {
+        running = false;
+        LockSupport.unpark(flusher);
+
+        try {
+            flusher.join(unit.toMillis(timeout));
+        } catch (InterruptedException ex) {
+            Thread.currentThread().interrupt();
+        }
+
+        if (getPending() > 0) {
+            log.error("Write-behind stopped with {} keys not written", getPending());
+        }
+    }
+
+    private void enqueue(K key, Object value) {
+        acquire();
+
+        if (pending.put(key, value) != null) {
+            coalesced.increment();
+            permits.release();
+        }
+
+        if (getPending() >= batchSize) {
+            LockSupport.unpark(flusher);
+        }
+    }
+
+    /**
+     * Back-pressure, callers wait while the queue is full instead of growing it
+     */
+    private void acquire() {
+        if (permits.tryAcquire()) {
+            return;
+        }
+
+        blocked.increment();
+        LockSupport.unpark(flusher);
+
+        try {
+            if (!permits.tryAcquire(offerTimeoutNanos, TimeUnit.NANOSECONDS)) {
+                rejected.increment();
+                throw new PersistenceException(String.format("Write-behind queue is full with %d keys", maxPending));
+            }
+        } catch (InterruptedException ex) {
+            Thread.currentThread().interrupt();
+            throw new PersistenceException(ex);
+        }
+    }
+
+    private void flushLoop() {
+        long nextFlush = System.nanoTime() + flushIntervalNanos;
+
+        while (running || !pending.isEmpty()) {
+            final long now = System.nanoTime();
+            if (running && getPending() < batchSize && now - nextFlush < 0) {
+                LockSupport.parkNanos(this, nextFlush - now);
+                continue;
+            }
+
+            if (!flush()) {
+                if (!running) {
+                    return;
+                }
+
+                // Back off, the database might be down
+                LockSupport.parkNanos(this, flushIntervalNanos);
+            }
+
+            nextFlush = System.nanoTime() + flushIntervalNanos;
+        }
+    }
+
+    /**
+     * Writes up to batchSize queued keys
+     *
+     * @return false if the batch failed
+     */
+    @SuppressWarnings("unchecked")
+    private boolean flush() {
+        Map<K, Object> batch = new HashMap<>();
+        for (Map.Entry<K, Object> entry : pending.entrySet()) {
+            if (batch.size() >= batchSize) {
+                break;
+            }
+
+            final K key = entry.getKey();
+            final Object value = entry.getValue();
+
+            inFlight.put(key, value);
+            if (pending.remove(key, value)) {
+                batch.put(key, value);
+            } else {
+                // Written again meanwhile, the new value goes with the next batch
+                inFlight.remove(key, value);
+            }
+        }
+
+        if (batch.isEmpty()) {
+            return true;
+        }
+
+        Map<K, V> upserts = new HashMap<>();
+        Set<K> deleted = new HashSet<>();
+        batch.forEach((key, value) -> {
+            if (value == DELETED) {
+                deleted.add(key);
+            } else {
+                upserts.put(key, (V) value);
+            }
+        });
+
+        final long start = System.nanoTime();
+        try {
+            writer.write(upserts, deleted);
+        } catch (RuntimeException ex) {
+            failures.increment();
+            log.error("Writing a batch of {} keys failed, retrying", batch.size(), ex);
+
+            batch.forEach((key, value) -> {
+                if (pending.putIfAbsent(key, value) != null) {
+                    permits.release();
+                }
+                inFlight.remove(key, value);
+            });
+
+            return false;
+        } finally {
+            flushLatency.recordNanos(System.nanoTime() - start);
+        }
+
+        batch.forEach(inFlight::remove);
+        permits.release(batch.size());
+
+        flushes.increment();
+        flushedKeys.add(batch.size());
+        return true;
+    }
+
+    /**
+     * @return keys queued or being written
+     */
+    public int getPending() {
+        return maxPending - permits.availablePermits();
+    }
+
+    public long getWrites() {
+        return writes.sum();
+    }
+
+    public long getDeletes() {
+        return deletes.sum();
+    }
+
+    /**
+     * @return writes which replaced a queued value of the same key
+     */
+    public long getCoalesced() {
+        return coalesced.sum();
+    }
+
+    public long getFlushes() {
+        return flushes.sum();
+    }
+
+    public long getFlushedKeys() {
+        return flushedKeys.sum();
+    }
+
+    public long getFailures() {
+        return failures.sum();
+    }
+
+    /**
+     * @return writes which had to wait for space in the queue
+     */
+    public long getBlocked() {
+        return blocked.sum();
+    }
+
+    /**
+     * @return writes which failed because the queue stayed full
+     */
+    public long getRejected() {
+        return rejected.sum();
+    }
+
+}
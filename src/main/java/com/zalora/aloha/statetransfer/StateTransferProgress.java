@@ -0,0 +1,255 @@
+package com.zalora.aloha.statetransfer;
+
+import java.util.*;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.*;
+import lombok.Getter;
+import org.springframework.util.Assert;
+
+/**
+ * Progress of the state this node receives for one cache, reset with every topology which brings new segments
+ *
+ * Infinispan doesn't say how much state is coming, so the owners are asked to count the entries of the segments
+ * once the first entry arrives. A segment counts as done once as many entries arrived as its owner counted,
+ * all of them are done once the rebalance ended.
+ *
+ * @author Wolfram Huesken <wolfram.huesken@zalora.com>
+ */
+public class StateTransferProgress {
+
+    public enum State {IDLE, RUNNING, FINISHED}
+
+    /**
+     * Chunk size of the cache, fixed while it runs
+     */
+    @Getter
+    private final int chunkSize;
+
+    /**
+     * Target size of a chunk in bytes, the suggested chunk size is derived from it
+     */
+    @Getter
+    private final long chunkBytes;
+
+    private volatile Transfer transfer;
+
+    @Getter
+    private volatile State state = State.IDLE;
+
+    private final AtomicLong throttledNanos = new AtomicLong();
+
+    public StateTransferProgress(int chunkSize, long chunkBytes) {
+        Assert.isTrue(chunkSize > 0, "Chunk size must be positive");
+        Assert.isTrue(chunkBytes >= 0, "Chunk bytes must not be negative");
+
+        this.chunkSize = chunkSize;
+        this.chunkBytes = chunkBytes;
+    }
+
+    /**
+     * Starts tracking a new transfer unless the topology is tracked already
+     *
+     * @return false if the topology is tracked already
+     */
+    public synchronized boolean begin(int topologyId, Set<Integer> segments, int numSegments) {
+        if (transfer != null && transfer.topologyId == topologyId) {
+            return false;
+        }
+
+        transfer = new Transfer(topologyId, segments, numSegments);
+        state = State.RUNNING;
+        return true;
+    }
+
+    /**
+     * Entries the owners hold by segment, segments nobody reported on stay unknown
+     */
+    public void expect(int topologyId, Map<Integer, Long> entriesBySegment) {
+        final Transfer current = transfer;
+        if (current == null || current.topologyId != topologyId) {
+            return;
+        }
+
+        entriesBySegment.forEach((segment, entries) -> current.expected.set(segment, entries));
+    }
+
+    public void received(int segment, long bytes) {
+        final Transfer current = transfer;
+        if (current == null) {
+            return;
+        }
+
+        current.received.incrementAndGet(segment);
+        current.entries.increment();
+        current.bytes.add(bytes);
+    }
+
+    public void throttled(long nanos) {
+        throttledNanos.addAndGet(nanos);
+    }
+
+    /**
+     * @return false if there was no running transfer
+     */
+    public synchronized boolean finish() {
+        if (state != State.RUNNING) {
+            return false;
+        }
+
+        transfer.endNanos = System.nanoTime();
+        state = State.FINISHED;
+        return true;
+    }
+
+    public int getTopologyId() {
+        final Transfer current = transfer;
+        return current == null ? -1 : current.topologyId;
+    }
+
+    public int getTotalSegments() {
+        final Transfer current = transfer;
+        return current == null ? 0 : current.segments.length;
+    }
+
+    public int getFinishedSegments() {
+        final Transfer current = transfer;
+        if (current == null) {
+            return 0;
+        }
+
+        if (state == State.FINISHED) {
+            return current.segments.length;
+        }
+
+        int finished = 0;
+        for (int segment : current.segments) {
+            final long expected = current.expected.get(segment);
+            if (expected >= 0 && current.received.get(segment) >= expected) {
+                finished++;
+            }
+        }
+
+        return finished;
+    }
+
+    public long getEntries() {
+        final Transfer current = transfer;
+        return current == null ? 0 : current.entries.sum();
+    }
+
+    public long getBytes() {
+        final Transfer current = transfer;
+        return current == null ? 0 : current.bytes.sum();
+    }
+
+    /**
+     * @return entries the owners reported for all segments, -1 as long as some of them are unknown
+     */
+    public long getExpectedEntries() {
+        final Transfer current = transfer;
+        if (current == null) {
+            return -1;
+        }
+
+        long expected = 0;
+        for (int segment : current.segments) {
+            final long entries = current.expected.get(segment);
+            if (entries < 0) {
+                return -1;
+            }
+
+            expected += entries;
+        }
+
+        return expected;
+    }
+
+    public long getElapsedMillis() {
+        final Transfer current = transfer;
+        if (current == null) {
+            return 0;
+        }
+
+        long end = state == State.RUNNING ? System.nanoTime() : current.endNanos;
+        return TimeUnit.NANOSECONDS.toMillis(end - current.startNanos);
+    }
+
+    /**
+     * @return time spent waiting for the throttle since the start, summed over all transfers and threads
+     */
+    public long getThrottledMillis() {
+        return TimeUnit.NANOSECONDS.toMillis(throttledNanos.get());
+    }
+
+    public double getEntriesPerSecond() {
+        long elapsed = getElapsedMillis();
+        return elapsed == 0 ? 0.0 : getEntries() * 1000.0 / elapsed;
+    }
+
+    public double getBytesPerSecond() {
+        long elapsed = getElapsedMillis();
+        return elapsed == 0 ? 0.0 : getBytes() * 1000.0 / elapsed;
+    }
+
+    /**
+     * @return estimated seconds until the transfer is done, -1 if there is no estimate yet
+     */
+    public long getEtaSeconds() {
+        if (state != State.RUNNING) {
+            return state == State.IDLE ? -1 : 0;
+        }
+
+        final long expected = getExpectedEntries();
+        final double rate = getEntriesPerSecond();
+        if (expected < 0 || rate == 0.0) {
+            return -1;
+        }
+
+        long remaining = Math.max(expected - getEntries(), 0);
+        return (long) Math.ceil(remaining / rate);
+    }
+
+    public long getAverageEntrySize() {
+        final long entries = getEntries();
+        return entries == 0 ? 0 : getBytes() / entries;
+    }
+
+    /**
+     * @return chunk size which would make chunks of about chunkBytes with the entries seen, the configured one if unknown
+     */
+    public int getSuggestedChunkSize() {
+        final long averageEntrySize = getAverageEntrySize();
+        if (chunkBytes == 0 || averageEntrySize == 0) {
+            return chunkSize;
+        }
+
+        return (int) Math.max(1, Math.min(Integer.MAX_VALUE, chunkBytes / averageEntrySize));
+    }
+
+    /**
+     * Counters of a single transfer, swapped as a whole when a new one starts
+     */
+    private static class Transfer {
+
+        private final int topologyId;
+        private final int[] segments;
+        private final AtomicLongArray received;
+        private final AtomicLongArray expected;
+        private final LongAdder entries = new LongAdder();
+        private final LongAdder bytes = new LongAdder();
+        private final long startNanos = System.nanoTime();
+        private volatile long endNanos;
+
+        Transfer(int topologyId, Set<Integer> segments, int numSegments) {
+            this.topologyId = topologyId;
+            this.segments = segments.stream().mapToInt(Integer::intValue).toArray();
+            this.received = new AtomicLongArray(numSegments);
+            this.expected = new AtomicLongArray(numSegments);
+
+            for (int i = 0; i < numSegments; i++) {
+                expected.set(i, -1);
+            }
+        }
+    }
+
+}
@@ -0,0 +1,160 @@
+package com.zalora.aloha.statetransfer;
+
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.concurrent.locks.LockSupport;
+import lombok.Getter;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.util.Assert;
+
+/**
+ * Caps the rate at which received state is applied, by entries and by bytes of keys and values
+ *
+ * Senders wait until the chunks of a message are applied before they send the next one,
+ * so holding back the receiving node slows down the whole transfer.
+ * Up to BURST worth of the rate may pass at once after a pause.
+ *
+ * A sender gives up on a message which isn't applied within stateTransfer.timeout and the segments are requested
+ * again, so no chunk may wait that long. Each entry waits at most a share of the timeout divided by the chunk size.
+ * An entry which would have to wait longer passes after that and the rate it was ahead of is forgiven,
+ * i.e. the throttle is saturated and the actual rate is higher than configured.
+ *
+ * @author Wolfram Huesken <wolfram.huesken@zalora.com>
+ */
+@Slf4j
+public class StateTransferThrottle {
+
+    private static final long BURST = TimeUnit.MILLISECONDS.toNanos(100);
+
+    /**
+     * A chunk waits at most a quarter of the state transfer timeout
+     */
+    private static final int TIMEOUT_SHARE = 4;
+
+    private static final long WARNING_INTERVAL = TimeUnit.SECONDS.toNanos(10);
+
+    private final String cacheName;
+
+    @Getter
+    private final long maxEntriesPerSecond;
+
+    @Getter
+    private final long maxBytesPerSecond;
+
+    /**
+     * Longest wait of a single entry in nanoseconds
+     */
+    private final long maxWait;
+
+    private final LongAdder saturated = new LongAdder();
+
+    private volatile long lastWarning = System.nanoTime() - WARNING_INTERVAL;
+
+    /**
+     * Points in time up to which the entries and bytes passed so far are paid for
+     */
+    private long entriesPaidUntil;
+    private long bytesPaidUntil;
+
+    /**
+     * @param maxEntriesPerSecond 0 for no limit
+     * @param maxBytesPerSecond   0 for no limit
+     * @param chunkSize           entries per segment and message
+     * @param timeoutMillis       state transfer timeout of the cache
+     */
+    public StateTransferThrottle(String cacheName, long maxEntriesPerSecond, long maxBytesPerSecond,
+                                 int chunkSize, long timeoutMillis) {
+        Assert.isTrue(maxEntriesPerSecond >= 0, "Entries per second must not be negative");
+        Assert.isTrue(maxBytesPerSecond >= 0, "Bytes per second must not be negative");
+        Assert.isTrue(chunkSize > 0, "Chunk size must be positive");
+        Assert.isTrue(timeoutMillis > 0, "State transfer timeout must be positive");
+
+        this.cacheName = cacheName;
+        this.maxEntriesPerSecond = maxEntriesPerSecond;
+        this.maxBytesPerSecond = maxBytesPerSecond;
+        maxWait = TimeUnit.MILLISECONDS.toNanos(timeoutMillis) / TIMEOUT_SHARE / chunkSize;
+    }
+
+    public boolean isEnabled() {
+        return maxEntriesPerSecond > 0 || maxBytesPerSecond > 0;
+    }
+
+    /**
+     * Blocks until the entry fits into the rate, or for maxWait at most
+     *
+     * @return nanoseconds spent waiting
+     */
+    public long acquire(long bytes) {
+        if (!isEnabled()) {
+            return 0;
+        }
+
+        final long start = System.nanoTime();
+        long until;
+        boolean capped = false;
+
+        synchronized (this) {
+            if (maxEntriesPerSecond > 0) {
+                entriesPaidUntil = Math.max(entriesPaidUntil, start - BURST) + TimeUnit.SECONDS.toNanos(1) / maxEntriesPerSecond;
+            }
+
+            if (maxBytesPerSecond > 0) {
+                bytesPaidUntil = Math.max(bytesPaidUntil, start - BURST) + TimeUnit.SECONDS.toNanos(bytes) / maxBytesPerSecond;
+            }
+
+            until = Math.max(entriesPaidUntil, bytesPaidUntil);
+            if (until - start > maxWait) {
+                until = start + maxWait;
+                entriesPaidUntil = Math.min(entriesPaidUntil, until);
+                bytesPaidUntil = Math.min(bytesPaidUntil, until);
+                capped = true;
+            }
+        }
+
+        if (capped) {
+            saturated.increment();
+            warnSaturated(start);
+        }
+
+        long now = start;
+        while (now < until) {
+            LockSupport.parkNanos(until - now);
+            if (Thread.interrupted()) {
+                Thread.currentThread().interrupt();
+                break;
+            }
+
+            now = System.nanoTime();
+        }
+
+        return now - start;
+    }
+
+    /**
+     * @return entries which passed after maxWait instead of waiting for their turn
+     */
+    public long getSaturated() {
+        return saturated.sum();
+    }
+
+    private void warnSaturated(long now) {
+        final long last = lastWarning;
+        if (now - last < WARNING_INTERVAL) {
+            return;
+        }
+
+        lastWarning = now;
+        log.warn(
+            "State transfer throttle of {} is saturated, {} entries so far passed after {}ms instead of their turn. "
+                + "Raise the limits or stateTransfer.timeout, or lower stateTransferChunkSize",
+            cacheName, getSaturated(), TimeUnit.NANOSECONDS.toMillis(maxWait)
+        );
+    }
+
+    @Override
+    public String toString() {
+        return "StateTransferThrottle(maxEntriesPerSecond=" + maxEntriesPerSecond
+            + ", maxBytesPerSecond=" + maxBytesPerSecond + ", maxWaitMillis=" + TimeUnit.NANOSECONDS.toMillis(maxWait) + ")";
+    }
+
+}
@@ -0,0 +1,60 @@
+package com.zalora.aloha.storage;
+
+import java.util.concurrent.atomic.LongAdder;
+import org.infinispan.commons.marshall.WrappedBytes;
+import org.infinispan.container.entries.InternalCacheEntry;
+import org.infinispan.container.offheap.BoundedOffHeapDataContainer;
+import org.infinispan.eviction.EvictionType;
+
+/**
+ * Infinispan's bounded off-heap container doesn't report evictions, neither to the statistics nor to listeners
+ * Removals which don't come from remove() or evict() are the ones made to get back below the maximum size
+ *
+ * @author Wolfram Huesken <wolfram.huesken@zalora.com>
+ */
+public class EvictionCountingOffHeapDataContainer extends BoundedOffHeapDataContainer {
+
+    private final ThreadLocal<Boolean> removing = ThreadLocal.withInitial(() -> false);
+
+    private final LongAdder evictions = new LongAdder();
+
+    public EvictionCountingOffHeapDataContainer(int addressCount, long maxSize) {
+        super(addressCount, maxSize, EvictionType.MEMORY);
+    }
+
+    public long getEvictions() {
+        return evictions.sum();
+    }
+
+    @Override
+    public InternalCacheEntry<WrappedBytes, WrappedBytes> remove(Object key) {
+        removing.set(true);
+
+        try {
+            return super.remove(key);
+        } finally {
+            removing.set(false);
+        }
+    }
+
+    @Override
+    public void evict(WrappedBytes key) {
+        removing.set(true);
+
+        try {
+            super.evict(key);
+        } finally {
+            removing.set(false);
+        }
+    }
+
+    @Override
+    protected InternalCacheEntry<WrappedBytes, WrappedBytes> performRemove(long address, Object key) {
+        if (!removing.get()) {
+            evictions.increment();
+        }
+
+        return super.performRemove(address, key);
+    }
+
+}
@@ -0,0 +1,85 @@
+package com.zalora.aloha.storage;
+
+import com.zalora.aloha.compressor.CompressedBytes;
+import com.zalora.aloha.memcached.MemcachedItem;
+import org.infinispan.commons.marshall.WrappedByteArray;
+import org.infinispan.commons.util.EntrySizeCalculator;
+
+/**
+ * Estimates the heap footprint of cache entries, so caches holding MemcachedItems can be bounded by memory
+ * Infinispan only knows how to size primitives, Strings and byte arrays, which rules out compatibility mode
+ *
+ * Sizes assume a 64 bit JVM with compressed oops
+ *
+ * @author Wolfram Huesken <wolfram.huesken@zalora.com>
+ */
+public class MemcachedItemSizeCalculator implements EntrySizeCalculator<Object, Object> {
+
+    private static final int OBJECT_HEADER = 12;
+    private static final int ARRAY_HEADER = 16;
+    private static final int REFERENCE = 4;
+
+    /**
+     * Rough size of the map node, the cache entry and its metadata
+     */
+    private static final int ENTRY_OVERHEAD = 112;
+
+    /**
+     * Header, 2 references, 2 longs
+     */
+    private static final int ITEM_SIZE = align(OBJECT_HEADER + 2 * REFERENCE + 2 * Long.BYTES);
+
+    /**
+     * Header, char[] reference and the hash
+     */
+    private static final int STRING_SIZE = align(OBJECT_HEADER + REFERENCE + Integer.BYTES);
+
+    /**
+     * Header, byte[] reference and the hash, HotRod writes land as these in compatibility mode
+     */
+    private static final int WRAPPED_BYTES_SIZE = align(OBJECT_HEADER + REFERENCE + Integer.BYTES);
+
+    /**
+     * Header, byte[] reference, the flags and the wrapped flag
+     */
+    private static final int COMPRESSED_BYTES_SIZE = align(OBJECT_HEADER + REFERENCE + Long.BYTES + 1);
+
+    @Override
+    public long calculateSize(Object key, Object value) {
+        return ENTRY_OVERHEAD + sizeOf(key) + sizeOf(value);
+    }
+
+    private static long sizeOf(Object object) {
+        if (object instanceof MemcachedItem) {
+            MemcachedItem item = (MemcachedItem) object;
+            return ITEM_SIZE + sizeOf(item.getKey()) + sizeOf(item.getData());
+        }
+
+        if (object instanceof String) {
+            return STRING_SIZE + align(ARRAY_HEADER + 2L * ((String) object).length());
+        }
+
+        if (object instanceof WrappedByteArray) {
+            return WRAPPED_BYTES_SIZE + sizeOf(((WrappedByteArray) object).getBytes());
+        }
+
+        if (object instanceof CompressedBytes) {
+            return COMPRESSED_BYTES_SIZE + sizeOf(((CompressedBytes) object).getData());
+        }
+
+        if (object instanceof byte[]) {
+            return align(ARRAY_HEADER + (long) ((byte[]) object).length);
+        }
+
+        return object == null ? 0 : align(OBJECT_HEADER);
+    }
+
+    private static int align(int size) {
+        return (size + 7) & ~7;
+    }
+
+    private static long align(long size) {
+        return (size + 7) & ~7L;
+    }
+
+}
@@ -1,12 +1,8 @@
 package com.zalora.jgroups.aws;
 
-import com.amazonaws.auth.*;
-import com.amazonaws.services.ec2.AmazonEC2;
-import com.amazonaws.services.ec2.AmazonEC2ClientBuilder;
-import com.amazonaws.services.ec2.model.*;
 import org.jgroups.Address;
 import org.jgroups.*;
-import org.jgroups.annotations.Property;
+import org.jgroups.annotations.*;
 import org.jgroups.conf.ClassConfigurator;
 import org.jgroups.protocols.*;
 import org.jgroups.stack.IpAddress;
@@ -14,12 +10,21 @@ import org.jgroups.util.NameCache;
 import org.jgroups.util.Responses;
 import org.slf4j.Logger;
 import java.net.UnknownHostException;
-import java.util.ArrayList;
-import java.util.List;
+import java.nio.file.Paths;
+import java.util.*;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.AtomicLong;
 
 /**
  * Ported AWS_PING to JGroups 4
  *
+ * The member list is cached, so discovery rounds, including the ones of MERGE3, don't wait for EC2.
+ * A background task refreshes it every refresh_interval, discovery only refreshes it itself
+ * once it's older than cache_ttl. If a refresh fails, the previous list stays in use and discovery doesn't try again
+ * before refresh_interval (or cache_ttl without background refreshes), so it doesn't wait for a failing EC2 each round.
+ *
+ * Members can come from a file or a static list instead of EC2, e.g. to run a cluster locally.
+ *
  * @author Wolfram Huesken <wolfram.huesken@zalora.com>
  * @link https://github.com/meltmedia/jgroups-aws
  */
@@ -43,44 +48,78 @@ public class AWS_PING extends Discovery {
     @Property(description = "The port number being used for cluster membership. The default is 7800.")
     protected int port = 7800;
 
-    /**
-     * The EC2 client used to look up cluster members.
-     */
-    private AmazonEC2 ec2;
+    @Property(description = "Where members are looked up: ec2, file or static. The default is ec2.")
+    protected String source = "ec2";
 
-    /**
-     * Describe request contains the filters
-     * All programmatic, not this string parsing shit show
-     */
-    private DescribeInstancesRequest describeInstancesRequest = new DescribeInstancesRequest();
+    @Property(description = "Source file: one member per line as host or host:port")
+    protected String members_file;
+
+    @Property(description = "Source static: comma separated members as host or host:port")
+    protected String hosts;
+
+    @Property(description = "Discovery refreshes a member list older than this itself (ms). The default is 60000.")
+    protected long cache_ttl = 60000;
+
+    @Property(description = "Interval of the background refresh of the member list (ms), 0 disables it. The default is 30000.")
+    protected long refresh_interval = 30000;
+
+    private final AtomicLong refreshes = new AtomicLong();
+
+    private final AtomicLong failedRefreshes = new AtomicLong();
+
+    private MemberSource memberSource;
+
+    private volatile Members members = new Members(Collections.emptyList(), 0);
 
     /**
-     * Scans the environment for information about the AWS node that we are
-     * currently running on and parses the filters and tags.
+     * Discovery refreshes the list itself from this point in time on (ms)
      */
+    private volatile long refreshDue;
+
+    private final Object refreshLock = new Object();
+
+    private Future<?> refreshTask;
+
     public void init() throws Exception {
         super.init();
 
-        List<Filter> filters = new ArrayList<>();
-        filters.add(new Filter(String.format("tag:%s", key), new ArrayList<String>() {{
-            add(value);
-        }}));
+        switch (source) {
+            case "ec2":
+                logger.info("AWS_PING is filtering by {}:{} in region {}", key, value, region);
+                memberSource = new Ec2MemberSource(key, value, region);
+                break;
+            case "file":
+                memberSource = new FileMemberSource(Paths.get(members_file));
+                break;
+            case "static":
+                memberSource = new StaticMemberSource(hosts);
+                break;
+            default:
+                throw new IllegalArgumentException("Unknown member source " + source + ", use ec2, file or static");
+        }
 
-        logger.info("AWS_PING is filtering by {}:{} in region {}", key, value, region);
+        logger.info("AWS_PING looks up {}, cached for {}ms, refreshed every {}ms", memberSource, cache_ttl, refresh_interval);
+    }
 
-        filters.add(new Filter("instance-state-name", new ArrayList<String>() {{
-            add("running");
-        }}));
+    @Override
+    public void start() throws Exception {
+        super.start();
+        refresh();
+
+        if (refresh_interval > 0) {
+            refreshTask = timer.scheduleWithFixedDelay(
+                this::refresh, refresh_interval, refresh_interval, TimeUnit.MILLISECONDS, true
+            );
+        }
+    }
 
-        describeInstancesRequest.setFilters(filters);
+    @Override
+    public void stop() {
+        if (refreshTask != null) {
+            refreshTask.cancel(false);
+        }
 
-        // Try to get credentials from ENV and via an instance role
-        ec2 = AmazonEC2ClientBuilder.standard().withCredentials(
-            new AWSCredentialsProviderChain(
-                new InstanceProfileCredentialsProvider(true),
-                new EnvironmentVariableCredentialsProvider()
-            )
-        ).withRegion(region).build();
+        super.stop();
     }
 
     @Override
@@ -97,9 +136,36 @@ public class AWS_PING extends Discovery {
     }
 
     /**
-     * Fetches all of the cluster members found on EC2. The host portion of the
-     * addresses are the private ip addresses of the matching nodes. The port
-     * numbers of the addresses are set to the port number
+     * Replaces the member source, e.g. with a StaticMemberSource in tests
+     */
+    public void setMemberSource(MemberSource memberSource) {
+        this.memberSource = memberSource;
+    }
+
+    @ManagedAttribute(description = "Successful lookups of the member list")
+    public long getRefreshes() {
+        return refreshes.get();
+    }
+
+    @ManagedAttribute(description = "Failed lookups of the member list")
+    public long getFailedRefreshes() {
+        return failedRefreshes.get();
+    }
+
+    @ManagedAttribute(description = "Number of members in the cached list")
+    public int getCachedMembers() {
+        return members.addresses.size();
+    }
+
+    @ManagedAttribute(description = "Age of the cached member list (ms)")
+    public long getCacheAge() {
+        return members.fetched == 0 ? -1 : System.currentTimeMillis() - members.fetched;
+    }
+
+    /**
+     * Sends a discovery request to every member of the cached list in parallel. The host portion of the
+     * addresses are the private ip addresses of the matching nodes. The port numbers of the addresses
+     * are set to the port number unless the source brings its own
      *
      * @param members
      * @param initial_discovery
@@ -112,9 +178,7 @@ public class AWS_PING extends Discovery {
         PingData data = new PingData(local_addr, false, NameCache.get(local_addr), physical_addr);
         PingHeader hdr = new PingHeader(PingHeader.GET_MBRS_REQ).clusterName(cluster_name);
 
-        List<PhysicalAddress> clusterMembers = expandClusterMemberPorts(getPrivateIpAddresses());
-
-        for (final PhysicalAddress addr : clusterMembers) {
+        for (final PhysicalAddress addr : cachedMembers()) {
             if (physical_addr != null && addr.equals(physical_addr)) {
                 continue;
             }
@@ -123,51 +187,70 @@ public class AWS_PING extends Discovery {
                 Message.Flag.INTERNAL, Message.Flag.DONT_BUNDLE, Message.Flag.OOB
             ).putHeader(this.id, hdr).setBuffer(marshal(data));
 
-            if (async_discovery_use_separate_thread_per_request) {
-                timer.execute(() -> sendDiscoveryRequest(msg), sends_can_block);
-            } else {
-                sendDiscoveryRequest(msg);
-            }
+            timer.execute(() -> sendDiscoveryRequest(msg), sends_can_block);
         }
     }
 
-    private List<PhysicalAddress> expandClusterMemberPorts(List<String> privateIpAddresses) {
-        List<PhysicalAddress> clusterMembers = new ArrayList<>();
-
-        for (String privateIpAddress : privateIpAddresses) {
-            try {
-                clusterMembers.add(new IpAddress(privateIpAddress, port));
-            } catch (UnknownHostException e) {
-                logger.warn("Could not create an IpAddress for " + privateIpAddress + ":" + port);
+    /**
+     * @return the cached list, refreshed first if it's older than cache_ttl and the last attempt didn't fail recently
+     */
+    private List<PhysicalAddress> cachedMembers() {
+        if (System.currentTimeMillis() > refreshDue) {
+            synchronized (refreshLock) {
+                if (System.currentTimeMillis() > refreshDue) {
+                    refresh();
+                }
             }
         }
 
-        return clusterMembers;
+        return members.addresses;
     }
 
     /**
-     * Gets the list of private IP addresses found in AWS based on the filters and
-     * tag names defined.
-     *
-     * @return the list of private IP addresses found on AWS.
+     * Looks the members up again, the previous list stays if that fails and discovery backs off
      */
-    private List<String> getPrivateIpAddresses() {
-        List<String> ipAddresses = new ArrayList<>();
-
-        DescribeInstancesResult describeInstancesResult = ec2.describeInstances(describeInstancesRequest);
-        for (Reservation reservation : describeInstancesResult.getReservations()) {
-            for (Instance instance : reservation.getInstances()) {
-                try {
-                    ipAddresses.add(instance.getPrivateIpAddress());
-                } catch (Exception ex) {
-                    logger.error("Failed to parse IP address", ex);
-                }
-            }
+    private void refresh() {
+        try {
+            final long start = System.nanoTime();
+            List<PhysicalAddress> addresses = toAddresses(memberSource.fetchMembers());
+
+            members = new Members(addresses, System.currentTimeMillis());
+            refreshDue = members.fetched + cache_ttl;
+            refreshes.incrementAndGet();
+
+            logger.debug(
+                "Discovered {} members in {}ms: {}",
+                addresses.size(), TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start), addresses
+            );
+        } catch (Exception ex) {
+            final long retryDelay = refresh_interval > 0 ? refresh_interval : cache_ttl;
+            refreshDue = System.currentTimeMillis() + retryDelay;
+            failedRefreshes.incrementAndGet();
+
+            logger.warn(
+                "Looking up {} failed, keeping {} known members, discovery tries again in {}ms",
+                memberSource, members.addresses.size(), retryDelay, ex
+            );
         }
+    }
+
+    private List<PhysicalAddress> toAddresses(List<String> hosts) {
+        List<PhysicalAddress> addresses = new ArrayList<>(hosts.size());
+
+        for (String host : hosts) {
+            final int colon = host.lastIndexOf(':');
+            final boolean hasPort = colon > 0 && host.indexOf(':') == colon;
 
-        logger.debug("Discovered IP addresses: {}", ipAddresses);
+            try {
+                addresses.add(hasPort
+                    ? new IpAddress(host.substring(0, colon), Integer.parseInt(host.substring(colon + 1)))
+                    : new IpAddress(host, port));
+            } catch (UnknownHostException | NumberFormatException e) {
+                logger.warn("Could not create an IpAddress for " + host);
+            }
+        }
 
-        return ipAddresses;
+        return Collections.unmodifiableList(addresses);
     }
 
     private void sendDiscoveryRequest(Message req) {
@@ -179,4 +262,18 @@ public class AWS_PING extends Discovery {
         }
     }
 
+    /**
+     * Member list with the time it was looked up, replaced as a whole
+     */
+    private static class Members {
+
+        private final List<PhysicalAddress> addresses;
+        private final long fetched;
+
+        Members(List<PhysicalAddress> addresses, long fetched) {
+            this.addresses = addresses;
+            this.fetched = fetched;
+        }
+    }
+
 }
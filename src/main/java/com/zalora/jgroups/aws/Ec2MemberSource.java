@@ -0,0 +1,65 @@
+package com.zalora.jgroups.aws;
+
+import com.amazonaws.auth.*;
+import com.amazonaws.services.ec2.AmazonEC2;
+import com.amazonaws.services.ec2.AmazonEC2ClientBuilder;
+import com.amazonaws.services.ec2.model.*;
+import java.util.*;
+
+/**
+ * Private IP addresses of the running instances carrying a tag
+ * Credentials come from the instance role or the environment
+ *
+ * @author Wolfram Huesken <wolfram.huesken@zalora.com>
+ */
+public class Ec2MemberSource implements MemberSource {
+
+    private final AmazonEC2 ec2;
+
+    private final List<Filter> filters = new ArrayList<>();
+
+    public Ec2MemberSource(String key, String value, String region) {
+        filters.add(new Filter(String.format("tag:%s", key), Collections.singletonList(value)));
+        filters.add(new Filter("instance-state-name", Collections.singletonList("running")));
+
+        ec2 = AmazonEC2ClientBuilder.standard().withCredentials(
+            new AWSCredentialsProviderChain(
+                new InstanceProfileCredentialsProvider(true),
+                new EnvironmentVariableCredentialsProvider()
+            )
+        ).withRegion(region).build();
+    }
+
+    /**
+     * Follows the pages of the result, large clusters don't fit into one
+     */
+    @Override
+    public List<String> fetchMembers() {
+        List<String> ipAddresses = new ArrayList<>();
+        String nextToken = null;
+
+        do {
+            DescribeInstancesResult result = ec2.describeInstances(
+                new DescribeInstancesRequest().withFilters(filters).withNextToken(nextToken)
+            );
+
+            for (Reservation reservation : result.getReservations()) {
+                for (Instance instance : reservation.getInstances()) {
+                    if (instance.getPrivateIpAddress() != null) {
+                        ipAddresses.add(instance.getPrivateIpAddress());
+                    }
+                }
+            }
+
+            nextToken = result.getNextToken();
+        } while (nextToken != null);
+
+        return ipAddresses;
+    }
+
+    @Override
+    public String toString() {
+        return "EC2 instances with " + filters;
+    }
+
+}
@@ -0,0 +1,43 @@
+package com.zalora.jgroups.aws;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.*;
+import java.util.*;
+
+/**
+ * Members listed in a file, one host or host:port per line, # starts a comment
+ * The file is read on every refresh, so members can be added and removed while the cluster runs
+ *
+ * @author Wolfram Huesken <wolfram.huesken@zalora.com>
+ */
+public class FileMemberSource implements MemberSource {
+
+    private final Path path;
+
+    public FileMemberSource(Path path) {
+        this.path = path;
+    }
+
+    @Override
+    public List<String> fetchMembers() throws IOException {
+        List<String> members = new ArrayList<>();
+
+        for (String line : Files.readAllLines(path, StandardCharsets.UTF_8)) {
+            final int comment = line.indexOf('#');
+            final String member = (comment < 0 ? line : line.substring(0, comment)).trim();
+
+            if (!member.isEmpty()) {
+                members.add(member);
+            }
+        }
+
+        return members;
+    }
+
+    @Override
+    public String toString() {
+        return "members in " + path;
+    }
+
+}
@@ -0,0 +1,18 @@
+package com.zalora.jgroups.aws;
+
+import java.util.List;
+
+/**
+ * Where AWS_PING looks up the hosts of the cluster members
+ *
+ * @author Wolfram Huesken <wolfram.huesken@zalora.com>
+ */
+public interface MemberSource {
+
+    /**
+     * @return members as host or host:port, the port of AWS_PING is used if there is none
+     * @throws Exception if the members can't be looked up, AWS_PING keeps the previous list then
+     */
+    List<String> fetchMembers() throws Exception;
+
+}
@@ -0,0 +1,34 @@
+package com.zalora.jgroups.aws;
+
+import java.util.*;
+
+/**
+ * Members held in memory, given as a comma separated list or replaced at runtime
+ *
+ * @author Wolfram Huesken <wolfram.huesken@zalora.com>
+ */
+public class StaticMemberSource implements MemberSource {
+
+    private volatile List<String> members;
+
+    public StaticMemberSource(String members) {
+        setMembers(members == null || members.trim().isEmpty()
+            ? Collections.emptyList()
+            : Arrays.asList(members.trim().split("\\s*,\\s*")));
+    }
+
+    public void setMembers(List<String> members) {
+        this.members = Collections.unmodifiableList(new ArrayList<>(members));
+    }
+
+    @Override
+    public List<String> fetchMembers() {
+        return members;
+    }
+
+    @Override
+    public String toString() {
+        return "members " + members;
+    }
+
+}
@@ -0,0 +1,173 @@
+package com.zalora.jgroups.compress;
+
+import com.zalora.aloha.compressor.ThreadLocalBuffer;
+import java.util.concurrent.atomic.LongAdder;
+import net.jpountz.lz4.*;
+import org.jgroups.Message;
+import org.jgroups.annotations.*;
+import org.jgroups.conf.ClassConfigurator;
+import org.jgroups.stack.Protocol;
+import org.jgroups.util.MessageBatch;
+import org.slf4j.Logger;
+
+/**
+ * Compresses message payloads with LZ4, like JGroups' COMPRESS does with Deflater
+ *
+ * Payloads of at least min_size bytes are compressed into a per-thread scratch buffer, and only copied into the
+ * message if they shrank. Everything else is sent as it is. Compressed messages carry an Lz4Header with the
+ * original size. Received messages without one pass untouched, so a node without the protocol can still talk to
+ * nodes which have it, as long as no compressed message reaches it.
+ *
+ * Goes above FRAG3, so large messages are compressed before they're fragmented, and above NAKACK2 and UNICAST3,
+ * so retransmissions send the compressed copy.
+ *
+ * @author Wolfram Huesken <wolfram.huesken@zalora.com>
+ */
+@MBean(description = "LZ4 compression of message payloads")
+public class LZ4_COMPRESS extends Protocol {
+
+    private static final Logger logger = org.slf4j.LoggerFactory.getLogger(LZ4_COMPRESS.class);
+
+    static {
+        ClassConfigurator.addProtocol((short) 667, LZ4_COMPRESS.class);
+        ClassConfigurator.add(Lz4Header.MAGIC_ID, Lz4Header.class);
+    }
+
+    @Property(description = "Payloads smaller than this are sent uncompressed (bytes). The default is 512.")
+    protected int min_size = 512;
+
+    @Property(description = "Largest scratch buffer kept per sending thread (bytes). The default is 1048576.")
+    protected int max_buffer_size = 1048576;
+
+    private LZ4Compressor compressor;
+    private LZ4FastDecompressor decompressor;
+    private ThreadLocalBuffer buffers;
+
+    private final LongAdder compressed = new LongAdder();
+    private final LongAdder skipped = new LongAdder();
+    private final LongAdder rejected = new LongAdder();
+    private final LongAdder decompressed = new LongAdder();
+    private final LongAdder bytesIn = new LongAdder();
+    private final LongAdder bytesOut = new LongAdder();
+
+    @Override
+    public void init() throws Exception {
+        super.init();
+
+        LZ4Factory factory = LZ4Factory.fastestInstance();
+        compressor = factory.fastCompressor();
+        decompressor = factory.fastDecompressor();
+        buffers = new ThreadLocalBuffer(max_buffer_size);
+
+        logger.info("LZ4_COMPRESS compresses payloads from {} bytes on", min_size);
+    }
+
+    @Override
+    public Object down(Message msg) {
+        final int length = msg.getLength();
+        if (length == 0) {
+            return down_prot.down(msg);
+        }
+
+        if (length < min_size) {
+            skipped.increment();
+            return down_prot.down(msg);
+        }
+
+        final byte[] scratch = buffers.get(compressor.maxCompressedLength(length));
+        final int compressedLength = compressor.compress(
+            msg.getRawBuffer(), msg.getOffset(), length, scratch, 0, scratch.length
+        );
+
+        if (compressedLength >= length) {
+            rejected.increment();
+            return down_prot.down(msg);
+        }
+
+        byte[] payload = new byte[compressedLength];
+        System.arraycopy(scratch, 0, payload, 0, compressedLength);
+
+        compressed.increment();
+        bytesIn.add(length);
+        bytesOut.add(compressedLength);
+
+        // The original may still be retransmitted by a protocol above, so it's left as it is
+        Message copy = msg.copy(false).setBuffer(payload).putHeader(id, new Lz4Header(length));
+        return down_prot.down(copy);
+    }
+
+    @Override
+    public Object up(Message msg) {
+        Lz4Header header = msg.getHeader(id);
+        return up_prot.up(header == null ? msg : decompress(msg, header));
+    }
+
+    @Override
+    public void up(MessageBatch batch) {
+        for (Message msg : batch) {
+            Lz4Header header = msg.getHeader(id);
+            if (header != null) {
+                batch.replace(msg, decompress(msg, header));
+            }
+        }
+
+        if (!batch.isEmpty()) {
+            up_prot.up(batch);
+        }
+    }
+
+    private Message decompress(Message msg, Lz4Header header) {
+        byte[] payload = new byte[header.getOriginalSize()];
+        decompressor.decompress(msg.getRawBuffer(), msg.getOffset(), payload, 0, payload.length);
+        decompressed.increment();
+
+        return msg.copy(false).setBuffer(payload);
+    }
+
+    @ManagedAttribute(description = "Messages sent compressed")
+    public long getCompressed() {
+        return compressed.sum();
+    }
+
+    @ManagedAttribute(description = "Messages sent uncompressed because they're smaller than min_size")
+    public long getSkipped() {
+        return skipped.sum();
+    }
+
+    @ManagedAttribute(description = "Messages sent uncompressed because compression didn't shrink them")
+    public long getRejected() {
+        return rejected.sum();
+    }
+
+    @ManagedAttribute(description = "Compressed messages received")
+    public long getDecompressed() {
+        return decompressed.sum();
+    }
+
+    @ManagedAttribute(description = "Payload bytes of the messages sent compressed, before compression")
+    public long getBytesIn() {
+        return bytesIn.sum();
+    }
+
+    @ManagedAttribute(description = "Payload bytes of the messages sent compressed, after compression")
+    public long getBytesOut() {
+        return bytesOut.sum();
+    }
+
+    @ManagedAttribute(description = "Bytes not sent thanks to compression")
+    public long getBytesSaved() {
+        return bytesIn.sum() - bytesOut.sum();
+    }
+
+    @ManagedOperation(description = "Resets the counters")
+    @Override
+    public void resetStats() {
+        compressed.reset();
+        skipped.reset();
+        rejected.reset();
+        decompressed.reset();
+        bytesIn.reset();
+        bytesOut.reset();
+    }
+
+}
@@ -0,0 +1,60 @@
+package com.zalora.jgroups.compress;
+
+import java.io.*;
+import java.util.function.Supplier;
+import org.jgroups.Header;
+import org.jgroups.util.Bits;
+
+/**
+ * Marks a message compressed by LZ4_COMPRESS, LZ4's fast decompressor needs the original length
+ *
+ * @author Wolfram Huesken <wolfram.huesken@zalora.com>
+ */
+public class Lz4Header extends Header {
+
+    static final short MAGIC_ID = 1667;
+
+    private int originalSize;
+
+    public Lz4Header() {
+    }
+
+    public Lz4Header(int originalSize) {
+        this.originalSize = originalSize;
+    }
+
+    public int getOriginalSize() {
+        return originalSize;
+    }
+
+    @Override
+    public short getMagicId() {
+        return MAGIC_ID;
+    }
+
+    @Override
+    public Supplier<? extends Header> create() {
+        return Lz4Header::new;
+    }
+
+    @Override
+    public int serializedSize() {
+        return Bits.size(originalSize);
+    }
+
+    @Override
+    public void writeTo(DataOutput out) throws Exception {
+        Bits.writeInt(originalSize, out);
+    }
+
+    @Override
+    public void readFrom(DataInput in) throws Exception {
+        originalSize = Bits.readInt(in);
+    }
+
+    @Override
+    public String toString() {
+        return "original size " + originalSize;
+    }
+
+}
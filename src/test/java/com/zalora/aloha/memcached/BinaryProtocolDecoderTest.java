@@ -0,0 +1,217 @@
+package com.zalora.aloha.memcached;
+
+import static org.junit.Assert.*;
+
+import com.zalora.aloha.memcached.MemcachedCommand.Op;
+import com.zalora.aloha.memcached.MemcachedResponse.Status;
+import io.netty.buffer.*;
+import io.netty.channel.embedded.EmbeddedChannel;
+import java.nio.charset.StandardCharsets;
+import org.junit.*;
+
+/**
+ * @author Wolfram Huesken <wolfram.huesken@zalora.com>
+ */
+public class BinaryProtocolDecoderTest {
+
+    private static final int MAX_ITEM_SIZE = 16;
+
+    private static final byte GET = 0x00;
+    private static final byte SET = 0x01;
+    private static final byte INCR = 0x05;
+    private static final byte GETQ = 0x09;
+    private static final byte NOOP = 0x0a;
+    private static final byte GETK = 0x0c;
+    private static final byte SETQ = 0x11;
+    private static final byte DELETEQ = 0x14;
+    private static final byte DECRQ = 0x16;
+
+    private EmbeddedChannel channel;
+
+    @Before
+    public void setUp() {
+        channel = new EmbeddedChannel(new BinaryProtocolDecoder(MAX_ITEM_SIZE));
+    }
+
+    @After
+    public void tearDown() {
+        channel.finishAndReleaseAll();
+    }
+
+    @Test
+    public void decodesPipelinedCommands() {
+        ByteBuf in = Unpooled.buffer();
+        in.writeBytes(request(GETQ, 1, 0, "a", new byte[0], new byte[0]));
+        in.writeBytes(request(GETK, 2, 0, "b", new byte[0], new byte[0]));
+        in.writeBytes(request(SET, 3, 42, "k", storageExtras(5, 60), bytes("hello")));
+        in.writeBytes(request(NOOP, 4, 0, null, new byte[0], new byte[0]));
+        channel.writeInbound(in);
+
+        MemcachedCommand getq = read();
+        assertEquals(Op.GET, getq.getOp());
+        assertEquals("a", getq.getKey());
+        assertTrue(getq.isQuiet());
+        assertTrue(getq.isBinary());
+        assertEquals(1, getq.getOpaque());
+
+        MemcachedCommand getk = read();
+        assertEquals(Op.GET, getk.getOp());
+        assertFalse(getk.isQuiet());
+        assertTrue(getk.isReturnKey());
+
+        // SET with a version turns into CAS
+        MemcachedCommand set = read();
+        assertEquals(Op.CAS, set.getOp());
+        assertEquals(42, set.getCas());
+        assertEquals(5, set.getFlags());
+        assertEquals(60, set.getExpire());
+        assertArrayEquals(bytes("hello"), set.getData());
+        assertEquals(SET, set.getOpcode());
+
+        assertEquals(Op.NOOP, read().getOp());
+        assertNull(channel.readInbound());
+    }
+
+    @Test
+    public void waitsForSplitRequests() {
+        ByteBuf request = request(SETQ, 7, 0, "key", storageExtras(0, 0), bytes("value"));
+
+        channel.writeInbound(request.readRetainedSlice(10));
+        assertNull(channel.readInbound());
+
+        channel.writeInbound(request.readRetainedSlice(BinaryProtocolDecoder.HEADER_LENGTH));
+        assertNull(channel.readInbound());
+
+        channel.writeInbound(request);
+
+        MemcachedCommand set = read();
+        assertEquals(Op.SET, set.getOp());
+        assertEquals("key", set.getKey());
+        assertTrue(set.isQuiet());
+        assertEquals(7, set.getOpaque());
+        assertArrayEquals(bytes("value"), set.getData());
+    }
+
+    @Test
+    public void discardsOversizedBody() {
+        ByteBuf request = request(SET, 9, 0, "big", storageExtras(0, 0), new byte[1024]);
+        channel.writeInbound(request.readRetainedSlice(BinaryProtocolDecoder.HEADER_LENGTH + 100));
+
+        MemcachedCommand error = read();
+        assertEquals(Op.ERROR, error.getOp());
+        assertEquals(Status.TOO_LARGE, error.getError());
+        assertEquals(SET, error.getOpcode());
+        assertEquals(9, error.getOpaque());
+        assertNull(channel.readInbound());
+
+        // Rest of the body arrives later and must not be taken for requests
+        ByteBuf in = Unpooled.buffer();
+        in.writeBytes(request);
+        in.writeBytes(request(GET, 10, 0, "k", new byte[0], new byte[0]));
+        request.release();
+        channel.writeInbound(in);
+
+        MemcachedCommand get = read();
+        assertEquals(Op.GET, get.getOp());
+        assertEquals("k", get.getKey());
+        assertEquals(10, get.getOpaque());
+    }
+
+    @Test
+    public void decodesQuietOpcodes() {
+        ByteBuf in = Unpooled.buffer();
+        in.writeBytes(request(DELETEQ, 1, 0, "k", new byte[0], new byte[0]));
+        in.writeBytes(request(DECRQ, 2, 0, "n", arithmeticExtras(3, 10, 0xffffffffL), new byte[0]));
+        channel.writeInbound(in);
+
+        MemcachedCommand delete = read();
+        assertEquals(Op.DELETE, delete.getOp());
+        assertTrue(delete.isQuiet());
+
+        MemcachedCommand decr = read();
+        assertEquals(Op.DECR, decr.getOp());
+        assertTrue(decr.isQuiet());
+        assertEquals(3, decr.getDelta());
+        assertEquals(10, decr.getInitial());
+        assertTrue(decr.isFailIfMissing());
+        assertEquals(0, decr.getExpire());
+    }
+
+    @Test
+    public void decodesUnsignedDelta() {
+        channel.writeInbound(request(INCR, 1, 0, "n", arithmeticExtras(-1L, 0, 60), new byte[0]));
+
+        MemcachedCommand incr = read();
+        assertEquals(-1L, incr.getDelta());
+        assertFalse(incr.isFailIfMissing());
+        assertEquals(60, incr.getExpire());
+    }
+
+    @Test
+    public void rejectsInvalidArguments() {
+        ByteBuf in = Unpooled.buffer();
+        in.writeBytes(request(SET, 1, 0, "k", new byte[4], bytes("x")));
+        in.writeBytes(request(GET, 2, 0, null, new byte[0], new byte[0]));
+        in.writeBytes(request((byte) 0x7f, 3, 0, null, new byte[0], new byte[0]));
+        channel.writeInbound(in);
+
+        assertEquals(Status.CLIENT_ERROR, read().getError());
+        assertEquals(Status.CLIENT_ERROR, read().getError());
+        assertEquals(Status.UNKNOWN_COMMAND, read().getError());
+    }
+
+    @Test
+    public void closesOnBadMagic() {
+        ByteBuf request = request(GET, 1, 0, "k", new byte[0], new byte[0]);
+        request.setByte(0, 0x81);
+        channel.writeInbound(request);
+
+        assertNull(channel.readInbound());
+        assertFalse(channel.isOpen());
+    }
+
+    private MemcachedCommand read() {
+        MemcachedCommand command = channel.readInbound();
+        assertNotNull(command);
+        return command;
+    }
+
+    private static ByteBuf request(byte opcode, int opaque, long cas, String key, byte[] extras, byte[] value) {
+        final byte[] keyBytes = key == null ? new byte[0] : bytes(key);
+
+        ByteBuf request = Unpooled.buffer();
+        request.writeByte(BinaryProtocolDecoder.MAGIC_REQUEST);
+        request.writeByte(opcode);
+        request.writeShort(keyBytes.length);
+        request.writeByte(extras.length);
+        request.writeByte(0);
+        request.writeShort(0);
+        request.writeInt(extras.length + keyBytes.length + value.length);
+        request.writeInt(opaque);
+        request.writeLong(cas);
+        request.writeBytes(extras);
+        request.writeBytes(keyBytes);
+        request.writeBytes(value);
+        return request;
+    }
+
+    private static byte[] storageExtras(int flags, int expire) {
+        ByteBuf extras = Unpooled.buffer(8);
+        extras.writeInt(flags);
+        extras.writeInt(expire);
+        return extras.array();
+    }
+
+    private static byte[] arithmeticExtras(long delta, long initial, long expire) {
+        ByteBuf extras = Unpooled.buffer(20);
+        extras.writeLong(delta);
+        extras.writeLong(initial);
+        extras.writeInt((int) expire);
+        return extras.array();
+    }
+
+    private static byte[] bytes(String value) {
+        return value.getBytes(StandardCharsets.UTF_8);
+    }
+
+}
@@ -0,0 +1,162 @@
+package com.zalora.aloha.memcached;
+
+import static org.junit.Assert.*;
+
+import com.zalora.aloha.memcached.MemcachedCommand.Op;
+import com.zalora.aloha.memcached.MemcachedResponse.Status;
+import io.netty.channel.embedded.EmbeddedChannel;
+import java.nio.charset.StandardCharsets;
+import java.util.concurrent.*;
+import org.infinispan.AdvancedCache;
+import org.infinispan.configuration.cache.ConfigurationBuilder;
+import org.infinispan.manager.DefaultCacheManager;
+import org.junit.*;
+
+/**
+ * @author Wolfram Huesken <wolfram.huesken@zalora.com>
+ */
+public class MemcachedCommandHandlerTest {
+
+    private static DefaultCacheManager cacheManager;
+    private static AdvancedCache<Object, Object> cache;
+    private static ScheduledExecutorService scheduler;
+
+    private EmbeddedChannel channel;
+
+    @BeforeClass
+    public static void startCache() {
+        cacheManager = new DefaultCacheManager();
+        cacheManager.defineConfiguration("memcached", new ConfigurationBuilder().build());
+        cache = cacheManager.<Object, Object>getCache("memcached").getAdvancedCache();
+        scheduler = Executors.newSingleThreadScheduledExecutor();
+    }
+
+    @AfterClass
+    public static void stopCache() {
+        scheduler.shutdownNow();
+        cacheManager.stop();
+    }
+
+    @Before
+    public void setUp() {
+        cache.clear();
+        channel = new EmbeddedChannel(
+            new MemcachedCommandHandler(new MemcachedOperations(cache, null, scheduler, false))
+        );
+    }
+
+    @After
+    public void tearDown() {
+        channel.finishAndReleaseAll();
+    }
+
+    @Test
+    public void noreplySuppressesEverything() {
+        channel.writeInbound(
+            text(storage(Op.SET, "k", "v"), true),
+            text(command(Op.DELETE, "missing"), true),
+            text(command(Op.INCR, "k"), true)
+        );
+
+        assertNull(channel.readOutbound());
+        assertEquals(Status.NON_NUMERIC, execute(text(command(Op.INCR, "k"), false)).getStatus());
+    }
+
+    @Test
+    public void quietGetSuppressesMisses() {
+        channel.writeInbound(text(storage(Op.SET, "k", "v"), false));
+        assertEquals(Status.OK, response().getStatus());
+
+        channel.writeInbound(binary(command(Op.GET, "missing"), true), binary(command(Op.GET, "k"), true));
+
+        MemcachedResponse hit = response();
+        assertEquals(Status.OK, hit.getStatus());
+        assertEquals(1, hit.getItems().size());
+        assertNull(channel.readOutbound());
+    }
+
+    @Test
+    public void quietWritesSuppressSuccesses() {
+        channel.writeInbound(
+            binary(storage(Op.SET, "k", "v"), true),
+            binary(storage(Op.ADD, "k", "v"), true),
+            binary(command(Op.DELETE, "k"), true),
+            binary(command(Op.DELETE, "k"), true)
+        );
+
+        assertEquals(Status.NOT_STORED, response().getStatus());
+        assertEquals(Status.NOT_FOUND, response().getStatus());
+        assertNull(channel.readOutbound());
+    }
+
+    @Test
+    public void responsesAreNotSuppressedWithoutQuiet() {
+        assertEquals(Status.NOT_FOUND, execute(binary(command(Op.DELETE, "k"), false)).getStatus());
+        assertTrue(execute(binary(command(Op.GET, "k"), false)).getItems().isEmpty());
+        assertTrue(execute(text(command(Op.GET, "k"), false)).getItems().isEmpty());
+    }
+
+    @Test
+    public void responsesAreFlushedAfterTheRead() {
+        channel.writeInbound(text(command(Op.GET, "a"), false), text(command(Op.GET, "b"), false));
+
+        assertEquals("a", response().getCommand().getKey());
+        assertEquals("b", response().getCommand().getKey());
+    }
+
+    @Test
+    public void quitClosesTheConnection() {
+        channel.writeInbound(text(command(Op.QUIT, null), false));
+
+        assertNull(channel.readOutbound());
+        assertFalse(channel.isOpen());
+    }
+
+    @Test
+    public void binaryQuitIsAnswered() {
+        channel.writeInbound(binary(command(Op.QUIT, null), false));
+
+        assertEquals(Status.OK, response().getStatus());
+        assertFalse(channel.isOpen());
+    }
+
+    private MemcachedResponse execute(MemcachedCommand command) {
+        channel.writeInbound(command);
+        MemcachedResponse response = response();
+        assertNull(channel.readOutbound());
+        return response;
+    }
+
+    private MemcachedResponse response() {
+        MemcachedResponse response = channel.readOutbound();
+        assertNotNull(response);
+        return response;
+    }
+
+    private static MemcachedCommand command(Op op, String key) {
+        MemcachedCommand command = new MemcachedCommand(op);
+        if (key != null) {
+            command.setKey(key);
+        }
+
+        return command;
+    }
+
+    private static MemcachedCommand storage(Op op, String key, String value) {
+        MemcachedCommand command = command(op, key);
+        command.setData(value.getBytes(StandardCharsets.UTF_8));
+        return command;
+    }
+
+    private static MemcachedCommand text(MemcachedCommand command, boolean noreply) {
+        command.setQuiet(noreply);
+        return command;
+    }
+
+    private static MemcachedCommand binary(MemcachedCommand command, boolean quiet) {
+        command.setBinary(true);
+        command.setQuiet(quiet);
+        return command;
+    }
+
+}
@@ -0,0 +1,117 @@
+package com.zalora.aloha.memcached;
+
+import static org.junit.Assert.*;
+
+import com.zalora.aloha.memcached.MemcachedDelta.Result;
+import com.zalora.aloha.memcached.MemcachedDelta.Type;
+import java.nio.charset.StandardCharsets;
+import org.junit.Test;
+
+/**
+ * @author Wolfram Huesken <wolfram.huesken@zalora.com>
+ */
+public class MemcachedDeltaTest {
+
+    private static final byte[] CURRENT = bytes("hello world");
+
+    @Test
+    public void appends() {
+        MemcachedDelta delta = delta(Type.APPEND, 0, null, "!");
+
+        assertEquals(Result.STORED, delta.check(CURRENT));
+        assertEquals("hello world!", string(delta.applyTo(CURRENT)));
+        assertEquals(1, delta.size());
+    }
+
+    @Test
+    public void prepends() {
+        MemcachedDelta delta = delta(Type.PREPEND, 0, null, ">> ");
+
+        assertEquals(Result.STORED, delta.check(CURRENT));
+        assertEquals(">> hello world", string(delta.applyTo(CURRENT)));
+    }
+
+    @Test
+    public void patchesInPlace() {
+        MemcachedDelta delta = delta(Type.PATCH, 6, null, "WORLD");
+
+        assertEquals(Result.STORED, delta.check(CURRENT));
+        assertEquals("hello WORLD", string(delta.applyTo(CURRENT)));
+    }
+
+    @Test
+    public void patchGrowsTheItem() {
+        MemcachedDelta delta = delta(Type.PATCH, 6, null, "there, world");
+        assertEquals("hello there, world", string(delta.applyTo(CURRENT)));
+
+        // Patching right at the end appends
+        MemcachedDelta atEnd = delta(Type.PATCH, CURRENT.length, null, "!");
+        assertEquals(Result.STORED, atEnd.check(CURRENT));
+        assertEquals("hello world!", string(atEnd.applyTo(CURRENT)));
+    }
+
+    @Test
+    public void patchBeyondTheEndIsOutOfRange() {
+        assertEquals(Result.OUT_OF_RANGE, delta(Type.PATCH, CURRENT.length + 1, null, "!").check(CURRENT));
+        assertEquals(
+            Result.OUT_OF_RANGE, delta(Type.COMPARE_AND_PATCH, CURRENT.length + 1, "", "!").check(CURRENT)
+        );
+    }
+
+    @Test
+    public void compareAndPatchReplacesExpectedBytes() {
+        MemcachedDelta delta = delta(Type.COMPARE_AND_PATCH, 6, "world", "there");
+        assertEquals(Result.STORED, delta.check(CURRENT));
+        assertEquals("hello there", string(delta.applyTo(CURRENT)));
+        assertEquals(10, delta.size());
+
+        // Replacement may be shorter or longer than what it replaces
+        assertEquals("hello!", string(delta(Type.COMPARE_AND_PATCH, 5, " world", "!").applyTo(CURRENT)));
+        assertEquals(
+            "hello, big world", string(delta(Type.COMPARE_AND_PATCH, 5, " ", ", big ").applyTo(CURRENT))
+        );
+    }
+
+    @Test
+    public void compareAndPatchFailsOnChangedBytes() {
+        assertEquals(Result.EXISTS, delta(Type.COMPARE_AND_PATCH, 6, "there", "world").check(CURRENT));
+        assertEquals(Result.EXISTS, delta(Type.COMPARE_AND_PATCH, 0, "Hello", "howdy").check(CURRENT));
+    }
+
+    @Test
+    public void compareAndPatchFailsBeyondTheEnd() {
+        // Expected bytes start inside the item but reach beyond it
+        assertEquals(Result.EXISTS, delta(Type.COMPARE_AND_PATCH, 6, "world!", "there").check(CURRENT));
+    }
+
+    @Test
+    public void emptyExpectedBytesInsert() {
+        MemcachedDelta delta = delta(Type.COMPARE_AND_PATCH, 5, "", ",");
+
+        assertEquals(Result.STORED, delta.check(CURRENT));
+        assertEquals("hello, world", string(delta.applyTo(CURRENT)));
+    }
+
+    @Test
+    public void leavesTheCurrentDataAlone() {
+        byte[] current = CURRENT.clone();
+
+        delta(Type.PATCH, 0, null, "j").applyTo(current);
+        delta(Type.COMPARE_AND_PATCH, 0, "h", "j").applyTo(current);
+
+        assertArrayEquals(CURRENT, current);
+    }
+
+    private static MemcachedDelta delta(Type type, int offset, String expected, String data) {
+        return new MemcachedDelta(type, offset, expected == null ? null : bytes(expected), bytes(data), 1, -1);
+    }
+
+    private static byte[] bytes(String value) {
+        return value.getBytes(StandardCharsets.UTF_8);
+    }
+
+    private static String string(byte[] value) {
+        return new String(value, StandardCharsets.UTF_8);
+    }
+
+}
@@ -0,0 +1,158 @@
+package com.zalora.aloha.memcached;
+
+import static org.junit.Assert.*;
+
+import com.zalora.aloha.memcached.MemcachedCommand.Op;
+import com.zalora.aloha.memcached.MemcachedResponse.Status;
+import java.nio.charset.StandardCharsets;
+import java.util.concurrent.*;
+import org.infinispan.AdvancedCache;
+import org.infinispan.configuration.cache.ConfigurationBuilder;
+import org.infinispan.manager.DefaultCacheManager;
+import org.junit.*;
+
+/**
+ * @author Wolfram Huesken <wolfram.huesken@zalora.com>
+ */
+public class MemcachedOperationsTest {
+
+    private static final String MAX = "18446744073709551615";
+
+    private static DefaultCacheManager cacheManager;
+    private static AdvancedCache<Object, Object> cache;
+    private static ScheduledExecutorService scheduler;
+
+    private MemcachedOperations operations;
+
+    @BeforeClass
+    public static void startCache() {
+        cacheManager = new DefaultCacheManager();
+        cacheManager.defineConfiguration("memcached", new ConfigurationBuilder().build());
+        cache = cacheManager.<Object, Object>getCache("memcached").getAdvancedCache();
+        scheduler = Executors.newSingleThreadScheduledExecutor();
+    }
+
+    @AfterClass
+    public static void stopCache() {
+        scheduler.shutdownNow();
+        cacheManager.stop();
+    }
+
+    @Before
+    public void setUp() {
+        cache.clear();
+        operations = new MemcachedOperations(cache, null, scheduler, false);
+    }
+
+    @Test
+    public void incrWrapsAround() {
+        set("n", MAX);
+
+        MemcachedResponse response = arithmetic(Op.INCR, "n", 2);
+        assertEquals(Status.OK, response.getStatus());
+        assertEquals(1, response.getNumber());
+        assertEquals("1", get("n"));
+    }
+
+    @Test
+    public void incrIsUnsigned() {
+        set("n", "9223372036854775807");
+
+        MemcachedResponse response = arithmetic(Op.INCR, "n", 1);
+        assertEquals("9223372036854775808", Long.toUnsignedString(response.getNumber()));
+        assertEquals("9223372036854775808", get("n"));
+
+        assertEquals(MAX, Long.toUnsignedString(arithmetic(Op.INCR, "n", Long.MAX_VALUE).getNumber()));
+    }
+
+    @Test
+    public void decrStopsAtZero() {
+        set("n", "5");
+
+        assertEquals(2, arithmetic(Op.DECR, "n", 3).getNumber());
+        assertEquals(0, arithmetic(Op.DECR, "n", 3).getNumber());
+        assertEquals("0", get("n"));
+    }
+
+    @Test
+    public void decrComparesUnsigned() {
+        set("n", MAX);
+
+        // The delta is bigger than Long.MAX_VALUE, but still smaller than the value
+        MemcachedResponse response = arithmetic(Op.DECR, "n", -2L);
+        assertEquals(1, response.getNumber());
+
+        set("n", "1");
+        assertEquals(0, arithmetic(Op.DECR, "n", -1L).getNumber());
+    }
+
+    @Test
+    public void ignoresTrailingSpaces() {
+        set("n", "10  ");
+
+        assertEquals(11, arithmetic(Op.INCR, "n", 1).getNumber());
+    }
+
+    @Test
+    public void rejectsNonNumericValues() {
+        set("n", "ten");
+
+        assertEquals(Status.NON_NUMERIC, arithmetic(Op.INCR, "n", 1).getStatus());
+        assertEquals(Status.NON_NUMERIC, arithmetic(Op.DECR, "n", 1).getStatus());
+        assertEquals("ten", get("n"));
+    }
+
+    @Test
+    public void textMissIsNotFound() {
+        assertEquals(Status.NOT_FOUND, arithmetic(Op.INCR, "n", 1).getStatus());
+        assertNull(get("n"));
+    }
+
+    @Test
+    public void binaryMissStartsAtInitial() {
+        MemcachedCommand incr = command(Op.INCR, "n", 1);
+        incr.setBinary(true);
+        incr.setInitial(40);
+
+        MemcachedResponse response = operations.execute(incr);
+        assertEquals(Status.OK, response.getStatus());
+        assertEquals(40, response.getNumber());
+        assertEquals(41, operations.execute(incr).getNumber());
+
+        MemcachedCommand decr = command(Op.DECR, "m", 1);
+        decr.setBinary(true);
+        decr.setFailIfMissing(true);
+        assertEquals(Status.NOT_FOUND, operations.execute(decr).getStatus());
+    }
+
+    private MemcachedResponse arithmetic(Op op, String key, long delta) {
+        return operations.execute(command(op, key, delta));
+    }
+
+    private static MemcachedCommand command(Op op, String key, long delta) {
+        MemcachedCommand command = new MemcachedCommand(op);
+        command.setKey(key);
+        command.setDelta(delta);
+        return command;
+    }
+
+    private void set(String key, String value) {
+        MemcachedCommand set = new MemcachedCommand(Op.SET);
+        set.setKey(key);
+        set.setData(value.getBytes(StandardCharsets.US_ASCII));
+        assertEquals(Status.OK, operations.execute(set).getStatus());
+    }
+
+    private String get(String key) {
+        MemcachedCommand get = new MemcachedCommand(Op.GET);
+        get.setKey(key);
+
+        MemcachedResponse response = operations.execute(get);
+        if (response.getItems().isEmpty()) {
+            return null;
+        }
+
+        return new String(response.getItems().get(0).getData(), StandardCharsets.US_ASCII);
+    }
+
+}
@@ -0,0 +1,212 @@
+package com.zalora.aloha.memcached;
+
+import static org.junit.Assert.*;
+
+import com.zalora.aloha.memcached.MemcachedCommand.Op;
+import com.zalora.aloha.memcached.MemcachedResponse.Status;
+import io.netty.buffer.Unpooled;
+import io.netty.channel.embedded.EmbeddedChannel;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import org.junit.*;
+
+/**
+ * @author Wolfram Huesken <wolfram.huesken@zalora.com>
+ */
+public class TextProtocolDecoderTest {
+
+    private static final int MAX_ITEM_SIZE = 16;
+
+    private EmbeddedChannel channel;
+
+    @Before
+    public void setUp() {
+        channel = new EmbeddedChannel(new TextProtocolDecoder(MAX_ITEM_SIZE));
+    }
+
+    @After
+    public void tearDown() {
+        channel.finishAndReleaseAll();
+    }
+
+    @Test
+    public void decodesPipelinedCommands() {
+        write("get a b\r\nset k 3 60 5\r\nhello\r\ndelete k\r\nincr n 18446744073709551615\r\n");
+
+        MemcachedCommand get = read();
+        assertEquals(Op.GET, get.getOp());
+        assertEquals(Arrays.asList("a", "b"), get.getKeys());
+
+        MemcachedCommand set = read();
+        assertEquals(Op.SET, set.getOp());
+        assertEquals("k", set.getKey());
+        assertEquals(3, set.getFlags());
+        assertEquals(60, set.getExpire());
+        assertArrayEquals(bytes("hello"), set.getData());
+        assertFalse(set.isQuiet());
+
+        assertEquals(Op.DELETE, read().getOp());
+
+        MemcachedCommand incr = read();
+        assertEquals(Op.INCR, incr.getOp());
+        assertEquals(-1L, incr.getDelta());
+
+        assertNull(channel.readInbound());
+    }
+
+    @Test
+    public void waitsForSplitDataBlock() {
+        write("set k 0 0 11\r\nhel");
+        assertNull(channel.readInbound());
+
+        write("lo wor");
+        assertNull(channel.readInbound());
+
+        write("ld\r");
+        assertNull(channel.readInbound());
+
+        write("\nget k\r\n");
+
+        MemcachedCommand set = read();
+        assertEquals(Op.SET, set.getOp());
+        assertArrayEquals(bytes("hello world"), set.getData());
+        assertEquals(Op.GET, read().getOp());
+    }
+
+    @Test
+    public void waitsForSplitCommandLine() {
+        write("ge");
+        assertNull(channel.readInbound());
+
+        write("t k\n");
+        MemcachedCommand get = read();
+        assertEquals(Op.GET, get.getOp());
+        assertEquals("k", get.getKey());
+    }
+
+    @Test
+    public void rejectsBadDataChunk() {
+        write("set k 0 0 2\r\nabc\r\n");
+
+        MemcachedCommand error = read();
+        assertEquals(Op.ERROR, error.getOp());
+        assertEquals(Status.CLIENT_ERROR, error.getError());
+    }
+
+    @Test
+    public void discardsOversizedDataBlock() {
+        write("set big 0 0 20\r\n0123456789");
+
+        MemcachedCommand error = read();
+        assertEquals(Op.ERROR, error.getOp());
+        assertEquals(Status.TOO_LARGE, error.getError());
+        assertNull(channel.readInbound());
+
+        // Rest of the block arrives later and must not be taken for commands
+        write("0123456789\r\nget k\r\n");
+
+        MemcachedCommand get = read();
+        assertEquals(Op.GET, get.getOp());
+        assertEquals("k", get.getKey());
+    }
+
+    @Test
+    public void rejectsLongLines() {
+        char[] line = new char[4096];
+        Arrays.fill(line, 'x');
+        write(new String(line));
+
+        assertEquals(Status.CLIENT_ERROR, read().getError());
+
+        write("get k\r\n");
+        assertEquals(Op.GET, read().getOp());
+    }
+
+    @Test
+    public void rejectsLongKeys() {
+        char[] key = new char[TextProtocolDecoder.MAX_KEY_LENGTH + 1];
+        Arrays.fill(key, 'k');
+        write("get " + new String(key) + "\r\n");
+
+        assertEquals(Status.CLIENT_ERROR, read().getError());
+    }
+
+    @Test
+    public void decodesNoreply() {
+        write("set k 0 0 1 noreply\r\nx\r\ndelete k noreply\r\nincr k 1 noreply\r\ntouch k 10 noreply\r\n"
+            + "flush_all noreply\r\nflush_all 10 noreply\r\ndelete k\r\n");
+
+        for (Op op : Arrays.asList(Op.SET, Op.DELETE, Op.INCR, Op.TOUCH, Op.FLUSH)) {
+            MemcachedCommand command = read();
+            assertEquals(op, command.getOp());
+            assertTrue(op + " should be quiet", command.isQuiet());
+        }
+
+        MemcachedCommand flush = read();
+        assertTrue(flush.isQuiet());
+        assertEquals(10, flush.getExpire());
+
+        assertFalse(read().isQuiet());
+    }
+
+    @Test
+    public void noreplyIsNoKey() {
+        // A key called noreply is only taken as the flag if it's an extra token
+        write("delete noreply\r\n");
+
+        MemcachedCommand delete = read();
+        assertEquals("noreply", delete.getKey());
+        assertFalse(delete.isQuiet());
+    }
+
+    @Test
+    public void decodesCas() {
+        write("cas k 0 0 1 18446744073709551615 noreply\r\nx\r\n");
+
+        MemcachedCommand cas = read();
+        assertEquals(Op.CAS, cas.getOp());
+        assertEquals(-1L, cas.getCas());
+        assertTrue(cas.isQuiet());
+    }
+
+    @Test
+    public void decodesPatches() {
+        write("patch k 2 3\r\nabc\r\ncpatch k 1 2 3 noreply\r\nxyabc\r\n");
+
+        MemcachedCommand patch = read();
+        assertEquals(Op.PATCH, patch.getOp());
+        assertEquals(2, patch.getOffset());
+        assertArrayEquals(bytes("abc"), patch.getData());
+
+        MemcachedCommand cpatch = read();
+        assertEquals(Op.CPATCH, cpatch.getOp());
+        assertEquals(1, cpatch.getOffset());
+        assertEquals(2, cpatch.getCompareLength());
+        assertArrayEquals(bytes("xyabc"), cpatch.getData());
+        assertTrue(cpatch.isQuiet());
+    }
+
+    @Test
+    public void rejectsBadNumbers() {
+        write("set k x 0 1\r\nincr k -1\r\nfoo\r\n");
+
+        assertEquals(Status.CLIENT_ERROR, read().getError());
+        assertEquals(Status.CLIENT_ERROR, read().getError());
+        assertEquals(Status.UNKNOWN_COMMAND, read().getError());
+    }
+
+    private void write(String data) {
+        channel.writeInbound(Unpooled.copiedBuffer(data, StandardCharsets.UTF_8));
+    }
+
+    private MemcachedCommand read() {
+        MemcachedCommand command = channel.readInbound();
+        assertNotNull(command);
+        return command;
+    }
+
+    private static byte[] bytes(String value) {
+        return value.getBytes(StandardCharsets.UTF_8);
+    }
+
+}
@@ -0,0 +1,199 @@
+package com.zalora.aloha.persistence;
+
+import static org.junit.Assert.*;
+
+import java.util.*;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.AtomicInteger;
+import org.infinispan.persistence.spi.PersistenceException;
+import org.junit.*;
+
+/**
+ * @author Wolfram Huesken <wolfram.huesken@zalora.com>
+ */
+public class WriteBehindQueueTest {
+
+    /**
+     * Long enough to never flush by time, batches are written when full or on stop
+     */
+    private static final long NEVER = TimeUnit.HOURS.toMillis(1);
+
+    private final BlockingQueue<Batch> batches = new LinkedBlockingQueue<>();
+
+    private WriteBehindQueue<String, String> queue;
+
+    @After
+    public void tearDown() {
+        if (queue != null) {
+            queue.stop(5, TimeUnit.SECONDS);
+        }
+    }
+
+    @Test
+    public void coalescesRepeatedWrites() throws Exception {
+        queue = new WriteBehindQueue<>("test", this::record, 10, NEVER, 10, 0, TimeUnit.MILLISECONDS);
+
+        queue.write("k", "1");
+        queue.write("k", "2");
+        queue.write("k", "3");
+        queue.write("other", "x");
+        queue.write("gone", "y");
+        queue.delete("gone");
+
+        assertEquals(3, queue.getCoalesced());
+        assertEquals(3, queue.getPending());
+        assertEquals("3", queue.load("k", key -> "db"));
+        assertNull(queue.load("gone", key -> "db"));
+        assertEquals("db", queue.load("missing", key -> "db"));
+        assertTrue(batches.isEmpty());
+
+        queue.stop(5, TimeUnit.SECONDS);
+
+        Batch batch = batches.poll(5, TimeUnit.SECONDS);
+        assertNotNull(batch);
+        assertEquals(map("k", "3", "other", "x"), batch.upserts);
+        assertEquals(Collections.singleton("gone"), batch.deletes);
+        assertTrue(batches.isEmpty());
+
+        assertEquals(1, queue.getFlushes());
+        assertEquals(3, queue.getFlushedKeys());
+        assertEquals(0, queue.getPending());
+    }
+
+    @Test
+    public void flushesFullBatches() throws Exception {
+        queue = new WriteBehindQueue<>("test", this::record, 2, NEVER, 10, 0, TimeUnit.MILLISECONDS);
+
+        queue.write("a", "1");
+        queue.write("b", "2");
+
+        Batch batch = batches.poll(5, TimeUnit.SECONDS);
+        assertNotNull(batch);
+        assertEquals(map("a", "1", "b", "2"), batch.upserts);
+        assertTrue(batch.deletes.isEmpty());
+    }
+
+    @Test
+    public void retriesFailedBatches() throws Exception {
+        AtomicInteger calls = new AtomicInteger();
+        queue = new WriteBehindQueue<>("test", (upserts, deletes) -> {
+            if (calls.incrementAndGet() <= 2) {
+                throw new IllegalStateException("database is down");
+            }
+
+            record(upserts, deletes);
+        }, 10, 20, 10, 0, TimeUnit.MILLISECONDS);
+
+        queue.write("k", "1");
+
+        Batch batch = batches.poll(5, TimeUnit.SECONDS);
+        assertNotNull(batch);
+        assertEquals(map("k", "1"), batch.upserts);
+
+        // Counters are updated after the writer returns
+        queue.stop(5, TimeUnit.SECONDS);
+        assertEquals(3, calls.get());
+        assertEquals(2, queue.getFailures());
+        assertEquals(1, queue.getFlushedKeys());
+        assertEquals(0, queue.getPending());
+    }
+
+    @Test
+    public void retryKeepsNewerWrites() throws Exception {
+        CountDownLatch writing = new CountDownLatch(1);
+        CountDownLatch fail = new CountDownLatch(1);
+        AtomicInteger calls = new AtomicInteger();
+
+        queue = new WriteBehindQueue<>("test", (upserts, deletes) -> {
+            if (calls.incrementAndGet() == 1) {
+                writing.countDown();
+                await(fail);
+                throw new IllegalStateException("database is down");
+            }
+
+            record(upserts, deletes);
+        }, 10, 20, 10, 0, TimeUnit.MILLISECONDS);
+
+        queue.write("k", "1");
+        assertTrue(writing.await(5, TimeUnit.SECONDS));
+
+        // Still visible while its batch is written
+        assertEquals("1", queue.load("k", key -> "db"));
+
+        queue.write("k", "2");
+        assertEquals("2", queue.load("k", key -> "db"));
+        fail.countDown();
+
+        Batch batch = batches.poll(5, TimeUnit.SECONDS);
+        assertNotNull(batch);
+        assertEquals(map("k", "2"), batch.upserts);
+        assertEquals(1, queue.getFailures());
+
+        // Permits of the failed batch are all returned
+        queue.stop(5, TimeUnit.SECONDS);
+        assertTrue(batches.isEmpty());
+        assertEquals(0, queue.getPending());
+    }
+
+    @Test
+    public void rejectsWritesWhileFull() throws Exception {
+        CountDownLatch writing = new CountDownLatch(1);
+        CountDownLatch done = new CountDownLatch(1);
+
+        queue = new WriteBehindQueue<>("test", (upserts, deletes) -> {
+            writing.countDown();
+            await(done);
+            record(upserts, deletes);
+        }, 2, NEVER, 2, 100, TimeUnit.MILLISECONDS);
+
+        queue.write("a", "1");
+        queue.write("b", "2");
+        assertTrue(writing.await(5, TimeUnit.SECONDS));
+
+        try {
+            queue.write("c", "3");
+            fail("Write into a full queue must fail");
+        } catch (PersistenceException ex) {
+            assertEquals(1, queue.getBlocked());
+            assertEquals(1, queue.getRejected());
+        }
+
+        done.countDown();
+        assertNotNull(batches.poll(5, TimeUnit.SECONDS));
+
+        queue.write("c", "3");
+        assertEquals("3", queue.load("c", key -> "db"));
+    }
+
+    private void record(Map<String, String> upserts, Set<String> deletes) {
+        batches.add(new Batch(upserts, deletes));
+    }
+
+    private static void await(CountDownLatch latch) {
+        try {
+            latch.await(5, TimeUnit.SECONDS);
+        } catch (InterruptedException ex) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    private static Map<String, String> map(String... keysAndValues) {
+        Map<String, String> map = new HashMap<>();
+        for (int i = 0; i < keysAndValues.length; i += 2) {
+            map.put(keysAndValues[i], keysAndValues[i + 1]);
+        }
+
+        return map;
+    }
+
+    private static class Batch {
+        private final Map<String, String> upserts;
+        private final Set<String> deletes;
+
+        private Batch(Map<String, String> upserts, Set<String> deletes) {
+            this.upserts = upserts;
+            this.deletes = deletes;
+        }
+    }
+
+}